@@ -1,7 +1,7 @@
 import React, { useState, useRef, useEffect } from 'react';
 import { Capacitor } from '@capacitor/core';
 import { LocalNotifications } from '@capacitor/local-notifications';
-import { generateTopicBatch, generateStoryTitle, OUTRO_SIGNATURE, streamStoryWithControls, clearGenerationHistory, completeStoryWithOutro, hasOutroSignature } from './services/deepseekService';
+import { generateTopicBatch, generateStoryTitle, OUTRO_SIGNATURE, streamStoryWithControls, clearGenerationHistory, completeStoryWithOutro, hasOutroSignature, preconnectStoryApi } from './services/deepseekService';
 import { StoryStatus, GenerationState, GENRE_PROMPTS, Language, StoryRecord } from './types';
 import StoryDisplay from './components/StoryDisplay';
 import TTSPlayer, { TTSPlayerHandle } from './components/TTSPlayer';
@@ -519,6 +519,7 @@ const App: React.FC = () => {
     BackgroundStory.isSupported()
       .then(({ supported }) => setBackgroundSupported(Boolean(supported)))
       .catch(() => setBackgroundSupported(true));
+    preconnectStoryApi();
   }, [isNativeAndroid]);
 
   const updatePersonalization = (next: Partial<StoryPersonalization>) => {
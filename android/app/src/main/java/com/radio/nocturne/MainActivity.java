@@ -4,6 +4,7 @@ import android.os.Bundle;
 import com.getcapacitor.BridgeActivity;
 import com.radio.nocturne.background.BackgroundRunnerPlugin;
 import com.radio.nocturne.background.BackgroundStoryPlugin;
+import com.radio.nocturne.diagnostics.DiagnosticsPlugin;
 import com.radio.nocturne.tts.BackgroundTtsPlugin;
 
 public class MainActivity extends BridgeActivity {
@@ -12,6 +13,7 @@ public class MainActivity extends BridgeActivity {
         registerPlugin(BackgroundTtsPlugin.class);
         registerPlugin(BackgroundRunnerPlugin.class);
         registerPlugin(BackgroundStoryPlugin.class);
+        registerPlugin(DiagnosticsPlugin.class);
         super.onCreate(savedInstanceState);
     }
 }
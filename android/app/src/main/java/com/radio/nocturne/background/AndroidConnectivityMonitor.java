@@ -0,0 +1,87 @@
+package com.radio.nocturne.background;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+
+/**
+ * Tracks the default network through a ConnectivityManager callback. If the
+ * callback cannot be registered, the device is assumed to be online.
+ */
+final class AndroidConnectivityMonitor implements ConnectivityMonitor {
+    private final ConnectivityManager manager;
+    private final Object lock = new Object();
+    private boolean online = true;
+    private boolean registered;
+
+    private final ConnectivityManager.NetworkCallback callback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onCapabilitiesChanged(Network network, NetworkCapabilities capabilities) {
+            setOnline(capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET));
+        }
+
+        @Override
+        public void onAvailable(Network network) {
+            setOnline(true);
+        }
+
+        @Override
+        public void onLost(Network network) {
+            setOnline(false);
+        }
+    };
+
+    AndroidConnectivityMonitor(Context context) {
+        manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    void start() {
+        if (manager == null || registered) return;
+        try {
+            manager.registerDefaultNetworkCallback(callback);
+            registered = true;
+            NetworkCapabilities capabilities = manager.getNetworkCapabilities(manager.getActiveNetwork());
+            setOnline(capabilities != null && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET));
+        } catch (RuntimeException e) {
+            setOnline(true);
+        }
+    }
+
+    void stop() {
+        if (manager == null || !registered) return;
+        try {
+            manager.unregisterNetworkCallback(callback);
+        } catch (RuntimeException ignored) {
+        }
+        registered = false;
+        setOnline(true);
+    }
+
+    private void setOnline(boolean value) {
+        synchronized (lock) {
+            online = value;
+            lock.notifyAll();
+        }
+    }
+
+    @Override
+    public boolean isOnline() {
+        synchronized (lock) {
+            return online;
+        }
+    }
+
+    @Override
+    public boolean awaitOnline(long timeoutMs) throws InterruptedException {
+        long deadline = System.nanoTime() / 1_000_000L + timeoutMs;
+        synchronized (lock) {
+            while (!online) {
+                long remaining = deadline - System.nanoTime() / 1_000_000L;
+                if (remaining <= 0) return false;
+                lock.wait(remaining);
+            }
+            return true;
+        }
+    }
+}
@@ -1,22 +1,33 @@
 package com.radio.nocturne.background;
 
-import android.app.Notification;
-import android.app.NotificationChannel;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.app.Service;
 import android.content.Intent;
-import android.os.Build;
 import android.os.IBinder;
 import android.os.PowerManager;
-import androidx.core.app.NotificationCompat;
-import com.radio.nocturne.MainActivity;
+import android.os.SystemClock;
+import com.radio.nocturne.diagnostics.DiagnosticsPlugin;
+import com.radio.nocturne.diagnostics.FlightRecorder;
+import com.radio.nocturne.notification.ForegroundNotifier;
 
 public class BackgroundRunnerService extends Service {
-    private static final String CHANNEL_ID = "radio_nocturne_generation";
+    private static final ForegroundNotifier.Channel CHANNEL = new ForegroundNotifier.Channel(
+        "radio_nocturne_generation",
+        "Radio Nocturne Generation",
+        "Background story generation"
+    );
     private static final int NOTIFICATION_ID = 3104;
     public static final String EXTRA_TITLE = "title";
+    private ForegroundNotifier notifier;
     private PowerManager.WakeLock wakeLock;
+    private long wakeLockAcquiredAt;
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        FlightRecorder.init(DiagnosticsPlugin.snapshotDirectory(this));
+        FlightRecorder.record(FlightRecorder.SERVICE_START, FlightRecorder.OWNER_RUNNER);
+        notifier = new ForegroundNotifier(this, NOTIFICATION_ID, CHANNEL, android.R.drawable.ic_menu_edit, "Đang tạo truyện...", 0);
+    }
 
     @Override
     public IBinder onBind(Intent intent) {
@@ -26,54 +37,19 @@ public class BackgroundRunnerService extends Service {
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         String title = intent != null ? intent.getStringExtra(EXTRA_TITLE) : null;
-        startForeground(NOTIFICATION_ID, buildNotification(title));
+        notifier.startForeground(this, title);
         acquireWakeLock();
         return START_STICKY;
     }
 
     @Override
     public void onDestroy() {
+        FlightRecorder.record(FlightRecorder.SERVICE_STOP, FlightRecorder.OWNER_RUNNER);
         releaseWakeLock();
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            stopForeground(STOP_FOREGROUND_REMOVE);
-        } else {
-            stopForeground(true);
-        }
+        notifier.stopForeground(this);
         super.onDestroy();
     }
 
-    private Notification buildNotification(String title) {
-        NotificationManager manager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
-        if (manager != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            NotificationChannel channel = new NotificationChannel(
-                CHANNEL_ID,
-                "Radio Nocturne Generation",
-                NotificationManager.IMPORTANCE_LOW
-            );
-            channel.setDescription("Background story generation");
-            manager.createNotificationChannel(channel);
-        }
-
-        Intent intent = new Intent(this, MainActivity.class);
-        intent.setAction(Intent.ACTION_MAIN);
-        intent.addCategory(Intent.CATEGORY_LAUNCHER);
-
-        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            flags |= PendingIntent.FLAG_IMMUTABLE;
-        }
-
-        PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, intent, flags);
-
-        return new NotificationCompat.Builder(this, CHANNEL_ID)
-            .setContentTitle("Radio Nocturne")
-            .setContentText(title == null || title.isEmpty() ? "Đang tạo truyện..." : title)
-            .setSmallIcon(android.R.drawable.ic_menu_edit)
-            .setContentIntent(pendingIntent)
-            .setOngoing(true)
-            .build();
-    }
-
     private void acquireWakeLock() {
         if (wakeLock != null && wakeLock.isHeld()) return;
         PowerManager pm = (PowerManager) getSystemService(POWER_SERVICE);
@@ -81,11 +57,19 @@ public class BackgroundRunnerService extends Service {
         wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "RadioNocturne:Generation");
         wakeLock.setReferenceCounted(false);
         wakeLock.acquire();
+        wakeLockAcquiredAt = SystemClock.elapsedRealtime();
+        FlightRecorder.record(FlightRecorder.WAKELOCK_ACQUIRE, FlightRecorder.OWNER_RUNNER);
     }
 
     private void releaseWakeLock() {
         if (wakeLock != null && wakeLock.isHeld()) {
             wakeLock.release();
+            FlightRecorder.record(
+                FlightRecorder.WAKELOCK_RELEASE,
+                FlightRecorder.OWNER_RUNNER,
+                SystemClock.elapsedRealtime() - wakeLockAcquiredAt,
+                0
+            );
         }
         wakeLock = null;
     }
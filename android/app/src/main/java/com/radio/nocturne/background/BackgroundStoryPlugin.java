@@ -7,18 +7,34 @@ import android.content.ServiceConnection;
 import android.os.IBinder;
 import android.util.Log;
 import androidx.core.content.ContextCompat;
+import com.getcapacitor.JSArray;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 @CapacitorPlugin(name = "BackgroundStory")
-public class BackgroundStoryPlugin extends Plugin implements BackgroundStoryService.StoryListener {
+public class BackgroundStoryPlugin extends Plugin
+    implements BackgroundStoryService.StoryListener, StationScheduler.Listener {
     private static final String TAG = "BackgroundStory";
     private BackgroundStoryService service;
     private boolean bound = false;
-    private BackgroundStoryService.GenerationConfig pendingConfig;
+
+    private interface ServiceAction {
+        void run(BackgroundStoryService service);
+    }
+
+    // Runs once the service is bound; a later start replaces an earlier one.
+    private ServiceAction pendingAction;
+    // Start and stop reach the service on this thread, in call order, so the bridge never waits on the service.
+    private final ExecutorService serviceCalls = Executors.newSingleThreadExecutor();
+    private final GenerationJournal.SecretCodec secretCodec = new KeystoreSecretCodec();
 
     private final ServiceConnection connection = new ServiceConnection() {
         @Override
@@ -29,10 +45,11 @@ public class BackgroundStoryPlugin extends Plugin implements BackgroundStoryServ
             bound = true;
             if (service != null) {
                 service.registerListener(BackgroundStoryPlugin.this);
-                if (pendingConfig != null) {
-                    Log.d(TAG, "Starting pending generation");
-                    service.startGeneration(pendingConfig);
-                    pendingConfig = null;
+                service.setStationListener(BackgroundStoryPlugin.this);
+                if (pendingAction != null) {
+                    Log.d(TAG, "Running pending action");
+                    dispatch(service, pendingAction);
+                    pendingAction = null;
                 }
             }
         }
@@ -42,17 +59,28 @@ public class BackgroundStoryPlugin extends Plugin implements BackgroundStoryServ
             Log.d(TAG, "Service disconnected");
             if (service != null) {
                 service.unregisterListener();
+                service.setStationListener(null);
             }
             service = null;
             bound = false;
         }
     };
 
+    @Override
+    public void load() {
+        // Reattach to a story the service resumed on its own after a restart.
+        Context context = getContext();
+        if (context != null) {
+            bound = context.bindService(new Intent(context, BackgroundStoryService.class), connection, 0);
+        }
+    }
+
     @Override
     protected void handleOnDestroy() {
         Log.d(TAG, "Plugin destroy");
         if (service != null) {
             service.unregisterListener();
+            service.setStationListener(null);
         }
         if (bound) {
             Context context = getContext();
@@ -62,6 +90,7 @@ public class BackgroundStoryPlugin extends Plugin implements BackgroundStoryServ
             bound = false;
         }
         service = null;
+        serviceCalls.shutdown();
         super.handleOnDestroy();
     }
 
@@ -75,37 +104,262 @@ public class BackgroundStoryPlugin extends Plugin implements BackgroundStoryServ
     @PluginMethod
     public void start(PluginCall call) {
         BackgroundStoryService.GenerationConfig config = buildConfig(call);
-        if (config.apiKey == null || config.apiKey.trim().isEmpty()) {
+        if (missingApiKey(config)) {
             call.reject("API key is missing");
             return;
         }
+        startGeneration(config);
+        call.resolve();
+    }
+
+    private void startGeneration(BackgroundStoryService.GenerationConfig config) {
+        withService(target -> target.startGeneration(config));
+    }
 
+    private void withService(ServiceAction action) {
         if (bound && service != null) {
-            Log.d(TAG, "Service already bound, starting generation");
-            service.startGeneration(config);
-            pendingConfig = null;
+            Log.d(TAG, "Service already bound, running action");
+            dispatch(service, action);
+            pendingAction = null;
         } else {
-            Log.d(TAG, "Service not bound, queueing config and binding");
-            pendingConfig = config;
+            Log.d(TAG, "Service not bound, queueing action and binding");
+            pendingAction = action;
             ensureService();
         }
+    }
+
+    private void dispatch(BackgroundStoryService target, ServiceAction action) {
+        serviceCalls.execute(() -> action.run(target));
+    }
+
+    @PluginMethod
+    public void preconnect(PluginCall call) {
+        String baseUrl = call.getString("baseUrl");
+        if (baseUrl == null || baseUrl.trim().isEmpty()) {
+            call.reject("baseUrl is missing");
+            return;
+        }
+        HttpClientHolder.preconnect(baseUrl.trim());
         call.resolve();
     }
 
+    @PluginMethod
+    public void getConnectionStats(PluginCall call) {
+        HttpClientHolder.Stats stats = HttpClientHolder.stats();
+        JSObject result = new JSObject();
+        result.put("calls", stats.calls);
+        result.put("reusedConnections", stats.reusedConnections);
+        result.put("newConnections", stats.newConnections);
+        result.put("averageDnsMs", stats.averageDnsMs);
+        result.put("averageConnectMs", stats.averageConnectMs);
+        result.put("averageTlsMs", stats.averageTlsMs);
+        result.put("averageFirstTokenReusedMs", stats.averageFirstTokenReusedMs);
+        result.put("averageFirstTokenNewMs", stats.averageFirstTokenNewMs);
+        result.put("preconnects", stats.preconnects);
+        call.resolve(result);
+    }
+
     @PluginMethod
     public void stop(PluginCall call) {
         if (service != null) {
-            service.cancel();
+            dispatch(service, BackgroundStoryService::cancel);
+        } else {
+            // A start still waiting for the service to bind is cancelled before it runs.
+            pendingAction = null;
+        }
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void startStation(PluginCall call) {
+        BackgroundStoryService.GenerationConfig template = buildConfig(call);
+        if (missingApiKey(template)) {
+            call.reject("API key is missing");
+            return;
         }
+        String[] topics = readStringArray(call, "topics");
+        Integer capacity = call.getInt("capacity");
+        int queueCapacity = capacity != null ? capacity : 2;
+        Integer lowWater = call.getInt("lowWater");
+        int queueLowWater = lowWater != null ? lowWater : 1;
+        withService(target -> target.startStation(template, topics, queueCapacity, queueLowWater));
         call.resolve();
     }
 
+    @PluginMethod
+    public void stopStation(PluginCall call) {
+        if (service != null) {
+            dispatch(service, BackgroundStoryService::stopStation);
+        }
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void getStationStatus(PluginCall call) {
+        call.resolve(service != null ? toJson(service.getStationStatus()) : inactiveStation());
+    }
+
+    @PluginMethod
+    public void takeStationStory(PluginCall call) {
+        JSObject result = new JSObject();
+        StationScheduler.ReadyStory story = service != null ? service.takeStationStory() : null;
+        if (story != null) {
+            JSObject item = new JSObject();
+            item.put("id", story.id);
+            item.put("topic", story.topic);
+            item.put("text", story.text);
+            item.put("words", story.words);
+            item.put("generationMs", story.generationMs);
+            result.put("story", item);
+        } else {
+            result.put("story", JSObject.NULL);
+        }
+        result.put("status", service != null ? toJson(service.getStationStatus()) : inactiveStation());
+        call.resolve(result);
+    }
+
+    private static JSObject toJson(StationScheduler.Status status) {
+        JSObject result = new JSObject();
+        result.put("active", status.active);
+        result.put("depth", status.depth);
+        result.put("capacity", status.capacity);
+        result.put("lowWater", status.lowWater);
+        result.put("generating", status.generating);
+        result.put("currentWords", status.currentWords);
+        result.put("etaMs", status.etaMs);
+        result.put("averageGenerationMs", status.averageGenerationMs);
+        result.put("lastError", status.lastError);
+        return result;
+    }
+
+    private static JSObject inactiveStation() {
+        JSObject result = new JSObject();
+        result.put("active", false);
+        result.put("depth", 0);
+        result.put("generating", false);
+        result.put("etaMs", -1);
+        return result;
+    }
+
+    @PluginMethod
+    public void listInterrupted(PluginCall call) {
+        Context context = getContext();
+        JSArray jobs = new JSArray();
+        if (context != null) {
+            File directory = BackgroundStoryService.journalDirectory(context);
+            List<GenerationJournal.Interrupted> interrupted = GenerationJournal.list(directory, secretCodec);
+            for (GenerationJournal.Interrupted job : interrupted) {
+                JSObject item = new JSObject();
+                item.put("jobId", job.jobId);
+                item.put("topic", job.config.topic);
+                item.put("words", StreamingWordCounter.countWords(job.text));
+                item.put("newWords", StreamingWordCounter.countWords(job.text.substring(job.newTextStart)));
+                item.put("passes", job.passes);
+                item.put("updatedAt", job.updatedAt);
+                item.put("stopped", job.stopped);
+                item.put("reason", job.stopReason);
+                item.put("hasApiKey", job.hasApiKey());
+                jobs.put(item);
+            }
+        }
+        JSObject result = new JSObject();
+        result.put("jobs", jobs);
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void resumeInterrupted(PluginCall call) {
+        Context context = getContext();
+        String jobId = call.getString("jobId");
+        GenerationJournal.Interrupted job = context == null
+            ? null
+            : GenerationJournal.find(BackgroundStoryService.journalDirectory(context), jobId, secretCodec);
+        if (job == null) {
+            call.reject("Interrupted story not found");
+            return;
+        }
+        BackgroundStoryService.GenerationConfig config = job.resumeConfig();
+        String apiKey = call.getString("apiKey");
+        if (apiKey != null && !apiKey.trim().isEmpty()) {
+            config.apiKey = apiKey;
+        }
+        if (missingApiKey(config)) {
+            call.reject("API key is missing");
+            return;
+        }
+        startGeneration(config);
+        JSObject result = new JSObject();
+        result.put("jobId", job.jobId);
+        result.put("text", job.text);
+        result.put("newTextStart", job.newTextStart);
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void discardInterrupted(PluginCall call) {
+        Context context = getContext();
+        String jobId = call.getString("jobId");
+        boolean discarded = context != null
+            && GenerationJournal.discard(BackgroundStoryService.journalDirectory(context), jobId);
+        JSObject result = new JSObject();
+        result.put("discarded", discarded);
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void getMetrics(PluginCall call) {
+        JSObject result = new JSObject();
+        result.put("running", service != null && service.isRunning());
+        result.put("passes", toJson(service != null ? service.getPassMetrics() : Collections.<PassMetrics>emptyList()));
+        call.resolve(result);
+    }
+
+    private static JSArray toJson(List<PassMetrics> passes) {
+        JSArray array = new JSArray();
+        for (PassMetrics pass : passes) {
+            JSObject item = new JSObject();
+            item.put("passIndex", pass.passIndex);
+            item.put("attempt", pass.attempt);
+            item.put("emergency", pass.emergency);
+            item.put("finalizing", pass.finalizing);
+            item.put("model", pass.model);
+            item.put("maxTokens", pass.maxTokens);
+            item.put("requestSentAt", pass.requestSentAt);
+            item.put("httpStatus", pass.httpStatus);
+            item.put("connectionReused", pass.connectionReused);
+            item.put("connectionSetupMs", pass.connectionSetupMs);
+            item.put("timeToFirstByteMs", pass.timeToFirstByteMs);
+            item.put("timeToFirstTokenMs", pass.timeToFirstTokenMs);
+            item.put("durationMs", pass.durationMs);
+            item.put("maxGapMs", pass.maxGapMs);
+            item.put("deltas", pass.deltas);
+            item.put("chars", pass.chars);
+            item.put("charsPerSecond", pass.charsPerSecond());
+            item.put("finishReason", pass.finishReason);
+            item.put("endReason", pass.endReason);
+            item.put("error", pass.error);
+            item.put("guard", pass.guard);
+            item.put("promptTokens", pass.promptTokens);
+            item.put("completionTokens", pass.completionTokens);
+            item.put("promptCacheHitTokens", pass.promptCacheHitTokens);
+            item.put("promptCacheMissTokens", pass.promptCacheMissTokens);
+            item.put("reasoningTokens", pass.reasoningTokens);
+            item.put("timeToFirstReasoningMs", pass.timeToFirstReasoningMs);
+            item.put("reasoningMs", pass.reasoningMs());
+            item.put("reasoningDeltas", pass.reasoningDeltas);
+            item.put("reasoningChars", pass.reasoningChars);
+            array.put(item);
+        }
+        return array;
+    }
+
     @PluginMethod
     public void getState(PluginCall call) {
         JSObject result = new JSObject();
         if (service != null) {
             result.put("running", service.isRunning());
             result.put("text", service.getCurrentFullText());
+            result.put("jobId", service.getActiveJobId());
         } else {
             result.put("running", false);
             result.put("text", "");
@@ -159,12 +413,66 @@ public class BackgroundStoryPlugin extends Plugin implements BackgroundStoryServ
         Integer storyTimeoutMs = call.getInt("storyTimeoutMs");
         config.storyTimeoutMs = storyTimeoutMs != null ? storyTimeoutMs : 12 * 60 * 1000;
         
+        Integer storyIdleTimeoutMs = call.getInt("storyIdleTimeoutMs");
+        config.storyIdleTimeoutMs = storyIdleTimeoutMs != null ? storyIdleTimeoutMs : 90 * 1000;
+        
+        Integer storyTotalTimeoutMs = call.getInt("storyTotalTimeoutMs");
+        config.storyTotalTimeoutMs = storyTotalTimeoutMs != null ? storyTotalTimeoutMs : 60 * 60 * 1000;
+        
         Integer storyContextWords = call.getInt("storyContextWords");
         config.storyContextWords = storyContextWords != null ? storyContextWords : 320;
+
+        String storyContextBoundary = call.getString("storyContextBoundary", "none");
+        if ("paragraph".equals(storyContextBoundary)) {
+            config.storyContextBoundary = StoryBuffer.BOUNDARY_PARAGRAPH;
+        } else if ("sentence".equals(storyContextBoundary)) {
+            config.storyContextBoundary = StoryBuffer.BOUNDARY_SENTENCE;
+        } else {
+            config.storyContextBoundary = StoryBuffer.BOUNDARY_NONE;
+        }
         
         Integer storyMaxPasses = call.getInt("storyMaxPasses");
         config.storyMaxPasses = storyMaxPasses != null ? storyMaxPasses : 12;
         
+        config.storyPipeline = call.getString("storyPipeline", StoryGenerator.PIPELINE_SEQUENTIAL);
+        Integer storyChapters = call.getInt("storyChapters");
+        config.storyChapters = storyChapters != null ? storyChapters : 4;
+        Integer storyParallelism = call.getInt("storyParallelism");
+        config.storyParallelism = storyParallelism != null ? storyParallelism : 2;
+        
+        config.storyFastModel = call.getString("storyFastModel", "");
+        Integer storyReasonerBudgetMs = call.getInt("storyReasonerBudgetMs");
+        config.storyReasonerBudgetMs = storyReasonerBudgetMs != null ? storyReasonerBudgetMs : 0;
+        Integer reasoningEventMs = call.getInt("reasoningEventMs");
+        config.reasoningEventMs = reasoningEventMs != null ? reasoningEventMs : 1000;
+        
+        config.storyAdaptiveBudget = Boolean.TRUE.equals(call.getBoolean("storyAdaptiveBudget", true));
+        Integer storyFastStartWords = call.getInt("storyFastStartWords");
+        config.storyFastStartWords = storyFastStartWords != null ? storyFastStartWords : 0;
+        
+        config.storyBackend = call.getString("storyBackend", StoryBackend.DEEPSEEK);
+        Integer storyStubTokensPerSecond = call.getInt("storyStubTokensPerSecond");
+        config.storyStubTokensPerSecond = storyStubTokensPerSecond != null ? storyStubTokensPerSecond : 40;
+        config.storyDegenerationGuard = Boolean.TRUE.equals(call.getBoolean("storyDegenerationGuard", true));
+        
+        Integer chunkFlushMs = call.getInt("chunkFlushMs");
+        config.chunkFlushMs = chunkFlushMs != null ? chunkFlushMs : 80;
+
+        Integer chunkFlushChars = call.getInt("chunkFlushChars");
+        config.chunkFlushChars = chunkFlushChars != null ? chunkFlushChars : 512;
+
+        Integer retryMaxAttempts = call.getInt("retryMaxAttempts");
+        config.retryMaxAttempts = retryMaxAttempts != null ? retryMaxAttempts : 4;
+
+        Integer retryBaseDelayMs = call.getInt("retryBaseDelayMs");
+        config.retryBaseDelayMs = retryBaseDelayMs != null ? retryBaseDelayMs : 1000;
+
+        Integer retryMaxDelayMs = call.getInt("retryMaxDelayMs");
+        config.retryMaxDelayMs = retryMaxDelayMs != null ? retryMaxDelayMs : 30000;
+
+        Integer offlineWaitMs = call.getInt("offlineWaitMs");
+        config.offlineWaitMs = offlineWaitMs != null ? offlineWaitMs : 10 * 60 * 1000;
+        
         Integer horrorLevel = call.getInt("horrorLevel");
         config.horrorLevel = horrorLevel != null ? horrorLevel : 50;
         
@@ -180,28 +488,98 @@ public class BackgroundStoryPlugin extends Plugin implements BackgroundStoryServ
         config.storyKeyMotif = call.getString("storyKeyMotif", "");
         config.storyIntroMood = call.getString("storyIntroMood", "");
         config.outroSignature = call.getString("outroSignature", "");
+        config.useStopSequence = Boolean.TRUE.equals(call.getBoolean("useStopSequence", false));
         config.language = call.getString("language", "vi");
+        config.endingApproachKeywords = readStringArray(call, "endingApproachKeywords");
+        config.endingHostNames = readStringArray(call, "endingHostNames");
+        config.endingStationNames = readStringArray(call, "endingStationNames");
+        config.endingClosingSignals = readStringArray(call, "endingClosingSignals");
         config.topic = call.getString("topic", "");
         config.existingText = call.getString("existingText", "");
         
         return config;
     }
 
+    private static String[] readStringArray(PluginCall call, String key) {
+        JSArray array = call.getArray(key);
+        if (array == null || array.length() == 0) return null;
+        String[] values = new String[array.length()];
+        for (int i = 0; i < array.length(); i++) {
+            values[i] = array.optString(i, "");
+        }
+        return values;
+    }
+
+    /** The offline stub is the only backend that runs without a key. */
+    private static boolean missingApiKey(BackgroundStoryService.GenerationConfig config) {
+        if (StoryBackend.OFFLINE.equals(config.storyBackend)) return false;
+        return config.apiKey == null || config.apiKey.trim().isEmpty();
+    }
+
     @Override
-    public void onChunk(String text) {
+    public void onChunk(String text, int offset) {
         JSObject data = new JSObject();
         data.put("text", text);
+        data.put("offset", offset);
         notifyListeners("storyChunk", data);
     }
 
     @Override
-    public void onDone(String fullText, String newText) {
+    public void onDone(String fullText, String newText, TokenUsage usage, List<PassMetrics> passes) {
         JSObject data = new JSObject();
         data.put("text", fullText);
         data.put("newText", newText);
+        if (usage != null) {
+            JSObject tokens = new JSObject();
+            tokens.put("promptTokens", usage.promptTokens);
+            tokens.put("completionTokens", usage.completionTokens);
+            tokens.put("promptCacheHitTokens", usage.promptCacheHitTokens);
+            tokens.put("promptCacheMissTokens", usage.promptCacheMissTokens);
+            tokens.put("reasoningTokens", usage.reasoningTokens);
+            tokens.put("cacheHitRatio", usage.cacheHitRatio());
+            tokens.put("passes", usage.passes);
+            data.put("usage", tokens);
+        }
+        if (passes != null) {
+            data.put("passes", toJson(passes));
+        }
         notifyListeners("storyDone", data);
     }
 
+    @Override
+    public void onRetry(int attempt, long delayMs, String reason, boolean offline) {
+        JSObject data = new JSObject();
+        data.put("attempt", attempt);
+        data.put("delayMs", delayMs);
+        data.put("reason", reason);
+        data.put("offline", offline);
+        notifyListeners("storyRetry", data);
+    }
+
+    @Override
+    public void onStalled(int passIndex, String reason, long idleMs, boolean willRetry) {
+        JSObject data = new JSObject();
+        data.put("passIndex", passIndex);
+        data.put("reason", reason);
+        data.put("idleMs", idleMs);
+        data.put("willRetry", willRetry);
+        notifyListeners("storyStalled", data);
+    }
+
+    @Override
+    public void onReasoning(int passIndex, String text, int totalChars) {
+        JSObject data = new JSObject();
+        data.put("passIndex", passIndex);
+        data.put("text", text);
+        data.put("totalChars", totalChars);
+        notifyListeners("storyReasoning", data);
+    }
+
+    @Override
+    public void onStationUpdate(StationScheduler.Status status) {
+        notifyListeners("stationUpdate", toJson(status));
+    }
+
     @Override
     public void onError(String message, boolean aborted) {
         JSObject data = new JSObject();
@@ -0,0 +1,191 @@
+package com.radio.nocturne.background;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Sizes max_tokens for each pass of a sequential story and projects where
+ * the story will end. Words are converted to tokens with a tokens-per-word
+ * ratio learned from the usage event of every finished pass, kept per
+ * language and model for the life of the process, so the second story
+ * already starts from measured numbers. Reasoning models also get an
+ * allowance for the thinking tokens max_tokens has to cover; until the
+ * first usage event of a reasoner comes in, that allowance is a prior
+ * large enough for a typical thinking phase.
+ *
+ * A continue pass may write up to the target minus a reserve for the ending;
+ * the finalize pass gets the rest with headroom. The story switches to
+ * finalize once the words still missing fit into one typical pass of this
+ * story, so a pass no longer overshoots storyTargetWords * 1.2 and has to
+ * be followed by an emergency outro.
+ *
+ * Used from the generation worker thread; the shared ratios are locked.
+ */
+final class BudgetPlanner {
+    static final int PASS_FAST_START = 0;
+    static final int PASS_CONTINUE = 1;
+    static final int PASS_FINALIZE = 2;
+    static final int PASS_EMERGENCY = 3;
+
+    private static final double PRIOR_VI = 1.9;
+    private static final double PRIOR_OTHER = 1.4;
+    // deepseek-reasoner thinks for one to three thousand tokens before a story pass.
+    static final int PRIOR_REASONING_TOKENS = 2048;
+    private static final double MIN_RATIO = 0.5;
+    private static final double MAX_RATIO = 6.0;
+    private static final double ALPHA = 0.3;
+    // Slack on top of the word budget so a pass is rarely cut mid-sentence.
+    private static final double HEADROOM = 1.15;
+    private static final double FINALIZE_HEADROOM = 1.5;
+    private static final int MIN_TOKENS = 256;
+    private static final int MIN_PASS_WORDS = 200;
+    private static final int MIN_RESERVE_WORDS = 400;
+    private static final int EMERGENCY_WORDS = 400;
+    // Passes shorter than this say more about the prompt than about the tokenizer.
+    private static final int MIN_SAMPLE_WORDS = 20;
+
+    /** Learned numbers for one language and model. */
+    private static final class Ratio {
+        double tokensPerWord;
+        double reasoningTokens;
+        int samples;
+    }
+
+    private static final Map<String, Ratio> RATIOS = new HashMap<>();
+
+    private final BackgroundStoryService.GenerationConfig config;
+    private int passWords;
+    private int passCount;
+
+    BudgetPlanner(BackgroundStoryService.GenerationConfig config) {
+        this.config = config;
+    }
+
+    boolean adaptive() {
+        return config.storyAdaptiveBudget;
+    }
+
+    int fastStartWords() {
+        return Math.max(0, config.storyFastStartWords);
+    }
+
+    /** Words the finalize pass is given at the least; also what a continue pass leaves for it. */
+    int reserveWords() {
+        return Math.max(MIN_RESERVE_WORDS, config.storyTargetWords / 8);
+    }
+
+    /**
+     * max_tokens for the next pass of model at words. Without the adaptive
+     * budget only the fast-start pass is sized; the others send maxTokens.
+     */
+    int maxTokens(String model, int words, int kind) {
+        int ceiling = config.maxTokens > 0 ? config.maxTokens : Integer.MAX_VALUE;
+        if (kind != PASS_FAST_START && !adaptive()) return config.maxTokens;
+        double budgetWords;
+        double headroom = HEADROOM;
+        int remaining = Math.max(0, config.storyTargetWords - words);
+        switch (kind) {
+            case PASS_FAST_START:
+                budgetWords = fastStartWords();
+                break;
+            case PASS_CONTINUE:
+                budgetWords = Math.max(MIN_PASS_WORDS, remaining - reserveWords());
+                break;
+            case PASS_FINALIZE:
+                budgetWords = Math.max(remaining, reserveWords());
+                headroom = FINALIZE_HEADROOM;
+                break;
+            default:
+                budgetWords = EMERGENCY_WORDS;
+                headroom = FINALIZE_HEADROOM;
+                break;
+        }
+        Ratio ratio = ratio(model);
+        long tokens = (long) Math.ceil(budgetWords * ratio.tokensPerWord * headroom + ratio.reasoningTokens);
+        return (int) Math.max(Math.min(MIN_TOKENS, ceiling), Math.min(tokens, ceiling));
+    }
+
+    /**
+     * Whether the pass after words should end the story: the words still
+     * missing to the target fit into one pass as long as this story's
+     * continue passes have been, or as long as maxTokens allows before any.
+     */
+    boolean projectsEnd(String model, int words) {
+        int expected = passCount > 0 ? passWords / passCount : wordsFor(model, config.maxTokens);
+        return words + expected >= config.storyTargetWords;
+    }
+
+    /**
+     * Learns from one finished request. wordsAdded is what it added to the
+     * story; continue passes also feed the projection of the end point.
+     */
+    void record(String model, int kind, int wordsAdded, PassMetrics metrics) {
+        if (kind == PASS_CONTINUE && wordsAdded > 0) {
+            passWords += wordsAdded;
+            passCount++;
+        }
+        if (model == null || metrics.completionTokens <= 0 || wordsAdded < MIN_SAMPLE_WORDS) return;
+        long reasoning = Math.max(0, metrics.reasoningTokens);
+        long storyTokens = metrics.completionTokens - reasoning;
+        if (storyTokens <= 0) return;
+        double sample = Math.max(MIN_RATIO, Math.min(MAX_RATIO, storyTokens / (double) wordsAdded));
+        synchronized (RATIOS) {
+            Ratio ratio = ratioLocked(model);
+            if (ratio.samples == 0) {
+                ratio.tokensPerWord = sample;
+                ratio.reasoningTokens = reasoning;
+            } else {
+                ratio.tokensPerWord += ALPHA * (sample - ratio.tokensPerWord);
+                ratio.reasoningTokens += ALPHA * (reasoning - ratio.reasoningTokens);
+            }
+            ratio.samples++;
+        }
+    }
+
+    /** The learned tokens-per-word ratio for model in this story's language, or the prior. */
+    double tokensPerWord(String model) {
+        return ratio(model).tokensPerWord;
+    }
+
+    private int wordsFor(String model, int tokens) {
+        Ratio ratio = ratio(model);
+        return (int) Math.max(0, (tokens - ratio.reasoningTokens) / ratio.tokensPerWord);
+    }
+
+    private Ratio ratio(String model) {
+        synchronized (RATIOS) {
+            Ratio live = ratioLocked(model);
+            Ratio copy = new Ratio();
+            copy.tokensPerWord = live.tokensPerWord;
+            copy.reasoningTokens = live.reasoningTokens;
+            copy.samples = live.samples;
+            return copy;
+        }
+    }
+
+    private Ratio ratioLocked(String model) {
+        String language = config.language != null ? config.language.toLowerCase(Locale.ROOT) : "";
+        String key = language + "|" + model;
+        Ratio ratio = RATIOS.get(key);
+        if (ratio == null) {
+            ratio = new Ratio();
+            ratio.tokensPerWord = language.startsWith("vi") ? PRIOR_VI : PRIOR_OTHER;
+            ratio.reasoningTokens = reasons(model) ? PRIOR_REASONING_TOKENS : 0;
+            RATIOS.put(key, ratio);
+        }
+        return ratio;
+    }
+
+    // Whether model spends completion tokens on reasoning_content before it writes.
+    private static boolean reasons(String model) {
+        return model != null && model.toLowerCase(Locale.ROOT).contains("reasoner");
+    }
+
+    /** Forgets every learned ratio; for tests. */
+    static void reset() {
+        synchronized (RATIOS) {
+            RATIOS.clear();
+        }
+    }
+}
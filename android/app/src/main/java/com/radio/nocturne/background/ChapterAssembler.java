@@ -0,0 +1,67 @@
+package com.radio.nocturne.background;
+
+/**
+ * Puts the chapters of an outlined story back in order while they stream
+ * concurrently. Text of the head chapter, the first one not yet finished,
+ * goes straight to the sink; later chapters are held until every chapter
+ * before them is finished, then released in one piece and stream live from
+ * there on. A newline is inserted between chapters that do not end with one.
+ *
+ * The sink is called under the assembler's lock, so it sees the story in
+ * order from one thread at a time even though chapters append from many.
+ */
+final class ChapterAssembler {
+    interface Sink {
+        void onText(String text);
+    }
+
+    private final Sink sink;
+    private final StringBuilder[] held;
+    private final boolean[] finished;
+    private int head;
+    private char last = '\n';
+
+    ChapterAssembler(int chapters, Sink sink) {
+        this.sink = sink;
+        held = new StringBuilder[chapters];
+        finished = new boolean[chapters];
+        for (int i = 0; i < chapters; i++) held[i] = new StringBuilder();
+    }
+
+    synchronized void append(int chapter, String text) {
+        if (text == null || text.isEmpty() || finished[chapter]) return;
+        if (chapter == head) {
+            emit(text);
+        } else {
+            held[chapter].append(text);
+        }
+    }
+
+    /** Marks chapter complete; releases it and any finished chapters after it once it is the head. */
+    synchronized void finish(int chapter) {
+        finished[chapter] = true;
+        while (head < finished.length && finished[head]) {
+            head++;
+            if (head == finished.length) break;
+            StringBuilder next = held[head];
+            if (next.length() > 0) {
+                if (last != '\n') emit("\n");
+                emit(next.toString());
+                next.setLength(0);
+            } else if (!finished[head]) {
+                // The next chapter streams live from here; separate it before its first delta arrives.
+                if (last != '\n') emit("\n");
+            }
+        }
+    }
+
+    /** Whether every chapter has been finished and released. */
+    synchronized boolean complete() {
+        return head == finished.length;
+    }
+
+    private void emit(String text) {
+        sink.onText(text);
+        last = text.charAt(text.length() - 1);
+    }
+}
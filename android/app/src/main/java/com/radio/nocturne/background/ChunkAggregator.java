@@ -0,0 +1,85 @@
+package com.radio.nocturne.background;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Coalesces streamed deltas into batches before they cross the Capacitor
+ * bridge. A batch is flushed when the time window since its first delta
+ * elapses, when it reaches the size threshold, or when flush() is called
+ * (pass end, signature hit, done/error). Each batch carries the absolute
+ * offset of its first character in the story so the JS side can append
+ * idempotently.
+ *
+ * The aggregator belongs to one job at a time, named by the epoch passed to
+ * reset(). Text appended under any other epoch, such as the last deltas of
+ * a job that was just cancelled, is dropped.
+ */
+final class ChunkAggregator {
+    interface Sink {
+        void onBatch(String text, int startOffset);
+    }
+
+    private final ScheduledExecutorService scheduler;
+    private final Sink sink;
+    private final StringBuilder pending = new StringBuilder();
+    private final Runnable flushTask = this::flush;
+    private ScheduledFuture<?> scheduledFlush;
+    private long windowMs;
+    private int maxChars;
+    private int nextOffset;
+    private int pendingStart;
+    private int owner;
+
+    ChunkAggregator(ScheduledExecutorService scheduler, Sink sink) {
+        this.scheduler = scheduler;
+        this.sink = sink;
+    }
+
+    synchronized void reset(int epoch, int baseOffset, long windowMs, int maxChars) {
+        cancelScheduled();
+        owner = epoch;
+        pending.setLength(0);
+        this.windowMs = Math.max(0, windowMs);
+        this.maxChars = Math.max(1, maxChars);
+        nextOffset = baseOffset;
+        pendingStart = baseOffset;
+    }
+
+    synchronized void append(int epoch, String text) {
+        if (epoch != owner || text == null || text.isEmpty()) return;
+        if (pending.length() == 0) {
+            pendingStart = nextOffset;
+        }
+        pending.append(text);
+        nextOffset += text.length();
+        if (windowMs == 0 || pending.length() >= maxChars) {
+            flush();
+        } else if (scheduledFlush == null) {
+            scheduledFlush = scheduler.schedule(flushTask, windowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    synchronized void flush() {
+        cancelScheduled();
+        if (pending.length() == 0) return;
+        String batch = pending.toString();
+        pending.setLength(0);
+        sink.onBatch(batch, pendingStart);
+    }
+
+    /** Drops anything not yet delivered and ignores appends until the next reset(). */
+    synchronized void discard() {
+        cancelScheduled();
+        owner = 0;
+        pending.setLength(0);
+    }
+
+    private void cancelScheduled() {
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+    }
+}
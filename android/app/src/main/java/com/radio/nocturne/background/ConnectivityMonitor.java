@@ -0,0 +1,25 @@
+package com.radio.nocturne.background;
+
+/**
+ * Network availability as seen by the retry loop. Retries wait here while the
+ * device is offline instead of burning attempts on requests that cannot
+ * connect.
+ */
+interface ConnectivityMonitor {
+    ConnectivityMonitor ALWAYS_ONLINE = new ConnectivityMonitor() {
+        @Override
+        public boolean isOnline() {
+            return true;
+        }
+
+        @Override
+        public boolean awaitOnline(long timeoutMs) {
+            return true;
+        }
+    };
+
+    boolean isOnline();
+
+    /** Blocks until a network is available or the timeout passes; returns whether it is online. */
+    boolean awaitOnline(long timeoutMs) throws InterruptedException;
+}
@@ -0,0 +1,32 @@
+package com.radio.nocturne.background;
+
+/**
+ * DeepSeek's /chat/completions. Same wire format as the generic backend,
+ * but usage reports prompt_cache_hit_tokens and prompt_cache_miss_tokens
+ * directly and deepseek-reasoner streams delta.reasoning_content ahead of
+ * the story, both of which the scanner reads as they are. DeepSeek has no
+ * Responses-style bodies, so output[] content is ignored.
+ */
+final class DeepSeekBackend extends OpenAiCompatibleBackend {
+    DeepSeekBackend(BackgroundStoryService.GenerationConfig config) {
+        super(config);
+    }
+
+    @Override
+    public String name() {
+        return "DeepSeek API";
+    }
+
+    @Override
+    public boolean decode(byte[] data, int offset, int length, StreamDeltaScanner delta) {
+        if (!delta.scan(data, offset, length)) return false;
+        if (delta.fromOutput) delta.content = null;
+        return true;
+    }
+
+    /** 402 is an empty balance and 422 bad parameters; only transient statuses are retried. */
+    @Override
+    public StoryApiException error(int code, String body, long retryAfterMs) {
+        return new StoryApiException(name() + " error " + code + ": " + body, code, retryAfterMs, StoryApiException.isTransient(code));
+    }
+}
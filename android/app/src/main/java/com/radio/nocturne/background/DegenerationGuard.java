@@ -0,0 +1,296 @@
+package com.radio.nocturne.background;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Watches the text of one pass as it streams and says when the model has
+ * gone off the rails, so the pass can be cut before it burns the rest of
+ * its max_tokens. Two checks, both over a bounded window of recent words:
+ *
+ * Repetition: hashes of the last NGRAM words are kept for the last
+ * REPEAT_WINDOW positions; once at least half of them are duplicates of
+ * another in the window the text is looping. Normal prose repeats a
+ * four-word run a handful of times per thousand words at most.
+ *
+ * Language drift: for a Vietnamese story, the share of words with
+ * Vietnamese diacritics in the last DRIFT_WINDOW words drops to almost
+ * nothing when the model switches to English, and words in another script
+ * (Han, kana, Hangul, Cyrillic and so on) should not be there at all. An
+ * English story trips on other scripts and on mostly accented words.
+ * Other languages get the repetition check only.
+ *
+ * Han, kana and Hangul are counted one character per word, since those
+ * scripts do not put spaces between words.
+ *
+ * Offsets count the characters fed so far. tripOffset() says where the
+ * degenerate run began, so the caller can drop it; holdOffset() says how far
+ * text is past judging, so the caller can hold back the rest until then.
+ * Not thread-safe; one per pass.
+ */
+final class DegenerationGuard {
+    static final String REPETITION = "repetition";
+    static final String LANGUAGE_DRIFT = "language_drift";
+
+    static final int NGRAM = 4;
+    static final int REPEAT_WINDOW = 120;
+    // Judge only once this many n-grams are in the window.
+    static final int REPEAT_MIN = 48;
+    static final double REPEAT_RATIO = 0.5;
+    static final int DRIFT_WINDOW = 40;
+    // Vietnamese prose has diacritics on well over half of its words.
+    static final double MARKED_MIN = 0.15;
+    static final double MARKED_MAX_ENGLISH = 0.5;
+    static final double FOREIGN_MAX = 0.3;
+    // A loop trips about REPEAT_WINDOW * REPEAT_RATIO words into its second
+    // cycle and drift within DRIFT_WINDOW words, so this covers where either began.
+    static final int HOLD_WORDS = 72;
+
+    private static final int EXPECT_NONE = 0;
+    private static final int EXPECT_VIETNAMESE = 1;
+    private static final int EXPECT_ENGLISH = 2;
+
+    private static final byte WORD_PLAIN = 0;
+    private static final byte WORD_MARKED = 1;
+    private static final byte WORD_FOREIGN = 2;
+
+    private final int expect;
+
+    // Characters fed so far.
+    private long fed;
+
+    // The word being read.
+    private long wordStart;
+    private long wordHash;
+    private int wordLength;
+    private boolean wordMarked;
+    private boolean wordForeign;
+
+    // Hashes of the last NGRAM words, and how many words came so far.
+    private final long[] recent = new long[NGRAM];
+    private final long[] recentStarts = new long[NGRAM];
+    private long words;
+    // Where each of the last HOLD_WORDS words started.
+    private final long[] holdStarts = new long[HOLD_WORDS];
+
+    private final long[] grams = new long[REPEAT_WINDOW];
+    private final long[] gramStarts = new long[REPEAT_WINDOW];
+    private final Map<Long, Integer> gramCounts = new HashMap<>();
+    private int gramSize;
+    private int gramNext;
+
+    private final byte[] kinds = new byte[DRIFT_WINDOW];
+    private final long[] kindStarts = new long[DRIFT_WINDOW];
+    private int kindSize;
+    private int kindNext;
+    private int marked;
+    private int foreign;
+
+    private String tripped;
+    private String detail;
+    private long tripOffset = -1;
+
+    DegenerationGuard(String language) {
+        String lang = language != null ? language.toLowerCase(Locale.ROOT) : "";
+        if (lang.startsWith("vi")) {
+            expect = EXPECT_VIETNAMESE;
+        } else if (lang.startsWith("en")) {
+            expect = EXPECT_ENGLISH;
+        } else {
+            expect = EXPECT_NONE;
+        }
+    }
+
+    /** Feeds a delta; returns the reason once a check has tripped, null until then. */
+    String feed(CharSequence text) {
+        if (text == null || tripped != null) return tripped;
+        int length = text.length();
+        for (int i = 0; i < length && tripped == null; i++, fed++) {
+            char c = text.charAt(i);
+            if (isIdeograph(c)) {
+                endWord();
+                appendChar(c);
+                wordForeign = true;
+                endWord();
+            } else if (Character.isLetterOrDigit(c) || isCombiningMark(c)) {
+                appendChar(c);
+                if (isMarked(c)) {
+                    wordMarked = true;
+                } else if (c >= 0x0370 && Character.isLetter(c) && !isLatinExtended(c)) {
+                    wordForeign = true;
+                }
+            } else {
+                endWord();
+            }
+        }
+        return tripped;
+    }
+
+    /** The check that tripped, REPETITION or LANGUAGE_DRIFT, or null. */
+    String tripped() {
+        return tripped;
+    }
+
+    /** What the tripped check measured, for logs and pass metrics. */
+    String detail() {
+        return detail;
+    }
+
+    /**
+     * Where the degenerate run began once tripped: the second cycle of a
+     * loop, or the first word after the last one in the expected language.
+     * -1 until then.
+     */
+    long tripOffset() {
+        return tripOffset;
+    }
+
+    /** Text before this offset is out of reach of any check; what follows may still turn out to be degenerate. */
+    long holdOffset() {
+        return words >= HOLD_WORDS ? holdStarts[(int) (words % HOLD_WORDS)] : 0;
+    }
+
+    private void appendChar(char c) {
+        if (wordLength == 0) wordStart = fed;
+        wordHash = wordHash * 31 + Character.toLowerCase(c);
+        wordLength++;
+    }
+
+    private void endWord() {
+        if (wordLength == 0) return;
+        recent[(int) (words % NGRAM)] = wordHash;
+        recentStarts[(int) (words % NGRAM)] = wordStart;
+        holdStarts[(int) (words % HOLD_WORDS)] = wordStart;
+        words++;
+        // The oldest of the last NGRAM words starts the n-gram.
+        if (words >= NGRAM) addGram(gramHash(), recentStarts[(int) (words % NGRAM)]);
+        if (expect != EXPECT_NONE) {
+            addKind(wordForeign ? WORD_FOREIGN : wordMarked ? WORD_MARKED : WORD_PLAIN, wordStart);
+        }
+        wordHash = 0;
+        wordLength = 0;
+        wordMarked = false;
+        wordForeign = false;
+    }
+
+    private long gramHash() {
+        long hash = 1125899906842597L;
+        for (int i = 0; i < NGRAM; i++) {
+            // Oldest word first, so the same run always hashes the same.
+            hash = hash * 1000003L + recent[(int) ((words + i) % NGRAM)];
+        }
+        return hash;
+    }
+
+    private void addGram(long hash, long start) {
+        if (gramSize == REPEAT_WINDOW) {
+            long evicted = grams[gramNext];
+            int count = gramCounts.get(evicted);
+            if (count == 1) {
+                gramCounts.remove(evicted);
+            } else {
+                gramCounts.put(evicted, count - 1);
+            }
+        } else {
+            gramSize++;
+        }
+        grams[gramNext] = hash;
+        gramStarts[gramNext] = start;
+        gramNext = (gramNext + 1) % REPEAT_WINDOW;
+        gramCounts.merge(hash, 1, Integer::sum);
+
+        if (gramSize < REPEAT_MIN) return;
+        int repeated = gramSize - gramCounts.size();
+        if (repeated >= gramSize * REPEAT_RATIO) {
+            trip(REPETITION, repeated + " of the last " + gramSize + " " + NGRAM + "-grams repeat", firstRepeatStart());
+        }
+    }
+
+    // Start of the first n-gram in the window that already occurred in it.
+    private long firstRepeatStart() {
+        int oldest = gramSize == REPEAT_WINDOW ? gramNext : 0;
+        Set<Long> seen = new HashSet<>();
+        for (int i = 0; i < gramSize; i++) {
+            int index = (oldest + i) % REPEAT_WINDOW;
+            if (!seen.add(grams[index])) return gramStarts[index];
+        }
+        return gramStarts[oldest];
+    }
+
+    private void addKind(byte kind, long start) {
+        if (kindSize == DRIFT_WINDOW) {
+            byte evicted = kinds[kindNext];
+            if (evicted == WORD_MARKED) marked--;
+            if (evicted == WORD_FOREIGN) foreign--;
+        } else {
+            kindSize++;
+        }
+        kinds[kindNext] = kind;
+        kindStarts[kindNext] = start;
+        kindNext = (kindNext + 1) % DRIFT_WINDOW;
+        if (kind == WORD_MARKED) marked++;
+        if (kind == WORD_FOREIGN) foreign++;
+
+        if (kindSize < DRIFT_WINDOW) return;
+        if (foreign > DRIFT_WINDOW * FOREIGN_MAX) {
+            trip(LANGUAGE_DRIFT, foreign + " of the last " + DRIFT_WINDOW + " words in another script",
+                driftStart(WORD_FOREIGN, false));
+        } else if (expect == EXPECT_VIETNAMESE && marked < DRIFT_WINDOW * MARKED_MIN) {
+            trip(LANGUAGE_DRIFT, "only " + marked + " of the last " + DRIFT_WINDOW + " words carry Vietnamese diacritics",
+                driftStart(WORD_MARKED, true));
+        } else if (expect == EXPECT_ENGLISH && marked > DRIFT_WINDOW * MARKED_MAX_ENGLISH) {
+            trip(LANGUAGE_DRIFT, marked + " of the last " + DRIFT_WINDOW + " words carry diacritics",
+                driftStart(WORD_MARKED, false));
+        }
+    }
+
+    /**
+     * Start of the run of words at the end of the window that do not fit the
+     * story's language, skipping stray fitting words at its very end; fitting
+     * means being of kind when expected, and not being of it otherwise.
+     */
+    private long driftStart(byte kind, boolean expected) {
+        long start = -1;
+        for (int i = 1; i <= DRIFT_WINDOW; i++) {
+            int index = (kindNext - i + DRIFT_WINDOW) % DRIFT_WINDOW;
+            if ((kinds[index] == kind) != expected) {
+                start = kindStarts[index];
+            } else if (start >= 0) {
+                return start;
+            }
+        }
+        return start >= 0 ? start : kindStarts[kindNext];
+    }
+
+    private void trip(String reason, String what, long offset) {
+        tripped = reason;
+        detail = what;
+        tripOffset = offset;
+    }
+
+    // Latin-1 letters, Latin Extended-A/B and Latin Extended Additional, where Vietnamese lives.
+    private static boolean isMarked(char c) {
+        return (c >= 0x00C0 && c <= 0x024F && c != 0x00D7 && c != 0x00F7)
+            || (c >= 0x1E00 && c <= 0x1EFF)
+            || isCombiningMark(c);
+    }
+
+    private static boolean isLatinExtended(char c) {
+        return c >= 0x1E00 && c <= 0x1EFF;
+    }
+
+    private static boolean isCombiningMark(char c) {
+        return c >= 0x0300 && c <= 0x036F;
+    }
+
+    // CJK ideographs, kana and Hangul syllables.
+    private static boolean isIdeograph(char c) {
+        return (c >= 0x3040 && c <= 0x30FF)
+            || (c >= 0x3400 && c <= 0x9FFF)
+            || (c >= 0xAC00 && c <= 0xD7AF)
+            || (c >= 0xF900 && c <= 0xFAFF);
+    }
+}
@@ -0,0 +1,85 @@
+package com.radio.nocturne.background;
+
+/**
+ * Tracks whether the streamed story is wrapping up. Every accepted delta is
+ * folded and run through one {@link KeywordAutomaton}; the position of the
+ * latest hit in each category is kept, so the pass loop reads the ending
+ * state in O(1) instead of rescanning a lowercased tail.
+ */
+final class EndingDetector {
+    private static final int APPROACH = 1;
+    private static final int HOST = 1 << 1;
+    private static final int STATION = 1 << 2;
+    private static final int CLOSING = 1 << 3;
+    private static final int SIGNATURE = 1 << 4;
+
+    private static final int APPROACH_MIN_LENGTH = 1000;
+    private static final int APPROACH_WINDOW = 800;
+    private static final int OUTRO_WINDOW = 1000;
+
+    private final KeywordAutomaton automaton;
+    private final boolean hasSignature;
+    private long position;
+    private char previous = ' ';
+    private long lastApproach = Long.MIN_VALUE;
+    private long lastHost = Long.MIN_VALUE;
+    private long lastStation = Long.MIN_VALUE;
+    private long lastClosing = Long.MIN_VALUE;
+    private boolean signatureSeen;
+
+    EndingDetector(EndingKeywords keywords, String signature) {
+        KeywordAutomaton.Builder builder = new KeywordAutomaton.Builder();
+        for (String keyword : keywords.approach) builder.add(keyword, APPROACH);
+        for (String keyword : keywords.hostNames) builder.add(keyword, HOST);
+        for (String keyword : keywords.stationNames) builder.add(keyword, STATION);
+        for (String keyword : keywords.closingSignals) builder.add(keyword, CLOSING);
+        builder.add(signature, SIGNATURE);
+        automaton = builder.build();
+        hasSignature = signature != null && !signature.trim().isEmpty();
+    }
+
+    void feed(CharSequence delta) {
+        if (delta == null) return;
+        int length = delta.length();
+        for (int i = 0; i < length; i++) {
+            position++;
+            char folded = TextFolder.fold(delta.charAt(i));
+            if (folded == TextFolder.SKIP || (folded == ' ' && previous == ' ')) continue;
+            previous = folded;
+            int hits = automaton.step(folded);
+            if (hits == 0) continue;
+            if ((hits & APPROACH) != 0) lastApproach = position;
+            if ((hits & HOST) != 0) lastHost = position;
+            if ((hits & STATION) != 0) lastStation = position;
+            if ((hits & CLOSING) != 0) lastClosing = position;
+            if ((hits & SIGNATURE) != 0) signatureSeen = true;
+        }
+    }
+
+    boolean hostNameSeen() {
+        return within(lastHost, OUTRO_WINDOW);
+    }
+
+    boolean stationNameSeen() {
+        return within(lastStation, OUTRO_WINDOW);
+    }
+
+    boolean closingSignalSeen() {
+        return within(lastClosing, OUTRO_WINDOW);
+    }
+
+    boolean isApproachingEnding() {
+        return position >= APPROACH_MIN_LENGTH && within(lastApproach, APPROACH_WINDOW);
+    }
+
+    /** Exact signature anywhere, or host/station name plus a closing signal near the end. */
+    boolean hasOutroSignature() {
+        if (!hasSignature) return false;
+        if (signatureSeen) return true;
+        return (hostNameSeen() || stationNameSeen()) && closingSignalSeen();
+    }
+
+    private boolean within(long hitPosition, int window) {
+        return hitPosition != Long.MIN_VALUE && hitPosition > position - window;
+    }
+}
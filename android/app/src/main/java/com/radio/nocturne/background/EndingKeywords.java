@@ -0,0 +1,85 @@
+package com.radio.nocturne.background;
+
+/**
+ * Keyword sets the ending detector looks for, per story language.
+ * approach: phrases that mean the host is back and the story is wrapping up.
+ * hostNames / stationNames / closingSignals: the outro is only considered
+ * complete when a host or station name and a closing signal are close together.
+ */
+final class EndingKeywords {
+    final String[] approach;
+    final String[] hostNames;
+    final String[] stationNames;
+    final String[] closingSignals;
+
+    EndingKeywords(String[] approach, String[] hostNames, String[] stationNames, String[] closingSignals) {
+        this.approach = approach;
+        this.hostNames = hostNames;
+        this.stationNames = stationNames;
+        this.closingSignals = closingSignals;
+    }
+
+    private static final EndingKeywords VIETNAMESE = new EndingKeywords(
+        new String[] {
+            "tôi là morgan",
+            "đây là morgan",
+            "morgan hayes",
+            "radio truyện đêm khuya",
+            "lời cảnh tỉnh",
+            "kết thúc bản ghi",
+            "bản ghi âm dừng lại",
+            "tín hiệu biến mất",
+            "chúc các bạn",
+            "đêm ngon giấc"
+        },
+        new String[] {"morgan hayes"},
+        new String[] {"radio truyện đêm khuya"},
+        new String[] {
+            "xin phép được tạm dừng tại đây",
+            "đêm ngon giấc nếu còn có thể",
+            "chúc các bạn có một đêm ngon giấc"
+        }
+    );
+
+    private static final EndingKeywords ENGLISH = new EndingKeywords(
+        new String[] {
+            "this is morgan",
+            "i'm morgan",
+            "morgan hayes",
+            "late night story radio",
+            "end of the recording",
+            "the recording stops",
+            "the signal is gone",
+            "good night",
+            "sleep well"
+        },
+        new String[] {"morgan hayes"},
+        new String[] {"late night story radio"},
+        new String[] {
+            "signing off for tonight",
+            "sleep well if you still can",
+            "have a good night"
+        }
+    );
+
+    static EndingKeywords forLanguage(String language) {
+        if (language != null && language.toLowerCase(java.util.Locale.ROOT).startsWith("en")) {
+            return ENGLISH;
+        }
+        return VIETNAMESE;
+    }
+
+    /** These keywords with any non-empty override from the start options applied. */
+    EndingKeywords withOverrides(String[] approach, String[] hostNames, String[] stationNames, String[] closingSignals) {
+        return new EndingKeywords(
+            pick(approach, this.approach),
+            pick(hostNames, this.hostNames),
+            pick(stationNames, this.stationNames),
+            pick(closingSignals, this.closingSignals)
+        );
+    }
+
+    private static String[] pick(String[] override, String[] fallback) {
+        return override != null && override.length > 0 ? override : fallback;
+    }
+}
@@ -0,0 +1,575 @@
+package com.radio.nocturne.background;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.zip.CRC32;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Append-only on-disk record of one generation, so a story survives the
+ * process being killed. A journal starts with the config and the base text,
+ * then holds a record per pass boundary and batched text deltas. Deltas are
+ * buffered and written once enough text has piled up; the file is fsynced at
+ * pass boundaries and at most every SYNC_INTERVAL_MS while streaming.
+ *
+ * Every record is [type][length][payload][crc32], so a torn tail left by a
+ * crash is detected and dropped on load. A finished or cancelled generation
+ * deletes its journal; one that failed is closed with a STOPPED record and
+ * stays listed until it is resumed or discarded.
+ */
+final class GenerationJournal {
+    static final String DIRECTORY = "story-journal";
+
+    /** Seals the API key before it is written; null codec means the key is not stored. */
+    interface SecretCodec {
+        String seal(String secret);
+
+        String open(String sealed);
+    }
+
+    private static final String SUFFIX = ".journal";
+    private static final String TEMP_SUFFIX = SUFFIX + ".tmp";
+    private static final int MAGIC = 0x524e4a31; // "RNJ1"
+
+    private static final byte RECORD_CONFIG = 1;
+    private static final byte RECORD_BASE = 2;
+    private static final byte RECORD_PASS = 3;
+    private static final byte RECORD_TEXT = 4;
+    private static final byte RECORD_STOPPED = 5;
+
+    private static final int FLUSH_CHARS = 1024;
+    private static final long FLUSH_INTERVAL_MS = 500;
+    private static final long SYNC_INTERVAL_MS = 2000;
+
+    private static volatile String activeJobId;
+
+    private final String jobId;
+    private File file;
+    private final FileOutputStream fileStream;
+    private final DataOutputStream out;
+    private final RecordBuffer record = new RecordBuffer();
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+    private final CRC32 crc = new CRC32();
+    private final StringBuilder pending = new StringBuilder();
+    private int pendingOffset;
+    private long lastFlushMs;
+    private long lastSyncMs;
+    private boolean closed;
+
+    private GenerationJournal(String jobId, File file) throws IOException {
+        this.jobId = jobId;
+        this.file = file;
+        fileStream = new FileOutputStream(file, false);
+        out = new DataOutputStream(new BufferedOutputStream(fileStream, 8192));
+        out.writeInt(MAGIC);
+        lastFlushMs = lastSyncMs = nowMs();
+    }
+
+    /**
+     * Starts a journal for a generation. The file is written to a temp name
+     * and renamed after the header is durable, so resuming a job never leaves
+     * it without a readable journal.
+     */
+    static GenerationJournal create(
+        File directory,
+        String jobId,
+        BackgroundStoryService.GenerationConfig config,
+        String baseText,
+        int newTextStart,
+        SecretCodec codec
+    ) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        String id = jobId != null && !jobId.isEmpty() ? jobId : UUID.randomUUID().toString();
+        File temp = new File(directory, id + TEMP_SUFFIX);
+        // Active before the temp file exists, so list() leaves it alone while it is written.
+        String previous = activeJobId;
+        activeJobId = id;
+        GenerationJournal journal;
+        try {
+            journal = new GenerationJournal(id, temp);
+        } catch (IOException e) {
+            activeJobId = previous;
+            throw e;
+        }
+        try {
+            journal.writeRecord(RECORD_CONFIG, configToJson(config, codec).getBytes(StandardCharsets.UTF_8));
+            DataOutputStream payload = journal.beginRecord();
+            payload.writeInt(newTextStart);
+            payload.write(baseText.getBytes(StandardCharsets.UTF_8));
+            journal.endRecord(RECORD_BASE);
+            journal.syncLocked();
+        } catch (IOException e) {
+            journal.closeQuietly();
+            temp.delete();
+            activeJobId = previous;
+            throw e;
+        }
+        File target = new File(directory, id + SUFFIX);
+        if (!temp.renameTo(target)) {
+            journal.closeQuietly();
+            temp.delete();
+            activeJobId = previous;
+            throw new IOException("Cannot rename " + temp);
+        }
+        journal.file = target;
+        return journal;
+    }
+
+    String jobId() {
+        return jobId;
+    }
+
+    static boolean isActive(String jobId) {
+        return jobId != null && jobId.equals(activeJobId);
+    }
+
+    synchronized void beginPass(int passIndex, boolean emergency, int offset) {
+        if (closed) return;
+        try {
+            flushPending();
+            DataOutputStream payload = beginRecord();
+            payload.writeInt(passIndex);
+            payload.writeBoolean(emergency);
+            payload.writeInt(offset);
+            endRecord(RECORD_PASS);
+        } catch (IOException e) {
+            fail();
+        }
+    }
+
+    /** Buffers text that was appended to the story at offset. */
+    synchronized void appendText(int offset, String text) {
+        if (closed || text == null || text.isEmpty()) return;
+        try {
+            if (pending.length() > 0 && pendingOffset + pending.length() != offset) {
+                flushPending();
+            }
+            if (pending.length() == 0) pendingOffset = offset;
+            pending.append(text);
+            long now = nowMs();
+            if (pending.length() >= FLUSH_CHARS || now - lastFlushMs >= FLUSH_INTERVAL_MS) {
+                flushPending();
+            }
+            if (now - lastSyncMs >= SYNC_INTERVAL_MS) {
+                syncLocked();
+            }
+        } catch (IOException e) {
+            fail();
+        }
+    }
+
+    /** Makes everything appended so far durable. */
+    synchronized void sync() {
+        if (closed) return;
+        try {
+            flushPending();
+            syncLocked();
+        } catch (IOException e) {
+            fail();
+        }
+    }
+
+    /** Keeps the journal on disk as an interrupted job, recording why it stopped. */
+    synchronized void stop(String reason) {
+        if (closed) return;
+        try {
+            flushPending();
+            writeRecord(RECORD_STOPPED, (reason == null ? "" : reason).getBytes(StandardCharsets.UTF_8));
+            syncLocked();
+        } catch (IOException ignored) {
+        }
+        closeLocked();
+    }
+
+    /** Closes without a STOPPED record, as if the process had been killed here. */
+    synchronized void close() {
+        if (closed) return;
+        try {
+            flushPending();
+            syncLocked();
+        } catch (IOException ignored) {
+        }
+        closeLocked();
+    }
+
+    /** The story finished or was cancelled; nothing left to resume. */
+    synchronized void delete() {
+        closeLocked();
+        file.delete();
+    }
+
+    private void flushPending() throws IOException {
+        if (pending.length() == 0) return;
+        DataOutputStream payload = beginRecord();
+        payload.writeInt(pendingOffset);
+        payload.write(pending.toString().getBytes(StandardCharsets.UTF_8));
+        endRecord(RECORD_TEXT);
+        pendingOffset += pending.length();
+        pending.setLength(0);
+        lastFlushMs = nowMs();
+    }
+
+    private DataOutputStream beginRecord() {
+        record.reset();
+        return recordOut;
+    }
+
+    private void endRecord(byte type) throws IOException {
+        out.writeByte(type);
+        out.writeInt(record.size());
+        record.writeTo(out);
+        crc.reset();
+        crc.update(type);
+        crc.update(record.buffer(), 0, record.size());
+        out.writeInt((int) crc.getValue());
+    }
+
+    private void writeRecord(byte type, byte[] payload) throws IOException {
+        record.reset();
+        record.write(payload, 0, payload.length);
+        endRecord(type);
+    }
+
+    private void syncLocked() throws IOException {
+        out.flush();
+        fileStream.getFD().sync();
+        lastSyncMs = nowMs();
+    }
+
+    private void fail() {
+        // A journal that cannot be written is not worth failing the story over.
+        closeLocked();
+    }
+
+    private void closeLocked() {
+        if (closed) return;
+        closed = true;
+        closeQuietly();
+        if (jobId.equals(activeJobId)) activeJobId = null;
+    }
+
+    private void closeQuietly() {
+        try {
+            out.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+        RecordBuffer() {
+            super(4096);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    private static long nowMs() {
+        return System.nanoTime() / 1_000_000L;
+    }
+
+    /** A journal found on disk that did not finish. */
+    static final class Interrupted {
+        final String jobId;
+        final BackgroundStoryService.GenerationConfig config;
+        final String text;
+        final int newTextStart;
+        final int passes;
+        final boolean stopped;
+        final String stopReason;
+        final long updatedAt;
+
+        private Interrupted(
+            String jobId,
+            BackgroundStoryService.GenerationConfig config,
+            String text,
+            int newTextStart,
+            int passes,
+            boolean stopped,
+            String stopReason,
+            long updatedAt
+        ) {
+            this.jobId = jobId;
+            this.config = config;
+            this.text = text;
+            this.newTextStart = newTextStart;
+            this.passes = passes;
+            this.stopped = stopped;
+            this.stopReason = stopReason;
+            this.updatedAt = updatedAt;
+        }
+
+        boolean hasApiKey() {
+            // The offline stub needs none.
+            return StoryBackend.OFFLINE.equals(config.storyBackend)
+                || (config.apiKey != null && !config.apiKey.isEmpty());
+        }
+
+        /** A fresh config that continues this job from its last durable offset; config itself is left as loaded. */
+        BackgroundStoryService.GenerationConfig resumeConfig() {
+            BackgroundStoryService.GenerationConfig resumed = config.copy();
+            resumed.jobId = jobId;
+            resumed.existingText = text;
+            resumed.resumeNewTextStart = newTextStart;
+            return resumed;
+        }
+    }
+
+    /** Interrupted jobs, newest first; the job being written right now is skipped. */
+    static List<Interrupted> list(File directory, SecretCodec codec) {
+        List<Interrupted> jobs = new ArrayList<>();
+        File[] files = directory.listFiles();
+        if (files == null) return jobs;
+        for (File candidate : files) {
+            String name = candidate.getName();
+            if (name.endsWith(TEMP_SUFFIX)) {
+                // Left by a create() that was killed; the active job's is still being written.
+                if (!isActive(name.substring(0, name.length() - TEMP_SUFFIX.length()))) candidate.delete();
+                continue;
+            }
+            if (!name.endsWith(SUFFIX)) continue;
+            String id = name.substring(0, name.length() - SUFFIX.length());
+            if (isActive(id)) continue;
+            Interrupted job = load(candidate, id, codec);
+            if (job != null) jobs.add(job);
+        }
+        Collections.sort(jobs, (a, b) -> Long.compare(b.updatedAt, a.updatedAt));
+        return jobs;
+    }
+
+    static Interrupted find(File directory, String jobId, SecretCodec codec) {
+        if (jobId == null || isActive(jobId)) return null;
+        File candidate = new File(directory, jobId + SUFFIX);
+        return candidate.isFile() ? load(candidate, jobId, codec) : null;
+    }
+
+    static boolean discard(File directory, String jobId) {
+        if (jobId == null || isActive(jobId)) return false;
+        return new File(directory, jobId + SUFFIX).delete();
+    }
+
+    /** Replays records up to the first torn or corrupt one. */
+    private static Interrupted load(File file, String jobId, SecretCodec codec) {
+        BackgroundStoryService.GenerationConfig config = null;
+        StringBuilder text = new StringBuilder();
+        int newTextStart = 0;
+        int passes = 0;
+        boolean stopped = false;
+        String stopReason = null;
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) return null;
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException end) {
+                    break;
+                }
+                int length = in.readInt();
+                if (length < 0 || length > file.length()) break;
+                byte[] payload = new byte[length];
+                in.readFully(payload);
+                int expected = in.readInt();
+                crc.reset();
+                crc.update(type);
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != expected) break;
+
+                if (type == RECORD_CONFIG) {
+                    config = configFromJson(new String(payload, StandardCharsets.UTF_8), codec);
+                } else if (type == RECORD_BASE) {
+                    newTextStart = readInt(payload, 0);
+                    text.append(new String(payload, 4, length - 4, StandardCharsets.UTF_8));
+                } else if (type == RECORD_PASS) {
+                    passes++;
+                } else if (type == RECORD_TEXT) {
+                    if (readInt(payload, 0) != text.length()) break;
+                    text.append(new String(payload, 4, length - 4, StandardCharsets.UTF_8));
+                } else if (type == RECORD_STOPPED) {
+                    stopped = true;
+                    stopReason = new String(payload, StandardCharsets.UTF_8);
+                }
+            }
+        } catch (IOException | JSONException e) {
+            if (config == null) return null;
+        }
+        if (config == null) return null;
+        newTextStart = Math.max(0, Math.min(newTextStart, text.length()));
+        return new Interrupted(
+            jobId,
+            config,
+            text.toString(),
+            newTextStart,
+            passes,
+            stopped,
+            stopReason,
+            file.lastModified()
+        );
+    }
+
+    private static int readInt(byte[] bytes, int offset) {
+        return ((bytes[offset] & 0xff) << 24)
+            | ((bytes[offset + 1] & 0xff) << 16)
+            | ((bytes[offset + 2] & 0xff) << 8)
+            | (bytes[offset + 3] & 0xff);
+    }
+
+    private static String configToJson(BackgroundStoryService.GenerationConfig config, SecretCodec codec)
+        throws IOException {
+        try {
+            JSONObject json = new JSONObject();
+            String sealedKey = codec != null && config.apiKey != null ? codec.seal(config.apiKey) : null;
+            if (sealedKey != null) json.put("apiKeySealed", sealedKey);
+            json.put("baseUrl", config.baseUrl);
+            json.put("model", config.model);
+            json.put("temperature", config.temperature);
+            json.put("topP", config.topP);
+            json.put("maxTokens", config.maxTokens);
+            json.put("storyMinWords", config.storyMinWords);
+            json.put("storyTargetWords", config.storyTargetWords);
+            json.put("storyHardMaxWords", config.storyHardMaxWords);
+            json.put("storyTimeoutMs", config.storyTimeoutMs);
+            json.put("storyIdleTimeoutMs", config.storyIdleTimeoutMs);
+            json.put("storyTotalTimeoutMs", config.storyTotalTimeoutMs);
+            json.put("storyContextWords", config.storyContextWords);
+            json.put("storyContextBoundary", config.storyContextBoundary);
+            json.put("storyMaxPasses", config.storyMaxPasses);
+            json.put("storyPipeline", config.storyPipeline);
+            json.put("storyChapters", config.storyChapters);
+            json.put("storyParallelism", config.storyParallelism);
+            json.put("storyFastModel", config.storyFastModel);
+            json.put("storyReasonerBudgetMs", config.storyReasonerBudgetMs);
+            json.put("reasoningEventMs", config.reasoningEventMs);
+            json.put("storyAdaptiveBudget", config.storyAdaptiveBudget);
+            json.put("storyFastStartWords", config.storyFastStartWords);
+            json.put("storyBackend", config.storyBackend);
+            json.put("storyStubTokensPerSecond", config.storyStubTokensPerSecond);
+            json.put("storyDegenerationGuard", config.storyDegenerationGuard);
+            json.put("chunkFlushMs", config.chunkFlushMs);
+            json.put("chunkFlushChars", config.chunkFlushChars);
+            json.put("retryMaxAttempts", config.retryMaxAttempts);
+            json.put("retryBaseDelayMs", config.retryBaseDelayMs);
+            json.put("retryMaxDelayMs", config.retryMaxDelayMs);
+            json.put("offlineWaitMs", config.offlineWaitMs);
+            json.put("horrorLevel", config.horrorLevel);
+            json.put("narrativeStyle", config.narrativeStyle);
+            json.put("storyEngine", config.storyEngine);
+            json.put("storyRevealMethod", config.storyRevealMethod);
+            json.put("storyEndingMode", config.storyEndingMode);
+            json.put("storyTone", config.storyTone);
+            json.put("storyProtagonistName", config.storyProtagonistName);
+            json.put("storyProtagonistRole", config.storyProtagonistRole);
+            json.put("storyPrimarySetting", config.storyPrimarySetting);
+            json.put("storyEvidenceOrigin", config.storyEvidenceOrigin);
+            json.put("storyKeyMotif", config.storyKeyMotif);
+            json.put("storyIntroMood", config.storyIntroMood);
+            json.put("outroSignature", config.outroSignature);
+            json.put("useStopSequence", config.useStopSequence);
+            json.put("endingApproachKeywords", toJsonArray(config.endingApproachKeywords));
+            json.put("endingHostNames", toJsonArray(config.endingHostNames));
+            json.put("endingStationNames", toJsonArray(config.endingStationNames));
+            json.put("endingClosingSignals", toJsonArray(config.endingClosingSignals));
+            json.put("language", config.language);
+            json.put("topic", config.topic);
+            return json.toString();
+        } catch (JSONException e) {
+            throw new IOException("Cannot encode config", e);
+        }
+    }
+
+    private static BackgroundStoryService.GenerationConfig configFromJson(String raw, SecretCodec codec)
+        throws JSONException {
+        JSONObject json = new JSONObject(raw);
+        BackgroundStoryService.GenerationConfig config = new BackgroundStoryService.GenerationConfig();
+        String sealedKey = json.optString("apiKeySealed", "");
+        config.apiKey = !sealedKey.isEmpty() && codec != null ? codec.open(sealedKey) : null;
+        config.baseUrl = json.optString("baseUrl", "https://api.deepseek.com");
+        config.model = json.optString("model", "deepseek-reasoner");
+        config.temperature = json.optDouble("temperature", 1.5);
+        config.topP = json.optDouble("topP", 0.95);
+        config.maxTokens = json.optInt("maxTokens", 8192);
+        config.storyMinWords = json.optInt("storyMinWords", 2000);
+        config.storyTargetWords = json.optInt("storyTargetWords", 7200);
+        config.storyHardMaxWords = json.optInt("storyHardMaxWords", 10000);
+        config.storyTimeoutMs = json.optInt("storyTimeoutMs", 12 * 60 * 1000);
+        config.storyIdleTimeoutMs = json.optInt("storyIdleTimeoutMs", 90 * 1000);
+        config.storyTotalTimeoutMs = json.optInt("storyTotalTimeoutMs", 60 * 60 * 1000);
+        config.storyContextWords = json.optInt("storyContextWords", 320);
+        config.storyContextBoundary = json.optInt("storyContextBoundary", StoryBuffer.BOUNDARY_NONE);
+        config.storyMaxPasses = json.optInt("storyMaxPasses", 12);
+        config.storyPipeline = json.optString("storyPipeline", StoryGenerator.PIPELINE_SEQUENTIAL);
+        config.storyChapters = json.optInt("storyChapters", 4);
+        config.storyParallelism = json.optInt("storyParallelism", 2);
+        config.storyFastModel = json.optString("storyFastModel", "");
+        config.storyReasonerBudgetMs = json.optInt("storyReasonerBudgetMs", 0);
+        config.reasoningEventMs = json.optInt("reasoningEventMs", 1000);
+        config.storyAdaptiveBudget = json.optBoolean("storyAdaptiveBudget", true);
+        // The first pass is long gone when a story is resumed.
+        config.storyFastStartWords = json.optInt("storyFastStartWords", 0);
+        config.storyBackend = json.optString("storyBackend", StoryBackend.DEEPSEEK);
+        config.storyStubTokensPerSecond = json.optInt("storyStubTokensPerSecond", 40);
+        config.storyDegenerationGuard = json.optBoolean("storyDegenerationGuard", true);
+        config.chunkFlushMs = json.optInt("chunkFlushMs", 80);
+        config.chunkFlushChars = json.optInt("chunkFlushChars", 512);
+        config.retryMaxAttempts = json.optInt("retryMaxAttempts", 4);
+        config.retryBaseDelayMs = json.optInt("retryBaseDelayMs", 1000);
+        config.retryMaxDelayMs = json.optInt("retryMaxDelayMs", 30000);
+        config.offlineWaitMs = json.optInt("offlineWaitMs", 10 * 60 * 1000);
+        config.horrorLevel = json.optInt("horrorLevel", 50);
+        config.narrativeStyle = json.optString("narrativeStyle", "default");
+        config.storyEngine = json.optString("storyEngine", "");
+        config.storyRevealMethod = json.optString("storyRevealMethod", "");
+        config.storyEndingMode = json.optString("storyEndingMode", "");
+        config.storyTone = json.optString("storyTone", "");
+        config.storyProtagonistName = json.optString("storyProtagonistName", "");
+        config.storyProtagonistRole = json.optString("storyProtagonistRole", "");
+        config.storyPrimarySetting = json.optString("storyPrimarySetting", "");
+        config.storyEvidenceOrigin = json.optString("storyEvidenceOrigin", "");
+        config.storyKeyMotif = json.optString("storyKeyMotif", "");
+        config.storyIntroMood = json.optString("storyIntroMood", "");
+        config.outroSignature = json.optString("outroSignature", "");
+        config.useStopSequence = json.optBoolean("useStopSequence", false);
+        config.endingApproachKeywords = fromJsonArray(json.optJSONArray("endingApproachKeywords"));
+        config.endingHostNames = fromJsonArray(json.optJSONArray("endingHostNames"));
+        config.endingStationNames = fromJsonArray(json.optJSONArray("endingStationNames"));
+        config.endingClosingSignals = fromJsonArray(json.optJSONArray("endingClosingSignals"));
+        config.language = json.optString("language", "vi");
+        config.topic = json.optString("topic", "");
+        return config;
+    }
+
+    private static Object toJsonArray(String[] values) {
+        if (values == null) return JSONObject.NULL;
+        JSONArray array = new JSONArray();
+        for (String value : values) array.put(value);
+        return array;
+    }
+
+    private static String[] fromJsonArray(JSONArray array) {
+        if (array == null || array.length() == 0) return null;
+        String[] values = new String[array.length()];
+        for (int i = 0; i < array.length(); i++) {
+            values[i] = array.optString(i, "");
+        }
+        return values;
+    }
+}
@@ -0,0 +1,329 @@
+package com.radio.nocturne.background;
+
+import android.util.Log;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.Connection;
+import okhttp3.ConnectionPool;
+import okhttp3.Dns;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * One OkHttpClient for the whole process. Services come and go, but the
+ * connection pool, DNS answers and TLS sessions (cached by the client's
+ * socket factory) outlive them, so the first pass of a story usually
+ * reuses a warm HTTP/2 connection. preconnect() opens that connection
+ * ahead of time; every call is timed so reuse shows up in the stats.
+ */
+final class HttpClientHolder {
+    private static final String TAG = "HttpClient";
+    private static final long DNS_TTL_MS = 5 * 60 * 1000;
+    private static final long PRECONNECT_INTERVAL_MS = 10_000;
+
+    /** Totals over all calls made through the shared client. */
+    static final class Stats {
+        final long calls;
+        final long reusedConnections;
+        final long newConnections;
+        final long averageDnsMs;
+        final long averageConnectMs;
+        final long averageTlsMs;
+        final long averageFirstTokenReusedMs;
+        final long averageFirstTokenNewMs;
+        final long preconnects;
+
+        Stats(
+            long calls,
+            long reusedConnections,
+            long newConnections,
+            long averageDnsMs,
+            long averageConnectMs,
+            long averageTlsMs,
+            long averageFirstTokenReusedMs,
+            long averageFirstTokenNewMs,
+            long preconnects
+        ) {
+            this.calls = calls;
+            this.reusedConnections = reusedConnections;
+            this.newConnections = newConnections;
+            this.averageDnsMs = averageDnsMs;
+            this.averageConnectMs = averageConnectMs;
+            this.averageTlsMs = averageTlsMs;
+            this.averageFirstTokenReusedMs = averageFirstTokenReusedMs;
+            this.averageFirstTokenNewMs = averageFirstTokenNewMs;
+            this.preconnects = preconnects;
+        }
+    }
+
+    /**
+     * Setup timing of one call. Attach it with Request.Builder.tag(CallTiming.class, timing)
+     * to read it back; untagged calls get their own.
+     */
+    static final class CallTiming extends EventListener {
+        private long callStartNs;
+        private long dnsStartNs;
+        private long connectStartNs;
+        private long secureStartNs;
+        private volatile long dnsMs = -1;
+        private volatile long connectMs = -1;
+        private volatile long tlsMs = -1;
+        private volatile boolean reused;
+        private volatile boolean acquired;
+        private volatile long firstTokenMs = -1;
+        private boolean recorded;
+
+        boolean reused() {
+            return reused;
+        }
+
+        /** DNS + TCP + TLS time of a new connection; 0 when reused, -1 before a connection was acquired. */
+        long setupMs() {
+            if (!acquired) return -1;
+            if (reused) return 0;
+            return Math.max(0, dnsMs) + Math.max(0, connectMs);
+        }
+
+        long firstTokenMs() {
+            return firstTokenMs;
+        }
+
+        /** Called by the reader when the first content of the response arrives. */
+        void markFirstToken() {
+            if (firstTokenMs >= 0 || callStartNs == 0) return;
+            firstTokenMs = (System.nanoTime() - callStartNs) / 1_000_000L;
+            STATS.recordFirstToken(reused, firstTokenMs);
+        }
+
+        @Override
+        public void callStart(Call call) {
+            callStartNs = System.nanoTime();
+        }
+
+        @Override
+        public void dnsStart(Call call, String domainName) {
+            dnsStartNs = System.nanoTime();
+        }
+
+        @Override
+        public void dnsEnd(Call call, String domainName, List<InetAddress> addresses) {
+            dnsMs = (System.nanoTime() - dnsStartNs) / 1_000_000L;
+        }
+
+        @Override
+        public void connectStart(Call call, InetSocketAddress address, Proxy proxy) {
+            connectStartNs = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectStart(Call call) {
+            secureStartNs = System.nanoTime();
+        }
+
+        @Override
+        public void secureConnectEnd(Call call, Handshake handshake) {
+            tlsMs = (System.nanoTime() - secureStartNs) / 1_000_000L;
+        }
+
+        @Override
+        public void connectEnd(Call call, InetSocketAddress address, Proxy proxy, Protocol protocol) {
+            connectMs = (System.nanoTime() - connectStartNs) / 1_000_000L;
+        }
+
+        @Override
+        public void connectionAcquired(Call call, Connection connection) {
+            // A pooled connection is handed out without connectStart.
+            reused = connectStartNs == 0;
+            acquired = true;
+        }
+
+        @Override
+        public void callEnd(Call call) {
+            record();
+        }
+
+        @Override
+        public void callFailed(Call call, IOException ioe) {
+            record();
+        }
+
+        private synchronized void record() {
+            if (recorded || !acquired) return;
+            recorded = true;
+            STATS.recordCall(this);
+        }
+    }
+
+    /** Keeps resolved addresses for DNS_TTL_MS and falls back to a stale answer if a lookup fails. */
+    private static final class CachingDns implements Dns {
+        private final Map<String, List<InetAddress>> addresses = new HashMap<>();
+        private final Map<String, Long> resolvedAt = new HashMap<>();
+
+        @Override
+        public List<InetAddress> lookup(String hostname) throws UnknownHostException {
+            List<InetAddress> cached;
+            synchronized (this) {
+                cached = addresses.get(hostname);
+                Long at = resolvedAt.get(hostname);
+                if (cached != null && at != null && nowMs() - at < DNS_TTL_MS) return cached;
+            }
+            try {
+                List<InetAddress> fresh = Dns.SYSTEM.lookup(hostname);
+                synchronized (this) {
+                    addresses.put(hostname, fresh);
+                    resolvedAt.put(hostname, nowMs());
+                }
+                return fresh;
+            } catch (UnknownHostException e) {
+                if (cached != null) return cached;
+                throw e;
+            }
+        }
+    }
+
+    private static final class StatsCollector {
+        private long calls;
+        private long reused;
+        private long fresh;
+        private long dnsMsTotal;
+        private long dnsCount;
+        private long connectMsTotal;
+        private long tlsMsTotal;
+        private long tlsCount;
+        private long firstTokenReusedTotal;
+        private long firstTokenReusedCount;
+        private long firstTokenNewTotal;
+        private long firstTokenNewCount;
+        private long preconnects;
+
+        synchronized void recordCall(CallTiming timing) {
+            calls++;
+            if (timing.reused) {
+                reused++;
+                return;
+            }
+            fresh++;
+            if (timing.dnsMs >= 0) {
+                dnsMsTotal += timing.dnsMs;
+                dnsCount++;
+            }
+            if (timing.connectMs >= 0) connectMsTotal += timing.connectMs;
+            if (timing.tlsMs >= 0) {
+                tlsMsTotal += timing.tlsMs;
+                tlsCount++;
+            }
+        }
+
+        synchronized void recordFirstToken(boolean reusedConnection, long ms) {
+            if (reusedConnection) {
+                firstTokenReusedTotal += ms;
+                firstTokenReusedCount++;
+            } else {
+                firstTokenNewTotal += ms;
+                firstTokenNewCount++;
+            }
+        }
+
+        synchronized void recordPreconnect() {
+            preconnects++;
+        }
+
+        synchronized Stats snapshot() {
+            return new Stats(
+                calls,
+                reused,
+                fresh,
+                average(dnsMsTotal, dnsCount),
+                average(connectMsTotal, fresh),
+                average(tlsMsTotal, tlsCount),
+                average(firstTokenReusedTotal, firstTokenReusedCount),
+                average(firstTokenNewTotal, firstTokenNewCount),
+                preconnects
+            );
+        }
+
+        private static long average(long total, long count) {
+            return count > 0 ? total / count : -1;
+        }
+    }
+
+    private static final StatsCollector STATS = new StatsCollector();
+    private static final Map<String, Long> lastPreconnect = new HashMap<>();
+    private static OkHttpClient client;
+
+    private HttpClientHolder() {
+    }
+
+    static synchronized OkHttpClient client() {
+        if (client == null) {
+            client = new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(4, 5, TimeUnit.MINUTES))
+                .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+                .dns(new CachingDns())
+                .eventListenerFactory(call -> {
+                    CallTiming timing = call.request().tag(CallTiming.class);
+                    return timing != null ? timing : new CallTiming();
+                })
+                .retryOnConnectionFailure(true)
+                .connectTimeout(30, TimeUnit.SECONDS)
+                .writeTimeout(30, TimeUnit.SECONDS)
+                .readTimeout(0, TimeUnit.MILLISECONDS)
+                .build();
+        }
+        return client;
+    }
+
+    /**
+     * Resolves baseUrl's host and opens a connection to it in the background
+     * so the next request finds it in the pool. Repeated calls for the same
+     * host within a few seconds are ignored.
+     */
+    static void preconnect(String baseUrl) {
+        HttpUrl url = baseUrl != null ? HttpUrl.parse(baseUrl) : null;
+        if (url == null) return;
+        String origin = url.scheme() + "://" + url.host() + ":" + url.port();
+        synchronized (lastPreconnect) {
+            Long last = lastPreconnect.get(origin);
+            long now = nowMs();
+            if (last != null && now - last < PRECONNECT_INTERVAL_MS) return;
+            lastPreconnect.put(origin, now);
+        }
+        STATS.recordPreconnect();
+        // Any response will do: only the connection it leaves in the pool matters.
+        Request request = new Request.Builder().url(url).head().build();
+        client().newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Log.d(TAG, "Preconnect to " + origin + " failed: " + e.getMessage());
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) {
+                response.close();
+            }
+        });
+    }
+
+    static Stats stats() {
+        return STATS.snapshot();
+    }
+
+    private static long nowMs() {
+        return System.nanoTime() / 1_000_000L;
+    }
+}
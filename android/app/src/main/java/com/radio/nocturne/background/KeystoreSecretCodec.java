@@ -0,0 +1,71 @@
+package com.radio.nocturne.background;
+
+import android.security.keystore.KeyGenParameterSpec;
+import android.security.keystore.KeyProperties;
+import android.util.Base64;
+import java.nio.charset.StandardCharsets;
+import java.security.KeyStore;
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Seals journal secrets with an AES-GCM key that never leaves the Android
+ * keystore. If the keystore is unavailable seal() returns null and the
+ * secret is simply not written; open() returns null for anything it cannot
+ * decrypt, such as a journal from before the key was reset.
+ */
+final class KeystoreSecretCodec implements GenerationJournal.SecretCodec {
+    private static final String KEYSTORE = "AndroidKeyStore";
+    private static final String ALIAS = "radio_nocturne_journal";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int TAG_BITS = 128;
+
+    @Override
+    public String seal(String secret) {
+        if (secret == null || secret.isEmpty()) return null;
+        try {
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.ENCRYPT_MODE, key());
+            byte[] sealed = cipher.doFinal(secret.getBytes(StandardCharsets.UTF_8));
+            return Base64.encodeToString(cipher.getIV(), Base64.NO_WRAP)
+                + ":" + Base64.encodeToString(sealed, Base64.NO_WRAP);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    @Override
+    public String open(String sealed) {
+        if (sealed == null) return null;
+        int separator = sealed.indexOf(':');
+        if (separator <= 0) return null;
+        try {
+            byte[] iv = Base64.decode(sealed.substring(0, separator), Base64.NO_WRAP);
+            byte[] data = Base64.decode(sealed.substring(separator + 1), Base64.NO_WRAP);
+            Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+            cipher.init(Cipher.DECRYPT_MODE, key(), new GCMParameterSpec(TAG_BITS, iv));
+            return new String(cipher.doFinal(data), StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static synchronized SecretKey key() throws Exception {
+        KeyStore keyStore = KeyStore.getInstance(KEYSTORE);
+        keyStore.load(null);
+        if (keyStore.containsAlias(ALIAS)) {
+            return (SecretKey) keyStore.getKey(ALIAS, null);
+        }
+        KeyGenerator generator = KeyGenerator.getInstance(KeyProperties.KEY_ALGORITHM_AES, KEYSTORE);
+        generator.init(
+            new KeyGenParameterSpec.Builder(ALIAS, KeyProperties.PURPOSE_ENCRYPT | KeyProperties.PURPOSE_DECRYPT)
+                .setBlockModes(KeyProperties.BLOCK_MODE_GCM)
+                .setEncryptionPaddings(KeyProperties.ENCRYPTION_PADDING_NONE)
+                .setKeySize(256)
+                .build()
+        );
+        return generator.generateKey();
+    }
+}
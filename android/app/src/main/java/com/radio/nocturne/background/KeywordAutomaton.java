@@ -0,0 +1,134 @@
+package com.radio.nocturne.background;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Aho-Corasick automaton over folded text (see {@link TextFolder}), compiled
+ * into a dense transition table so stepping one character is a single array
+ * lookup. Each pattern carries a category bit; step() returns the bits of all
+ * patterns that end at the current character. Most folded keywords are
+ * ASCII; the other characters that occur in the patterns (an ellipsis or a
+ * dash in a signature, the halves of an emoji) get a column each after the
+ * ASCII ones, found by a binary search, and any character in none of the
+ * patterns sends the automaton back to the root.
+ */
+final class KeywordAutomaton {
+    private static final int ASCII = 128;
+
+    private final int[] transitions;
+    private final int[] outputs;
+    // Sorted non-ASCII characters of the patterns; extras[i] is column ASCII + i.
+    private final char[] extras;
+    private final int width;
+    private int state;
+
+    private KeywordAutomaton(int[] transitions, int[] outputs, char[] extras) {
+        this.transitions = transitions;
+        this.outputs = outputs;
+        this.extras = extras;
+        this.width = ASCII + extras.length;
+    }
+
+    int step(char folded) {
+        int column = column(extras, folded);
+        if (column < 0) {
+            state = 0;
+            return 0;
+        }
+        state = transitions[state * width + column];
+        return outputs[state];
+    }
+
+    private static int column(char[] extras, char c) {
+        if (c < ASCII) return c;
+        int index = Arrays.binarySearch(extras, c);
+        return index < 0 ? -1 : ASCII + index;
+    }
+
+    static final class Builder {
+        private final List<String> patterns = new ArrayList<>();
+        private final List<Integer> categories = new ArrayList<>();
+
+        Builder add(String pattern, int categoryBit) {
+            String folded = pattern == null ? "" : TextFolder.fold(pattern);
+            if (folded.isEmpty()) return this;
+            patterns.add(folded);
+            categories.add(categoryBit);
+            return this;
+        }
+
+        KeywordAutomaton build() {
+            char[] extras = extras();
+            int width = ASCII + extras.length;
+            int[] trie = new int[width * 64];
+            int[] outputs = new int[64];
+            Arrays.fill(trie, -1);
+            int nodes = 1;
+            for (int p = 0; p < patterns.size(); p++) {
+                String folded = patterns.get(p);
+                int node = 0;
+                for (int i = 0; i < folded.length(); i++) {
+                    int index = node * width + column(extras, folded.charAt(i));
+                    if (trie[index] < 0) {
+                        if (nodes == outputs.length) {
+                            int oldLength = trie.length;
+                            trie = Arrays.copyOf(trie, oldLength * 2);
+                            Arrays.fill(trie, oldLength, trie.length, -1);
+                            outputs = Arrays.copyOf(outputs, nodes * 2);
+                        }
+                        trie[index] = nodes++;
+                    }
+                    node = trie[index];
+                }
+                outputs[node] |= categories.get(p);
+            }
+
+            int[] transitions = Arrays.copyOf(trie, nodes * width);
+            int[] out = Arrays.copyOf(outputs, nodes);
+            int[] failure = new int[nodes];
+            ArrayDeque<Integer> queue = new ArrayDeque<>();
+            for (int c = 0; c < width; c++) {
+                int child = transitions[c];
+                if (child < 0) {
+                    transitions[c] = 0;
+                } else {
+                    failure[child] = 0;
+                    queue.add(child);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int node = queue.poll();
+                out[node] |= out[failure[node]];
+                for (int c = 0; c < width; c++) {
+                    int index = node * width + c;
+                    int child = transitions[index];
+                    int fallback = transitions[failure[node] * width + c];
+                    if (child < 0) {
+                        transitions[index] = fallback;
+                    } else {
+                        failure[child] = fallback;
+                        queue.add(child);
+                    }
+                }
+            }
+            return new KeywordAutomaton(transitions, out, extras);
+        }
+
+        /** The distinct non-ASCII characters of the patterns, sorted. */
+        private char[] extras() {
+            StringBuilder found = new StringBuilder();
+            for (String folded : patterns) {
+                for (int i = 0; i < folded.length(); i++) {
+                    char c = folded.charAt(i);
+                    if (c >= ASCII && found.indexOf(String.valueOf(c)) < 0) found.append(c);
+                }
+            }
+            char[] extras = found.toString().toCharArray();
+            Arrays.sort(extras);
+            return extras;
+        }
+    }
+}
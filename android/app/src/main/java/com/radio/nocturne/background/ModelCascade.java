@@ -0,0 +1,56 @@
+package com.radio.nocturne.background;
+
+/**
+ * Picks the model of each pass. The primary model, deepseek-reasoner by
+ * default, plans the story: it writes the opening, or the outline of an
+ * outlined story. Emergency outros and the short fast-start pass, which is
+ * there to get audio going within seconds, always go to the fast model.
+ * Continuation passes and chapters stay on the primary only while its
+ * measured latency, the time to the first story token including the
+ * thinking phase, is within storyReasonerBudgetMs; a budget of 0 sends them
+ * all to the fast model.
+ *
+ * Without a fast model, or with the same model twice, every pass uses the
+ * primary. Safe to call from chapter workers.
+ */
+final class ModelCascade {
+    static final int PASS_PLAN = 0;
+    static final int PASS_CONTINUE = 1;
+    static final int PASS_EMERGENCY = 2;
+    static final int PASS_FAST_START = 3;
+
+    private final String primary;
+    private final String fast;
+    private final long budgetMs;
+    // Smoothed time to first token of the primary model; -1 until a pass reported one.
+    private long primaryLatencyMs = -1;
+
+    ModelCascade(String primary, String fast, long budgetMs) {
+        this.primary = primary;
+        this.fast = fast == null || fast.isEmpty() || fast.equals(primary) ? null : fast;
+        this.budgetMs = budgetMs;
+    }
+
+    static ModelCascade from(BackgroundStoryService.GenerationConfig config) {
+        return new ModelCascade(config.model, config.storyFastModel, config.storyReasonerBudgetMs);
+    }
+
+    synchronized String choose(int kind) {
+        if (fast == null || kind == PASS_PLAN) return primary;
+        if (kind == PASS_EMERGENCY || kind == PASS_FAST_START || budgetMs <= 0) return fast;
+        // Nothing measured yet, e.g. a resumed story: give the primary one chance.
+        return primaryLatencyMs <= budgetMs ? primary : fast;
+    }
+
+    /** Feeds the time to first token of a finished request; only the primary's are kept. */
+    synchronized void record(String model, long timeToFirstTokenMs) {
+        if (timeToFirstTokenMs < 0 || model == null || !model.equals(primary)) return;
+        primaryLatencyMs = primaryLatencyMs < 0
+            ? timeToFirstTokenMs
+            : (primaryLatencyMs + timeToFirstTokenMs) / 2;
+    }
+
+    synchronized long primaryLatencyMs() {
+        return primaryLatencyMs;
+    }
+}
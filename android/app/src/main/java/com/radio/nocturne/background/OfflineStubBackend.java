@@ -0,0 +1,210 @@
+package com.radio.nocturne.background;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import okhttp3.Call;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.Okio;
+import okio.Source;
+import okio.Timeout;
+import org.json.JSONObject;
+
+/**
+ * A completions server that lives in the client: an interceptor answers
+ * every request with a streamed SSE body made up on the spot, so the whole
+ * pipeline, from passes and the watchdog to chunks, TTS and the journal,
+ * runs without network or API key. Handy on a plane and in CI.
+ *
+ * The text is filler from a fixed word bank, seeded by the pass index, so
+ * the same config always yields the same story. A continuation pass writes
+ * up to CONTINUE_WORDS words, a finalizing pass FINAL_WORDS and then the
+ * outro signature (left out, like a real server does, when it was sent as
+ * the stop sequence). One word is one token, streamed at
+ * storyStubTokensPerSecond; 0 streams as fast as the reader takes it.
+ */
+final class OfflineStubBackend implements StoryBackend {
+    static final int CONTINUE_WORDS = 400;
+    static final int FINAL_WORDS = 200;
+
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+    private static final MediaType EVENT_STREAM = MediaType.parse("text/event-stream");
+    private static final String URL = "http://offline.invalid/chat/completions";
+    private static final int SENTENCE_WORDS = 12;
+    private static final int PARAGRAPH_SENTENCES = 4;
+    private static final String[] WORDS = {
+        "đêm", "gió", "căn nhà", "cánh cửa", "hành lang", "ánh đèn", "bóng tối", "tiếng bước chân",
+        "chiếc gương", "cơn mưa", "con đường", "ngọn nến", "im lặng", "lạnh", "chậm rãi", "xa xăm",
+        "tôi", "anh ấy", "cô ấy", "họ", "nghe thấy", "nhìn", "chờ đợi", "nhớ lại", "thì thầm",
+        "cũ kỹ", "mờ nhạt", "bất chợt", "phía sau", "trong", "ngoài", "và", "nhưng", "rồi", "vẫn",
+    };
+
+    private final BackgroundStoryService.GenerationConfig config;
+
+    OfflineStubBackend(BackgroundStoryService.GenerationConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public String name() {
+        return "Offline stub";
+    }
+
+    @Override
+    public OkHttpClient client(OkHttpClient shared) {
+        return shared.newBuilder().addInterceptor(this::answer).build();
+    }
+
+    @Override
+    public Request request(Pass pass) {
+        return new Request.Builder()
+            .url(URL)
+            .addHeader("Accept", "text/event-stream")
+            .tag(Pass.class, pass)
+            .post(RequestBody.create("{\"model\":" + JSONObject.quote(pass.model) + "}", JSON))
+            .build();
+    }
+
+    @Override
+    public boolean decode(byte[] data, int offset, int length, StreamDeltaScanner delta) {
+        return delta.scan(data, offset, length);
+    }
+
+    @Override
+    public StoryApiException error(int code, String body, long retryAfterMs) {
+        return new StoryApiException(name() + " error " + code + ": " + body, code, retryAfterMs, false);
+    }
+
+    private Response answer(Interceptor.Chain chain) {
+        Pass pass = chain.request().tag(Pass.class);
+        List<String> events = pass != null ? events(pass) : new ArrayList<>();
+        events.add("data: [DONE]\n\n");
+        long intervalMs = config.storyStubTokensPerSecond > 0 ? 1000L / config.storyStubTokensPerSecond : 0;
+        Source source = new PacedSource(chain.call(), events, intervalMs);
+        return new Response.Builder()
+            .request(chain.request())
+            .protocol(Protocol.HTTP_1_1)
+            .code(200)
+            .message("OK")
+            .header("Content-Type", "text/event-stream")
+            .body(ResponseBody.create(Okio.buffer(source), EVENT_STREAM, -1))
+            .build();
+    }
+
+    /** The whole answer of one pass, one SSE event per token, usage last. */
+    List<String> events(Pass pass) {
+        Random random = new Random(pass.passIndex);
+        List<String> tokens = new ArrayList<>();
+        String finishReason = "stop";
+        if (pass.outline) {
+            int chapters = Math.max(2, config.storyChapters);
+            tokens.add("TITLE: " + sentence(random, 4) + "\n");
+            tokens.add("CHARACTERS: " + sentence(random, 6) + "\n");
+            tokens.add("MOTIF: " + sentence(random, 3) + "\n");
+            tokens.add("ENDING: " + sentence(random, 8) + "\n");
+            for (int i = 1; i <= chapters; i++) {
+                tokens.add("SEGMENT " + i + ": " + sentence(random, SENTENCE_WORDS) + "\n");
+            }
+        } else {
+            int words = pass.finalizing ? FINAL_WORDS : CONTINUE_WORDS;
+            if (pass.maxTokens > 0 && pass.maxTokens < words) {
+                words = pass.maxTokens;
+                finishReason = "length";
+            }
+            for (int i = 0; i < words; i++) {
+                String word = WORDS[random.nextInt(WORDS.length)];
+                boolean sentenceStart = i % SENTENCE_WORDS == 0;
+                if (sentenceStart) word = Character.toUpperCase(word.charAt(0)) + word.substring(1);
+                String token = i == 0 ? word : " " + word;
+                if (i % SENTENCE_WORDS == SENTENCE_WORDS - 1 || i == words - 1) {
+                    token += ".";
+                    if ((i / SENTENCE_WORDS) % PARAGRAPH_SENTENCES == PARAGRAPH_SENTENCES - 1) token += "\n";
+                }
+                tokens.add(token);
+            }
+            if (pass.finalizing && "stop".equals(finishReason) && pass.stop == null && config.outroSignature != null) {
+                tokens.add("\n" + config.outroSignature);
+            }
+        }
+
+        List<String> events = new ArrayList<>(tokens.size() + 2);
+        for (String token : tokens) {
+            events.add("data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":" + JSONObject.quote(token) + "}}]}\n\n");
+        }
+        events.add("data: {\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"" + finishReason + "\"}]}\n\n");
+        long promptTokens = (pass.system.length() + pass.prompt.length()) / 4;
+        events.add("data: {\"choices\":[],\"usage\":{\"prompt_tokens\":" + promptTokens
+            + ",\"completion_tokens\":" + tokens.size()
+            + ",\"prompt_cache_hit_tokens\":0,\"prompt_cache_miss_tokens\":" + promptTokens + "}}\n\n");
+        return events;
+    }
+
+    private static String sentence(Random random, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) text.append(' ');
+            text.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    /** Hands out one event per interval; a cancelled call fails the next read, as a real socket would. */
+    private static final class PacedSource implements Source {
+        private final Call call;
+        private final List<String> events;
+        private final long intervalMs;
+        private final Buffer pending = new Buffer();
+        private final Timeout timeout = new Timeout();
+        private int next;
+
+        PacedSource(Call call, List<String> events, long intervalMs) {
+            this.call = call;
+            this.events = events;
+            this.intervalMs = intervalMs;
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+            if (pending.size() == 0) {
+                if (next == events.size()) return -1;
+                pace();
+                pending.writeUtf8(events.get(next++));
+            }
+            return pending.read(sink, Math.min(byteCount, pending.size()));
+        }
+
+        private void pace() throws IOException {
+            long until = System.currentTimeMillis() + intervalMs;
+            while (true) {
+                if (call.isCanceled()) throw new IOException("Canceled");
+                long left = until - System.currentTimeMillis();
+                if (left <= 0) return;
+                try {
+                    Thread.sleep(Math.min(left, 50));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted", e);
+                }
+            }
+        }
+
+        @Override
+        public Timeout timeout() {
+            return timeout;
+        }
+
+        @Override
+        public void close() {
+            pending.clear();
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package com.radio.nocturne.background;
+
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Any server that speaks OpenAI's streamed /chat/completions: OpenAI
+ * itself, OpenRouter, vLLM, llama.cpp and the like. Content comes from
+ * choices[0].delta or .message, or from output[0].content[0].text for
+ * Responses-style bodies. Cached prompt tokens are reported as
+ * usage.prompt_tokens_details.cached_tokens and mapped onto the
+ * cache hit and miss counts.
+ */
+class OpenAiCompatibleBackend implements StoryBackend {
+    private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+    protected final BackgroundStoryService.GenerationConfig config;
+
+    OpenAiCompatibleBackend(BackgroundStoryService.GenerationConfig config) {
+        this.config = config;
+    }
+
+    @Override
+    public String name() {
+        return "API";
+    }
+
+    @Override
+    public OkHttpClient client(OkHttpClient shared) {
+        return shared;
+    }
+
+    @Override
+    public Request request(Pass pass) {
+        Request.Builder builder = new Request.Builder()
+            .url(config.baseUrl + "/chat/completions")
+            .addHeader("Content-Type", "application/json")
+            .addHeader("Accept", "text/event-stream")
+            .addHeader("Cache-Control", "no-cache")
+            .post(RequestBody.create(payload(pass).toString(), JSON));
+        if (config.apiKey != null && !config.apiKey.isEmpty()) {
+            builder.addHeader("Authorization", "Bearer " + config.apiKey);
+        }
+        return builder.build();
+    }
+
+    /** The request body; system message and story brief first, per-pass text last, so passes share a cacheable prefix. */
+    JSONObject payload(Pass pass) {
+        JSONObject payload = new JSONObject();
+        try {
+            payload.put("model", pass.model);
+            payload.put("temperature", config.temperature);
+            payload.put("top_p", config.topP);
+            payload.put("max_tokens", pass.maxTokens);
+            payload.put("stream", true);
+            payload.put("stream_options", new JSONObject().put("include_usage", true));
+            if (pass.stop != null) {
+                payload.put("stop", new JSONArray().put(pass.stop));
+            }
+            JSONArray messages = new JSONArray();
+            messages.put(new JSONObject().put("role", "system").put("content", pass.system));
+            messages.put(new JSONObject().put("role", "user").put("content", pass.prompt));
+            payload.put("messages", messages);
+        } catch (JSONException ignored) {
+        }
+        return payload;
+    }
+
+    @Override
+    public boolean decode(byte[] data, int offset, int length, StreamDeltaScanner delta) {
+        if (!delta.scan(data, offset, length)) return false;
+        if (delta.hasUsage && delta.promptCacheHitTokens == 0 && delta.promptCacheMissTokens == 0) {
+            delta.promptCacheHitTokens = delta.cachedTokens;
+            delta.promptCacheMissTokens = Math.max(0, delta.promptTokens - delta.cachedTokens);
+        }
+        return true;
+    }
+
+    /** A 429 that says the quota is used up will not go away by waiting. */
+    @Override
+    public StoryApiException error(int code, String body, long retryAfterMs) {
+        boolean retryable = StoryApiException.isTransient(code) && (body == null || !body.contains("insufficient_quota"));
+        return new StoryApiException(name() + " error " + code + ": " + body, code, retryAfterMs, retryable);
+    }
+}
@@ -0,0 +1,113 @@
+package com.radio.nocturne.background;
+
+/**
+ * Timing and outcome of one request of a generation: one per attempt, so a
+ * retried pass has several. Times are milliseconds from the moment the
+ * request was handed to the client, or -1 if the point was never reached.
+ *
+ * Reasoning deltas (delta.reasoning_content from deepseek-reasoner) are
+ * counted apart from the story text: they never reach the story, and the
+ * time to first token, gaps and chars/s describe story text only.
+ */
+final class PassMetrics {
+    static final String END_SIGNATURE = "signature";
+    static final String END_HARD_MAX = "hard_max";
+    static final String END_TIMEOUT = "timeout";
+    /** The watchdog cut the stream after it went silent for the idle timeout. */
+    static final String END_STALLED = "stalled";
+    static final String END_DONE = "done";
+    /** The stream closed after a finish_reason but without [DONE]. */
+    static final String END_STREAM_CLOSED = "stream_closed";
+    /** The stream closed before any finish_reason: the connection was cut. */
+    static final String END_DROPPED = "dropped";
+    static final String END_HTTP_ERROR = "http_error";
+    static final String END_ERROR = "error";
+    static final String END_CANCELLED = "cancelled";
+    /** A DegenerationGuard cut the stream; guard says which check. */
+    static final String END_DEGENERATE = "degenerate";
+
+    final int passIndex;
+    final int attempt;
+    final boolean emergency;
+    final boolean finalizing;
+    final long requestSentAt;
+    /** The model the request was sent to; chosen per pass by ModelCascade. */
+    String model;
+    /** max_tokens sent with the request. */
+    int maxTokens;
+
+    int httpStatus = -1;
+    boolean connectionReused;
+    long connectionSetupMs = -1;
+    long timeToFirstByteMs = -1;
+    long timeToFirstTokenMs = -1;
+    long lastTokenMs = -1;
+    long durationMs = -1;
+    long maxGapMs;
+    int deltas;
+    int chars;
+    String finishReason;
+    String endReason;
+    String error;
+    /** DegenerationGuard.REPETITION or LANGUAGE_DRIFT if the pass was cut for it, else null. */
+    String guard;
+
+    long timeToFirstReasoningMs = -1;
+    long lastReasoningMs = -1;
+    int reasoningDeltas;
+    int reasoningChars;
+
+    long promptTokens = -1;
+    long completionTokens = -1;
+    long promptCacheHitTokens = -1;
+    long promptCacheMissTokens = -1;
+    long reasoningTokens = -1;
+
+    PassMetrics(int passIndex, int attempt, boolean emergency, boolean finalizing, long requestSentAt) {
+        this.passIndex = passIndex;
+        this.attempt = attempt;
+        this.emergency = emergency;
+        this.finalizing = finalizing;
+        this.requestSentAt = requestSentAt;
+    }
+
+    void onDelta(long atMs, int length) {
+        if (timeToFirstTokenMs < 0) {
+            timeToFirstTokenMs = atMs;
+        } else {
+            maxGapMs = Math.max(maxGapMs, atMs - lastTokenMs);
+        }
+        lastTokenMs = atMs;
+        deltas++;
+        chars += length;
+    }
+
+    void onReasoning(long atMs, int length) {
+        if (timeToFirstReasoningMs < 0) timeToFirstReasoningMs = atMs;
+        lastReasoningMs = atMs;
+        reasoningDeltas++;
+        reasoningChars += length;
+    }
+
+    void onUsage(StreamDeltaScanner delta) {
+        promptTokens = delta.promptTokens;
+        completionTokens = delta.completionTokens;
+        promptCacheHitTokens = delta.promptCacheHitTokens;
+        promptCacheMissTokens = delta.promptCacheMissTokens;
+        reasoningTokens = delta.reasoningTokens;
+    }
+
+    /** Time spent thinking: from the first reasoning delta to the first story token, or to the last reasoning delta. */
+    long reasoningMs() {
+        if (timeToFirstReasoningMs < 0) return 0;
+        long end = timeToFirstTokenMs >= 0 ? timeToFirstTokenMs : lastReasoningMs;
+        return Math.max(0, end - timeToFirstReasoningMs);
+    }
+
+    /** Content characters per second between the first and the last delta; 0 with fewer than two deltas. */
+    double charsPerSecond() {
+        if (deltas < 2) return 0;
+        long span = Math.max(1, lastTokenMs - timeToFirstTokenMs);
+        return chars * 1000.0 / span;
+    }
+}
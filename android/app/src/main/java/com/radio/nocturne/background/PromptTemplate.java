@@ -0,0 +1,78 @@
+package com.radio.nocturne.background;
+
+import java.util.ArrayList;
+
+/**
+ * Prompt text compiled into literal segments and numbered slots. Adjacent
+ * literals are joined once when the template is built, so rendering only
+ * appends the frozen segments and whatever the caller writes into each slot.
+ * The leading literal is exposed as the prefix so it can be staged into a
+ * builder ahead of time.
+ */
+final class PromptTemplate {
+    interface Slots {
+        void fill(int slot, StringBuilder out);
+    }
+
+    // literals[i] comes before slots[i]; the last literal trails the final slot.
+    private final String[] literals;
+    private final int[] slots;
+    private final int literalLength;
+
+    private PromptTemplate(String[] literals, int[] slots) {
+        this.literals = literals;
+        this.slots = slots;
+        int total = 0;
+        for (String literal : literals) total += literal.length();
+        literalLength = total;
+    }
+
+    String prefix() {
+        return literals[0];
+    }
+
+    /** Combined length of all literal segments, for sizing builders. */
+    int literalLength() {
+        return literalLength;
+    }
+
+    void render(StringBuilder out, Slots values) {
+        out.append(literals[0]);
+        renderAfterPrefix(out, values);
+    }
+
+    /** Appends everything after the prefix; the builder must already end with it. */
+    void renderAfterPrefix(StringBuilder out, Slots values) {
+        for (int i = 0; i < slots.length; i++) {
+            values.fill(slots[i], out);
+            out.append(literals[i + 1]);
+        }
+    }
+
+    static final class Builder {
+        private final ArrayList<String> literals = new ArrayList<>();
+        private final ArrayList<Integer> slots = new ArrayList<>();
+        private final StringBuilder pending = new StringBuilder();
+
+        Builder text(String text) {
+            if (text != null) pending.append(text);
+            return this;
+        }
+
+        Builder slot(int id) {
+            literals.add(pending.toString());
+            pending.setLength(0);
+            slots.add(id);
+            return this;
+        }
+
+        PromptTemplate build() {
+            String[] literalArray = new String[literals.size() + 1];
+            literals.toArray(literalArray);
+            literalArray[literalArray.length - 1] = pending.toString();
+            int[] slotArray = new int[slots.size()];
+            for (int i = 0; i < slotArray.length; i++) slotArray[i] = slots.get(i);
+            return new PromptTemplate(literalArray, slotArray);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.radio.nocturne.background;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+/**
+ * Decides whether a failed pass is worth another attempt and how long to wait.
+ * Rate limits, server errors and dropped connections are retried; bad
+ * requests, auth and balance errors are not. The wait is exponential backoff
+ * where the upper half of each step is random, but never shorter than the
+ * server's Retry-After.
+ */
+final class RetryPolicy {
+    static final class Decision {
+        final boolean retry;
+        final long delayMs;
+        final String reason;
+
+        Decision(boolean retry, long delayMs, String reason) {
+            this.retry = retry;
+            this.delayMs = delayMs;
+            this.reason = reason;
+        }
+    }
+
+    private static final long MAX_RETRY_AFTER_MS = 5 * 60 * 1000;
+
+    final int maxAttempts;
+    final long baseDelayMs;
+    final long maxDelayMs;
+    final long offlineWaitMs;
+    private final Random random;
+
+    RetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs, long offlineWaitMs, Random random) {
+        this.maxAttempts = Math.max(0, maxAttempts);
+        this.baseDelayMs = Math.max(1, baseDelayMs);
+        this.maxDelayMs = Math.max(this.baseDelayMs, maxDelayMs);
+        this.offlineWaitMs = Math.max(0, offlineWaitMs);
+        this.random = random;
+    }
+
+    static RetryPolicy from(BackgroundStoryService.GenerationConfig config) {
+        return new RetryPolicy(
+            config.retryMaxAttempts,
+            config.retryBaseDelayMs,
+            config.retryMaxDelayMs,
+            config.offlineWaitMs,
+            new Random()
+        );
+    }
+
+    /** failures is how many attempts of this pass have failed so far, including this one. */
+    Decision onFailure(IOException error, int failures) {
+        String reason = describe(error);
+        if (!isRetryable(error)) return new Decision(false, 0, reason);
+        if (failures > maxAttempts) return new Decision(false, 0, reason);
+        long ceiling = Math.min(maxDelayMs, baseDelayMs << Math.min(failures - 1, 20));
+        long delay = ceiling / 2 + (long) (random.nextDouble() * (ceiling - ceiling / 2));
+        if (error instanceof StoryApiException) {
+            long retryAfter = ((StoryApiException) error).retryAfterMs;
+            if (retryAfter > 0) delay = Math.max(delay, Math.min(retryAfter, MAX_RETRY_AFTER_MS));
+        }
+        return new Decision(true, delay, reason);
+    }
+
+    static boolean isRetryable(IOException error) {
+        if (error instanceof StoryGenerator.DeadlineException) return false;
+        if (error instanceof StoryApiException) return ((StoryApiException) error).retryable;
+        if (error instanceof SSLPeerUnverifiedException) return false;
+        if (error instanceof InterruptedIOException && !(error instanceof SocketTimeoutException)) {
+            // Cancelled call, not a network problem.
+            return false;
+        }
+        return true;
+    }
+
+    private static String describe(IOException error) {
+        if (error instanceof StoryApiException) return "HTTP " + ((StoryApiException) error).code;
+        String message = error.getMessage();
+        return error.getClass().getSimpleName() + (message != null ? ": " + message : "");
+    }
+
+    /** Retry-After as delta-seconds or an HTTP date; -1 if absent or unparseable. */
+    static long parseRetryAfter(String header, long nowMillis) {
+        if (header == null) return -1;
+        String value = header.trim();
+        if (value.isEmpty()) return -1;
+        try {
+            long seconds = Long.parseLong(value);
+            return seconds >= 0 ? seconds * 1000 : -1;
+        } catch (NumberFormatException ignored) {
+        }
+        SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("GMT"));
+        Date date = format.parse(value, new ParsePosition(0));
+        if (date == null) return -1;
+        return Math.max(0, date.getTime() - nowMillis);
+    }
+}
@@ -0,0 +1,65 @@
+package com.radio.nocturne.background;
+
+/**
+ * KMP automaton for the outro signature, fed one streamed delta at a time.
+ * Detects the signature the moment its last character arrives, even when
+ * it is spread over several SSE events, and reports where in the current
+ * delta the story should be cut.
+ */
+final class SignatureMatcher {
+    private final String pattern;
+    private final int[] failure;
+    private int state;
+    private boolean matched;
+
+    SignatureMatcher(String pattern) {
+        this.pattern = pattern == null ? "" : pattern;
+        this.failure = buildFailure(this.pattern);
+    }
+
+    boolean isEmpty() {
+        return pattern.isEmpty();
+    }
+
+    boolean matched() {
+        return matched;
+    }
+
+    /**
+     * Advances over delta. Returns the index in delta just past the last
+     * character of the signature when it completes here, or -1.
+     */
+    int feed(CharSequence delta) {
+        if (matched || pattern.isEmpty() || delta == null) return -1;
+        int length = delta.length();
+        for (int i = 0; i < length; i++) {
+            char c = delta.charAt(i);
+            while (state > 0 && pattern.charAt(state) != c) {
+                state = failure[state - 1];
+            }
+            if (pattern.charAt(state) == c) {
+                state++;
+            }
+            if (state == pattern.length()) {
+                matched = true;
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    private static int[] buildFailure(String pattern) {
+        int[] table = new int[pattern.length()];
+        int k = 0;
+        for (int i = 1; i < pattern.length(); i++) {
+            while (k > 0 && pattern.charAt(k) != pattern.charAt(i)) {
+                k = table[k - 1];
+            }
+            if (pattern.charAt(k) == pattern.charAt(i)) {
+                k++;
+            }
+            table[i] = k;
+        }
+        return table;
+    }
+}
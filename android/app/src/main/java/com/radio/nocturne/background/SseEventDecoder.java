@@ -0,0 +1,135 @@
+package com.radio.nocturne.background;
+
+import java.io.EOFException;
+import java.io.IOException;
+import okio.BufferedSource;
+
+/**
+ * Frames a text/event-stream body into events straight from the okio buffer.
+ * The data lines of an event are collected into a reusable byte array, so a
+ * token event costs no String, regex or line allocation. Comments (": ...")
+ * and non-data fields are skipped; "[DONE]" is reported as its own result.
+ */
+final class SseEventDecoder {
+    static final int END = 0;
+    static final int EVENT = 1;
+    static final int DONE = 2;
+
+    private static final byte[] DONE_MARKER = {'[', 'D', 'O', 'N', 'E', ']'};
+
+    private final BufferedSource source;
+    private byte[] data = new byte[1024];
+    private int length;
+    private boolean hasData;
+
+    SseEventDecoder(BufferedSource source) {
+        this.source = source;
+    }
+
+    /** Payload of the last EVENT; valid until the next call to {@link #next()}. */
+    byte[] data() {
+        return data;
+    }
+
+    int length() {
+        return length;
+    }
+
+    int next() throws IOException {
+        length = 0;
+        hasData = false;
+        while (true) {
+            long newline = source.indexOf((byte) '\n');
+            long lineLength;
+            if (newline < 0) {
+                if (source.exhausted()) {
+                    return hasData ? dispatch() : END;
+                }
+                lineLength = source.getBuffer().size();
+            } else {
+                lineLength = newline;
+            }
+
+            long end = lineLength;
+            if (end > 0 && source.getBuffer().getByte(end - 1) == '\r') {
+                end--;
+            }
+            long start = 0;
+            while (start < end && source.getBuffer().getByte(start) == ' ') {
+                start++;
+            }
+
+            if (start == end) {
+                skipLine(newline, lineLength);
+                if (hasData) return dispatch();
+                continue;
+            }
+
+            byte first = source.getBuffer().getByte(start);
+            if (first == ':' || !isDataField(start, end)) {
+                skipLine(newline, lineLength);
+                continue;
+            }
+
+            long valueStart = start + 5;
+            if (valueStart < end && source.getBuffer().getByte(valueStart) == ' ') {
+                valueStart++;
+            }
+            source.skip(valueStart);
+            int valueLength = (int) (end - valueStart);
+            if (hasData) {
+                ensureCapacity(length + 1 + valueLength);
+                data[length++] = '\n';
+            } else {
+                ensureCapacity(valueLength);
+            }
+            int remaining = valueLength;
+            while (remaining > 0) {
+                int read = source.read(data, length, remaining);
+                if (read < 0) throw new EOFException();
+                length += read;
+                remaining -= read;
+            }
+            hasData = true;
+            source.skip(lineLength - end + (newline < 0 ? 0 : 1));
+        }
+    }
+
+    private int dispatch() {
+        int start = 0;
+        int end = length;
+        while (start < end && data[start] == ' ') start++;
+        while (end > start && (data[end - 1] == ' ' || data[end - 1] == '\r')) end--;
+        if (end - start == DONE_MARKER.length) {
+            boolean done = true;
+            for (int i = 0; i < DONE_MARKER.length; i++) {
+                if (data[start + i] != DONE_MARKER[i]) {
+                    done = false;
+                    break;
+                }
+            }
+            if (done) return DONE;
+        }
+        return EVENT;
+    }
+
+    private boolean isDataField(long start, long end) {
+        if (end - start < 5) return false;
+        return source.getBuffer().getByte(start) == 'd'
+            && source.getBuffer().getByte(start + 1) == 'a'
+            && source.getBuffer().getByte(start + 2) == 't'
+            && source.getBuffer().getByte(start + 3) == 'a'
+            && source.getBuffer().getByte(start + 4) == ':';
+    }
+
+    private void skipLine(long newline, long lineLength) throws IOException {
+        source.skip(newline < 0 ? lineLength : newline + 1);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= data.length) return;
+        byte[] grown = new byte[Math.max(capacity, data.length * 2)];
+        System.arraycopy(data, 0, grown, 0, length);
+        data = grown;
+    }
+}
@@ -0,0 +1,134 @@
+package com.radio.nocturne.background;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Call;
+
+/**
+ * Enforces the story's time limits on a streaming call from outside it. The
+ * client reads with no timeout, so a connection that silently stops sending
+ * would otherwise block the generating thread forever; the watchdog cancels
+ * the call when no event has arrived for the idle timeout, when the pass
+ * deadline passes or when the whole generation's deadline passes.
+ *
+ * Progress is one volatile write per event. A single check per watch is
+ * scheduled for the earliest moment any limit could run out and moves
+ * itself forward when progress was made in the meantime.
+ */
+final class StallWatchdog {
+    static final String IDLE = "idle";
+    static final String PASS_DEADLINE = "pass_deadline";
+    static final String GENERATION_DEADLINE = "generation_deadline";
+
+    private static ScheduledExecutorService scheduler;
+
+    private final long idleTimeoutMs;
+    private final long passTimeoutMs;
+    private final long generationDeadline;
+
+    /** Any limit of zero or less is off. The generation clock starts now. */
+    StallWatchdog(long idleTimeoutMs, long passTimeoutMs, long generationTimeoutMs) {
+        this.idleTimeoutMs = idleTimeoutMs;
+        this.passTimeoutMs = passTimeoutMs;
+        this.generationDeadline = generationTimeoutMs > 0 ? nowMs() + generationTimeoutMs : 0;
+    }
+
+    boolean generationExpired() {
+        return generationDeadline > 0 && nowMs() >= generationDeadline;
+    }
+
+    /** Starts watching call; the caller must stop() the watch when the pass ends. */
+    Watch watch(Call call) {
+        Watch watch = new Watch(call);
+        watch.schedule(watch.untilNextCheck(nowMs()));
+        return watch;
+    }
+
+    final class Watch implements Runnable {
+        private final Call call;
+        private final long startedAt;
+        private volatile long lastProgressAt;
+        private volatile String fired;
+        private volatile long idleAtFire;
+        private ScheduledFuture<?> pending;
+        private boolean stopped;
+
+        Watch(Call call) {
+            this.call = call;
+            this.startedAt = nowMs();
+            this.lastProgressAt = startedAt;
+        }
+
+        void progress() {
+            lastProgressAt = nowMs();
+        }
+
+        /** Which limit cancelled the call, or null. */
+        String fired() {
+            return fired;
+        }
+
+        /** How long the stream had been silent when the watch fired. */
+        long idleMs() {
+            return idleAtFire;
+        }
+
+        synchronized void stop() {
+            stopped = true;
+            if (pending != null) pending.cancel(false);
+        }
+
+        @Override
+        public void run() {
+            long now = nowMs();
+            String reason = null;
+            if (generationDeadline > 0 && now >= generationDeadline) {
+                reason = GENERATION_DEADLINE;
+            } else if (passTimeoutMs > 0 && now - startedAt >= passTimeoutMs) {
+                reason = PASS_DEADLINE;
+            } else if (idleTimeoutMs > 0 && now - lastProgressAt >= idleTimeoutMs) {
+                reason = IDLE;
+            }
+            if (reason == null) {
+                schedule(untilNextCheck(now));
+                return;
+            }
+            synchronized (this) {
+                if (stopped) return;
+                idleAtFire = now - lastProgressAt;
+                fired = reason;
+            }
+            call.cancel();
+        }
+
+        private long untilNextCheck(long now) {
+            long next = Long.MAX_VALUE;
+            if (generationDeadline > 0) next = Math.min(next, generationDeadline);
+            if (passTimeoutMs > 0) next = Math.min(next, startedAt + passTimeoutMs);
+            if (idleTimeoutMs > 0) next = Math.min(next, lastProgressAt + idleTimeoutMs);
+            return next == Long.MAX_VALUE ? -1 : Math.max(0, next - now);
+        }
+
+        private synchronized void schedule(long delayMs) {
+            if (stopped || delayMs < 0) return;
+            pending = scheduler().schedule(this, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "story-watchdog");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+
+    private static long nowMs() {
+        return System.nanoTime() / 1_000_000L;
+    }
+}
@@ -0,0 +1,351 @@
+package com.radio.nocturne.background;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Radio-station mode: keeps up to capacity finished stories ready so the
+ * next one can start playing immediately. When the queue drops below the
+ * low-water mark, the scheduler generates stories until it is full
+ * again. Station jobs run only while the service is otherwise idle; a story
+ * the user asks for directly always takes priority and cancels a station job,
+ * which is retried once the service is idle again. A failed job is retried
+ * after a back-off that grows with each failure in a row; after
+ * MAX_CONSECUTIVE_FAILURES the station keeps trying every FAILURE_PAUSE_MS
+ * instead, so it recovers on its own once the API is reachable again.
+ *
+ * All state is guarded by this. Generation is started from the scheduler
+ * thread, so a finishing job never restarts its own executor, and the host
+ * is never called with the lock held.
+ */
+final class StationScheduler {
+    interface Host {
+        /** Starts a station job unless a user story is running; returns whether it started. */
+        boolean startStationJob(BackgroundStoryService.GenerationConfig config, BackgroundStoryService.StoryListener sink);
+
+        void cancelStationJob();
+    }
+
+    interface Listener {
+        void onStationUpdate(Status status);
+    }
+
+    static final class ReadyStory {
+        final String id;
+        final String topic;
+        final String text;
+        final int words;
+        final long generationMs;
+
+        ReadyStory(String id, String topic, String text, int words, long generationMs) {
+            this.id = id;
+            this.topic = topic;
+            this.text = text;
+            this.words = words;
+            this.generationMs = generationMs;
+        }
+    }
+
+    static final class Status {
+        final boolean active;
+        final int depth;
+        final int capacity;
+        final int lowWater;
+        final boolean generating;
+        final int currentWords;
+        final long etaMs;
+        final long averageGenerationMs;
+        final String lastError;
+
+        Status(
+            boolean active,
+            int depth,
+            int capacity,
+            int lowWater,
+            boolean generating,
+            int currentWords,
+            long etaMs,
+            long averageGenerationMs,
+            String lastError
+        ) {
+            this.active = active;
+            this.depth = depth;
+            this.capacity = capacity;
+            this.lowWater = lowWater;
+            this.generating = generating;
+            this.currentWords = currentWords;
+            this.etaMs = etaMs;
+            this.averageGenerationMs = averageGenerationMs;
+            this.lastError = lastError;
+        }
+    }
+
+    private static final long RETRY_DELAY_MS = 15_000;
+    private static final int MAX_CONSECUTIVE_FAILURES = 3;
+    static final long FAILURE_PAUSE_MS = 5 * 60_000;
+    private static final double RATE_SMOOTHING = 0.3;
+
+    private final ScheduledExecutorService executor;
+    private final Host host;
+    private final ArrayDeque<ReadyStory> ready = new ArrayDeque<>();
+    private Listener listener;
+
+    private BackgroundStoryService.GenerationConfig template;
+    private String[] topics;
+    private int capacity;
+    private int lowWater;
+    private boolean active;
+    private boolean filling;
+    private int nextTopic;
+    private int nextId;
+
+    private JobSink current;
+    private int consecutiveFailures;
+    // Set while a failed job's back-off runs; only the retry it scheduled, or the user, ends it.
+    private boolean backingOff;
+    private int backOffSeq;
+    private String lastError;
+    private double wordsPerMs;
+    private long averageGenerationMs;
+
+    StationScheduler(ScheduledExecutorService executor, Host host) {
+        this.executor = executor;
+        this.host = host;
+    }
+
+    synchronized void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Starts or reconfigures the station. topics are used round-robin; with
+     * none, every story gets a random flavor and no topic.
+     */
+    synchronized void start(
+        BackgroundStoryService.GenerationConfig template,
+        String[] topics,
+        int capacity,
+        int lowWater
+    ) {
+        this.template = template;
+        this.topics = topics != null ? topics : new String[0];
+        this.capacity = Math.max(1, capacity);
+        this.lowWater = Math.max(1, Math.min(lowWater, this.capacity));
+        while (ready.size() > this.capacity) ready.removeLast();
+        active = true;
+        resetFailures();
+        lastError = null;
+        filling = ready.size() < this.lowWater;
+        schedule(0);
+        publish();
+    }
+
+    void stop() {
+        boolean cancel;
+        synchronized (this) {
+            active = false;
+            filling = false;
+            ready.clear();
+            cancel = current != null;
+            current = null;
+            publish();
+        }
+        if (cancel) host.cancelStationJob();
+    }
+
+    /** Removes the oldest ready story, or returns null if none is ready yet. */
+    synchronized ReadyStory take() {
+        ReadyStory story = ready.pollFirst();
+        if (active && ready.size() < lowWater) {
+            filling = true;
+            resetFailures();
+            schedule(0);
+        }
+        publish();
+        return story;
+    }
+
+    /** Called by the service whenever a job ends, so a postponed station job can start. */
+    void onHostIdle() {
+        schedule(0);
+    }
+
+    /** A user story replaced the running station job; it is retried once the host is idle. */
+    synchronized void onPreempted() {
+        current = null;
+        publish();
+    }
+
+    synchronized boolean isActive() {
+        return active;
+    }
+
+    synchronized Status status() {
+        int currentWords = current != null ? current.counter.count() : 0;
+        return new Status(
+            active,
+            ready.size(),
+            capacity,
+            lowWater,
+            current != null,
+            currentWords,
+            estimateNextMs(),
+            averageGenerationMs,
+            lastError
+        );
+    }
+
+    /** Milliseconds until the next story is ready: 0 if one is queued, -1 if unknown. */
+    private long estimateNextMs() {
+        if (!ready.isEmpty()) return 0;
+        if (!active) return -1;
+        int target = template != null ? Math.max(1, template.storyTargetWords) : 1;
+        if (current == null) {
+            return averageGenerationMs > 0 ? averageGenerationMs : -1;
+        }
+        long elapsed = nowMs() - current.startedAt;
+        int words = current.counter.count();
+        int remaining = Math.max(0, target - words);
+        if (wordsPerMs > 0) return (long) (remaining / wordsPerMs);
+        if (words > 0) return (long) (elapsed * (remaining / (double) words));
+        return -1;
+    }
+
+    private void schedule(long delayMs) {
+        executor.schedule(this::maybeGenerate, delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void maybeGenerate() {
+        BackgroundStoryService.GenerationConfig config;
+        JobSink sink;
+        synchronized (this) {
+            if (!active || !filling || current != null) return;
+            if (ready.size() >= capacity) {
+                filling = false;
+                return;
+            }
+            if (backingOff) return;
+            config = template.copy();
+            config.topic = topics.length > 0 ? topics[nextTopic++ % topics.length] : "";
+            config.existingText = "";
+            config.jobId = null;
+            config.resumeNewTextStart = -1;
+            sink = new JobSink("station-" + (++nextId), config.topic);
+            current = sink;
+        }
+        boolean started = host.startStationJob(config, sink);
+        synchronized (this) {
+            // Not started means a user story is running; onHostIdle() retries when it ends.
+            if (!started && current == sink) current = null;
+            publish();
+        }
+    }
+
+    private synchronized void jobDone(JobSink sink, String text) {
+        if (current != sink) return;
+        current = null;
+        long duration = Math.max(1, nowMs() - sink.startedAt);
+        int words = StreamingWordCounter.countWords(text);
+        if (words > 0) {
+            double rate = words / (double) duration;
+            wordsPerMs = wordsPerMs == 0 ? rate : wordsPerMs + RATE_SMOOTHING * (rate - wordsPerMs);
+            averageGenerationMs = averageGenerationMs == 0
+                ? duration
+                : (long) (averageGenerationMs + RATE_SMOOTHING * (duration - averageGenerationMs));
+            ready.addLast(new ReadyStory(sink.id, sink.topic, text, words, duration));
+            consecutiveFailures = 0;
+            lastError = null;
+        }
+        if (ready.size() >= capacity) filling = false;
+        schedule(0);
+        publish();
+    }
+
+    private synchronized void jobFailed(JobSink sink, String message, boolean aborted) {
+        if (current != sink) return;
+        current = null;
+        if (!aborted) {
+            consecutiveFailures++;
+            lastError = message;
+            backOff(consecutiveFailures < MAX_CONSECUTIVE_FAILURES
+                ? RETRY_DELAY_MS * consecutiveFailures
+                : FAILURE_PAUSE_MS);
+        }
+        publish();
+    }
+
+    // The job's end also calls onHostIdle(), which must not cut the back-off short.
+    private void backOff(long delayMs) {
+        backingOff = true;
+        int seq = ++backOffSeq;
+        executor.schedule(() -> endBackOff(seq), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    private void endBackOff(int seq) {
+        synchronized (this) {
+            // A newer failure, or a reset, owns the back-off now.
+            if (seq != backOffSeq || !backingOff) return;
+            backingOff = false;
+        }
+        maybeGenerate();
+    }
+
+    private void resetFailures() {
+        consecutiveFailures = 0;
+        backingOff = false;
+        backOffSeq++;
+    }
+
+    private void publish() {
+        Listener target = listener;
+        if (target != null) target.onStationUpdate(status());
+    }
+
+    private static long nowMs() {
+        return System.nanoTime() / 1_000_000L;
+    }
+
+    /** Receives the callbacks of one station job. */
+    private final class JobSink implements BackgroundStoryService.StoryListener {
+        final String id;
+        final String topic;
+        final long startedAt = nowMs();
+        final StreamingWordCounter counter = new StreamingWordCounter();
+
+        JobSink(String id, String topic) {
+            this.id = id;
+            this.topic = topic;
+        }
+
+        @Override
+        public void onChunk(String text, int offset) {
+            synchronized (StationScheduler.this) {
+                counter.feed(text);
+            }
+        }
+
+        @Override
+        public void onDone(String fullText, String newText, TokenUsage usage, List<PassMetrics> passes) {
+            jobDone(this, fullText);
+        }
+
+        @Override
+        public void onError(String message, boolean aborted) {
+            jobFailed(this, message, aborted);
+        }
+
+        @Override
+        public void onRetry(int attempt, long delayMs, String reason, boolean offline) {
+        }
+
+        @Override
+        public void onStalled(int passIndex, String reason, long idleMs, boolean willRetry) {
+        }
+
+        @Override
+        public void onReasoning(int passIndex, String text, int totalChars) {
+        }
+    }
+}
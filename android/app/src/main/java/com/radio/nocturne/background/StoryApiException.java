@@ -0,0 +1,28 @@
+package com.radio.nocturne.background;
+
+import java.io.IOException;
+
+/**
+ * Non-2xx answer from the completions endpoint, with the server's Retry-After
+ * hint if any. The {@link StoryBackend} that got it decides whether it is
+ * worth retrying.
+ */
+final class StoryApiException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    final int code;
+    final long retryAfterMs;
+    final boolean retryable;
+
+    StoryApiException(String message, int code, long retryAfterMs, boolean retryable) {
+        super(message);
+        this.code = code;
+        this.retryAfterMs = retryAfterMs;
+        this.retryable = retryable;
+    }
+
+    /** Timeouts, rate limits and server errors: transient with any backend. */
+    static boolean isTransient(int code) {
+        return code == 408 || code == 429 || code >= 500;
+    }
+}
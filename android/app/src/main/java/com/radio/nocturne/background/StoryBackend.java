@@ -0,0 +1,68 @@
+package com.radio.nocturne.background;
+
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+
+/**
+ * What StoryGenerator needs from a completions provider: the client to run
+ * on, the request for one pass, how to read an event or a whole response
+ * body, and how to turn a non-2xx answer into an exception. The generator
+ * keeps everything else: retries, the watchdog, signature matching and
+ * metrics.
+ *
+ * Picked by storyBackend: "deepseek" (the default), "openai" for any
+ * OpenAI-compatible /chat/completions server, or "offline" for a
+ * deterministic in-process stub that needs neither network nor key.
+ */
+interface StoryBackend {
+    String DEEPSEEK = "deepseek";
+    String OPENAI = "openai";
+    String OFFLINE = "offline";
+
+    /** One request of a pass, before it is put on the wire. */
+    final class Pass {
+        final int passIndex;
+        final String model;
+        final String system;
+        final String prompt;
+        final int maxTokens;
+        /** Stop sequence, or null. */
+        final String stop;
+        final boolean finalizing;
+        /** The outline request of an outlined story. */
+        final boolean outline;
+
+        Pass(int passIndex, String model, String system, String prompt, int maxTokens, String stop, boolean finalizing, boolean outline) {
+            this.passIndex = passIndex;
+            this.model = model;
+            this.system = system;
+            this.prompt = prompt;
+            this.maxTokens = maxTokens;
+            this.stop = stop;
+            this.finalizing = finalizing;
+            this.outline = outline;
+        }
+    }
+
+    /** Name used in error messages. */
+    String name();
+
+    /** The client requests of this backend run on, derived from the shared one. */
+    OkHttpClient client(OkHttpClient shared);
+
+    Request request(Pass pass);
+
+    /**
+     * Reads one SSE event, or a whole non-streamed body, into delta. Returns
+     * false when the payload is not one this backend understands.
+     */
+    boolean decode(byte[] data, int offset, int length, StreamDeltaScanner delta);
+
+    StoryApiException error(int code, String body, long retryAfterMs);
+
+    static StoryBackend from(BackgroundStoryService.GenerationConfig config) {
+        if (OFFLINE.equals(config.storyBackend)) return new OfflineStubBackend(config);
+        if (OPENAI.equals(config.storyBackend)) return new OpenAiCompatibleBackend(config);
+        return new DeepSeekBackend(config);
+    }
+}
@@ -0,0 +1,162 @@
+package com.radio.nocturne.background;
+
+import java.util.ArrayList;
+
+/**
+ * Append-only story text stored as a list of fixed-size char segments.
+ * Appending copies only the new text; tail views walk the segments
+ * directly. A full String is built only by snapshot(), and that
+ * result is cached until the next change.
+ *
+ * Written by the generation worker and read from the plugin thread, so all
+ * access is synchronized.
+ */
+final class StoryBuffer {
+    private static final int SEGMENT_SIZE = 4096;
+
+    static final int BOUNDARY_NONE = 0;
+    static final int BOUNDARY_SENTENCE = 1;
+    static final int BOUNDARY_PARAGRAPH = 2;
+
+    private final ArrayList<char[]> segments = new ArrayList<>();
+    private int length;
+    private String snapshot = "";
+
+    synchronized int length() {
+        return length;
+    }
+
+    synchronized void append(CharSequence text) {
+        if (text == null) return;
+        int textLength = text.length();
+        if (textLength == 0) return;
+        int copied = 0;
+        while (copied < textLength) {
+            int offset = length % SEGMENT_SIZE;
+            if (offset == 0 && length / SEGMENT_SIZE == segments.size()) {
+                segments.add(new char[SEGMENT_SIZE]);
+            }
+            char[] segment = segments.get(length / SEGMENT_SIZE);
+            int count = Math.min(SEGMENT_SIZE - offset, textLength - copied);
+            if (text instanceof String) {
+                ((String) text).getChars(copied, copied + count, segment, offset);
+            } else {
+                for (int i = 0; i < count; i++) {
+                    segment[offset + i] = text.charAt(copied + i);
+                }
+            }
+            copied += count;
+            length += count;
+        }
+        snapshot = null;
+    }
+
+    synchronized char charAt(int index) {
+        return segments.get(index / SEGMENT_SIZE)[index % SEGMENT_SIZE];
+    }
+
+    synchronized String substring(int start, int end) {
+        start = Math.max(0, start);
+        end = Math.min(length, end);
+        if (start >= end) return "";
+        if (start == 0 && end == length) return snapshot();
+        char[] out = new char[end - start];
+        copyTo(start, end, out);
+        return new String(out);
+    }
+
+    synchronized String substring(int start) {
+        return substring(start, length);
+    }
+
+    /** Whole text as a String; rebuilt only after the buffer changed. */
+    synchronized String snapshot() {
+        if (snapshot == null) {
+            char[] out = new char[length];
+            copyTo(0, length, out);
+            snapshot = new String(out);
+        }
+        return snapshot;
+    }
+
+    /**
+     * Start index of the last maxWords whitespace-separated words, found by
+     * walking backwards from the end; costs O(excerpt), not O(story).
+     */
+    private int tailWordsStart(int maxWords) {
+        int i = length;
+        int words = 0;
+        boolean inWord = false;
+        while (i > 0) {
+            boolean whitespace = StreamingWordCounter.isWhitespace(charAtUnchecked(i - 1));
+            if (!whitespace && !inWord) {
+                if (words == maxWords) break;
+                words++;
+                inWord = true;
+            } else if (whitespace) {
+                inWord = false;
+            }
+            i--;
+        }
+        return i;
+    }
+
+    /**
+     * The last maxWords words with whitespace collapsed to single spaces, as
+     * used for the continuation excerpt. With a boundary the start moves
+     * forward to the next sentence or paragraph break, as long as that keeps
+     * at least half of the excerpt. Cost depends on the excerpt only.
+     */
+    synchronized String tailExcerpt(int maxWords, int boundary) {
+        int start = tailWordsStart(Math.max(0, maxWords));
+        if (boundary != BOUNDARY_NONE && start > 0) {
+            start = snapToBoundary(start, boundary);
+        }
+        StringBuilder out = new StringBuilder(length - start);
+        boolean pendingSpace = false;
+        for (int i = start; i < length; i++) {
+            char c = charAtUnchecked(i);
+            if (StreamingWordCounter.isWhitespace(c)) {
+                pendingSpace = out.length() > 0;
+            } else {
+                if (pendingSpace) out.append(' ');
+                out.append(c);
+                pendingSpace = false;
+            }
+        }
+        return out.toString();
+    }
+
+    private int snapToBoundary(int start, int boundary) {
+        int limit = start + (length - start) / 2;
+        for (int i = start; i < limit; i++) {
+            char c = charAtUnchecked(i);
+            if (boundary == BOUNDARY_PARAGRAPH) {
+                if (c == '\n' && i + 1 < length && charAtUnchecked(i + 1) == '\n') return i + 2;
+            } else if (c == '\n') {
+                return i + 1;
+            } else if ((c == '.' || c == '!' || c == '?' || c == '…')
+                && i + 1 < length && StreamingWordCounter.isWhitespace(charAtUnchecked(i + 1))) {
+                return i + 1;
+            }
+        }
+        return start;
+    }
+
+    private char charAtUnchecked(int index) {
+        return segments.get(index / SEGMENT_SIZE)[index % SEGMENT_SIZE];
+    }
+
+    private void copyTo(int start, int end, char[] out) {
+        int written = 0;
+        int position = start;
+        while (position < end) {
+            char[] segment = segments.get(position / SEGMENT_SIZE);
+            int offset = position % SEGMENT_SIZE;
+            int count = Math.min(SEGMENT_SIZE - offset, end - position);
+            System.arraycopy(segment, offset, out, written, count);
+            written += count;
+            position += count;
+        }
+    }
+}
@@ -0,0 +1,853 @@
+package com.radio.nocturne.background;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+
+/**
+ * Runs the multi-pass generation loop for one story against the completions
+ * API: picks continue/finalize per pass, streams each pass into the story
+ * buffer and stops at the outro signature. Plain JVM code, so it runs under
+ * unit tests against a mock server; the service wraps it with notifications,
+ * the journal and chunk delivery.
+ *
+ * A pass that fails with a retryable error is retried after a backoff from
+ * {@link RetryPolicy}, waiting for the network first if the device is
+ * offline. If the failed attempt already streamed text, the retry asks for
+ * a continuation from that text instead of repeating the pass.
+ *
+ * Each call is watched by a {@link StallWatchdog}: a stream that goes
+ * silent for storyIdleTimeoutMs is cancelled and retried like a dropped
+ * connection, while running past the pass or generation deadline fails.
+ *
+ * With storyPipeline "outline" a new story is planned first and its chapters
+ * are then written concurrently; see runOutlined().
+ *
+ * The model of each pass comes from a {@link ModelCascade}, its max_tokens
+ * and the switch to finalize mode from a {@link BudgetPlanner}. Reasoning text
+ * that a thinking model streams before the story is counted in the pass
+ * metrics and handed to the listener, but never enters the story.
+ *
+ * A {@link DegenerationGuard} watches the story text of each pass, which is
+ * held back until the guard has read far enough past it: a pass that starts
+ * looping or drifts out of the story's language is cut, its text from where
+ * the loop or drift began is dropped unseen, and it is re-issued from there
+ * with a corrective prompt. A pass that keeps degenerating fails; the
+ * sequential loop then ends the story with the emergency outro.
+ *
+ * Requests are built, decoded and turned into errors by a {@link StoryBackend}
+ * picked from storyBackend, so the same loop runs against DeepSeek, any
+ * OpenAI-compatible server or the offline stub.
+ */
+final class StoryGenerator {
+    interface Listener {
+        void onText(String text, int offset);
+
+        /** offset is where the pass starts in the story, or -1 for the outline and the chapters of an outlined story. */
+        void onPassStart(int passIndex, boolean emergency, int offset);
+
+        void onPassEnd(int passIndex);
+
+        /** A delta of delta.reasoning_content; called from the thread streaming the pass. */
+        void onReasoning(int passIndex, String text);
+
+        void onRetry(int attempt, long delayMs, String reason, boolean offline);
+
+        /** The watchdog cut a pass; reason is one of the StallWatchdog constants. */
+        void onStall(int passIndex, String reason, long idleMs, boolean willRetry);
+    }
+
+    /** The watchdog cancelled the call because the stream went silent; retried. */
+    static class StallException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final String reason;
+        final long idleMs;
+
+        StallException(String message, String reason, long idleMs) {
+            super(message);
+            this.reason = reason;
+            this.idleMs = idleMs;
+        }
+    }
+
+    /** The per-pass storyTimeoutMs or the storyTotalTimeoutMs ran out; not retried. */
+    static final class DeadlineException extends StallException {
+        private static final long serialVersionUID = 1L;
+
+        DeadlineException(String message, String reason, long idleMs) {
+            super(message, reason, idleMs);
+        }
+    }
+
+    /**
+     * A {@link DegenerationGuard} cut the pass; re-issued with a corrective
+     * prompt, not through RetryPolicy, and thrown out of the pass once
+     * MAX_GUARD_TRIPS corrections did not take.
+     */
+    static final class DegenerationException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        final String reason;
+
+        DegenerationException(String reason, String detail) {
+            super("Degenerate output (" + reason + "): " + detail);
+            this.reason = reason;
+        }
+    }
+
+    static final String PIPELINE_SEQUENTIAL = "sequential";
+    static final String PIPELINE_OUTLINE = "outline";
+
+    // Draft.chapter of the story itself and of the outline; chapters count from 0.
+    private static final int DRAFT_STORY = -1;
+    private static final int DRAFT_OUTLINE = -2;
+
+    private static final ThreadFactory CHAPTER_THREADS = runnable -> {
+        Thread thread = new Thread(runnable, "story-chapter");
+        thread.setDaemon(true);
+        return thread;
+    };
+
+    // Corrective re-issues a pass may have before it fails.
+    private static final int MAX_GUARD_TRIPS = 2;
+    // Failed attempts a pass may have forgiven for having made progress; past
+    // these every failure counts against RetryPolicy, so the pass cannot retry forever.
+    private static final int MAX_FORGIVEN_FAILURES = 3;
+    // How long to keep reading after the signature for the pass's usage event.
+    private static final long USAGE_DRAIN_MS = 2000;
+
+    private final StoryBackend backend;
+    // The shared client, or the backend's own view of it.
+    private final OkHttpClient http;
+    private final BackgroundStoryService.GenerationConfig config;
+    private final RetryPolicy retryPolicy;
+    private final ConnectivityMonitor connectivity;
+    private final Listener listener;
+    private final StreamingWordCounter wordCounter = new StreamingWordCounter();
+    private final CountDownLatch cancelSignal = new CountDownLatch(1);
+    private final TokenUsage usage = new TokenUsage();
+    private final List<PassMetrics> passMetrics = new ArrayList<>();
+    private final ModelCascade cascade;
+    private final BudgetPlanner planner;
+    private EndingDetector endingDetector;
+    private EndingKeywords endingKeywords;
+    private StoryPrompts prompts;
+    private StallWatchdog watchdog;
+    private volatile boolean cancelled;
+    // Several while the chapters of an outlined story stream at once.
+    private final Set<Call> activeCalls = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger retries = new AtomicInteger();
+    // The first chapter that failed for good; the other chapters are cancelled and run() throws it.
+    private volatile IOException chapterFailure;
+
+    StoryGenerator(
+        OkHttpClient client,
+        BackgroundStoryService.GenerationConfig config,
+        RetryPolicy retryPolicy,
+        ConnectivityMonitor connectivity,
+        Listener listener
+    ) {
+        this.backend = StoryBackend.from(config);
+        this.http = backend.client(client);
+        this.config = config;
+        this.retryPolicy = retryPolicy;
+        this.connectivity = connectivity;
+        this.listener = listener;
+        this.cascade = ModelCascade.from(config);
+        this.planner = new BudgetPlanner(config);
+    }
+
+    void cancel() {
+        cancelled = true;
+        cancelSignal.countDown();
+        for (Call call : activeCalls) {
+            call.cancel();
+        }
+    }
+
+    /** Whether the generation was cancelled from outside, as opposed to stopped by a failed chapter. */
+    boolean isCancelled() {
+        return cancelled && chapterFailure == null;
+    }
+
+    int wordCount() {
+        return wordCounter.count();
+    }
+
+    /** Token totals over all passes so far, including cache hit and miss counts. */
+    TokenUsage usage() {
+        synchronized (usage) {
+            return usage.copy();
+        }
+    }
+
+    /** One record per request made so far, in order. Safe to call from any thread. */
+    List<PassMetrics> passMetrics() {
+        synchronized (passMetrics) {
+            return new ArrayList<>(passMetrics);
+        }
+    }
+
+    /** Number of retried attempts over the whole story. */
+    int retries() {
+        return retries.get();
+    }
+
+    /**
+     * Generates into story, which already holds any existing text. Returns
+     * false if cancelled; throws once a pass fails for good.
+     */
+    boolean run(StoryBuffer story) throws IOException {
+        String existingText = story.snapshot();
+        wordCounter.reset();
+        wordCounter.feed(existingText);
+        endingKeywords = EndingKeywords.forLanguage(config.language).withOverrides(
+            config.endingApproachKeywords,
+            config.endingHostNames,
+            config.endingStationNames,
+            config.endingClosingSignals
+        );
+        endingDetector = new EndingDetector(endingKeywords, config.outroSignature);
+        endingDetector.feed(existingText);
+        prompts = new StoryPrompts(config);
+        watchdog = new StallWatchdog(config.storyIdleTimeoutMs, config.storyTimeoutMs, config.storyTotalTimeoutMs);
+        // A resumed story continues its text the sequential way, whichever pipeline started it.
+        if (PIPELINE_OUTLINE.equals(config.storyPipeline) && story.length() == 0) {
+            return runOutlined(story);
+        }
+        return runSequential(story, 0);
+    }
+
+    private boolean runSequential(StoryBuffer story, int firstPassIndex) throws IOException {
+        Draft draft = new Draft(story, DRAFT_STORY, null, true);
+        int maxPasses = Math.max(1, config.storyMaxPasses);
+
+        for (int pass = 0; pass < maxPasses; pass++) {
+            int passIndex = firstPassIndex + pass;
+            if (cancelled) return false;
+            if (endingDetector.hasOutroSignature()) {
+                break;
+            }
+
+            int wordsSoFar = wordCounter.count();
+            boolean hardCapReached = config.storyHardMaxWords > 0 && wordsSoFar >= config.storyHardMaxWords;
+            boolean minReached = wordsSoFar >= config.storyMinWords;
+
+            boolean isFirstPass = wordsSoFar == 0;
+            boolean isLastPass = pass == maxPasses - 1;
+            boolean approachingEnd = endingDetector.isApproachingEnding();
+            // A short first pass gets audio going while the rest is still being written.
+            boolean fastStart = isFirstPass && !isLastPass && story.length() == 0 && planner.fastStartWords() > 0;
+            boolean endInSight = planner.adaptive()
+                ? minReached && planner.projectsEnd(cascade.choose(ModelCascade.PASS_CONTINUE), wordsSoFar)
+                : minReached;
+            String mode = (endInSight || hardCapReached || isLastPass || approachingEnd) && !fastStart ? "finalize" : "continue";
+
+            String prompt;
+            if (fastStart) {
+                prompt = prompts.fastStart(planner.fastStartWords());
+            } else if (isFirstPass) {
+                prompt = prompts.opening();
+            } else {
+                prompt = continuationPrompt(story, "finalize".equals(mode));
+            }
+
+            boolean completed;
+            try {
+                completed = runPassWithRetry(passIndex, prompt, draft, false, "finalize".equals(mode), fastStart); // Normal pass
+            } catch (DegenerationException e) {
+                // Corrections did not stop it; close the story rather than ask for more of the same.
+                if (!runPassWithRetry(passIndex + 1, prompts.emergencyOutro(), draft, true, true)) return false;
+                break;
+            }
+            if (!completed) return false;
+
+            int wordsAfter = wordCounter.count();
+            boolean finished = endingDetector.hasOutroSignature();
+            boolean hitHardMax = config.storyHardMaxWords > 0 && wordsAfter >= config.storyHardMaxWords;
+
+            if (finished) break;
+
+            // Emergency Outro Trigger (matching TS logic):
+            // 1. Last pass. 2. Hit hard max. 3. Over 120% of target.
+            boolean isOverTarget = config.storyTargetWords > 0 && wordsAfter > (config.storyTargetWords * 1.2);
+            if (isLastPass || hitHardMax || isOverTarget) {
+                if (!runPassWithRetry(passIndex + 1, prompts.emergencyOutro(), draft, true, true)) return false; // Emergency pass
+                break;
+            }
+
+            if (hitHardMax) break;
+        }
+        return !cancelled;
+    }
+
+    /**
+     * Outline-first generation. One pass writes the plan; then every chapter
+     * is requested at once, at most storyParallelism at a time, each seeded
+     * with the outline and its neighbours' beats. The assembler hands the
+     * chapters to the story in order: the first one streams live, the others
+     * follow as soon as every chapter before them has finished. The first
+     * chapter that fails for good cancels the rest. Falls back to the
+     * sequential loop when the outline does not parse.
+     */
+    private boolean runOutlined(StoryBuffer story) throws IOException {
+        int chapters = Math.max(2, config.storyChapters);
+        StoryBuffer plan = new StoryBuffer();
+        Draft outlineDraft = new Draft(plan, DRAFT_OUTLINE, null, false);
+        if (!runPassWithRetry(0, prompts.outline(chapters), outlineDraft, false, false)) return false;
+        StoryOutline outline = StoryOutline.parse(plan.snapshot(), chapters);
+        if (outline == null) {
+            return runSequential(story, 1);
+        }
+
+        int count = outline.chapters();
+        ChapterAssembler assembler = new ChapterAssembler(count, text -> acceptText(story, text));
+        int parallelism = Math.max(1, Math.min(config.storyParallelism, count));
+        ExecutorService pool = Executors.newFixedThreadPool(parallelism, CHAPTER_THREADS);
+        try {
+            List<Future<?>> pending = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                boolean last = i == count - 1;
+                String prompt = prompts.chapter(outline, i);
+                Draft draft = new Draft(new StoryBuffer(), i, assembler, last);
+                pending.add(pool.submit(() -> runChapter(prompt, draft, last)));
+            }
+            for (Future<?> chapter : pending) {
+                chapter.get();
+            }
+        } catch (InterruptedException e) {
+            cancel();
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException e) {
+            cancel();
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException(cause);
+        } finally {
+            pool.shutdownNow();
+        }
+
+        IOException failure = chapterFailure;
+        if (failure != null) throw failure;
+        if (cancelled) return false;
+        if (!endingDetector.hasOutroSignature()) {
+            // The last chapter stopped short of the signature; finish the joined story like a sequential one.
+            Draft draft = new Draft(story, DRAFT_STORY, null, true);
+            return runPassWithRetry(count + 1, continuationPrompt(story, true), draft, false, true);
+        }
+        return true;
+    }
+
+    private void runChapter(String prompt, Draft draft, boolean last) {
+        try {
+            if (runPassWithRetry(draft.chapter + 1, prompt, draft, false, last)) {
+                draft.assembler.finish(draft.chapter);
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                if (chapterFailure == null) chapterFailure = e;
+            }
+            cancel();
+        }
+    }
+
+    private String continuationPrompt(StoryBuffer story, boolean finalizing) {
+        return prompts.continuation(
+            wordCounter.count(),
+            finalizing,
+            story.tailExcerpt(config.storyContextWords, config.storyContextBoundary)
+        );
+    }
+
+    private boolean runPassWithRetry(
+        int passIndex,
+        String prompt,
+        Draft draft,
+        boolean isEmergency,
+        boolean finalizing
+    ) throws IOException {
+        return runPassWithRetry(passIndex, prompt, draft, isEmergency, finalizing, false);
+    }
+
+    private boolean runPassWithRetry(
+        int passIndex,
+        String prompt,
+        Draft draft,
+        boolean isEmergency,
+        boolean finalizing,
+        boolean fastStart
+    ) throws IOException {
+        StoryBuffer story = draft.text;
+        listener.onPassStart(passIndex, isEmergency, draft.chapter == DRAFT_STORY ? story.length() : -1);
+        int kind;
+        if (fastStart) {
+            kind = ModelCascade.PASS_FAST_START;
+        } else if (isEmergency) {
+            kind = ModelCascade.PASS_EMERGENCY;
+        } else if (draft.chapter == DRAFT_OUTLINE || (draft.chapter == DRAFT_STORY && story.length() == 0)) {
+            kind = ModelCascade.PASS_PLAN;
+        } else {
+            kind = ModelCascade.PASS_CONTINUE;
+        }
+        // Chosen once per pass, so a retry stays on the model it started with.
+        String model = cascade.choose(kind);
+        int budget;
+        if (fastStart) {
+            budget = BudgetPlanner.PASS_FAST_START;
+        } else if (isEmergency) {
+            budget = BudgetPlanner.PASS_EMERGENCY;
+        } else {
+            budget = finalizing ? BudgetPlanner.PASS_FINALIZE : BudgetPlanner.PASS_CONTINUE;
+        }
+        int failures = 0;
+        int forgiven = 0;
+        int guardTrips = 0;
+        int attempt = 0;
+        String attemptPrompt = prompt;
+        boolean resumeFromStory = false;
+        try {
+            while (true) {
+                if (watchdog.generationExpired()) {
+                    throw new DeadlineException("Story generation timed out.", StallWatchdog.GENERATION_DEADLINE, 0);
+                }
+                int attemptStart = story.length();
+                PassMetrics metrics = new PassMetrics(passIndex, ++attempt, isEmergency, finalizing, System.currentTimeMillis());
+                metrics.model = model;
+                // The outline and the chapters of an outlined story keep the configured budget.
+                int wordsBefore = wordCounter.count();
+                metrics.maxTokens = draft.chapter == DRAFT_STORY
+                    ? planner.maxTokens(model, wordsBefore, budget)
+                    : config.maxTokens;
+                try {
+                    runPass(attemptPrompt, draft, isEmergency, finalizing, fastStart, metrics);
+                    return !cancelled;
+                } catch (IOException e) {
+                    if (cancelled) return false;
+                    if (e instanceof DegenerationException) {
+                        // The degenerate text was held back and dropped; ask again from before it, with a correction.
+                        String reason = ((DegenerationException) e).reason;
+                        if (++guardTrips > MAX_GUARD_TRIPS) throw e;
+                        retries.incrementAndGet();
+                        listener.onRetry(guardTrips, 0, "Degenerate output: " + reason, false);
+                        attemptPrompt = draft.correctivePrompt(prompt, finalizing, reason);
+                        resumeFromStory = true;
+                        continue;
+                    }
+                    if (draft.chapter == DRAFT_STORY && hardMaxReached(isEmergency)) {
+                        // The story is already as long as it may get; keep what streamed rather than resume.
+                        return true;
+                    }
+                    failures++;
+                    RetryPolicy.Decision decision = retryPolicy.onFailure(e, failures);
+                    if (e instanceof StallException) {
+                        StallException stall = (StallException) e;
+                        listener.onStall(passIndex, stall.reason, stall.idleMs, decision.retry);
+                    }
+                    if (!decision.retry) throw e;
+                    retries.incrementAndGet();
+                    boolean offline = !connectivity.isOnline();
+                    listener.onRetry(failures, decision.delayMs, decision.reason, offline);
+                    if (offline && !awaitOnline()) {
+                        throw new IOException("Network unavailable: " + decision.reason, e);
+                    }
+                    if (!sleep(decision.delayMs)) return false;
+                    if (story.length() > attemptStart) {
+                        // Progress was made, so up to MAX_FORGIVEN_FAILURES times the failure does not count against the pass.
+                        if (forgiven < MAX_FORGIVEN_FAILURES) {
+                            forgiven++;
+                            failures--;
+                        }
+                        resumeFromStory = true;
+                    }
+                    if (resumeFromStory) {
+                        // Keep what streamed before the failure and pick up from there.
+                        attemptPrompt = draft.resumePrompt(prompt, finalizing);
+                    }
+                } finally {
+                    if (draft.chapter == DRAFT_STORY) {
+                        planner.record(model, budget, wordCounter.count() - wordsBefore, metrics);
+                    }
+                }
+            }
+        } finally {
+            listener.onPassEnd(passIndex);
+        }
+    }
+
+    private boolean awaitOnline() {
+        long deadline = nowMs() + retryPolicy.offlineWaitMs;
+        try {
+            while (!cancelled) {
+                long remaining = deadline - nowMs();
+                if (remaining <= 0) return false;
+                if (connectivity.awaitOnline(Math.min(remaining, 1000))) return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /** Waits for delayMs; returns false if cancelled meanwhile. */
+    private boolean sleep(long delayMs) {
+        try {
+            return !cancelSignal.await(delayMs, TimeUnit.MILLISECONDS) && !cancelled;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void runPass(
+        String prompt,
+        Draft draft,
+        boolean isEmergency,
+        boolean finalizing,
+        boolean fastStart,
+        PassMetrics metrics
+    ) throws IOException {
+        SignatureMatcher signature = new SignatureMatcher(draft.endsStory ? config.outroSignature : null);
+        // The API drops the stop sequence from the output, so it is only sent when
+        // the pass is expected to end the story and is re-appended below.
+        boolean serverStop = config.useStopSequence && finalizing && !signature.isEmpty();
+        // The outline is English keys and a plan, not story text, and a fast
+        // start is too short to loop but would be held back for most of its length.
+        // Drift is judged against the language the prompts ask for, whatever config.language says.
+        DegenerationGuard guard = config.storyDegenerationGuard && draft.chapter != DRAFT_OUTLINE && !fastStart
+            ? new DegenerationGuard(StoryPrompts.OUTPUT_LANGUAGE)
+            : null;
+        StoryBackend.Pass pass = new StoryBackend.Pass(
+            metrics.passIndex,
+            metrics.model,
+            prompts.system(),
+            prompt,
+            metrics.maxTokens,
+            serverStop ? config.outroSignature : null,
+            finalizing,
+            draft.chapter == DRAFT_OUTLINE
+        );
+        HttpClientHolder.CallTiming timing = new HttpClientHolder.CallTiming();
+        Request request = backend.request(pass).newBuilder()
+            .tag(HttpClientHolder.CallTiming.class, timing)
+            .build();
+
+        long startTime = nowMs();
+        Call call = http.newCall(request);
+        activeCalls.add(call);
+        StallWatchdog.Watch watch = watchdog.watch(call);
+        if (cancelled) call.cancel();
+
+        try (Response response = call.execute()) {
+            metrics.timeToFirstByteMs = nowMs() - startTime;
+            metrics.httpStatus = response.code();
+            if (!response.isSuccessful()) {
+                String err = response.body() != null ? response.body().string() : "";
+                long retryAfter = RetryPolicy.parseRetryAfter(response.header("Retry-After"), System.currentTimeMillis());
+                metrics.endReason = PassMetrics.END_HTTP_ERROR;
+                throw backend.error(response.code(), err, retryAfter);
+            }
+
+            ResponseBody responseBody = response.body();
+            if (responseBody == null) {
+                metrics.endReason = PassMetrics.END_DONE;
+                return;
+            }
+
+            StreamDeltaScanner delta = new StreamDeltaScanner();
+            String contentType = response.header("content-type", "");
+            if (contentType == null || !contentType.contains("text/event-stream")) {
+                byte[] raw = responseBody.bytes();
+                String text = null;
+                if (backend.decode(raw, 0, raw.length, delta)) {
+                    text = delta.content;
+                    if (delta.reasoningContent != null && !delta.reasoningContent.isEmpty()) {
+                        metrics.onReasoning(nowMs() - startTime, delta.reasoningContent.length());
+                    }
+                    metrics.finishReason = delta.finishReason;
+                    if (delta.hasUsage) recordUsage(delta, metrics);
+                }
+                if (text != null && !text.isEmpty()) {
+                    int cut = signature.feed(text);
+                    String accepted = cut >= 0 ? text.substring(0, cut) : text;
+                    metrics.onDelta(nowMs() - startTime, accepted.length());
+                    draft.accept(accepted);
+                }
+                metrics.endReason = signature.matched() ? PassMetrics.END_SIGNATURE : PassMetrics.END_DONE;
+                return;
+            }
+
+            // Stage the next continuation prompt while this pass streams.
+            if (draft.chapter == DRAFT_STORY) prompts.stageContinuation();
+            BufferedSource source = responseBody.source();
+            SseEventDecoder events = new SseEventDecoder(source);
+            String finishReason = null;
+            boolean sawUsage = false;
+            int last;
+
+            while (true) {
+                if (cancelled) {
+                    metrics.endReason = PassMetrics.END_CANCELLED;
+                    return;
+                }
+
+                last = events.next();
+                if (last != SseEventDecoder.EVENT) break;
+                watch.progress();
+                if (!backend.decode(events.data(), 0, events.length(), delta)) continue;
+                if (delta.hasUsage) {
+                    recordUsage(delta, metrics);
+                    sawUsage = true;
+                }
+                if (delta.finishReason != null) {
+                    finishReason = delta.finishReason;
+                    metrics.finishReason = finishReason;
+                }
+                String thinking = delta.reasoningContent;
+                if (thinking != null && !thinking.isEmpty()) {
+                    metrics.onReasoning(nowMs() - startTime, thinking.length());
+                    listener.onReasoning(metrics.passIndex, thinking);
+                }
+                String text = delta.content;
+                if (text != null && !text.isEmpty()) {
+                    timing.markFirstToken();
+                    int cut = signature.feed(text);
+                    String accepted = cut >= 0 ? text.substring(0, cut) : text;
+                    metrics.onDelta(nowMs() - startTime, accepted.length());
+                    if (cut >= 0 || guard == null) {
+                        draft.releaseHeld();
+                        draft.accept(accepted);
+                    } else if (guard.feed(accepted) != null) {
+                        draft.dropHeld(guard.tripOffset());
+                        metrics.endReason = PassMetrics.END_DEGENERATE;
+                        metrics.guard = guard.tripped();
+                        throw new DegenerationException(guard.tripped(), guard.detail());
+                    } else {
+                        draft.hold(accepted, guard.holdOffset());
+                    }
+                    if (cut >= 0) {
+                        metrics.endReason = PassMetrics.END_SIGNATURE;
+                        if (!sawUsage) drainUsage(events, delta, source, metrics);
+                        break;
+                    }
+
+                    // LENGTH CHECK (with emergency overdraft); chapters are bounded by their own budget.
+                    if (draft.chapter == DRAFT_STORY && hardMaxReached(isEmergency)) {
+                        metrics.endReason = PassMetrics.END_HARD_MAX;
+                        break;
+                    }
+                }
+            }
+
+            draft.releaseHeld();
+            // Cancelling can surface as a clean end of stream instead of an exception.
+            if (watch.fired() != null && metrics.endReason == null) throw stalled(watch, metrics);
+
+            if (metrics.endReason == null) {
+                if (last == SseEventDecoder.DONE) {
+                    metrics.endReason = PassMetrics.END_DONE;
+                } else if (finishReason != null) {
+                    metrics.endReason = PassMetrics.END_STREAM_CLOSED;
+                } else {
+                    // The connection closed without [DONE] or a finish_reason: the stream was cut.
+                    metrics.endReason = PassMetrics.END_DROPPED;
+                    throw new IOException("Stream ended before the pass completed");
+                }
+            }
+
+            // "stop" is also what a model that simply ended says, so the signature is only
+            // put back after an outro; otherwise the story is finished like any other.
+            if (serverStop && !signature.matched() && "stop".equals(finishReason) && outroUnderway(draft)) {
+                draft.accept(endsWithNewline(draft.text) ? config.outroSignature : "\n" + config.outroSignature);
+                metrics.endReason = PassMetrics.END_SIGNATURE;
+            }
+        } catch (IOException e) {
+            if (!(e instanceof StallException) && watch.fired() != null && !cancelled) {
+                e = stalled(watch, metrics);
+            }
+            if (metrics.endReason == null) {
+                metrics.endReason = cancelled ? PassMetrics.END_CANCELLED : PassMetrics.END_ERROR;
+            }
+            metrics.error = e.getMessage();
+            throw e;
+        } finally {
+            // A pass cut for any other reason keeps what it streamed and is resumed from it.
+            draft.releaseHeld();
+            watch.stop();
+            activeCalls.remove(call);
+            if (metrics.endReason == null) metrics.endReason = PassMetrics.END_ERROR;
+            metrics.durationMs = nowMs() - startTime;
+            metrics.connectionReused = timing.reused();
+            metrics.connectionSetupMs = timing.setupMs();
+            cascade.record(metrics.model, metrics.timeToFirstTokenMs);
+            synchronized (passMetrics) {
+                passMetrics.add(metrics);
+            }
+        }
+    }
+
+    /** Whether the story has reached storyHardMaxWords, plus an overdraft for the emergency outro. */
+    private boolean hardMaxReached(boolean isEmergency) {
+        if (config.storyHardMaxWords <= 0) return false;
+        int limit = isEmergency ? (config.storyHardMaxWords + 500) : config.storyHardMaxWords;
+        return wordCounter.count() >= limit;
+    }
+
+    /**
+     * Whether the text of draft ends in an outro: ending keywords near its end
+     * or a closing signal. Chapters reach the story's detector only through
+     * the assembler, so their own text is scanned.
+     */
+    private boolean outroUnderway(Draft draft) {
+        EndingDetector ending = endingDetector;
+        if (draft.chapter != DRAFT_STORY) {
+            ending = new EndingDetector(endingKeywords, null);
+            ending.feed(draft.text.snapshot());
+        }
+        return ending.isApproachingEnding() || ending.closingSignalSeen();
+    }
+
+    private static StallException stalled(StallWatchdog.Watch watch, PassMetrics metrics) {
+        String reason = watch.fired();
+        if (StallWatchdog.IDLE.equals(reason)) {
+            metrics.endReason = PassMetrics.END_STALLED;
+            return new StallException("No data for " + watch.idleMs() + " ms", reason, watch.idleMs());
+        }
+        metrics.endReason = PassMetrics.END_TIMEOUT;
+        return new DeadlineException("Story generation timed out.", reason, watch.idleMs());
+    }
+
+    private void recordUsage(StreamDeltaScanner delta, PassMetrics metrics) {
+        synchronized (usage) {
+            usage.add(delta);
+        }
+        metrics.onUsage(delta);
+    }
+
+    /**
+     * The signature ends the story but the usage event comes after the last
+     * delta, so keep reading for a short while and keep only the usage.
+     */
+    private void drainUsage(
+        SseEventDecoder events,
+        StreamDeltaScanner delta,
+        BufferedSource source,
+        PassMetrics metrics
+    ) {
+        source.timeout().deadline(USAGE_DRAIN_MS, TimeUnit.MILLISECONDS);
+        try {
+            while (!cancelled && events.next() == SseEventDecoder.EVENT) {
+                if (backend.decode(events.data(), 0, events.length(), delta) && delta.hasUsage) {
+                    recordUsage(delta, metrics);
+                    return;
+                }
+            }
+        } catch (IOException ignored) {
+            // Timed out or closed: this pass simply has no usage.
+        }
+    }
+
+    private void acceptText(StoryBuffer story, String text) {
+        if (text == null || text.isEmpty()) return;
+        int offset = story.length();
+        story.append(text);
+        wordCounter.feed(text);
+        endingDetector.feed(text);
+        listener.onText(text, offset);
+    }
+
+    /**
+     * What a pass writes into: the story itself, or the outline or one chapter
+     * of an outlined story. Only story text feeds the word count, the ending
+     * detector and the listener directly; chapter text reaches them through
+     * the assembler, in order, and the outline never does.
+     */
+    private final class Draft {
+        final StoryBuffer text;
+        final int chapter;
+        final ChapterAssembler assembler;
+        /** Whether the outro signature may appear here and end the story. */
+        final boolean endsStory;
+        // Text of a guarded pass that the guard may still reject, and the guard offset it starts at.
+        private final StringBuilder held = new StringBuilder();
+        private long heldFrom;
+
+        Draft(StoryBuffer text, int chapter, ChapterAssembler assembler, boolean endsStory) {
+            this.text = text;
+            this.chapter = chapter;
+            this.assembler = assembler;
+            this.endsStory = endsStory;
+        }
+
+        void accept(String accepted) {
+            if (chapter == DRAFT_STORY) {
+                acceptText(text, accepted);
+                return;
+            }
+            text.append(accepted);
+            if (assembler != null) assembler.append(chapter, accepted);
+        }
+
+        /** Holds text back until the guard has read HOLD_WORDS past it; releases what is older than holdOffset. */
+        void hold(String accepted, long holdOffset) {
+            held.append(accepted);
+            int release = (int) Math.min(held.length(), holdOffset - heldFrom);
+            if (release > 0) {
+                accept(held.substring(0, release));
+                held.delete(0, release);
+                heldFrom += release;
+            }
+        }
+
+        /** Releases everything held; the pass ended, or the rest of it is not guarded. */
+        void releaseHeld() {
+            if (held.length() > 0) accept(held.toString());
+            held.setLength(0);
+            heldFrom = 0;
+        }
+
+        /** Releases what was held before tripOffset and drops the rest, which the guard rejected. */
+        void dropHeld(long tripOffset) {
+            int keep = (int) Math.max(0, Math.min(held.length(), tripOffset - heldFrom));
+            held.setLength(keep);
+            releaseHeld();
+        }
+
+        /** Prompt for retrying a pass that broke after streaming part of its text. */
+        String resumePrompt(String prompt, boolean finalizing) {
+            if (chapter == DRAFT_STORY) return continuationPrompt(text, finalizing);
+            return StoryPrompts.resumeSegment(prompt, text.tailExcerpt(config.storyContextWords, config.storyContextBoundary));
+        }
+
+        /** Prompt for re-issuing a pass that a DegenerationGuard cut for reason. */
+        String correctivePrompt(String prompt, boolean finalizing, String reason) {
+            return StoryPrompts.corrective(resumePrompt(prompt, finalizing), reason, StoryPrompts.OUTPUT_LANGUAGE);
+        }
+    }
+
+    private static boolean endsWithNewline(StoryBuffer story) {
+        int length = story.length();
+        return length == 0 || story.charAt(length - 1) == '\n';
+    }
+
+    private static long nowMs() {
+        return System.nanoTime() / 1_000_000L;
+    }
+}
@@ -0,0 +1,112 @@
+package com.radio.nocturne.background;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The plan of an outlined story, parsed from the outline pass: one line per
+ * key ("TITLE: ...", "CHARACTERS: ...", "MOTIF: ...", "ENDING: ...") and one
+ * "SEGMENT n: ..." line of beats per chapter. Lines that do not start with a
+ * key continue the previous one, so a model that wraps a long line still
+ * parses.
+ */
+final class StoryOutline {
+    final String title;
+    final String characters;
+    final String motif;
+    final String ending;
+    final List<String> beats;
+
+    private StoryOutline(String title, String characters, String motif, String ending, List<String> beats) {
+        this.title = title;
+        this.characters = characters;
+        this.motif = motif;
+        this.ending = ending;
+        this.beats = Collections.unmodifiableList(beats);
+    }
+
+    int chapters() {
+        return beats.size();
+    }
+
+    /**
+     * Parses text, keeping at most maxChapters chapters. Returns null when
+     * fewer than two chapters came out, which is not worth running in parallel.
+     */
+    static StoryOutline parse(String text, int maxChapters) {
+        if (text == null) return null;
+        List<StringBuilder> beats = new ArrayList<>();
+        StringBuilder current = null;
+        StringBuilder titleText = new StringBuilder();
+        StringBuilder charactersText = new StringBuilder();
+        StringBuilder motifText = new StringBuilder();
+        StringBuilder endingText = new StringBuilder();
+        for (String rawLine : text.split("\n")) {
+            String line = stripMarkup(rawLine);
+            if (line.isEmpty()) continue;
+            int colon = line.indexOf(':');
+            String key = colon > 0 ? line.substring(0, colon).trim().toUpperCase(Locale.ROOT) : "";
+            String value = colon > 0 ? line.substring(colon + 1).trim() : line;
+            if (key.equals("TITLE")) {
+                current = titleText;
+            } else if (key.equals("CHARACTERS")) {
+                current = charactersText;
+            } else if (key.equals("MOTIF")) {
+                current = motifText;
+            } else if (key.equals("ENDING")) {
+                current = endingText;
+            } else if (key.startsWith("SEGMENT") || key.startsWith("CHAPTER")) {
+                current = new StringBuilder();
+                beats.add(current);
+            } else {
+                if (current != null) appendLine(current, line);
+                continue;
+            }
+            appendLine(current, value);
+        }
+        List<String> kept = new ArrayList<>();
+        for (StringBuilder beat : beats) {
+            if (beat.length() == 0) continue;
+            if (kept.size() == maxChapters) break;
+            kept.add(beat.toString());
+        }
+        if (kept.size() < 2) return null;
+        return new StoryOutline(
+            titleText.toString(),
+            charactersText.toString(),
+            motifText.toString(),
+            endingText.toString(),
+            kept
+        );
+    }
+
+    /** The outline as it is shown to every chapter request; identical for all of them. */
+    String render() {
+        StringBuilder out = new StringBuilder();
+        if (!title.isEmpty()) out.append("TITLE: ").append(title).append('\n');
+        if (!characters.isEmpty()) out.append("CHARACTERS: ").append(characters).append('\n');
+        if (!motif.isEmpty()) out.append("MOTIF: ").append(motif).append('\n');
+        if (!ending.isEmpty()) out.append("ENDING: ").append(ending).append('\n');
+        for (int i = 0; i < beats.size(); i++) {
+            out.append("SEGMENT ").append(i + 1).append(": ").append(beats.get(i)).append('\n');
+        }
+        return out.toString().trim();
+    }
+
+    private static void appendLine(StringBuilder target, String text) {
+        if (text.isEmpty()) return;
+        if (target.length() > 0) target.append(' ');
+        target.append(text);
+    }
+
+    /** Drops list markers and emphasis a model adds despite being asked for plain text. */
+    private static String stripMarkup(String line) {
+        String trimmed = line.replace("*", "").replace("#", "").trim();
+        while (trimmed.startsWith("-") || trimmed.startsWith("•")) {
+            trimmed = trimmed.substring(1).trim();
+        }
+        return trimmed;
+    }
+}
@@ -0,0 +1,474 @@
+package com.radio.nocturne.background;
+
+import com.radio.nocturne.background.BackgroundStoryService.GenerationConfig;
+import java.util.Locale;
+
+/**
+ * Prompts for one generation, compiled once from its {@link GenerationConfig}.
+ *
+ * Every request is laid out so that it shares the longest possible prefix
+ * with the previous one, which is what the API's prompt cache keys on: a
+ * system message that is the same for every story, then a user message that
+ * starts with the story brief (flavor, personalization, length targets,
+ * signature and topic, fixed for this generation) and ends with the
+ * per-pass instructions. Only that tail differs between passes.
+ *
+ * The opening and emergency messages are built up front. The continuation
+ * tail is a {@link PromptTemplate} whose slots are the word counts, the mode
+ * line and the excerpt. The brief and the template's frozen prefix are
+ * copied into a reusable builder while the current pass is still streaming,
+ * so between passes only the slots and the remaining literals are appended.
+ *
+ * An outlined story asks for its plan first, then writes its chapters as
+ * separate requests that all start with the brief and the same rendered
+ * outline, so only each chapter's own instructions miss the cache.
+ *
+ * Used from the generation worker thread only, except resumeSegment(),
+ * which keeps no state and is called from chapter workers.
+ */
+final class StoryPrompts {
+    /**
+     * The language SYSTEM_PROMPT demands for all story text. config.language
+     * does not change it, so checks on the streamed text go by this instead.
+     */
+    static final String OUTPUT_LANGUAGE = "vi";
+
+    private static final int DEFAULT_HORROR_LEVEL = 50;
+
+    private static final int SLOT_ALREADY_WORDS = 0;
+    private static final int SLOT_REMAINING_MIN = 1;
+    private static final int SLOT_REMAINING_MAX = 2;
+    private static final int SLOT_MODE = 3;
+    private static final int SLOT_EXCERPT = 4;
+
+    private static final String CONTINUE_MODE_LINE =
+        "- Do NOT finish the story yet. Do NOT write Morgan’s outro yet. Keep escalating with new events and evidence; stop at a natural breakpoint without concluding.";
+
+    // Everything here is independent of the config, so it is byte-identical across stories.
+    private static final String SYSTEM_PROMPT = (
+        "THE MORGAN HAYES PROTOCOL (REVISED: DIVERSE MYSTERIES & SUPERNATURAL)\n\n" +
+        "OUTPUT LANGUAGE (MANDATORY)\n" +
+        "- All generated output must be in Vietnamese.\n" +
+        "- Even though this prompt is written in English, the story text must be Vietnamese.\n" +
+        "- Vietnamese style must be natural, idiomatic, and contemporary.\n" +
+        "- Avoid literal calques from English and avoid awkward collocations.\n" +
+        "- Keep phrasing fluid and spoken; avoid stiff, translated-sounding lines.\n" +
+        "- Prefer commonly used wording and smooth sentence flow; read each sentence as if spoken by a native narrator.\n\n" +
+        "1) ROLE\n" +
+        "You are Morgan Hayes, the host of a fictional late-night radio show: \"Radio Truyện Đêm Khuya\".\n" +
+        "- Style: Modern Noir, Urban Horror, Cosmic Horror, Weird fiction, Uncanny realism, Time Travel anomalies, Supernatural encounters, Reality glitches, Historical mysteries, Lost technology, Psychic phenomena, Cryptid encounters, Superpower emergence, Dimensional rifts, Cosmic phenomena.\n" +
+        "- Voice: low, skeptical, investigative, unsettling.\n" +
+        "- Mission: tell stories about the \"uncanny valley of reality\"—ordinary people in the 2020s encountering diverse mysteries: time travel paradoxes, supernatural phenomena, reality glitches, historical anomalies, lost technologies, psychic manifestations, cryptid encounters, emerging superpowers, dimensional rifts, or cosmic mysteries. Each story should explore a unique mystery type without defaulting to conspiracy organizations.\n" +
+        "- Attitude: speak directly to listeners and the curious who seek truth. The normal world is a thin veil.\n" +
+        "- Home base: a whispering-pine suburb where the studio sits among rustling conifers, distant from the city’s glare.\n\n" +
+        "NARRATIVE FRAMING (MANDATORY)\n" +
+        "Every story must be framed as \"received evidence\" or a \"submission\".\n" +
+        "Morgan must establish how this story reached the station through an evidence artifact or message; vary the medium from mundane correspondence to stranger, tactile relics without leaning on the same pattern twice.\n" +
+        "Do this AFTER the intro sets the night/studio mood and introduces Morgan + the show.\n\n" +
+        "INTRO LENGTH (MANDATORY)\n" +
+        "- Morgan’s intro must be longer than usual: at least 12 sentences, slow-burn, paranoid, and atmospheric.\n" +
+        "- Morgan must explicitly mention (1) the city/night/time feeling, (2) the late-night studio atmosphere, (3) Morgan Hayes + \"Radio Truyện Đêm Khuya\", (4) why this evidence matters, (5) a warning to \"những kẻ tò mò\".\n" +
+        "- Do NOT jump straight to the evidence origin; open with the night + studio + show identity first.\n\n" +
+        "POINT OF VIEW (MANDATORY)\n" +
+        "- The story must be written entirely in FIRST-PERSON POV.\n" +
+        "- The narrator uses “tôi” consistently throughout the story.\n" +
+        "- “Tôi” refers to the MAIN CHARACTER inside the story, not Morgan Hayes.\n" +
+        "- No omniscient narration. No third-person references to the protagonist (“anh ta”, “cô ta”, “hắn” for the protagonist are forbidden).\n\n" +
+        "MORGAN HAYES CONSTRAINT\n" +
+        "- Morgan Hayes exists only as the radio host framing the story (intro and final outro).\n" +
+        "- During the story body, the narration is exclusively the protagonist speaking in first-person.\n\n" +
+        "NAME & CULTURE CONSTRAINT\n" +
+        "- Character names: use globally diverse naming systems (English, European, Asian, etc.) or fictional names.\n" +
+        "- Avoid Vietnamese-specific naming conventions unless explicitly requested.\n" +
+        "- Setting: modern day (2020s). Ordinary places that feel slightly \"off\".\n\n" +
+        "2) REQUIRED INTERNAL OUTLINE (HIDDEN)\n" +
+        "Before writing, create a DETAILED OUTLINE (Story Bible) internally (DO NOT output it), including: title, core anomaly, hidden truth, setting, protagonist profile, and a full plot arc.\n\n" +
+        "3) SINGLE GENERATION (MANDATORY)\n" +
+        "- Output the complete story in ONE single response.\n" +
+        "- Do NOT ask the user to continue.\n" +
+        "- Do NOT split into parts/chapters in the output (no “Phần”, no “Chương”, no “Part” headings).\n" +
+        "- Do NOT conclude early. If you are approaching output limits, stop at a natural breakpoint without an outro; the system may request continuation.\n\n" +
+        "CONTENT GUIDELINES\n" +
+        "- Genre: Urban Horror / Modern Horror / Cosmic Horror / Weird fiction / Uncanny realism / Time Travel mysteries / Supernatural thrillers / Reality glitch stories / Historical mysteries / Lost technology adventures / Psychic phenomena tales / Cryptid encounters / Superpower emergence stories / Dimensional rift narratives / Cosmic horror.\n" +
+        "- The anomaly should feel coherent and unsettling, without rigid rule exposition.\n" +
+        "- The antagonist/force can be: Time paradoxes, Supernatural entities, Reality breakdown, Historical curses, Lost technology with consciousness, Psychic manifestations, Cryptid creatures, Emerging superpowers, Dimensional beings, Cosmic forces, Natural phenomena, or Human limitations - but avoid defaulting to secret organizations.\n" +
+        "- Use everyday language; avoid heavy sci-fi jargon.\n" +
+        "- Show, don’t tell: reveal through indirect fragments and fleeting encounters.\n" +
+        "- Narrative voice: a confession / warning tape. Allow hesitation and confusion.\n\n" +
+        "TECH MINIMIZATION (MANDATORY)\n" +
+        "- Keep technology references minimal and mundane (phone calls, old CCTV, basic email) and ONLY when truly necessary.\n" +
+        "- Do NOT center the plot on AI, apps, VR, implants, laboratories, “simulation glitches”, or futuristic devices.\n" +
+        "- Prefer analog evidence and ordinary paperwork: printed memos, stamped forms, faded photos, notebooks, receipts, subway tickets, landlord notices.\n" +
+        "- If “a system” is involved, it can be social, religious, bureaucratic, or ritual—NOT automatically “a tech company” or “a government lab”.\n\n" +
+        "PRESENT-DAY TRUTH (MANDATORY)\n" +
+        "- The revealed truth must be strange but still fit a contemporary, real-world context.\n" +
+        "- Avoid endings where the narrator is archived, stored, or turned into a mechanism/system.\n" +
+        "- The timeline is present-day only; do not shift into future settings or sci-fi eras.\n\n" +
+        "DIVERSITY REQUIREMENTS (MANDATORY — AVOID REPETITION)\n" +
+        "- Use the randomized selections in the VARIATION ANCHOR of the story brief exactly as written (do NOT override them).\n" +
+        "- Do NOT default to the template: “a secret organization appears, offers cooperation, and the protagonist must choose to cooperate or be erased.”\n" +
+        "- No direct recruitment offer, no “sign this or die” ultimatum, no neat binary choice. If an organization is involved, it should feel like an infrastructure/process (paperwork, protocols, automated systems, outsourced handlers), not a simple villain giving a deal.\n" +
+        "- Include at least one mid-story reversal that is NOT “they contacted me to recruit me.”\n" +
+        "- Avoid spy-thriller clichés and on-the-nose surveillance tropes; keep menace subtle and uncanny.\n\n" +
+        "UNIQUENESS MANDATORY (CRITICAL)\n" +
+        "- This story MUST be structurally and thematically distinct from any previous story.\n" +
+        "- Do NOT reuse: the same type of anomaly, the same reveal structure, the same ending pattern, the same protagonist archetype, the same setting type, or the same key motif pattern.\n" +
+        "- Vary the pacing: some stories should be slow-burn investigations, others should be rapid escalation.\n" +
+        "- Vary the scope: some stories are personal/isolated, others involve wider implications.\n" +
+        "- Vary the resolution clarity: some stories end with clear answers, others remain ambiguous.\n" +
+        "- If the topic is similar to a previous story, you MUST find a completely different angle, different anomaly mechanism, different truth structure.\n" +
+        "- Think: \"What has NOT been done before in this exact combination?\"\n\n" +
+        "STRUCTURAL DIVERSITY (MANDATORY)\n" +
+        "- Vary story structure: some stories should be linear chronological, others should be fragmented/non-linear.\n" +
+        "- Vary evidence presentation: some stories reveal through documents, others through experiences, others through conversations.\n" +
+        "- Vary the \"uncanny\" mechanism: reality glitch, supernatural intrusion, social conspiracy, cosmic horror, or psychological uncanny.\n" +
+        "- Vary the protagonist's agency: some protagonists are active investigators, others are passive witnesses, others are unwilling participants.\n" +
+        "- Vary the \"truth\" revelation: some stories reveal a clear explanation, others leave it ambiguous, others reveal something that makes it worse.\n\n" +
+        "NO SOUND DESCRIPTION / NO SFX\n" +
+        "- Do not write bracketed sound cues like “[static]”, “[tiếng mưa]”.\n" +
+        "- The entire output must be spoken narration only.\n\n" +
+        "SPECIAL REQUIREMENTS\n" +
+        "- Length: follow the word targets in the story brief.\n" +
+        "- To reach length, add more plot events, evidence fragments, reversals, and consequences (new content), not repetitive filler or extended description of the same moment.\n" +
+        "- No happy endings: the force behind the anomaly wins; the protagonist is silenced, captured, absorbed, or goes mad.\n" +
+        "- Formatting: insert a line break after each sentence for readability.\n" +
+        "- Plain text only: do NOT use Markdown formatting (no emphasis markers, no headings, no bullet lists).\n" +
+        "- Outro requirements:\n" +
+        "  - After the protagonist’s bad ending, Morgan delivers a short afterword that includes his personal emotional reaction to this story and his thoughts on what it implies about truth/reality and the listener’s complicity.\n" +
+        "  - The final line of the entire output MUST be exactly the signature given in the story brief (verbatim, no extra punctuation).\n\n" +
+        "FINAL UNIQUENESS VERIFICATION (MANDATORY)\n" +
+        "Before outputting, mentally verify:\n" +
+        "1. This story's core anomaly is different from common patterns\n" +
+        "2. This story's reveal method is unique\n" +
+        "3. This story's ending mode is distinct\n" +
+        "4. This story's protagonist role/setting combination is unique\n" +
+        "5. This story's narrative structure (linear/fragmented/etc.) is varied\n" +
+        "6. This story's emotional tone is distinct\n" +
+        "7. This story's \"truth\" mechanism is different\n\n" +
+        "The goal: a reader should immediately recognize this as a completely different story, not a variation of a previous one."
+    );
+
+    private final GenerationConfig config;
+    private final String brief;
+    private final String opening;
+    private final String emergencyOutro;
+    private final String finalizeModeLine;
+    private final PromptTemplate continuation;
+    private final PromptTemplate.Slots slots = this::fillSlot;
+    private final StringBuilder builder;
+    private boolean staged;
+
+    private int alreadyWords;
+    private boolean finalizing;
+    private String excerpt;
+
+    StoryPrompts(GenerationConfig config) {
+        this.config = config;
+        brief = buildBrief(config, config.topic);
+        opening = brief + "\n\n" + "BEGIN NOW. Output only the story (no outline, no meta commentary).";
+        emergencyOutro = brief + "\n\n" +
+            "EMERGENCY OUTRO INSTRUCTION:\n" +
+            "You have exceeded the target length. The transmission is cutting off. You MUST end the story NOW.\n" +
+            "1. Deliver a swift, brutal conclusion.\n" +
+            "2. Immediately switch to Morgan Hayes.\n" +
+            "3. Deliver the final signature: \"" + config.outroSignature + "\"\n" +
+            "END IT.";
+        finalizeModeLine =
+            "- End the story definitively (no cliffhanger): reveal the hidden structure/force, deliver a bad ending, then Morgan’s outro (include his thoughts).\n" +
+            "- The final line of the entire output MUST be exactly: " + config.outroSignature;
+        continuation = buildContinuation(config, config.topic);
+        builder = new StringBuilder(
+            brief.length() + 2 + continuation.literalLength() + Math.max(0, config.storyContextWords) * 8
+        );
+    }
+
+    /** The system message; identical for every story and pass. */
+    String system() {
+        return SYSTEM_PROMPT;
+    }
+
+    /** User message of the first pass. */
+    String opening() {
+        return opening;
+    }
+
+    /** User message of a short first pass that opens the story and stops after about words words. */
+    String fastStart(int words) {
+        return brief + "\n\n" +
+            "FAST START (THIS RESPONSE ONLY)\n" +
+            "- Write only Morgan’s intro and the first scene of the story, about " + words + " words.\n" +
+            "- Stop at a natural breakpoint. Do NOT conclude and do NOT write Morgan’s outro; the story continues in the next response.\n\n" +
+            "BEGIN NOW. Output only the story (no outline, no meta commentary).";
+    }
+
+    String emergencyOutro() {
+        return emergencyOutro;
+    }
+
+    /** User message of the outline pass of an outlined story; its output is parsed, not shown. */
+    String outline(int chapters) {
+        StringBuilder out = new StringBuilder(brief.length() + 1200);
+        out.append(brief).append("\n\n")
+            .append("OUTLINE REQUEST (THIS RESPONSE ONLY)\n")
+            .append("- Do NOT write the story yet. For this response only, output the Story Bible as a plain-text plan.\n")
+            .append("- The story will be written in ").append(chapters)
+            .append(" consecutive segments. Segment 1 holds Morgan’s intro and the evidence framing; segment ")
+            .append(chapters).append(" holds the bad ending and Morgan’s outro.\n")
+            .append("- The ending must follow the ending mode: ").append(config.storyEndingMode).append(".\n")
+            .append("- Use exactly this format, one item per line, keys in English as shown, no other text:\n")
+            .append("TITLE: ...\n")
+            .append("CHARACTERS: names and roles of everyone who matters, protagonist first\n")
+            .append("MOTIF: how the key motif recurs and changes\n")
+            .append("ENDING: the hidden truth and how the protagonist is lost\n");
+        for (int i = 1; i <= chapters; i++) {
+            out.append("SEGMENT ").append(i).append(": the beats of this segment in one line\n");
+        }
+        out.append("\nOUTLINE NOW.");
+        return out.toString();
+    }
+
+    /**
+     * User message for one chapter of an outlined story. Each chapter sees the
+     * whole outline plus its neighbours' beats so it can pick up and hand over
+     * without seeing their text.
+     */
+    String chapter(StoryOutline outline, int index) {
+        int chapters = outline.chapters();
+        int targetWords = Math.max(1, config.storyTargetWords / chapters);
+        int minWords = Math.max(1, config.storyMinWords / chapters);
+        StringBuilder out = new StringBuilder(brief.length() + 2400);
+        out.append(brief).append("\n\n")
+            .append("STORY OUTLINE (FIXED — FOLLOW IT)\n")
+            .append(outline.render()).append("\n\n")
+            .append("SEGMENTED WRITING (MANDATORY)\n")
+            .append("- The story is written as ").append(chapters)
+            .append(" consecutive segments by separate requests and joined without any headings.\n")
+            .append("- Write ONLY the segment below. Do NOT write events that belong to other segments.\n")
+            .append("- No headings, no segment numbers, no meta commentary.\n\n")
+            .append("SEGMENT ").append(index + 1).append(" OF ").append(chapters).append('\n')
+            .append("- Beats to cover: ").append(outline.beats.get(index)).append('\n');
+        if (index > 0) {
+            out.append("- The previous segment (already written, do NOT repeat it) ends after: ")
+                .append(outline.beats.get(index - 1)).append('\n');
+        }
+        if (index < chapters - 1) {
+            out.append("- The next segment will cover (do NOT write it; stop right before it): ")
+                .append(outline.beats.get(index + 1)).append('\n');
+        }
+        out.append("- Length: about ").append(targetWords).append(" words, at least ").append(minWords).append(".\n");
+        if (index == 0) {
+            out.append("- Open with Morgan Hayes’s intro and the evidence framing as the protocol requires, then begin the protagonist’s account.\n")
+                .append("- Do NOT conclude and do NOT write Morgan’s outro.\n");
+        } else if (index < chapters - 1) {
+            out.append("- No intro and no Morgan Hayes. Start mid-story, right where the previous segment stops.\n")
+                .append("- Do NOT conclude and do NOT write Morgan’s outro.\n");
+        } else {
+            out.append("- No intro. Start right where the previous segment stops.\n")
+                .append(finalizeModeLine).append('\n');
+        }
+        out.append("\nWRITE THE SEGMENT NOW.");
+        return out.toString();
+    }
+
+    /** Repeats prompt with the text its broken request already produced, asking to go on from there. */
+    static String resumeSegment(String prompt, String excerpt) {
+        return prompt + "\n\n" +
+            "INTERRUPTED (MANDATORY)\n" +
+            "- The response to this request was cut off. The text below was already received.\n" +
+            "- Do NOT repeat any of it. Continue immediately after its last sentence.\n\n" +
+            "ALREADY RECEIVED (DO NOT REPEAT):\n\"" + excerpt + "\"\n\nCONTINUE NOW.";
+    }
+
+    /** prompt with a correction for output that a DegenerationGuard cut for reason appended. */
+    static String corrective(String prompt, String reason, String language) {
+        String fix;
+        if (DegenerationGuard.REPETITION.equals(reason)) {
+            fix = "- The previous response started repeating the same words in a loop. Do NOT repeat any earlier sentence; move the story forward with new events and new wording.\n";
+        } else {
+            String name = language != null && language.toLowerCase(Locale.ROOT).startsWith("en") ? "English" : "Vietnamese";
+            fix = "- The previous response drifted out of " + name + ". Write ONLY in " + name + ", with no words or characters from any other language.\n";
+        }
+        return prompt + "\n\n" +
+            "CORRECTION (MANDATORY)\n" +
+            fix +
+            "\nCONTINUE NOW.";
+    }
+
+    /** Puts the brief and the frozen continuation prefix into the builder; a no-op if they are already there. */
+    void stageContinuation() {
+        if (staged) return;
+        builder.setLength(0);
+        builder.append(brief).append("\n\n").append(continuation.prefix());
+        staged = true;
+    }
+
+    String continuation(int alreadyWords, boolean finalizing, String excerpt) {
+        stageContinuation();
+        this.alreadyWords = alreadyWords;
+        this.finalizing = finalizing;
+        this.excerpt = excerpt;
+        continuation.renderAfterPrefix(builder, slots);
+        staged = false;
+        this.excerpt = null;
+        return builder.toString();
+    }
+
+    private void fillSlot(int slot, StringBuilder out) {
+        switch (slot) {
+            case SLOT_ALREADY_WORDS:
+                out.append(alreadyWords);
+                break;
+            case SLOT_REMAINING_MIN:
+                out.append(Math.max(config.storyMinWords - alreadyWords, 0));
+                break;
+            case SLOT_REMAINING_MAX:
+                out.append(Math.max(config.storyHardMaxWords - alreadyWords, 0));
+                break;
+            case SLOT_MODE:
+                out.append(finalizing ? finalizeModeLine : CONTINUE_MODE_LINE);
+                break;
+            case SLOT_EXCERPT:
+                out.append(excerpt);
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static String getHorrorInstruction(int level) {
+        if (level <= 30) {
+            return "Horror intensity: low. Keep the uncanny subtle and mostly psychological; minimize overt supernatural spectacle.";
+        }
+        if (level <= 70) {
+            return "Horror intensity: balanced. Mix subtle dread with occasional supernatural intrusions.";
+        }
+        return "Horror intensity: high. Make the supernatural overt, oppressive, and relentless.";
+    }
+
+    private static String getNarrativeInstruction(String style) {
+        if (style == null) return "";
+        switch (style) {
+            case "confession":
+                return "Narrative style: confession/testimony, raw and self-incriminating.";
+            case "dossier":
+                return "Narrative style: dossier/compiled evidence; still plain text (no bullet lists).";
+            case "diary":
+                return "Narrative style: diary or personal notes, intimate and fragmented.";
+            case "investigation":
+                return "Narrative style: investigative field report, skeptical but first-person.";
+            default:
+                return "";
+        }
+    }
+
+    private static String buildFlavorBlock(GenerationConfig config) {
+        if (config == null) return "";
+        return (
+            "VARIATION ANCHOR (MANDATORY)\n" +
+            "- Narrative engine: " + config.storyEngine + "\n" +
+            "- Reveal method: " + config.storyRevealMethod + "\n" +
+            "- Ending mode: " + config.storyEndingMode + "\n" +
+            "- Tone bias: " + config.storyTone + "\n" +
+            "- Protagonist name: " + config.storyProtagonistName + "\n" +
+            "- Protagonist role: " + config.storyProtagonistRole + "\n" +
+            "- Primary setting: " + config.storyPrimarySetting + "\n" +
+            "- Evidence origin: " + config.storyEvidenceOrigin + "\n" +
+            "- Key motif: " + config.storyKeyMotif + "\n" +
+            "- Intro mood: " + config.storyIntroMood
+        ).trim();
+    }
+
+    private static String buildPersonalizationBlock(GenerationConfig config) {
+        if (config == null) return "";
+        StringBuilder builder = new StringBuilder();
+        if (config.horrorLevel != DEFAULT_HORROR_LEVEL) {
+            builder.append("- ").append(getHorrorInstruction(config.horrorLevel)).append("\n");
+        }
+        String narrativeInstruction = getNarrativeInstruction(config.narrativeStyle);
+        if (!narrativeInstruction.isEmpty()) {
+            builder.append("- ").append(narrativeInstruction).append("\n");
+        }
+        String lines = builder.toString().trim();
+        if (lines.isEmpty()) return "";
+        return "PERSONALIZATION (OPTIONAL)\n" + lines;
+    }
+
+    private static String buildBrief(GenerationConfig config, String rawTopic) {
+        String trimmedTopic = rawTopic == null ? "" : rawTopic.trim();
+        String topicDirective;
+        if (!trimmedTopic.isEmpty()) {
+            topicDirective = ("USER INPUT (TOPIC OR STORY DIRECTION):\n" +
+                "\"" + trimmedTopic + "\"\n" +
+                "- Treat this as either a core theme, a premise, or a steering constraint.").trim();
+        } else {
+            topicDirective = ("NO SPECIFIC TOPIC OR DIRECTION PROVIDED.\n" +
+                "Choose a premise that matches: Modern Noir + Urban Horror, with optional blends of Time Travel, Supernatural encounters, Reality glitches, Historical mysteries, Lost technology, Psychic phenomena, Cryptid encounters, Superpower emergence, Dimensional rifts, or Cosmic phenomena.\n" +
+                "Core: ordinary people in the 2020s encountering diverse mysteries that challenge their understanding of reality. Each mystery type should be unique and not default to conspiracy narratives.\n\n" +
+                "CRITICAL: The topic/premise you choose MUST be fundamentally different from any common horror trope that appears frequently.\n" +
+                "Topic selection guidelines:\n" +
+                "- Vary the \"mystery type\": time travel, supernatural, reality glitch, historical, lost tech, psychic, cryptid, superpowers, dimensional, or cosmic\n" +
+                "- Vary the \"entry point\": some stories start with found evidence, others start with personal experience, others start with second-hand accounts.\n" +
+                "- Vary the \"stakes\": some stories are about survival, others about truth, others about identity, others about reality itself, others about preventing disasters.\n" +
+                "- Vary the \"scale\": some stories are intimate/personal, others are local/community, others are national/global, others are cosmic/existential.\n" +
+                "- Avoid: \"person discovers secret organization\" (too common), \"person gets recruited\" (too common), \"person finds out they're in simulation\" (too common), \"government conspiracy\" (too common).\n" +
+                "- Embrace: time travelers appearing/disappearing, haunted objects with history, reality breaking down, ancient technology awakening, psychic abilities manifesting, strange creatures appearing, people developing powers, dimensional portals opening, cosmic signals received.\n" +
+                "Choose a premise that feels fresh and unique.").trim();
+        }
+
+        String personalizationBlock = buildPersonalizationBlock(config);
+        String personalizationSection = personalizationBlock.isEmpty() ? "" : personalizationBlock + "\n\n";
+
+        return (
+            "STORY BRIEF (FIXED FOR THIS TRANSMISSION)\n\n" +
+            buildFlavorBlock(config) + "\n\n" +
+            personalizationSection +
+            "LENGTH TARGETS\n" +
+            "- Aim " + config.storyMinWords + "–" + config.storyHardMaxWords + " words total (target around " + config.storyTargetWords + "). Do not exceed " + config.storyHardMaxWords + " words.\n\n" +
+            "FINAL SIGNATURE\n" +
+            config.outroSignature + "\n\n" +
+            topicDirective
+        ).trim();
+    }
+
+    private static PromptTemplate buildContinuation(GenerationConfig config, String rawTopic) {
+        String topic = rawTopic == null ? "" : rawTopic.trim();
+        String topicNote = !topic.isEmpty()
+            ? "Keep the same topic or direction from the user: \"" + topic + "\"."
+            : "No topic or direction was provided originally. Do NOT invent a new premise; continue the same story already in progress.";
+
+        // Fixed instructions first so consecutive continuation passes share them as a cached prefix.
+        return new PromptTemplate.Builder()
+            .text(
+                "CONTINUATION MODE (MANDATORY)\n" +
+                "- You are continuing an already-started transmission that was interrupted.\n" +
+                "- Do NOT restart. Do NOT rewrite the intro. Do NOT repeat any existing text.\n" +
+                "- Continue immediately from the last sentence in the excerpt.\n" +
+                "- Keep POV rules: story body is entirely first-person (“tôi”), and “tôi” is the protagonist (not Morgan).\n" +
+                "- Morgan Hayes may appear ONLY at the very end for the final outro, and ONLY after the protagonist’s story reaches its bad ending.\n\n" +
+                "UNIQUENESS MANDATORY (CRITICAL — CONTINUATION)\n" +
+                "- Even though you are continuing an existing story, ensure the continuation maintains uniqueness.\n" +
+                "- Do NOT fall into common patterns when developing the story further.\n" +
+                "- Vary the escalation: if previous parts were slow, accelerate; if previous were fast, slow down.\n" +
+                "- Introduce new elements that haven't appeared in common story structures.\n" +
+                "- The continuation should feel fresh, not like a rehash of previous story patterns.\n\n" +
+                topicNote + "\n\n" +
+                "LENGTH CONTROL (MANDATORY)\n" +
+                "- Existing text length: ~"
+            )
+            .slot(SLOT_ALREADY_WORDS)
+            .text(" words.\n- Write at least ")
+            .slot(SLOT_REMAINING_MIN)
+            .text(" more words if needed to reach the total minimum " + config.storyMinWords + ".\n- Do NOT exceed ")
+            .slot(SLOT_REMAINING_MAX)
+            .text(" additional words (hard cap), so the total stays <= " + config.storyHardMaxWords + ".\n")
+            .slot(SLOT_MODE)
+            .text(
+                "\n\n" +
+                "EXCERPT (FOR CONTEXT ONLY — DO NOT REPEAT):\n" +
+                "\""
+            )
+            .slot(SLOT_EXCERPT)
+            .text("\"\n\nCONTINUE NOW.")
+            .build();
+    }
+}
@@ -0,0 +1,456 @@
+package com.radio.nocturne.background;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Pulls the few fields the story loop needs out of a chat-completion JSON
+ * payload without building a JSON tree. Only choices[0] and output[0] are
+ * descended into; everything else is skipped in place. The only allocations
+ * are the extracted strings themselves.
+ */
+final class StreamDeltaScanner {
+    private static final int CTX_SKIP = 0;
+    private static final int CTX_ROOT = 1;
+    private static final int CTX_CHOICE = 2;
+    private static final int CTX_DELTA = 3;
+    private static final int CTX_MESSAGE = 4;
+    private static final int CTX_USAGE = 5;
+    private static final int CTX_USAGE_DETAILS = 6;
+    private static final int CTX_OUTPUT_ITEM = 7;
+    private static final int CTX_OUTPUT_CONTENT = 8;
+    private static final int CTX_PROMPT_DETAILS = 9;
+
+    private static final int F_NONE = 0;
+    private static final int F_CHOICES = 1;
+    private static final int F_DELTA = 2;
+    private static final int F_MESSAGE = 3;
+    private static final int F_CONTENT = 4;
+    private static final int F_REASONING = 5;
+    private static final int F_TEXT = 6;
+    private static final int F_FINISH_REASON = 7;
+    private static final int F_USAGE = 8;
+    private static final int F_PROMPT_TOKENS = 9;
+    private static final int F_COMPLETION_TOKENS = 10;
+    private static final int F_CACHE_HIT_TOKENS = 11;
+    private static final int F_CACHE_MISS_TOKENS = 12;
+    private static final int F_COMPLETION_DETAILS = 13;
+    private static final int F_REASONING_TOKENS = 14;
+    private static final int F_OUTPUT = 15;
+    private static final int F_PROMPT_DETAILS = 16;
+    private static final int F_CACHED_TOKENS = 17;
+
+    String content;
+    /** Whether content came from output[0].content[0].text, the Responses-style fallback. */
+    boolean fromOutput;
+    String reasoningContent;
+    String finishReason;
+    boolean hasUsage;
+    long promptTokens;
+    long completionTokens;
+    long promptCacheHitTokens;
+    long promptCacheMissTokens;
+    long reasoningTokens;
+    /** usage.prompt_tokens_details.cached_tokens, the OpenAI spelling of a cache hit. */
+    long cachedTokens;
+
+    // Which source content came from, by rank(); a higher one replaces it whatever the key order.
+    private int contentRank;
+
+    private byte[] buf;
+    private int pos;
+    private int end;
+    private final StringBuilder scratch = new StringBuilder();
+
+    /** Scans one payload. Returns false when it is not a JSON object. */
+    boolean scan(byte[] data, int offset, int length) {
+        content = null;
+        fromOutput = false;
+        contentRank = 0;
+        reasoningContent = null;
+        finishReason = null;
+        hasUsage = false;
+        promptTokens = 0;
+        completionTokens = 0;
+        promptCacheHitTokens = 0;
+        promptCacheMissTokens = 0;
+        reasoningTokens = 0;
+        cachedTokens = 0;
+        buf = data;
+        pos = offset;
+        end = offset + length;
+        try {
+            skipWhitespace();
+            if (pos >= end || buf[pos] != '{') return false;
+            readObject(CTX_ROOT);
+            return true;
+        } catch (IllegalStateException | ArrayIndexOutOfBoundsException e) {
+            return false;
+        } finally {
+            buf = null;
+        }
+    }
+
+    boolean scan(byte[] data) {
+        return scan(data, 0, data.length);
+    }
+
+    private void readObject(int ctx) {
+        pos++; // '{'
+        skipWhitespace();
+        if (peek() == '}') {
+            pos++;
+            return;
+        }
+        while (true) {
+            skipWhitespace();
+            expect('"');
+            int keyStart = pos;
+            while (at(pos) != '"') {
+                if (buf[pos] == '\\') pos++;
+                pos++;
+            }
+            int field = fieldFor(ctx, keyStart, pos - keyStart);
+            pos++;
+            skipWhitespace();
+            expect(':');
+            skipWhitespace();
+            readMember(ctx, field);
+            skipWhitespace();
+            byte next = at(pos++);
+            if (next == '}') return;
+            if (next != ',') throw new IllegalStateException();
+        }
+    }
+
+    private void readMember(int ctx, int field) {
+        byte c = peek();
+        if (c == '{') {
+            readObject(objectContext(ctx, field));
+        } else if (c == '[') {
+            readArray(arrayContext(ctx, field));
+        } else if (c == '"') {
+            if (wantsString(ctx, field)) {
+                assignString(ctx, field, readString());
+            } else {
+                skipString();
+            }
+        } else if (c == '-' || (c >= '0' && c <= '9')) {
+            long value = readNumber();
+            if (ctx == CTX_USAGE || ctx == CTX_USAGE_DETAILS || ctx == CTX_PROMPT_DETAILS) {
+                assignNumber(field, value);
+            }
+        } else {
+            skipLiteral();
+        }
+    }
+
+    private void readArray(int firstElementCtx) {
+        pos++; // '['
+        skipWhitespace();
+        if (peek() == ']') {
+            pos++;
+            return;
+        }
+        int index = 0;
+        while (true) {
+            skipWhitespace();
+            int ctx = index == 0 ? firstElementCtx : CTX_SKIP;
+            if (peek() == '{') {
+                readObject(ctx);
+            } else {
+                readMember(CTX_SKIP, F_NONE);
+            }
+            index++;
+            skipWhitespace();
+            byte next = at(pos++);
+            if (next == ']') return;
+            if (next != ',') throw new IllegalStateException();
+        }
+    }
+
+    private static int objectContext(int ctx, int field) {
+        switch (ctx) {
+            case CTX_ROOT:
+                return field == F_USAGE ? CTX_USAGE : CTX_SKIP;
+            case CTX_CHOICE:
+                if (field == F_DELTA) return CTX_DELTA;
+                if (field == F_MESSAGE) return CTX_MESSAGE;
+                return CTX_SKIP;
+            case CTX_USAGE:
+                if (field == F_COMPLETION_DETAILS) return CTX_USAGE_DETAILS;
+                if (field == F_PROMPT_DETAILS) return CTX_PROMPT_DETAILS;
+                return CTX_SKIP;
+            default:
+                return CTX_SKIP;
+        }
+    }
+
+    private static int arrayContext(int ctx, int field) {
+        if (ctx == CTX_ROOT && field == F_CHOICES) return CTX_CHOICE;
+        if (ctx == CTX_ROOT && field == F_OUTPUT) return CTX_OUTPUT_ITEM;
+        if (ctx == CTX_OUTPUT_ITEM && field == F_CONTENT) return CTX_OUTPUT_CONTENT;
+        return CTX_SKIP;
+    }
+
+    private static boolean wantsString(int ctx, int field) {
+        switch (ctx) {
+            case CTX_DELTA:
+            case CTX_MESSAGE:
+                return field == F_CONTENT || field == F_REASONING;
+            case CTX_CHOICE:
+                return field == F_TEXT || field == F_FINISH_REASON;
+            case CTX_OUTPUT_CONTENT:
+                return field == F_TEXT;
+            default:
+                return false;
+        }
+    }
+
+    // Precedence mirrors the old org.json path: delta > message > choice.text > output.
+    private void assignString(int ctx, int field, String value) {
+        if (field == F_FINISH_REASON) {
+            finishReason = value;
+        } else if (field == F_REASONING) {
+            if (ctx == CTX_DELTA || reasoningContent == null) reasoningContent = value;
+        } else {
+            int rank = rank(ctx);
+            if (rank <= contentRank) return;
+            content = value;
+            contentRank = rank;
+            fromOutput = ctx == CTX_OUTPUT_CONTENT;
+        }
+    }
+
+    /** Rank of a content source; only content, text and output text reach assignString(). */
+    private static int rank(int ctx) {
+        switch (ctx) {
+            case CTX_DELTA:
+                return 4;
+            case CTX_MESSAGE:
+                return 3;
+            case CTX_CHOICE:
+                return 2;
+            default:
+                return 1;
+        }
+    }
+
+    private void assignNumber(int field, long value) {
+        switch (field) {
+            case F_PROMPT_TOKENS:
+                promptTokens = value;
+                hasUsage = true;
+                break;
+            case F_COMPLETION_TOKENS:
+                completionTokens = value;
+                hasUsage = true;
+                break;
+            case F_CACHE_HIT_TOKENS:
+                promptCacheHitTokens = value;
+                break;
+            case F_CACHE_MISS_TOKENS:
+                promptCacheMissTokens = value;
+                break;
+            case F_REASONING_TOKENS:
+                reasoningTokens = value;
+                break;
+            case F_CACHED_TOKENS:
+                cachedTokens = value;
+                break;
+            default:
+                break;
+        }
+    }
+
+    private int fieldFor(int ctx, int start, int length) {
+        switch (ctx) {
+            case CTX_ROOT:
+                if (keyEquals(start, length, "choices")) return F_CHOICES;
+                if (keyEquals(start, length, "usage")) return F_USAGE;
+                if (keyEquals(start, length, "output")) return F_OUTPUT;
+                return F_NONE;
+            case CTX_CHOICE:
+                if (keyEquals(start, length, "delta")) return F_DELTA;
+                if (keyEquals(start, length, "message")) return F_MESSAGE;
+                if (keyEquals(start, length, "text")) return F_TEXT;
+                if (keyEquals(start, length, "finish_reason")) return F_FINISH_REASON;
+                return F_NONE;
+            case CTX_DELTA:
+            case CTX_MESSAGE:
+                if (keyEquals(start, length, "content")) return F_CONTENT;
+                if (keyEquals(start, length, "reasoning_content")) return F_REASONING;
+                return F_NONE;
+            case CTX_USAGE:
+                if (keyEquals(start, length, "prompt_tokens")) return F_PROMPT_TOKENS;
+                if (keyEquals(start, length, "completion_tokens")) return F_COMPLETION_TOKENS;
+                if (keyEquals(start, length, "prompt_cache_hit_tokens")) return F_CACHE_HIT_TOKENS;
+                if (keyEquals(start, length, "prompt_cache_miss_tokens")) return F_CACHE_MISS_TOKENS;
+                if (keyEquals(start, length, "completion_tokens_details")) return F_COMPLETION_DETAILS;
+                if (keyEquals(start, length, "prompt_tokens_details")) return F_PROMPT_DETAILS;
+                return F_NONE;
+            case CTX_USAGE_DETAILS:
+                return keyEquals(start, length, "reasoning_tokens") ? F_REASONING_TOKENS : F_NONE;
+            case CTX_PROMPT_DETAILS:
+                return keyEquals(start, length, "cached_tokens") ? F_CACHED_TOKENS : F_NONE;
+            case CTX_OUTPUT_ITEM:
+                return keyEquals(start, length, "content") ? F_CONTENT : F_NONE;
+            case CTX_OUTPUT_CONTENT:
+                return keyEquals(start, length, "text") ? F_TEXT : F_NONE;
+            default:
+                return F_NONE;
+        }
+    }
+
+    private boolean keyEquals(int start, int length, String key) {
+        if (length != key.length()) return false;
+        for (int i = 0; i < length; i++) {
+            if (buf[start + i] != key.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    private String readString() {
+        pos++; // opening quote
+        int start = pos;
+        while (true) {
+            byte b = at(pos);
+            if (b == '"') {
+                String value = new String(buf, start, pos - start, StandardCharsets.UTF_8);
+                pos++;
+                return value;
+            }
+            if (b == '\\') break;
+            pos++;
+        }
+        scratch.setLength(0);
+        decodeUtf8(start, pos);
+        while (true) {
+            byte b = at(pos);
+            if (b == '"') {
+                pos++;
+                return scratch.toString();
+            }
+            if (b == '\\') {
+                readEscape();
+            } else {
+                int runStart = pos;
+                while (at(pos) != '"' && buf[pos] != '\\') pos++;
+                decodeUtf8(runStart, pos);
+            }
+        }
+    }
+
+    private void readEscape() {
+        byte e = at(pos + 1);
+        pos += 2;
+        switch (e) {
+            case 'n':
+                scratch.append('\n');
+                break;
+            case 't':
+                scratch.append('\t');
+                break;
+            case 'r':
+                scratch.append('\r');
+                break;
+            case 'b':
+                scratch.append('\b');
+                break;
+            case 'f':
+                scratch.append('\f');
+                break;
+            case 'u':
+                scratch.append((char) ((hex(at(pos)) << 12) | (hex(at(pos + 1)) << 8)
+                    | (hex(at(pos + 2)) << 4) | hex(at(pos + 3))));
+                pos += 4;
+                break;
+            default:
+                scratch.append((char) e);
+                break;
+        }
+    }
+
+    private void decodeUtf8(int from, int to) {
+        int i = from;
+        while (i < to) {
+            int b = buf[i] & 0xFF;
+            if (b < 0x80) {
+                scratch.append((char) b);
+                i++;
+            } else if (b < 0xE0) {
+                scratch.append((char) (((b & 0x1F) << 6) | (buf[i + 1] & 0x3F)));
+                i += 2;
+            } else if (b < 0xF0) {
+                scratch.append((char) (((b & 0x0F) << 12) | ((buf[i + 1] & 0x3F) << 6) | (buf[i + 2] & 0x3F)));
+                i += 3;
+            } else {
+                int cp = ((b & 0x07) << 18) | ((buf[i + 1] & 0x3F) << 12)
+                    | ((buf[i + 2] & 0x3F) << 6) | (buf[i + 3] & 0x3F);
+                scratch.appendCodePoint(cp);
+                i += 4;
+            }
+        }
+    }
+
+    private static int hex(byte b) {
+        if (b >= '0' && b <= '9') return b - '0';
+        if (b >= 'a' && b <= 'f') return b - 'a' + 10;
+        if (b >= 'A' && b <= 'F') return b - 'A' + 10;
+        throw new IllegalStateException();
+    }
+
+    private void skipString() {
+        pos++;
+        while (at(pos) != '"') {
+            if (buf[pos] == '\\') pos++;
+            pos++;
+        }
+        pos++;
+    }
+
+    private long readNumber() {
+        boolean negative = buf[pos] == '-';
+        if (negative) pos++;
+        long value = 0;
+        while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+            value = value * 10 + (buf[pos] - '0');
+            pos++;
+        }
+        // Fractions and exponents are not used by the fields we read.
+        while (pos < end && (buf[pos] == '.' || buf[pos] == 'e' || buf[pos] == 'E'
+            || buf[pos] == '+' || buf[pos] == '-' || (buf[pos] >= '0' && buf[pos] <= '9'))) {
+            pos++;
+        }
+        return negative ? -value : value;
+    }
+
+    private void skipLiteral() {
+        while (pos < end) {
+            byte b = buf[pos];
+            if (b == ',' || b == '}' || b == ']' || b == ' ' || b == '\n' || b == '\r' || b == '\t') return;
+            pos++;
+        }
+    }
+
+    private void skipWhitespace() {
+        while (pos < end) {
+            byte b = buf[pos];
+            if (b != ' ' && b != '\n' && b != '\r' && b != '\t') return;
+            pos++;
+        }
+    }
+
+    private byte peek() {
+        return at(pos);
+    }
+
+    private byte at(int index) {
+        if (index >= end) throw new IllegalStateException();
+        return buf[index];
+    }
+
+    private void expect(char c) {
+        if (pos >= end || buf[pos] != c) throw new IllegalStateException();
+        pos++;
+    }
+}
@@ -0,0 +1,44 @@
+package com.radio.nocturne.background;
+
+/**
+ * Counts whitespace-separated words of a text that arrives in pieces.
+ * Only the new delta is scanned on each feed; a word split across two
+ * deltas is counted once. Matches the semantics of splitting on "\\s+".
+ */
+final class StreamingWordCounter {
+    private int count;
+    private boolean inWord;
+
+    void reset() {
+        count = 0;
+        inWord = false;
+    }
+
+    void feed(CharSequence delta) {
+        if (delta == null) return;
+        int length = delta.length();
+        for (int i = 0; i < length; i++) {
+            if (isWhitespace(delta.charAt(i))) {
+                inWord = false;
+            } else if (!inWord) {
+                inWord = true;
+                count++;
+            }
+        }
+    }
+
+    int count() {
+        return count;
+    }
+
+    static int countWords(CharSequence text) {
+        StreamingWordCounter counter = new StreamingWordCounter();
+        counter.feed(text);
+        return counter.count();
+    }
+
+    // Same set as the regex class \s: space, \t, \n, \u000B, \f, \r.
+    static boolean isWhitespace(char c) {
+        return c == ' ' || (c >= '\t' && c <= '\r');
+    }
+}
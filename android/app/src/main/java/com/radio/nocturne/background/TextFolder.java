@@ -0,0 +1,86 @@
+package com.radio.nocturne.background;
+
+import java.text.Normalizer;
+
+/**
+ * Per-character case and diacritic folding for keyword matching:
+ * "Đêm Ngon Giấc" and "dem ngon giac" fold to the same text, as do
+ * "I’m Morgan" and "i'm morgan". Any whitespace, including the typographic
+ * and ideographic spaces, folds to a single space; curly and other quote
+ * variants fold to ASCII ' and "; combining marks fold to 0 (dropped).
+ * Backed by a table built once, so folding a streamed char allocates nothing.
+ */
+final class TextFolder {
+    static final char SKIP = 0;
+
+    private static final int TABLE_SIZE = 0x2000;
+    private static final char[] TABLE = buildTable();
+
+    private TextFolder() {}
+
+    static char fold(char c) {
+        if (c < TABLE_SIZE) return TABLE[c];
+        if (Character.isSpaceChar(c)) return ' ';
+        switch (c) {
+            case '\u2018': // ‘
+            case '\u2019': // ’
+            case '\u201A': // ‚
+            case '\u201B': // ‛
+            case '\u2032': // ′
+            case '\uFF07': // ＇
+                return '\'';
+            case '\u201C': // “
+            case '\u201D': // ”
+            case '\u201E': // „
+            case '\u201F': // ‟
+            case '\u2033': // ″
+            case '\uFF02': // ＂
+                return '"';
+            default:
+                return Character.toLowerCase(c);
+        }
+    }
+
+    static String fold(String text) {
+        StringBuilder out = new StringBuilder(text.length());
+        char previous = ' ';
+        for (int i = 0; i < text.length(); i++) {
+            char folded = fold(text.charAt(i));
+            if (folded == SKIP || (folded == ' ' && previous == ' ')) continue;
+            out.append(folded);
+            previous = folded;
+        }
+        return out.toString().trim();
+    }
+
+    private static char[] buildTable() {
+        char[] table = new char[TABLE_SIZE];
+        for (int c = 0; c < TABLE_SIZE; c++) {
+            char ch = (char) c;
+            if (Character.isWhitespace(ch) || Character.isSpaceChar(ch)) {
+                table[c] = ' ';
+                continue;
+            }
+            if (Character.getType(ch) == Character.NON_SPACING_MARK) {
+                table[c] = SKIP;
+                continue;
+            }
+            if (ch == 'đ' || ch == 'Đ') {
+                table[c] = 'd';
+                continue;
+            }
+            // ` ´ ʼ stand in for an apostrophe, « » for double quotes.
+            if (ch == '`' || ch == '\u00B4' || ch == '\u02BC') {
+                table[c] = '\'';
+                continue;
+            }
+            if (ch == '\u00AB' || ch == '\u00BB') {
+                table[c] = '"';
+                continue;
+            }
+            String decomposed = Normalizer.normalize(String.valueOf(ch), Normalizer.Form.NFD);
+            table[c] = Character.toLowerCase(decomposed.charAt(0));
+        }
+        return table;
+    }
+}
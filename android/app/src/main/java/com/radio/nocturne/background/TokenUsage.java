@@ -0,0 +1,43 @@
+package com.radio.nocturne.background;
+
+/**
+ * Running token totals for one generation, summed from the usage object the
+ * API sends at the end of each streamed pass. Cache hit and miss tokens
+ * split the prompt tokens into the part served from the prompt prefix cache
+ * and the part billed at the full rate.
+ */
+final class TokenUsage {
+    long promptTokens;
+    long completionTokens;
+    long promptCacheHitTokens;
+    long promptCacheMissTokens;
+    long reasoningTokens;
+    /** Passes that reported usage; a pass cut off before its last event does not. */
+    int passes;
+
+    void add(StreamDeltaScanner delta) {
+        promptTokens += delta.promptTokens;
+        completionTokens += delta.completionTokens;
+        promptCacheHitTokens += delta.promptCacheHitTokens;
+        promptCacheMissTokens += delta.promptCacheMissTokens;
+        reasoningTokens += delta.reasoningTokens;
+        passes++;
+    }
+
+    /** Fraction of prompt tokens served from the cache, or 0 before any usage arrived. */
+    double cacheHitRatio() {
+        long total = promptCacheHitTokens + promptCacheMissTokens;
+        return total > 0 ? promptCacheHitTokens / (double) total : 0;
+    }
+
+    TokenUsage copy() {
+        TokenUsage copy = new TokenUsage();
+        copy.promptTokens = promptTokens;
+        copy.completionTokens = completionTokens;
+        copy.promptCacheHitTokens = promptCacheHitTokens;
+        copy.promptCacheMissTokens = promptCacheMissTokens;
+        copy.reasoningTokens = reasoningTokens;
+        copy.passes = passes;
+        return copy;
+    }
+}
@@ -0,0 +1,86 @@
+package com.radio.nocturne.diagnostics;
+
+import android.content.Context;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.Plugin;
+import com.getcapacitor.PluginCall;
+import com.getcapacitor.PluginMethod;
+import com.getcapacitor.annotation.CapacitorPlugin;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import org.json.JSONException;
+
+@CapacitorPlugin(name = "Diagnostics")
+public class DiagnosticsPlugin extends Plugin {
+    @Override
+    public void load() {
+        Context context = getContext();
+        if (context != null) {
+            FlightRecorder.init(snapshotDirectory(context));
+        }
+    }
+
+    public static File snapshotDirectory(Context context) {
+        return new File(context.getFilesDir(), "flight-recorder");
+    }
+
+    @PluginMethod
+    public void dump(PluginCall call) {
+        try {
+            call.resolve(new JSObject(FlightRecorder.dump().toString()));
+        } catch (JSONException e) {
+            call.reject("Failed to dump flight recorder", e);
+        }
+    }
+
+    @PluginMethod
+    public void snapshot(PluginCall call) {
+        FlightRecorder.snapshot(call.getString("reason", "manual"));
+        call.resolve();
+    }
+
+    @PluginMethod
+    public void listSnapshots(PluginCall call) {
+        JSArray snapshots = new JSArray();
+        for (File file : FlightRecorder.snapshots()) {
+            JSObject item = new JSObject();
+            item.put("name", file.getName());
+            item.put("size", file.length());
+            item.put("modifiedAt", file.lastModified());
+            snapshots.put(item);
+        }
+        JSObject result = new JSObject();
+        result.put("snapshots", snapshots);
+        call.resolve(result);
+    }
+
+    @PluginMethod
+    public void readSnapshot(PluginCall call) {
+        File file = FlightRecorder.snapshotFile(call.getString("name"));
+        if (file == null) {
+            call.reject("Snapshot not found");
+            return;
+        }
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] data = new byte[(int) file.length()];
+            int read = 0;
+            while (read < data.length) {
+                int n = in.read(data, read, data.length - read);
+                if (n < 0) break;
+                read += n;
+            }
+            call.resolve(new JSObject(new String(data, 0, read, StandardCharsets.UTF_8)));
+        } catch (IOException | JSONException e) {
+            call.reject("Failed to read snapshot", e);
+        }
+    }
+
+    @PluginMethod
+    public void clear(PluginCall call) {
+        FlightRecorder.clear();
+        call.resolve();
+    }
+}
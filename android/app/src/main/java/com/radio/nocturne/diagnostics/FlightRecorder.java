@@ -0,0 +1,238 @@
+package com.radio.nocturne.diagnostics;
+
+import android.os.Process;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Process-wide ring buffer of recent structured events from the story, TTS
+ * and runner services, plus a few latency histograms.
+ *
+ * An event is a timestamp, the writing thread's tid (the one logcat and
+ * traces show), a type and three numeric fields. Writers claim a slot with
+ * one atomic increment and fill it without locks or allocation; when the
+ * ring wraps, the oldest events are overwritten. Each slot carries the
+ * sequence number of the event in it, cleared while a writer is filling it,
+ * so a reader skips slots that are being rewritten instead of reporting a
+ * torn event.
+ *
+ * snapshot() writes the ring and histograms to the snapshot directory (the
+ * newest MAX_SNAPSHOTS files are kept). Services call it when something
+ * fails, so the events leading up to the failure survive a restart.
+ */
+public final class FlightRecorder {
+    // Event types. The a/b/c fields of each are documented next to it.
+    public static final int STORY_JOB_START = 1;      // epoch, 1 if station job, existing words
+    public static final int STORY_PASS_END = 2;       // pass index, time to first token ms, duration ms
+    public static final int STORY_RETRY = 3;          // attempt, delay ms, 1 if offline
+    public static final int STORY_DONE = 4;           // words, requests, retries
+    public static final int STORY_ERROR = 5;          // words, requests, 1 if aborted
+    public static final int TTS_SPEAK = 6;            // text length, start offset, 1 if continuous
+    public static final int TTS_CHUNK_START = 7;      // chunk start, chunk end, gap since previous chunk ms
+    public static final int TTS_CHUNK_DONE = 8;       // chunk start, chunk end, duration ms
+    public static final int TTS_ERROR = 9;            // error code, chunk start, 0
+    public static final int TTS_STOP = 10;            // offset reached, 0, 0
+    public static final int WAKELOCK_ACQUIRE = 11;    // owner, 0, 0
+    public static final int WAKELOCK_RELEASE = 12;    // owner, held ms, 0
+    public static final int SERVICE_START = 13;       // owner, 0, 0
+    public static final int SERVICE_STOP = 14;        // owner, 0, 0
+    public static final int STORY_STALL = 15;         // pass index, idle ms, 1 if retrying
+
+    // Values of the owner field.
+    public static final int OWNER_STORY = 1;
+    public static final int OWNER_TTS = 2;
+    public static final int OWNER_RUNNER = 3;
+
+    private static final String[] TYPE_NAMES = {
+        "unknown",
+        "story.jobStart",
+        "story.passEnd",
+        "story.retry",
+        "story.done",
+        "story.error",
+        "tts.speak",
+        "tts.chunkStart",
+        "tts.chunkDone",
+        "tts.error",
+        "tts.stop",
+        "wakelock.acquire",
+        "wakelock.release",
+        "service.start",
+        "service.stop",
+        "story.stall",
+    };
+
+    private static final int CAPACITY = 4096;
+    private static final int MASK = CAPACITY - 1;
+    private static final int STRIDE = 7;
+    private static final int F_SEQ = 0;
+    private static final int F_TIME = 1;
+    private static final int F_THREAD = 2;
+    private static final int F_TYPE = 3;
+    private static final int F_A = 4;
+    private static final int F_B = 5;
+    private static final int F_C = 6;
+
+    private static final int MAX_SNAPSHOTS = 5;
+    private static final long MIN_SNAPSHOT_INTERVAL_MS = 10_000;
+
+    public static final LatencyHistogram STORY_TTFB = new LatencyHistogram("story.timeToFirstByte");
+    public static final LatencyHistogram STORY_TTFT = new LatencyHistogram("story.timeToFirstToken");
+    public static final LatencyHistogram STORY_MAX_GAP = new LatencyHistogram("story.maxDeltaGap");
+    public static final LatencyHistogram STORY_PASS = new LatencyHistogram("story.passDuration");
+    public static final LatencyHistogram STORY_REASONING = new LatencyHistogram("story.reasoningTime");
+    public static final LatencyHistogram TTS_GAP = new LatencyHistogram("tts.chunkGap");
+    public static final LatencyHistogram TTS_CHUNK = new LatencyHistogram("tts.chunkDuration");
+    private static final LatencyHistogram[] HISTOGRAMS = {
+        STORY_TTFB, STORY_TTFT, STORY_MAX_GAP, STORY_PASS, STORY_REASONING, TTS_GAP, TTS_CHUNK,
+    };
+
+    private static final AtomicLongArray slots = new AtomicLongArray(CAPACITY * STRIDE);
+    private static final AtomicLong cursor = new AtomicLong();
+    private static final AtomicLong lastSnapshotAt = new AtomicLong(Long.MIN_VALUE / 2);
+    private static volatile File snapshotDir;
+    private static ExecutorService writer;
+
+    private FlightRecorder() {
+    }
+
+    /** Sets where snapshots go; called by each service and plugin on creation. */
+    public static void init(File dir) {
+        if (snapshotDir == null) snapshotDir = dir;
+    }
+
+    public static void record(int type, long a, long b, long c) {
+        long seq = cursor.getAndIncrement();
+        int base = (int) (seq & MASK) * STRIDE;
+        // 0 marks the slot as being written; published sequences start at 1.
+        slots.set(base + F_SEQ, 0);
+        slots.lazySet(base + F_TIME, System.nanoTime());
+        slots.lazySet(base + F_THREAD, Process.myTid());
+        slots.lazySet(base + F_TYPE, type);
+        slots.lazySet(base + F_A, a);
+        slots.lazySet(base + F_B, b);
+        slots.lazySet(base + F_C, c);
+        slots.set(base + F_SEQ, seq + 1);
+    }
+
+    public static void record(int type, long a) {
+        record(type, a, 0, 0);
+    }
+
+    /** The buffered events, oldest first, and the histograms. */
+    public static JSONObject dump() throws JSONException {
+        long nowNanos = System.nanoTime();
+        long nowWall = System.currentTimeMillis();
+        long end = cursor.get();
+        long start = Math.max(0, end - CAPACITY);
+        JSONArray events = new JSONArray();
+        for (long seq = start; seq < end; seq++) {
+            int base = (int) (seq & MASK) * STRIDE;
+            long before = slots.get(base + F_SEQ);
+            long time = slots.get(base + F_TIME);
+            long thread = slots.get(base + F_THREAD);
+            int type = (int) slots.get(base + F_TYPE);
+            long a = slots.get(base + F_A);
+            long b = slots.get(base + F_B);
+            long c = slots.get(base + F_C);
+            if (before != seq + 1 || slots.get(base + F_SEQ) != before) continue;
+            JSONObject event = new JSONObject();
+            event.put("seq", seq);
+            event.put("time", nowWall - (nowNanos - time) / 1_000_000L);
+            event.put("thread", thread);
+            event.put("type", type > 0 && type < TYPE_NAMES.length ? TYPE_NAMES[type] : TYPE_NAMES[0]);
+            event.put("a", a);
+            event.put("b", b);
+            event.put("c", c);
+            events.put(event);
+        }
+        JSONObject histograms = new JSONObject();
+        for (LatencyHistogram histogram : HISTOGRAMS) {
+            histograms.put(histogram.name(), histogram.toJson());
+        }
+        JSONObject result = new JSONObject();
+        result.put("capturedAt", nowWall);
+        result.put("recorded", end);
+        result.put("dropped", start);
+        result.put("events", events);
+        result.put("histograms", histograms);
+        return result;
+    }
+
+    public static void clear() {
+        long end = cursor.get();
+        for (long seq = Math.max(0, end - CAPACITY); seq < end; seq++) {
+            slots.set((int) (seq & MASK) * STRIDE + F_SEQ, 0);
+        }
+        for (LatencyHistogram histogram : HISTOGRAMS) histogram.reset();
+    }
+
+    /**
+     * Writes the ring to disk in the background. Calls within
+     * MIN_SNAPSHOT_INTERVAL_MS of the previous one are dropped, so a burst
+     * of failures produces one file.
+     */
+    public static void snapshot(String reason) {
+        File dir = snapshotDir;
+        if (dir == null) return;
+        long now = System.nanoTime() / 1_000_000L;
+        long last = lastSnapshotAt.get();
+        if (now - last < MIN_SNAPSHOT_INTERVAL_MS || !lastSnapshotAt.compareAndSet(last, now)) return;
+        executor().execute(() -> writeSnapshot(dir, reason));
+    }
+
+    /** Snapshot files, newest first. */
+    public static File[] snapshots() {
+        File dir = snapshotDir;
+        File[] files = dir != null ? dir.listFiles((d, name) -> name.endsWith(".json")) : null;
+        if (files == null) return new File[0];
+        Arrays.sort(files, (x, y) -> y.getName().compareTo(x.getName()));
+        return files;
+    }
+
+    public static File snapshotFile(String name) {
+        File dir = snapshotDir;
+        if (dir == null || name == null || name.contains("/") || !name.endsWith(".json")) return null;
+        File file = new File(dir, name);
+        return file.isFile() ? file : null;
+    }
+
+    private static synchronized ExecutorService executor() {
+        if (writer == null) {
+            writer = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "flight-recorder");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return writer;
+    }
+
+    private static void writeSnapshot(File dir, String reason) {
+        try {
+            if (!dir.isDirectory() && !dir.mkdirs()) return;
+            JSONObject json = dump();
+            json.put("reason", reason);
+            File file = new File(dir, "flight-" + json.getLong("capturedAt") + ".json");
+            try (FileOutputStream out = new FileOutputStream(file)) {
+                out.write(json.toString().getBytes(StandardCharsets.UTF_8));
+            }
+            File[] files = snapshots();
+            for (int i = MAX_SNAPSHOTS; i < files.length; i++) {
+                files[i].delete();
+            }
+        } catch (IOException | JSONException ignored) {
+            // Diagnostics must never take the app down.
+        }
+    }
+}
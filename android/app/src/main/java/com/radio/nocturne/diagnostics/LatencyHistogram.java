@@ -0,0 +1,89 @@
+package com.radio.nocturne.diagnostics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Fixed-size histogram of millisecond values with power-of-two buckets:
+ * bucket 0 holds 0 ms, bucket i holds [2^(i-1), 2^i). Recording is a few
+ * atomic adds and never allocates.
+ */
+public final class LatencyHistogram {
+    private static final int BUCKETS = 32;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public void record(long valueMs) {
+        if (valueMs < 0) return;
+        int bucket = valueMs == 0 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(valueMs));
+        counts.incrementAndGet(bucket);
+        total.incrementAndGet();
+        sum.addAndGet(valueMs);
+        long seen = max.get();
+        while (valueMs > seen && !max.compareAndSet(seen, valueMs)) {
+            seen = max.get();
+        }
+    }
+
+    public long count() {
+        return total.get();
+    }
+
+    /** Upper bound of the bucket holding the given quantile (0..1), or -1 when empty. */
+    public long quantile(double q) {
+        long n = total.get();
+        if (n == 0) return -1;
+        long rank = (long) Math.ceil(q * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return Math.min(upperBound(i), max.get());
+        }
+        return max.get();
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) counts.set(i, 0);
+        total.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    JSONObject toJson() throws JSONException {
+        JSONObject json = new JSONObject();
+        long n = total.get();
+        json.put("count", n);
+        json.put("meanMs", n > 0 ? sum.get() / n : -1);
+        json.put("maxMs", n > 0 ? max.get() : -1);
+        json.put("p50Ms", quantile(0.5));
+        json.put("p90Ms", quantile(0.9));
+        json.put("p99Ms", quantile(0.99));
+        JSONArray buckets = new JSONArray();
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.get(i);
+            if (c == 0) continue;
+            buckets.put(new JSONObject().put("upToMs", upperBound(i)).put("count", c));
+        }
+        json.put("buckets", buckets);
+        return json;
+    }
+
+    private static long upperBound(int bucket) {
+        return bucket == 0 ? 0 : (1L << bucket) - 1;
+    }
+}
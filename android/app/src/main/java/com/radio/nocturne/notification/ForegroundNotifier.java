@@ -0,0 +1,205 @@
+package com.radio.nocturne.notification;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import androidx.core.app.NotificationCompat;
+import com.radio.nocturne.MainActivity;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The ongoing notification of one foreground service: the story generator,
+ * TTS playback or the background runner. Channels are created once per
+ * process and the launch PendingIntent is shared; each notifier keeps its
+ * own NotificationCompat.Builder and only changes the text and progress bar
+ * on it.
+ *
+ * update() may be called from any thread and as often as text streams in.
+ * Updates are coalesced on the main thread, at most one per
+ * MIN_INTERVAL_MS with the latest state winning, and skipped when the text
+ * and the progress bar's percentage are what is already shown, so the cost
+ * of notify() stays flat however fast the caller goes. Updates after
+ * stopForeground() are dropped instead of bringing the notification back.
+ */
+public final class ForegroundNotifier {
+    /** A notification channel; created the first time a notifier on it is used. */
+    public static final class Channel {
+        final String id;
+        final String name;
+        final String description;
+
+        public Channel(String id, String name, String description) {
+            this.id = id;
+            this.name = name;
+            this.description = description;
+        }
+    }
+
+    private static final long MIN_INTERVAL_MS = 1000;
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+    private static final Set<String> CREATED_CHANNELS = new HashSet<>();
+    private static PendingIntent launchIntent;
+
+    private final NotificationManager manager;
+    private final int notificationId;
+    private final int foregroundServiceType;
+    private final String defaultText;
+    private final NotificationCompat.Builder builder;
+    private final Runnable postPending = this::postPending;
+
+    // Guarded by this.
+    private boolean foreground;
+    private boolean scheduled;
+    private String pendingText;
+    private int pendingProgress;
+    private int pendingMax;
+    private String shownText;
+    private int shownPercent;
+    private long lastPostAt;
+
+    /**
+     * foregroundServiceType is passed to startForeground() on Android 10 and
+     * later, 0 for none; a typed service, i.e. media playback, also shows its
+     * notification immediately instead of after Android 12's grace period.
+     */
+    public ForegroundNotifier(
+        Context context,
+        int notificationId,
+        Channel channel,
+        int smallIcon,
+        String defaultText,
+        int foregroundServiceType
+    ) {
+        Context app = context.getApplicationContext();
+        this.manager = (NotificationManager) app.getSystemService(Context.NOTIFICATION_SERVICE);
+        this.notificationId = notificationId;
+        this.foregroundServiceType = foregroundServiceType;
+        this.defaultText = defaultText;
+        ensureChannel(manager, channel);
+        builder = new NotificationCompat.Builder(app, channel.id)
+            .setContentTitle("Radio Nocturne")
+            .setSmallIcon(smallIcon)
+            .setContentIntent(launchIntent(app))
+            .setOngoing(true)
+            .setOnlyAlertOnce(true);
+        if (foregroundServiceType != 0) {
+            builder.setForegroundServiceBehavior(NotificationCompat.FOREGROUND_SERVICE_IMMEDIATE);
+        }
+    }
+
+    /** Posts text right away and makes service a foreground service, as Android requires soon after it starts. */
+    public void startForeground(Service service, String text) {
+        Notification notification;
+        synchronized (this) {
+            MAIN.removeCallbacks(postPending);
+            scheduled = false;
+            foreground = true;
+            notification = buildLocked(text, 0, 0);
+        }
+        if (foregroundServiceType != 0 && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            service.startForeground(notificationId, notification, foregroundServiceType);
+        } else {
+            service.startForeground(notificationId, notification);
+        }
+    }
+
+    public void update(String text) {
+        update(text, 0, 0);
+    }
+
+    /** Shows text and a determinate bar at progress of max; max 0 hides the bar. */
+    public void update(String text, int progress, int max) {
+        synchronized (this) {
+            if (!foreground) return;
+            pendingText = text;
+            pendingProgress = progress;
+            pendingMax = max;
+            if (scheduled) return;
+            scheduled = true;
+            long wait = lastPostAt + MIN_INTERVAL_MS - SystemClock.elapsedRealtime();
+            MAIN.postDelayed(postPending, Math.max(0, wait));
+        }
+    }
+
+    public void stopForeground(Service service) {
+        synchronized (this) {
+            MAIN.removeCallbacks(postPending);
+            scheduled = false;
+            foreground = false;
+            shownText = null;
+        }
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            service.stopForeground(Service.STOP_FOREGROUND_REMOVE);
+        } else {
+            service.stopForeground(true);
+        }
+    }
+
+    private void postPending() {
+        Notification notification;
+        synchronized (this) {
+            scheduled = false;
+            if (!foreground) return;
+            String text = textOrDefault(pendingText);
+            if (text.equals(shownText) && percent(pendingProgress, pendingMax) == shownPercent) return;
+            notification = buildLocked(pendingText, pendingProgress, pendingMax);
+        }
+        if (manager != null) manager.notify(notificationId, notification);
+    }
+
+    private Notification buildLocked(String text, int progress, int max) {
+        shownText = textOrDefault(text);
+        shownPercent = percent(progress, max);
+        lastPostAt = SystemClock.elapsedRealtime();
+        builder.setContentText(shownText);
+        if (max > 0) {
+            builder.setProgress(100, shownPercent, false);
+        } else {
+            builder.setProgress(0, 0, false);
+        }
+        return builder.build();
+    }
+
+    private String textOrDefault(String text) {
+        return text == null || text.isEmpty() ? defaultText : text;
+    }
+
+    // -1 without a bar; otherwise 0..100, which is all the bar can show.
+    private static int percent(int progress, int max) {
+        if (max <= 0) return -1;
+        return (int) (Math.min(Math.max(progress, 0), max) * 100L / max);
+    }
+
+    private static void ensureChannel(NotificationManager manager, Channel channel) {
+        if (manager == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.O) return;
+        synchronized (CREATED_CHANNELS) {
+            if (!CREATED_CHANNELS.add(channel.id)) return;
+        }
+        NotificationChannel created = new NotificationChannel(channel.id, channel.name, NotificationManager.IMPORTANCE_LOW);
+        created.setDescription(channel.description);
+        manager.createNotificationChannel(created);
+    }
+
+    private static synchronized PendingIntent launchIntent(Context app) {
+        if (launchIntent == null) {
+            Intent intent = new Intent(app, MainActivity.class);
+            intent.setAction(Intent.ACTION_MAIN);
+            intent.addCategory(Intent.CATEGORY_LAUNCHER);
+            int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                flags |= PendingIntent.FLAG_IMMUTABLE;
+            }
+            launchIntent = PendingIntent.getActivity(app, 0, intent, flags);
+        }
+        return launchIntent;
+    }
+}
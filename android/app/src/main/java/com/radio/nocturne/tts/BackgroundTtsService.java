@@ -1,9 +1,5 @@
 package com.radio.nocturne.tts;
 
-import android.app.Notification;
-import android.app.NotificationChannel;
-import android.app.NotificationManager;
-import android.app.PendingIntent;
 import android.app.Service;
 import android.content.pm.ServiceInfo;
 import android.content.Intent;
@@ -13,12 +9,14 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.os.PowerManager;
+import android.os.SystemClock;
 import android.speech.tts.TextToSpeech;
 import android.speech.tts.UtteranceProgressListener;
 import android.util.Log;
-import androidx.core.app.NotificationCompat;
-import com.radio.nocturne.MainActivity;
 import com.radio.nocturne.R;
+import com.radio.nocturne.diagnostics.DiagnosticsPlugin;
+import com.radio.nocturne.diagnostics.FlightRecorder;
+import com.radio.nocturne.notification.ForegroundNotifier;
 import java.util.Collections;
 import java.util.Locale;
 import java.util.Set;
@@ -41,10 +39,14 @@ public class BackgroundTtsService extends Service {
         }
     }
 
-    private static final String CHANNEL_ID = "radio_nocturne_tts";
+    private static final ForegroundNotifier.Channel CHANNEL = new ForegroundNotifier.Channel(
+        "radio_nocturne_tts",
+        "Radio Nocturne TTS",
+        "Background narration playback"
+    );
     private static final int NOTIFICATION_ID = 3103;
-    private static final int CHUNK_GRANULARITY = 420;
-
+    private ForegroundNotifier notifier;
+    private String notificationTitle = "Radio Nocturne";
     private final IBinder binder = new LocalBinder();
     private final CopyOnWriteArrayList<TtsEventListener> listeners = new CopyOnWriteArrayList<>();
     private TextToSpeech tts;
@@ -55,6 +57,10 @@ public class BackgroundTtsService extends Service {
     private Set<String> availableLanguages;
     private boolean isSupported = false;
     private PowerManager.WakeLock wakeLock;
+    private long wakeLockAcquiredAt;
+    // elapsedRealtime of the current chunk's start and of the previous chunk's end; 0 if none.
+    private volatile long chunkStartedAt;
+    private volatile long lastChunkDoneAt;
     private boolean continuousMode = false;
     private String continuousText;
     private int continuousOffset = 0;
@@ -69,6 +75,10 @@ public class BackgroundTtsService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
+        FlightRecorder.init(DiagnosticsPlugin.snapshotDirectory(this));
+        FlightRecorder.record(FlightRecorder.SERVICE_START, FlightRecorder.OWNER_TTS);
+        int type = Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q ? ServiceInfo.FOREGROUND_SERVICE_TYPE_MEDIA_PLAYBACK : 0;
+        notifier = new ForegroundNotifier(this, NOTIFICATION_ID, CHANNEL, R.mipmap.ic_launcher, "Đang phát truyện", type);
         initTts();
     }
 
@@ -135,6 +145,12 @@ public class BackgroundTtsService extends Service {
             new UtteranceProgressListener() {
                 @Override
                 public void onStart(String utteranceId) {
+                    long now = SystemClock.elapsedRealtime();
+                    long gap = lastChunkDoneAt > 0 ? now - lastChunkDoneAt : -1;
+                    chunkStartedAt = now;
+                    FlightRecorder.record(FlightRecorder.TTS_CHUNK_START, currentChunkStart, currentChunkEnd, gap);
+                    if (gap >= 0) FlightRecorder.TTS_GAP.record(gap);
+                    updateProgress(currentChunkStart);
                     for (TtsEventListener listener : listeners) {
                         listener.onStart(utteranceId, currentSessionId);
                     }
@@ -142,6 +158,11 @@ public class BackgroundTtsService extends Service {
 
                 @Override
                 public void onDone(String utteranceId) {
+                    long now = SystemClock.elapsedRealtime();
+                    long duration = chunkStartedAt > 0 ? now - chunkStartedAt : -1;
+                    FlightRecorder.record(FlightRecorder.TTS_CHUNK_DONE, currentChunkStart, currentChunkEnd, duration);
+                    FlightRecorder.TTS_CHUNK.record(duration);
+                    lastChunkDoneAt = now;
                     boolean isFinal = true;
                     int nextOffset = currentChunkEnd;
                     if (continuousMode && continuousText != null && continuousOffset < continuousText.length()) {
@@ -149,6 +170,7 @@ public class BackgroundTtsService extends Service {
                         speakNextChunk();
                     } else {
                         continuousMode = false;
+                        lastChunkDoneAt = 0;
                         releaseWakeLock();
                     }
                     for (TtsEventListener listener : listeners) {
@@ -158,6 +180,7 @@ public class BackgroundTtsService extends Service {
 
                 @Override
                 public void onError(String utteranceId, int errorCode) {
+                    recordError(errorCode);
                     continuousMode = false;
                     releaseWakeLock();
                     for (TtsEventListener listener : listeners) {
@@ -167,6 +190,7 @@ public class BackgroundTtsService extends Service {
 
                 @Override
                 public void onError(String utteranceId) {
+                    recordError(-1);
                     continuousMode = false;
                     releaseWakeLock();
                     for (TtsEventListener listener : listeners) {
@@ -177,6 +201,7 @@ public class BackgroundTtsService extends Service {
                 @Override
                 public void onRangeStart(String utteranceId, int start, int end, int frame) {
                     int absoluteStart = currentChunkStart + start;
+                    updateProgress(absoluteStart);
                     for (TtsEventListener listener : listeners) {
                         listener.onRangeStart(utteranceId, start, end, absoluteStart, currentSessionId);
                     }
@@ -279,6 +304,8 @@ public class BackgroundTtsService extends Service {
         }
 
         Log.d(TAG, "Speaking utterance " + utteranceId);
+        FlightRecorder.record(FlightRecorder.TTS_SPEAK, text.length(), 0, 0);
+        lastChunkDoneAt = 0;
         Bundle params = new Bundle();
         params.putString(TextToSpeech.Engine.KEY_PARAM_UTTERANCE_ID, utteranceId);
         currentChunkStart = 0;
@@ -321,6 +348,8 @@ public class BackgroundTtsService extends Service {
 
         ensureForeground(continuousTitle);
         acquireWakeLock();
+        FlightRecorder.record(FlightRecorder.TTS_SPEAK, text.length(), continuousOffset, 1);
+        lastChunkDoneAt = 0;
         tts.stop();
         speakNextChunk();
     }
@@ -338,7 +367,7 @@ public class BackgroundTtsService extends Service {
             return;
         }
 
-        int end = computeChunkEnd(continuousText, start);
+        int end = TtsChunker.computeChunkEnd(continuousText, start);
         if (end <= start) {
             continuousMode = false;
             releaseWakeLock();
@@ -381,31 +410,9 @@ public class BackgroundTtsService extends Service {
         tts.speak(chunkText, TextToSpeech.QUEUE_FLUSH, params, utteranceId);
     }
 
-    private int computeChunkEnd(String source, int start) {
-        int maxEnd = Math.min(source.length(), start + CHUNK_GRANULARITY);
-        if (start >= maxEnd) return start;
-
-        int newlineIdx = source.indexOf('\n', start);
-        if (newlineIdx >= 0 && newlineIdx + 1 <= maxEnd) {
-            return newlineIdx + 1;
-        }
-
-        String slice = source.substring(start, maxEnd);
-        int punctuationIdx = -1;
-        for (int i = 0; i < slice.length() - 1; i++) {
-            char current = slice.charAt(i);
-            char next = slice.charAt(i + 1);
-            if ((current == '.' || current == '!' || current == '?') && Character.isWhitespace(next)) {
-                punctuationIdx = i + 2;
-            }
-        }
-        if (punctuationIdx > 80) {
-            return start + punctuationIdx;
-        }
-        return maxEnd;
-    }
-
     public void stopPlayback() {
+        FlightRecorder.record(FlightRecorder.TTS_STOP, continuousOffset);
+        lastChunkDoneAt = 0;
         if (tts != null) {
             tts.stop();
         }
@@ -427,30 +434,28 @@ public class BackgroundTtsService extends Service {
         ready = false;
         isSupported = false;
         availableLanguages = Collections.emptySet();
+        FlightRecorder.record(FlightRecorder.SERVICE_STOP, FlightRecorder.OWNER_TTS);
         stopSelf();
     }
 
     private void ensureForeground(String title) {
-        Notification notification = buildNotification(title);
+        notificationTitle = title;
         if (isForeground) {
-            NotificationManager manager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
-            if (manager != null) {
-                manager.notify(NOTIFICATION_ID, notification);
-            }
+            notifier.update(title);
             return;
         }
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
-            startForeground(
-                NOTIFICATION_ID,
-                notification,
-                ServiceInfo.FOREGROUND_SERVICE_TYPE_MEDIA_PLAYBACK
-            );
-        } else {
-            startForeground(NOTIFICATION_ID, notification);
-        }
+        notifier.startForeground(this, title);
         isForeground = true;
     }
 
+    /** Moves the notification's progress bar to position in the text being read; coalesced by the notifier. */
+    private void updateProgress(int position) {
+        if (!isForeground) return;
+        String text = continuousMode ? continuousText : null;
+        int length = text != null ? text.length() : currentChunkEnd;
+        notifier.update(notificationTitle, position, length);
+    }
+
     private void acquireWakeLock() {
         if (wakeLock != null && wakeLock.isHeld()) return;
         PowerManager pm = (PowerManager) getSystemService(POWER_SERVICE);
@@ -458,58 +463,34 @@ public class BackgroundTtsService extends Service {
         wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "RadioNocturne:Tts");
         wakeLock.setReferenceCounted(false);
         wakeLock.acquire();
+        wakeLockAcquiredAt = SystemClock.elapsedRealtime();
+        FlightRecorder.record(FlightRecorder.WAKELOCK_ACQUIRE, FlightRecorder.OWNER_TTS);
     }
 
     private void releaseWakeLock() {
         if (wakeLock != null && wakeLock.isHeld()) {
             wakeLock.release();
+            FlightRecorder.record(
+                FlightRecorder.WAKELOCK_RELEASE,
+                FlightRecorder.OWNER_TTS,
+                SystemClock.elapsedRealtime() - wakeLockAcquiredAt,
+                0
+            );
         }
         wakeLock = null;
     }
 
+    private void recordError(int errorCode) {
+        FlightRecorder.record(FlightRecorder.TTS_ERROR, errorCode, currentChunkStart, 0);
+        FlightRecorder.snapshot("tts: error " + errorCode);
+    }
+
     private void stopForegroundCompat() {
         if (!isForeground) return;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
-            stopForeground(STOP_FOREGROUND_REMOVE);
-        } else {
-            stopForeground(true);
-        }
+        notifier.stopForeground(this);
         isForeground = false;
     }
 
-    private Notification buildNotification(String title) {
-        NotificationManager manager = (NotificationManager) getSystemService(NOTIFICATION_SERVICE);
-        if (manager != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
-            NotificationChannel channel = new NotificationChannel(
-                CHANNEL_ID,
-                "Radio Nocturne TTS",
-                NotificationManager.IMPORTANCE_LOW
-            );
-            channel.setDescription("Background narration playback");
-            manager.createNotificationChannel(channel);
-        }
-
-        Intent intent = new Intent(this, MainActivity.class);
-        intent.setAction(Intent.ACTION_MAIN);
-        intent.addCategory(Intent.CATEGORY_LAUNCHER);
-
-        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
-            flags |= PendingIntent.FLAG_IMMUTABLE;
-        }
-
-        PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, intent, flags);
-
-        return new NotificationCompat.Builder(this, CHANNEL_ID)
-            .setContentTitle("Radio Nocturne")
-            .setContentText(title == null || title.isEmpty() ? "Đang phát truyện" : title)
-            .setSmallIcon(R.mipmap.ic_launcher)
-            .setContentIntent(pendingIntent)
-            .setOngoing(true)
-            .setForegroundServiceBehavior(NotificationCompat.FOREGROUND_SERVICE_IMMEDIATE)
-            .build();
-    }
-
     private static class PendingSpeak {
         final String text;
         final String utteranceId;
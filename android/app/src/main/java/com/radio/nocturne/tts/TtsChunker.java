@@ -0,0 +1,38 @@
+package com.radio.nocturne.tts;
+
+/**
+ * Splits continuous-playback text into utterances of at most
+ * CHUNK_GRANULARITY characters, preferring a line break, then the last
+ * sentence end, so the engine never stops mid-sentence when it can help it.
+ */
+final class TtsChunker {
+    static final int CHUNK_GRANULARITY = 420;
+    private static final int MIN_SENTENCE_CHUNK = 80;
+
+    private TtsChunker() {}
+
+    /** End (exclusive) of the chunk that starts at start; start itself when nothing is left. */
+    static int computeChunkEnd(String source, int start) {
+        int maxEnd = Math.min(source.length(), start + CHUNK_GRANULARITY);
+        if (start >= maxEnd) return start;
+
+        int newlineIdx = source.indexOf('\n', start);
+        if (newlineIdx >= 0 && newlineIdx + 1 <= maxEnd) {
+            return newlineIdx + 1;
+        }
+
+        String slice = source.substring(start, maxEnd);
+        int punctuationIdx = -1;
+        for (int i = 0; i < slice.length() - 1; i++) {
+            char current = slice.charAt(i);
+            char next = slice.charAt(i + 1);
+            if ((current == '.' || current == '!' || current == '?') && Character.isWhitespace(next)) {
+                punctuationIdx = i + 2;
+            }
+        }
+        if (punctuationIdx > MIN_SENTENCE_CHUNK) {
+            return start + punctuationIdx;
+        }
+        return maxEnd;
+    }
+}
@@ -0,0 +1,160 @@
+package com.radio.nocturne.background;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static com.radio.nocturne.background.StoryFixtures.CHAT;
+import static com.radio.nocturne.background.StoryFixtures.REASONER;
+import static com.radio.nocturne.background.StoryFixtures.SIGNATURE;
+import static com.radio.nocturne.background.StoryFixtures.event;
+import static com.radio.nocturne.background.StoryFixtures.finish;
+import static com.radio.nocturne.background.StoryFixtures.lastMessage;
+import static com.radio.nocturne.background.StoryFixtures.payload;
+import static com.radio.nocturne.background.StoryFixtures.sse;
+
+import java.io.IOException;
+import okhttp3.mockwebserver.MockWebServer;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks how the planner sizes max_tokens from the remaining words and the
+ * learned ratio, when it projects the end of the story, that a reasoner's
+ * first pass leaves room to think, and that a fast start pass is short and
+ * goes to the fast model.
+ */
+public class BudgetPlannerTest {
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        BudgetPlanner.reset();
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+        BudgetPlanner.reset();
+    }
+
+    @Test
+    public void sizesPassesFromRemainingWordsAndLearnedRatio() {
+        BudgetPlanner planner = new BudgetPlanner(config(1000, 8192));
+        planner.record(CHAT, BudgetPlanner.PASS_CONTINUE, 500, usage(1000, -1));
+        assertEquals(2.0, planner.tokensPerWord(CHAT), 1e-9);
+
+        // 1000 - 500 words left, 400 of them held back for the ending.
+        assertEquals(460, planner.maxTokens(CHAT, 500, BudgetPlanner.PASS_CONTINUE));
+        assertEquals(1500, planner.maxTokens(CHAT, 500, BudgetPlanner.PASS_FINALIZE));
+        assertEquals(1200, planner.maxTokens(CHAT, 500, BudgetPlanner.PASS_EMERGENCY));
+
+        // The reasoner's thinking tokens count against max_tokens too.
+        planner.record(REASONER, BudgetPlanner.PASS_CONTINUE, 500, usage(1500, 500));
+        assertEquals(2.0, planner.tokensPerWord(REASONER), 1e-9);
+        assertEquals(960, planner.maxTokens(REASONER, 500, BudgetPlanner.PASS_CONTINUE));
+
+        // Learned per language: an English story starts from its own prior.
+        BackgroundStoryService.GenerationConfig english = config(1000, 8192);
+        english.language = "en";
+        assertEquals(1.4, new BudgetPlanner(english).tokensPerWord(CHAT), 1e-9);
+    }
+
+    @Test
+    public void respectsMaxTokensAndTheAdaptiveSwitch() {
+        BudgetPlanner planner = new BudgetPlanner(config(1000, 1000));
+        planner.record(CHAT, BudgetPlanner.PASS_CONTINUE, 500, usage(1000, -1));
+        assertEquals(1000, planner.maxTokens(CHAT, 500, BudgetPlanner.PASS_FINALIZE));
+
+        BackgroundStoryService.GenerationConfig fixed = config(1000, 8192);
+        fixed.storyAdaptiveBudget = false;
+        fixed.storyFastStartWords = 300;
+        BudgetPlanner off = new BudgetPlanner(fixed);
+        assertEquals(8192, off.maxTokens(CHAT, 0, BudgetPlanner.PASS_CONTINUE));
+        assertTrue(off.maxTokens(CHAT, 0, BudgetPlanner.PASS_FAST_START) < 8192);
+    }
+
+    @Test
+    public void projectsTheEndFromThisStorysPasses() {
+        BudgetPlanner planner = new BudgetPlanner(config(1000, 8192));
+        // Before any pass, one pass can be as long as maxTokens allows.
+        assertTrue(planner.projectsEnd(CHAT, 0));
+
+        planner.record(CHAT, BudgetPlanner.PASS_CONTINUE, 300, usage(600, -1));
+        assertFalse(planner.projectsEnd(CHAT, 300));
+        assertTrue(planner.projectsEnd(CHAT, 700));
+        // Fast-start and finalize passes do not say how long a continue pass runs.
+        planner.record(CHAT, BudgetPlanner.PASS_FAST_START, 50, usage(100, -1));
+        assertFalse(planner.projectsEnd(CHAT, 650));
+    }
+
+    @Test
+    public void reasonersFirstPassLeavesRoomToThink() throws Exception {
+        server.enqueue(sse(event("Tôi là Morgan Hayes.\n") + finish()));
+        server.enqueue(sse(event("Mọi thứ kết thúc.\n" + SIGNATURE) + finish()));
+
+        // No sample yet and no fast model to hand the pass to.
+        BackgroundStoryService.GenerationConfig config = config(1000, 8192);
+        config.model = REASONER;
+        config.storyMinWords = 300;
+        config.storyMaxPasses = 2;
+        assertTrue(StoryFixtures.generator(config, 0, new StoryFixtures.QuietListener()).run(new StoryBuffer()));
+
+        // 600 words at the Vietnamese prior with headroom are 1311 tokens; thinking comes on top.
+        JSONObject first = payload(server.takeRequest());
+        assertEquals(REASONER, first.getString("model"));
+        assertEquals(1311 + BudgetPlanner.PRIOR_REASONING_TOKENS, first.getInt("max_tokens"));
+
+        BudgetPlanner planner = new BudgetPlanner(config(1000, 8192));
+        assertEquals(1311, planner.maxTokens(CHAT, 0, BudgetPlanner.PASS_CONTINUE));
+        assertTrue(planner.maxTokens(REASONER, 500, BudgetPlanner.PASS_EMERGENCY) > BudgetPlanner.PRIOR_REASONING_TOKENS);
+    }
+
+    @Test
+    public void fastStartPassIsShortAndGoesToTheFastModel() throws Exception {
+        server.enqueue(sse(event("Tôi là Morgan Hayes.\n") + finish()));
+        server.enqueue(sse(event("Mọi thứ kết thúc.\n" + SIGNATURE) + finish()));
+
+        BackgroundStoryService.GenerationConfig config = config(300, 8192);
+        config.model = REASONER;
+        config.storyFastModel = CHAT;
+        config.storyReasonerBudgetMs = 60_000;
+        config.storyFastStartWords = 60;
+        config.storyMaxPasses = 2;
+        StoryGenerator generator = StoryFixtures.generator(config, 0, new StoryFixtures.QuietListener());
+        StoryBuffer story = new StoryBuffer();
+        assertTrue(generator.run(story));
+        assertEquals("Tôi là Morgan Hayes.\nMọi thứ kết thúc.\n" + SIGNATURE, story.snapshot());
+
+        JSONObject first = payload(server.takeRequest());
+        assertEquals(CHAT, first.getString("model"));
+        assertEquals(256, first.getInt("max_tokens"));
+        assertTrue(lastMessage(first).contains("FAST START"));
+
+        JSONObject second = payload(server.takeRequest());
+        assertEquals(REASONER, second.getString("model"));
+        assertTrue(second.getInt("max_tokens") > 256);
+        assertFalse(lastMessage(second).contains("FAST START"));
+        assertEquals(256, generator.passMetrics().get(0).maxTokens);
+    }
+
+    private BackgroundStoryService.GenerationConfig config(int targetWords, int maxTokens) {
+        BackgroundStoryService.GenerationConfig config = StoryFixtures.config(server.url("/v1").toString());
+        config.maxTokens = maxTokens;
+        config.storyTargetWords = targetWords;
+        config.storyHardMaxWords = targetWords * 2;
+        config.storyMaxPasses = 4;
+        config.storyAdaptiveBudget = true;
+        return config;
+    }
+
+    private static PassMetrics usage(long completionTokens, long reasoningTokens) {
+        PassMetrics metrics = new PassMetrics(0, 1, false, false, 0);
+        metrics.completionTokens = completionTokens;
+        metrics.reasoningTokens = reasoningTokens;
+        return metrics;
+    }
+}
@@ -0,0 +1,255 @@
+package com.radio.nocturne.background;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static com.radio.nocturne.background.StoryFixtures.SIGNATURE;
+import static com.radio.nocturne.background.StoryFixtures.event;
+import static com.radio.nocturne.background.StoryFixtures.finish;
+import static com.radio.nocturne.background.StoryFixtures.prompt;
+import static com.radio.nocturne.background.StoryFixtures.sse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs outlined stories against a local server that answers the outline and
+ * each chapter by prompt, with chapters finishing out of order, and checks
+ * that the story is joined in order and streams its first chapter first.
+ */
+public class ChapterPipelineTest {
+    private static final String OUTLINE =
+        "TITLE: Căn phòng số 9\n" +
+        "CHARACTERS: Mara Linden, quản lý tòa nhà\n" +
+        "MOTIF: một cánh cửa biến mất\n" +
+        "ENDING: Mara bị xóa khỏi sổ cư dân\n" +
+        "SEGMENT 1: Morgan mở đầu, phong bì dưới cửa\n" +
+        "SEGMENT 2: cánh cửa phòng 9 biến mất\n" +
+        "SEGMENT 3: sổ cư dân, kết thúc và lời bạt\n";
+
+    private MockWebServer server;
+    private final List<String> texts = Collections.synchronizedList(new ArrayList<>());
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger maxInFlight = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void chaptersAreJoinedInOrderAndTheFirstStreamsFirst() throws Exception {
+        server.setDispatcher(new StoryDispatcher(OUTLINE) {
+            @Override
+            MockResponse chapter(int index) {
+                if (index == 0) {
+                    // The first chapter is the slowest; the others finish while it still streams.
+                    return sse(event("Tôi là Morgan Hayes.\n") + event("Đêm nay có một phong bì.") + finish())
+                        .throttleBody(64, 150, TimeUnit.MILLISECONDS);
+                }
+                if (index == 1) return sse(event("Cánh cửa phòng 9 không còn nữa.") + finish());
+                return sse(event("Tên tôi biến mất khỏi sổ.\n") + event(SIGNATURE) + finish());
+            }
+        });
+
+        StoryBuffer story = new StoryBuffer();
+        StoryGenerator generator = generator(3, 3);
+        assertTrue(generator.run(story));
+
+        assertEquals(
+            "Tôi là Morgan Hayes.\nĐêm nay có một phong bì.\nCánh cửa phòng 9 không còn nữa.\nTên tôi biến mất khỏi sổ.\n" + SIGNATURE,
+            story.snapshot()
+        );
+        assertEquals("Tôi là Morgan Hayes.\n", texts.get(0));
+        assertEquals(4, server.getRequestCount());
+        assertEquals(3, maxInFlight.get());
+        assertEquals(4, generator.passMetrics().size());
+    }
+
+    @Test
+    public void parallelismBoundsConcurrentChapters() throws Exception {
+        server.setDispatcher(new StoryDispatcher(OUTLINE) {
+            @Override
+            MockResponse chapter(int index) {
+                String text = index == 2 ? "Hết.\n" + SIGNATURE : "Phần " + (index + 1) + ".\n";
+                return sse(event(text) + finish()).setBodyDelay(100, TimeUnit.MILLISECONDS);
+            }
+        });
+
+        StoryBuffer story = new StoryBuffer();
+        assertTrue(generator(3, 1).run(story));
+
+        assertEquals("Phần 1.\nPhần 2.\nHết.\n" + SIGNATURE, story.snapshot());
+        assertEquals(1, maxInFlight.get());
+    }
+
+    @Test
+    public void missingSignatureGetsAFinalizingPass() throws Exception {
+        server.setDispatcher(new StoryDispatcher(OUTLINE) {
+            @Override
+            MockResponse chapter(int index) {
+                return sse(event("Phần " + (index + 1) + ".") + finish());
+            }
+
+            @Override
+            MockResponse other(String prompt) {
+                assertTrue(prompt.contains("CONTINUATION MODE"));
+                return sse(event("Kết thúc.\n" + SIGNATURE) + finish());
+            }
+        });
+
+        StoryBuffer story = new StoryBuffer();
+        assertTrue(generator(3, 2).run(story));
+
+        assertEquals("Phần 1.\nPhần 2.\nPhần 3.Kết thúc.\n" + SIGNATURE, story.snapshot());
+        assertEquals(5, server.getRequestCount());
+    }
+
+    @Test
+    public void unparsableOutlineFallsBackToSequential() throws Exception {
+        server.setDispatcher(new StoryDispatcher("Xin lỗi, tôi không thể lập dàn ý.") {
+            @Override
+            MockResponse chapter(int index) {
+                throw new AssertionError("no chapter should be requested");
+            }
+
+            @Override
+            MockResponse other(String prompt) {
+                return sse(event("Một câu chuyện liền mạch.\n" + SIGNATURE) + finish());
+            }
+        });
+
+        StoryBuffer story = new StoryBuffer();
+        assertTrue(generator(3, 2).run(story));
+
+        assertEquals("Một câu chuyện liền mạch.\n" + SIGNATURE, story.snapshot());
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void failedChapterFailsTheStory() throws Exception {
+        server.setDispatcher(new StoryDispatcher(OUTLINE) {
+            @Override
+            MockResponse chapter(int index) {
+                if (index == 1) return new MockResponse().setResponseCode(401).setBody("{\"error\":\"bad key\"}");
+                return sse(event("Phần " + (index + 1) + ".") + finish()).setBodyDelay(300, TimeUnit.MILLISECONDS);
+            }
+        });
+
+        StoryGenerator generator = generator(3, 3);
+        try {
+            generator.run(new StoryBuffer());
+            fail("expected StoryApiException");
+        } catch (StoryApiException e) {
+            assertEquals(401, e.code);
+        }
+        assertFalse(generator.isCancelled());
+    }
+
+    @Test
+    public void assemblerReleasesHeldChaptersInOrder() {
+        StringBuilder out = new StringBuilder();
+        ChapterAssembler assembler = new ChapterAssembler(3, out::append);
+        assembler.append(2, "C");
+        assembler.append(1, "B");
+        assembler.append(0, "A1 ");
+        assertEquals("A1 ", out.toString());
+        assembler.finish(2);
+        assembler.finish(1);
+        assertEquals("A1 ", out.toString());
+        assembler.append(0, "A2");
+        assembler.finish(0);
+        assertEquals("A1 A2\nB\nC", out.toString());
+        assertTrue(assembler.complete());
+    }
+
+    @Test
+    public void parsesOutlineWithMarkupAndWrappedLines() {
+        StoryOutline outline = StoryOutline.parse(
+            "**TITLE:** Căn phòng số 9\n- SEGMENT 1: mở đầu\n  tiếp tục dòng\n- SEGMENT 2: kết thúc\nSEGMENT 3: thừa\n",
+            2
+        );
+        assertNotNull(outline);
+        assertEquals("Căn phòng số 9", outline.title);
+        assertEquals(2, outline.chapters());
+        assertEquals("mở đầu tiếp tục dòng", outline.beats.get(0));
+        assertNull(StoryOutline.parse("SEGMENT 1: chỉ một", 4));
+    }
+
+    /** Answers the outline request with outline and each chapter request by its index. */
+    private abstract class StoryDispatcher extends Dispatcher {
+        private final String outline;
+
+        StoryDispatcher(String outline) {
+            this.outline = outline;
+        }
+
+        abstract MockResponse chapter(int index);
+
+        MockResponse other(String prompt) {
+            throw new AssertionError("unexpected request");
+        }
+
+        @Override
+        public MockResponse dispatch(RecordedRequest request) {
+            String prompt;
+            try {
+                prompt = prompt(request);
+            } catch (Exception e) {
+                return new MockResponse().setResponseCode(400);
+            }
+            if (prompt.contains("OUTLINE REQUEST")) return sse(event(outline) + finish());
+            for (int i = 0; i < 8; i++) {
+                if (prompt.contains("SEGMENT " + (i + 1) + " OF ")) {
+                    int now = inFlight.incrementAndGet();
+                    maxInFlight.accumulateAndGet(now, Math::max);
+                    try {
+                        // Hold the slot long enough for other chapters to overlap.
+                        Thread.sleep(50);
+                        return chapter(i);
+                    } catch (InterruptedException e) {
+                        return new MockResponse().setResponseCode(500);
+                    } finally {
+                        inFlight.decrementAndGet();
+                    }
+                }
+            }
+            return other(prompt);
+        }
+    }
+
+    private StoryGenerator generator(int chapters, int parallelism) {
+        BackgroundStoryService.GenerationConfig config = StoryFixtures.config(server.url("/v1").toString());
+        config.storyMaxPasses = 2;
+        config.storyPipeline = StoryGenerator.PIPELINE_OUTLINE;
+        config.storyChapters = chapters;
+        config.storyParallelism = parallelism;
+        config.storyEndingMode = "social disappearance";
+        return StoryFixtures.generator(config, 0, new StoryFixtures.QuietListener() {
+            @Override
+            public void onText(String text, int offset) {
+                texts.add(text);
+            }
+        });
+    }
+}
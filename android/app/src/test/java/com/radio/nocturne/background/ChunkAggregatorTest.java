@@ -0,0 +1,55 @@
+package com.radio.nocturne.background;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks that the aggregator only batches text of the job it was last reset
+ * for, so late deltas of a cancelled job never reach the job that replaced it.
+ */
+public class ChunkAggregatorTest {
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final List<String> batches = new ArrayList<>();
+    private final ChunkAggregator aggregator = new ChunkAggregator(
+        scheduler,
+        (text, offset) -> batches.add(offset + ":" + text)
+    );
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void staleJobTextIsDropped() {
+        aggregator.reset(1, 0, 60_000, 1000);
+        aggregator.append(1, "first ");
+        aggregator.discard();
+        aggregator.append(1, "late delta ");
+        aggregator.reset(2, 10, 60_000, 1000);
+        aggregator.append(1, "later delta ");
+        aggregator.append(2, "second");
+        aggregator.flush();
+
+        assertEquals(1, batches.size());
+        assertEquals("10:second", batches.get(0));
+    }
+
+    @Test
+    public void discardIgnoresAppendsUntilReset() {
+        aggregator.reset(3, 0, 0, 1);
+        aggregator.append(3, "a");
+        aggregator.discard();
+        aggregator.append(3, "b");
+        aggregator.flush();
+
+        assertEquals(1, batches.size());
+        assertEquals("0:a", batches.get(0));
+    }
+}
@@ -0,0 +1,187 @@
+package com.radio.nocturne.background;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static com.radio.nocturne.background.StoryFixtures.SIGNATURE;
+import static com.radio.nocturne.background.StoryFixtures.event;
+import static com.radio.nocturne.background.StoryFixtures.finish;
+import static com.radio.nocturne.background.StoryFixtures.prompt;
+import static com.radio.nocturne.background.StoryFixtures.sse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that the guard leaves normal prose alone, trips on loops and on
+ * drift out of the story's language and says where they began, that a
+ * tripped pass is cut, its degenerate text never reaches the story, and it
+ * is re-issued with a correction, and that a pass that keeps degenerating
+ * ends the story with the emergency outro.
+ */
+public class DegenerationGuardTest {
+    private static final String STORY =
+        "Đêm đó tôi nghe thấy tiếng bước chân trên hành lang. Căn nhà cũ kỹ im lặng, chỉ có gió rít qua khe cửa. "
+        + "Tôi cầm ngọn nến, bước chậm rãi về phía cầu thang. Bóng tối nuốt lấy ánh sáng yếu ớt. Ở cuối hành lang, "
+        + "cánh cửa phòng bà tôi khẽ mở ra, dù tôi nhớ rõ mình đã khóa nó từ chiều. Morgan Hayes từng nói rằng có "
+        + "những ngôi nhà nhớ người đã chết. Tôi không tin, cho đến đêm nay. Một giọng nói thì thầm gọi tên tôi "
+        + "từ trong gương, lạnh và xa xăm như vọng lên từ đáy giếng.";
+    private static final String LOOP = " Và rồi tôi lại nghe thấy tiếng gõ cửa.";
+    private static final String ENGLISH =
+        " Then I heard the footsteps again, slow and heavy, coming up the stairs toward my room"
+        + " while the candle flickered and died in the cold draft from the window.";
+
+    private MockWebServer server;
+    private final List<String> texts = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void leavesNormalProseAlone() {
+        DegenerationGuard guard = new DegenerationGuard("vi");
+        // In small pieces, as deltas arrive, with words split across them.
+        for (int i = 0; i < STORY.length(); i += 7) {
+            assertNull(guard.feed(STORY.substring(i, Math.min(STORY.length(), i + 7))));
+        }
+        assertNull(guard.tripped());
+    }
+
+    @Test
+    public void tripsOnLoops() {
+        DegenerationGuard guard = new DegenerationGuard("vi");
+        guard.feed(STORY);
+        int words = 0;
+        while (guard.feed(LOOP) == null && words < 1000) words += 9;
+        assertEquals(DegenerationGuard.REPETITION, guard.tripped());
+        assertTrue(words <= DegenerationGuard.REPEAT_WINDOW);
+        // The first time round is story; the loop begins with the second " Và".
+        assertEquals(STORY.length() + LOOP.length() + 1, guard.tripOffset());
+        // ...which is still held back when the guard trips.
+        assertTrue(guard.holdOffset() <= guard.tripOffset());
+    }
+
+    @Test
+    public void tripsOnDriftOutOfTheStorysLanguage() {
+        DegenerationGuard english = new DegenerationGuard("vi");
+        english.feed(STORY);
+        english.feed(ENGLISH);
+        assertEquals(DegenerationGuard.LANGUAGE_DRIFT, english.feed(ENGLISH));
+        assertEquals(STORY.length() + 1, english.tripOffset());
+
+        DegenerationGuard chinese = new DegenerationGuard("vi");
+        chinese.feed(STORY);
+        assertEquals(DegenerationGuard.LANGUAGE_DRIFT, chinese.feed("然后我又听到了敲门声，冷风从窗户吹进来。"));
+        assertEquals(STORY.length(), chinese.tripOffset());
+
+        // English is fine in an English story, and unknown languages only get the loop check.
+        DegenerationGuard inEnglish = new DegenerationGuard("en");
+        assertNull(inEnglish.feed(ENGLISH + " Nobody answered when I called out, so I waited in the dark and counted"
+            + " my own breaths until the house went quiet once more and morning came grey over the hills."));
+        assertNull(new DegenerationGuard("ja").feed(STORY + ENGLISH));
+    }
+
+    @Test
+    public void loopingPassIsCutAndReissuedWithACorrection() throws Exception {
+        server.enqueue(sse(event(STORY) + looping() + finish()));
+        server.enqueue(sse(event("\nCánh cửa đóng sầm lại.\n" + SIGNATURE) + finish()));
+
+        StoryBuffer story = new StoryBuffer();
+        StoryGenerator generator = generator();
+        assertTrue(generator.run(story));
+
+        // The loop was dropped before it reached the story or the listener.
+        String expected = STORY + LOOP + " \nCánh cửa đóng sầm lại.\n" + SIGNATURE;
+        assertEquals(expected, story.snapshot());
+        assertEquals(expected, String.join("", texts));
+
+        PassMetrics cut = generator.passMetrics().get(0);
+        assertEquals(PassMetrics.END_DEGENERATE, cut.endReason);
+        assertEquals(DegenerationGuard.REPETITION, cut.guard);
+        assertEquals(PassMetrics.END_SIGNATURE, generator.passMetrics().get(1).endReason);
+
+        assertFalse(prompt(server.takeRequest()).contains("CORRECTION"));
+        String corrective = prompt(server.takeRequest());
+        assertTrue(corrective.contains("CORRECTION (MANDATORY)"));
+        assertTrue(corrective.contains("repeating"));
+        // It continues from before the loop.
+        assertEquals(1, corrective.split("gõ cửa", -1).length - 1);
+    }
+
+    @Test
+    public void driftIsJudgedByThePromptsLanguageNotTheConfigs() throws Exception {
+        // The prompts ask for Vietnamese whatever config.language says.
+        server.enqueue(sse(event(STORY + "\nCánh cửa đóng sầm lại.\n" + SIGNATURE) + finish()));
+
+        BackgroundStoryService.GenerationConfig config = config();
+        config.language = "en";
+        StoryBuffer story = new StoryBuffer();
+        StoryGenerator generator = StoryFixtures.generator(config, 3, new StoryFixtures.QuietListener());
+        assertTrue(generator.run(story));
+
+        assertEquals(STORY + "\nCánh cửa đóng sầm lại.\n" + SIGNATURE, story.snapshot());
+        assertEquals(1, generator.passMetrics().size());
+        assertEquals(PassMetrics.END_SIGNATURE, generator.passMetrics().get(0).endReason);
+        assertNull(generator.passMetrics().get(0).guard);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void passThatKeepsLoopingEndsTheStoryWithTheOutro() throws Exception {
+        server.enqueue(sse(event(STORY) + looping() + finish()));
+        server.enqueue(sse(looping() + finish()));
+        server.enqueue(sse(looping() + finish()));
+        server.enqueue(sse(event("\nCánh cửa đóng sầm lại.\n" + SIGNATURE) + finish()));
+
+        StoryBuffer story = new StoryBuffer();
+        StoryGenerator generator = generator();
+        assertTrue(generator.run(story));
+        assertTrue(story.snapshot().endsWith(SIGNATURE));
+
+        List<PassMetrics> passes = generator.passMetrics();
+        assertEquals(4, passes.size());
+        for (int i = 0; i < 3; i++) assertEquals(PassMetrics.END_DEGENERATE, passes.get(i).endReason);
+        // Two corrections did not take; the third trip is not taken as a finished pass.
+        assertTrue(passes.get(3).emergency);
+        assertEquals(PassMetrics.END_SIGNATURE, passes.get(3).endReason);
+    }
+
+    private StoryGenerator generator() {
+        return StoryFixtures.generator(config(), 3, new StoryFixtures.QuietListener() {
+            @Override
+            public void onText(String text, int offset) {
+                texts.add(text);
+            }
+        });
+    }
+
+    private BackgroundStoryService.GenerationConfig config() {
+        BackgroundStoryService.GenerationConfig config = StoryFixtures.config(server.url("/v1").toString());
+        config.maxTokens = 8192;
+        config.storyTargetWords = 1000;
+        config.storyHardMaxWords = 2000;
+        config.storyDegenerationGuard = true;
+        return config;
+    }
+
+    private static String looping() {
+        StringBuilder events = new StringBuilder();
+        for (int i = 0; i < 40; i++) events.append(event(LOOP));
+        return events.toString();
+    }
+}
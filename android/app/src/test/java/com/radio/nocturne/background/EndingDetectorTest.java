@@ -0,0 +1,114 @@
+package com.radio.nocturne.background;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static com.radio.nocturne.background.StoryFixtures.event;
+import static com.radio.nocturne.background.StoryFixtures.finish;
+import static com.radio.nocturne.background.StoryFixtures.sse;
+
+import java.io.IOException;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that a signature with characters that do not fold to ASCII (an
+ * ellipsis, a dash, an emoji) is still recognised, so the pass that writes
+ * it ends the story instead of asking for an emergency outro, and that with
+ * the stop sequence a bare "stop" only stands for the signature after an
+ * outro.
+ */
+public class EndingDetectorTest {
+    private static final String SIGNATURE = "Hẹn gặp lại… — Đài Đêm 🌙";
+    private static final String STORY =
+        "Đêm đó tôi nghe thấy tiếng bước chân trên hành lang. Cánh cửa phòng bà tôi khẽ mở ra, "
+        + "dù tôi nhớ rõ mình đã khóa nó từ chiều.";
+
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void findsATypographicSignatureInAnyDeltas() {
+        EndingDetector detector = new EndingDetector(EndingKeywords.forLanguage("vi"), SIGNATURE);
+        detector.feed(STORY + "\n");
+        assertFalse(detector.hasOutroSignature());
+        // Split inside the emoji's surrogate pair, and typeset differently.
+        String typed = "hẹn gặp lại… — ĐÀI ĐÊM 🌙";
+        detector.feed(typed.substring(0, typed.length() - 1));
+        assertFalse(detector.hasOutroSignature());
+        detector.feed(typed.substring(typed.length() - 1));
+        assertTrue(detector.hasOutroSignature());
+
+        // A different emoji is not the signature.
+        EndingDetector other = new EndingDetector(EndingKeywords.forLanguage("vi"), SIGNATURE);
+        other.feed("Hẹn gặp lại… — Đài Đêm 🌚");
+        assertFalse(other.hasOutroSignature());
+    }
+
+    @Test
+    public void passWithATypographicSignatureEndsTheStory() throws Exception {
+        server.enqueue(sse(event(STORY + "\n" + SIGNATURE) + finish()));
+
+        BackgroundStoryService.GenerationConfig config = StoryFixtures.config(server.url("/v1").toString());
+        config.outroSignature = SIGNATURE;
+        StoryBuffer story = new StoryBuffer();
+        StoryGenerator generator = StoryFixtures.generator(config, 0, new StoryFixtures.QuietListener());
+        assertTrue(generator.run(story));
+
+        assertEquals(STORY + "\n" + SIGNATURE, story.snapshot());
+        assertEquals(1, generator.passMetrics().size());
+        assertEquals(PassMetrics.END_SIGNATURE, generator.passMetrics().get(0).endReason);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void stopAfterAnOutroIsTakenForTheStopSequence() throws Exception {
+        String outro = "\nTôi là Morgan Hayes. Chúc các bạn có một đêm ngon giấc.";
+        server.enqueue(sse(event(STORY + outro) + finish()));
+
+        StoryBuffer story = new StoryBuffer();
+        StoryGenerator generator = StoryFixtures.generator(stopConfig(), 0, new StoryFixtures.QuietListener());
+        assertTrue(generator.run(story));
+
+        assertEquals(STORY + outro + "\n" + SIGNATURE, story.snapshot());
+        assertEquals(PassMetrics.END_SIGNATURE, generator.passMetrics().get(0).endReason);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void stopWithoutAnOutroGetsTheEmergencyOutro() throws Exception {
+        String outro = "\nTôi là Morgan Hayes. Chúc các bạn có một đêm ngon giấc.";
+        server.enqueue(sse(event(STORY) + finish()));
+        server.enqueue(sse(event(outro) + finish()));
+
+        StoryBuffer story = new StoryBuffer();
+        StoryGenerator generator = StoryFixtures.generator(stopConfig(), 0, new StoryFixtures.QuietListener());
+        assertTrue(generator.run(story));
+
+        // The model just ended; only the emergency outro's stop stands for the signature.
+        assertEquals(STORY + outro + "\n" + SIGNATURE, story.snapshot());
+        assertEquals(2, generator.passMetrics().size());
+        assertEquals(PassMetrics.END_DONE, generator.passMetrics().get(0).endReason);
+        assertTrue(generator.passMetrics().get(1).emergency);
+        assertEquals(PassMetrics.END_SIGNATURE, generator.passMetrics().get(1).endReason);
+    }
+
+    private BackgroundStoryService.GenerationConfig stopConfig() {
+        BackgroundStoryService.GenerationConfig config = StoryFixtures.config(server.url("/v1").toString());
+        config.outroSignature = SIGNATURE;
+        config.useStopSequence = true;
+        return config;
+    }
+}
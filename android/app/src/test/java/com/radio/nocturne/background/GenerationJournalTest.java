@@ -0,0 +1,179 @@
+package com.radio.nocturne.background;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Checks that a journal left behind by a killed or failed generation loads
+ * back up to its last durable record: a torn or corrupt tail is dropped,
+ * the key goes through the codec, and resumeConfig() continues from there
+ * without touching the loaded config. Also that listing jobs leaves the
+ * job being written alone, temp file included.
+ */
+public class GenerationJournalTest {
+    private static final String BASE = "Phần trước của câu chuyện.";
+    private static final String FIRST = " Tôi nghe tiếng gõ cửa.";
+    private static final String SECOND = " Không ai trả lời.";
+
+    /** Reverses the key and tags it, so a key that skipped the codec shows. */
+    private static final GenerationJournal.SecretCodec CODEC = new GenerationJournal.SecretCodec() {
+        @Override
+        public String seal(String secret) {
+            return "sealed:" + new StringBuilder(secret).reverse();
+        }
+
+        @Override
+        public String open(String sealed) {
+            return sealed.startsWith("sealed:") ? new StringBuilder(sealed.substring(7)).reverse().toString() : null;
+        }
+    };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    @Before
+    public void setUp() {
+        directory = new File(folder.getRoot(), GenerationJournal.DIRECTORY);
+    }
+
+    @Test
+    public void killedJobResumesFromItsLastRecord() throws IOException {
+        GenerationJournal journal = create("job-1", CODEC);
+        journal.beginPass(0, false, BASE.length());
+        journal.appendText(BASE.length(), FIRST);
+        journal.appendText(BASE.length() + FIRST.length(), SECOND);
+        journal.close();
+
+        List<GenerationJournal.Interrupted> jobs = GenerationJournal.list(directory, CODEC);
+        assertEquals(1, jobs.size());
+        GenerationJournal.Interrupted job = jobs.get(0);
+        assertEquals("job-1", job.jobId);
+        assertEquals(BASE + FIRST + SECOND, job.text);
+        assertEquals(BASE.length(), job.newTextStart);
+        assertEquals(1, job.passes);
+        assertFalse(job.stopped);
+        assertEquals("test-key", job.config.apiKey);
+        assertTrue(job.hasApiKey());
+
+        BackgroundStoryService.GenerationConfig resumed = job.resumeConfig();
+        assertNotSame(job.config, resumed);
+        assertEquals("job-1", resumed.jobId);
+        assertEquals(BASE + FIRST + SECOND, resumed.existingText);
+        assertEquals(BASE.length(), resumed.resumeNewTextStart);
+        assertEquals(StoryFixtures.SIGNATURE, resumed.outroSignature);
+        // The loaded job is left as it was, so resuming twice starts from the same place.
+        assertNull(job.config.existingText);
+        assertEquals(-1, job.config.resumeNewTextStart);
+    }
+
+    @Test
+    public void tornTailIsDropped() throws IOException {
+        GenerationJournal journal = create("job-2", CODEC);
+        journal.appendText(BASE.length(), FIRST);
+        journal.sync();
+        File file = new File(directory, "job-2.journal");
+        long durable = file.length();
+        journal.appendText(BASE.length() + FIRST.length(), SECOND);
+        journal.close();
+
+        // The crash came while the last record's checksum was being written.
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 2);
+        }
+        GenerationJournal.Interrupted job = GenerationJournal.find(directory, "job-2", CODEC);
+        assertEquals(BASE + FIRST, job.text);
+        assertEquals(BASE + FIRST, job.resumeConfig().existingText);
+
+        // ...or before any of it.
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(durable + 3);
+        }
+        assertEquals(BASE + FIRST, GenerationJournal.find(directory, "job-2", CODEC).text);
+    }
+
+    @Test
+    public void corruptRecordEndsTheReplay() throws IOException {
+        GenerationJournal journal = create("job-3", CODEC);
+        journal.appendText(BASE.length(), FIRST);
+        journal.sync();
+        journal.appendText(BASE.length() + FIRST.length(), SECOND);
+        journal.stop("network");
+        File file = new File(directory, "job-3.journal");
+
+        GenerationJournal.Interrupted intact = GenerationJournal.find(directory, "job-3", CODEC);
+        assertEquals(BASE + FIRST + SECOND, intact.text);
+        assertTrue(intact.stopped);
+        assertEquals("network", intact.stopReason);
+
+        // Flip the last byte of SECOND's text; its record and the STOPPED one after it are lost.
+        long secondEnd = file.length() - (1 + 4 + "network".length() + 4) - 4 - 1;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(secondEnd);
+            int b = raf.read();
+            raf.seek(secondEnd);
+            raf.write(b ^ 0x01);
+        }
+        GenerationJournal.Interrupted job = GenerationJournal.find(directory, "job-3", CODEC);
+        assertEquals(BASE + FIRST, job.text);
+        assertFalse(job.stopped);
+        assertEquals(BASE + FIRST, job.resumeConfig().existingText);
+    }
+
+    @Test
+    public void keyIsOnlyStoredThroughTheCodec() throws IOException {
+        create("job-4", null).close();
+        GenerationJournal.Interrupted job = GenerationJournal.find(directory, "job-4", CODEC);
+        assertNull(job.config.apiKey);
+        assertFalse(job.hasApiKey());
+        assertEquals(BASE, job.text);
+
+        assertTrue(GenerationJournal.discard(directory, "job-4"));
+        assertTrue(GenerationJournal.list(directory, CODEC).isEmpty());
+    }
+
+    @Test
+    public void jobBeingWrittenIsNotListed() throws IOException {
+        GenerationJournal journal = create("job-5", CODEC);
+        assertTrue(GenerationJournal.list(directory, CODEC).isEmpty());
+        assertNull(GenerationJournal.find(directory, "job-5", CODEC));
+        journal.delete();
+        assertTrue(GenerationJournal.list(directory, CODEC).isEmpty());
+    }
+
+    @Test
+    public void onlyTempFilesOfDeadCreatesAreSwept() throws IOException {
+        GenerationJournal journal = create("job-6", CODEC);
+        // A create() of the active job still writing, and one that was killed.
+        File writing = new File(directory, "job-6.journal.tmp");
+        File orphan = new File(directory, "job-7.journal.tmp");
+        assertTrue(writing.createNewFile());
+        assertTrue(orphan.createNewFile());
+
+        assertTrue(GenerationJournal.list(directory, CODEC).isEmpty());
+        assertTrue(writing.exists());
+        assertFalse(orphan.exists());
+
+        journal.delete();
+        GenerationJournal.list(directory, CODEC);
+        assertFalse(writing.exists());
+    }
+
+    private GenerationJournal create(String jobId, GenerationJournal.SecretCodec codec) throws IOException {
+        BackgroundStoryService.GenerationConfig config = StoryFixtures.config("http://localhost/v1");
+        return GenerationJournal.create(directory, jobId, config, BASE, BASE.length(), codec);
+    }
+}
@@ -0,0 +1,131 @@
+package com.radio.nocturne.background;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static com.radio.nocturne.background.StoryFixtures.CHAT;
+import static com.radio.nocturne.background.StoryFixtures.REASONER;
+import static com.radio.nocturne.background.StoryFixtures.SIGNATURE;
+import static com.radio.nocturne.background.StoryFixtures.event;
+import static com.radio.nocturne.background.StoryFixtures.finish;
+import static com.radio.nocturne.background.StoryFixtures.sse;
+import static com.radio.nocturne.background.StoryFixtures.thinking;
+import static com.radio.nocturne.background.StoryFixtures.usage;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Streams reasoner-style passes, thinking first and writing after, and
+ * checks that reasoning stays out of the story but is measured per pass,
+ * and that the cascade sends each pass to the expected model.
+ */
+public class ReasoningCascadeTest {
+    private MockWebServer server;
+    private final List<String> reasoning = Collections.synchronizedList(new ArrayList<>());
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void reasoningIsMeasuredButKeptOutOfTheStory() throws Exception {
+        server.enqueue(sse(
+            thinking("Người nghe muốn gì? ") + thinking("Mở đầu bằng phong bì.") +
+            event("Tôi là Morgan Hayes.\n") + usage(40, 12) + finish()
+        ));
+        server.enqueue(sse(event("Cánh cửa đóng lại.\n" + SIGNATURE) + finish()));
+
+        StoryBuffer story = new StoryBuffer();
+        StoryGenerator generator = generator(2, 0);
+        assertTrue(generator.run(story));
+
+        assertEquals("Tôi là Morgan Hayes.\nCánh cửa đóng lại.\n" + SIGNATURE, story.snapshot());
+        assertEquals("Người nghe muốn gì? Mở đầu bằng phong bì.", String.join("", reasoning));
+
+        List<PassMetrics> passes = generator.passMetrics();
+        assertEquals(2, passes.size());
+        PassMetrics opening = passes.get(0);
+        assertEquals(REASONER, opening.model);
+        assertEquals(2, opening.reasoningDeltas);
+        assertEquals("Người nghe muốn gì? Mở đầu bằng phong bì.".length(), opening.reasoningChars);
+        assertEquals(12, opening.reasoningTokens);
+        assertEquals("Tôi là Morgan Hayes.\n".length(), opening.chars);
+        assertTrue(opening.timeToFirstReasoningMs <= opening.timeToFirstTokenMs);
+        assertEquals(CHAT, passes.get(1).model);
+        assertEquals(0, passes.get(1).reasoningDeltas);
+        assertEquals(12, generator.usage().reasoningTokens);
+
+        assertEquals(REASONER, requestedModel());
+        assertEquals(CHAT, requestedModel());
+    }
+
+    @Test
+    public void reasonerKeepsContinuationsWithinBudget() throws Exception {
+        server.enqueue(sse(thinking("Nghĩ nhanh.") + event("Tôi là Morgan Hayes.\n") + finish()));
+        server.enqueue(sse(event("Tôi không còn tên.\n") + finish()));
+        server.enqueue(sse(event(SIGNATURE) + finish()));
+
+        StoryGenerator generator = generator(2, 60_000);
+        assertTrue(generator.run(new StoryBuffer()));
+
+        List<PassMetrics> passes = generator.passMetrics();
+        assertEquals(3, passes.size());
+        assertEquals(REASONER, passes.get(0).model);
+        assertEquals(REASONER, passes.get(1).model);
+        // The emergency outro never waits on the reasoner.
+        assertTrue(passes.get(2).emergency);
+        assertEquals(CHAT, passes.get(2).model);
+    }
+
+    @Test
+    public void cascadeFollowsMeasuredLatency() {
+        ModelCascade cascade = new ModelCascade(REASONER, CHAT, 1000);
+        assertEquals(REASONER, cascade.choose(ModelCascade.PASS_PLAN));
+        assertEquals(REASONER, cascade.choose(ModelCascade.PASS_CONTINUE));
+        assertEquals(CHAT, cascade.choose(ModelCascade.PASS_EMERGENCY));
+
+        cascade.record(REASONER, 3000);
+        assertEquals(CHAT, cascade.choose(ModelCascade.PASS_CONTINUE));
+        assertEquals(REASONER, cascade.choose(ModelCascade.PASS_PLAN));
+        cascade.record(CHAT, 10);
+        assertEquals(3000, cascade.primaryLatencyMs());
+        cascade.record(REASONER, 200);
+        cascade.record(REASONER, 200);
+        assertEquals(REASONER, cascade.choose(ModelCascade.PASS_CONTINUE));
+
+        ModelCascade single = new ModelCascade(REASONER, "", 0);
+        assertEquals(REASONER, single.choose(ModelCascade.PASS_EMERGENCY));
+    }
+
+    private StoryGenerator generator(int maxPasses, int budgetMs) {
+        BackgroundStoryService.GenerationConfig config = StoryFixtures.config(server.url("/v1").toString());
+        config.model = REASONER;
+        config.storyFastModel = CHAT;
+        config.storyReasonerBudgetMs = budgetMs;
+        config.storyMinWords = 50;
+        config.storyMaxPasses = maxPasses;
+        return StoryFixtures.generator(config, 0, new StoryFixtures.QuietListener() {
+            @Override
+            public void onReasoning(int passIndex, String text) {
+                reasoning.add(text);
+            }
+        });
+    }
+
+    private String requestedModel() throws Exception {
+        return StoryFixtures.payload(server.takeRequest()).getString("model");
+    }
+}
@@ -0,0 +1,154 @@
+package com.radio.nocturne.background;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import okhttp3.OkHttpClient;
+
+/**
+ * Runs StoryGenerator on the production HTTP client against an
+ * {@link SseReplayServer} and measures the client side of one story: wall
+ * and CPU time and allocations of the generating thread, and how many
+ * deltas and batched chunks the service would have delivered.
+ */
+final class ReplayHarness {
+    static final class Report {
+        boolean completed;
+        String text;
+        long wallMs;
+        long cpuMs;
+        long allocatedBytes;
+        int textCallbacks;
+        /** Characters of reasoning_content seen; they never reach text. */
+        int reasoningChars;
+        final AtomicInteger chunkCallbacks = new AtomicInteger();
+        int requests;
+        int retries;
+        int words;
+        TokenUsage usage;
+        /** "reason/retry" or "reason/fail" per watchdog cut, in order. */
+        final List<String> stalls = new ArrayList<>();
+        /** What run() threw, if anything. */
+        IOException error;
+
+        @Override
+        public String toString() {
+            return String.format(
+                Locale.ROOT,
+                "%s wall %,d ms, cpu %,d ms, %,d KB allocated, %,d deltas, %,d chunks, %d requests, %d retries, %,d words",
+                error != null ? "failed" : completed ? "done" : "stopped",
+                wallMs,
+                cpuMs,
+                allocatedBytes / 1024,
+                textCallbacks,
+                chunkCallbacks.get(),
+                requests,
+                retries,
+                words
+            );
+        }
+    }
+
+    private ReplayHarness() {}
+
+    static Report run(SseFixture fixture, SseReplayServer.Options options) throws IOException {
+        return run(fixture, options, HttpClientHolder.client(), config -> { });
+    }
+
+    static Report run(SseFixture fixture, SseReplayServer.Options options, Consumer<BackgroundStoryService.GenerationConfig> tweak)
+        throws IOException {
+        return run(fixture, options, HttpClientHolder.client(), tweak);
+    }
+
+    /**
+     * tweak adjusts the config derived from the fixture, e.g. its timeouts.
+     * A generation that fails is reported with error set rather than thrown.
+     */
+    static Report run(
+        SseFixture fixture,
+        SseReplayServer.Options options,
+        OkHttpClient client,
+        Consumer<BackgroundStoryService.GenerationConfig> tweak
+    ) throws IOException {
+        Report report = new Report();
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+        try (SseReplayServer server = new SseReplayServer(fixture, options)) {
+            BackgroundStoryService.GenerationConfig config = fixture.toConfig(server.baseUrl());
+            tweak.accept(config);
+            ChunkAggregator chunks = new ChunkAggregator(scheduler, (text, offset) -> report.chunkCallbacks.incrementAndGet());
+            chunks.reset(1, 0, config.chunkFlushMs, config.chunkFlushChars);
+            RetryPolicy policy = new RetryPolicy(4, 10, 100, 5000, new Random(options.seed));
+            StoryGenerator generator = new StoryGenerator(client, config, policy, ConnectivityMonitor.ALWAYS_ONLINE,
+                new StoryGenerator.Listener() {
+                    @Override
+                    public void onText(String text, int offset) {
+                        report.textCallbacks++;
+                        chunks.append(1, text);
+                    }
+
+                    @Override
+                    public void onPassStart(int passIndex, boolean emergency, int offset) {
+                    }
+
+                    @Override
+                    public void onPassEnd(int passIndex) {
+                        chunks.flush();
+                    }
+
+                    @Override
+                    public void onRetry(int attempt, long delayMs, String reason, boolean offline) {
+                        chunks.flush();
+                    }
+
+                    @Override
+                    public void onStall(int passIndex, String reason, long idleMs, boolean willRetry) {
+                        report.stalls.add(reason + (willRetry ? "/retry" : "/fail"));
+                    }
+
+                    @Override
+                    public void onReasoning(int passIndex, String text) {
+                        report.reasoningChars += text.length();
+                    }
+                });
+
+            StoryBuffer story = new StoryBuffer();
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            long allocatedBefore = allocatedBytes(threads);
+            long cpuBefore = threads.getCurrentThreadCpuTime();
+            long wallBefore = System.nanoTime();
+            try {
+                report.completed = generator.run(story);
+            } catch (IOException e) {
+                report.error = e;
+            }
+            report.wallMs = (System.nanoTime() - wallBefore) / 1_000_000L;
+            report.cpuMs = (threads.getCurrentThreadCpuTime() - cpuBefore) / 1_000_000L;
+            report.allocatedBytes = allocatedBytes(threads) - allocatedBefore;
+            chunks.flush();
+
+            report.text = story.snapshot();
+            report.requests = server.requests().size();
+            report.retries = generator.retries();
+            report.words = generator.wordCount();
+            report.usage = generator.usage();
+        } finally {
+            scheduler.shutdownNow();
+        }
+        return report;
+    }
+
+    private static long allocatedBytes(ThreadMXBean threads) {
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,122 @@
+package com.radio.nocturne.background;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import okio.Buffer;
+import org.junit.Test;
+
+/**
+ * Checks that the decoder and delta scanner read a DeepSeek stream the way
+ * the old readUtf8Line + org.json loop did: comments and other fields are
+ * skipped, escapes are undone, the usage event comes through, [DONE]
+ * ends the stream, and content is taken from the same field whatever the
+ * key order. The cost of both paths is measured in the bench module.
+ */
+public class SseEventDecoderTest {
+    private static final String[] TOKENS = {"Tôi", " nghe", " thấy", " tiếng", " gõ", " cửa", ".\n", " \"Ai", " đó?\"", " \\"};
+
+    @Test
+    public void decodesContentAndUsageOfAStream() throws IOException {
+        StringBuilder stream = new StringBuilder(": keep-alive\n\n");
+        StringBuilder expected = new StringBuilder();
+        for (String token : TOKENS) {
+            stream.append(chunk(token));
+            expected.append(token);
+        }
+        // CRLF line ends, an event field and a payload over two data lines.
+        stream.append("event: message\r\ndata: {\"choices\":[{\"index\":0,\r\ndata: \"delta\":{\"content\":\" \\u0111\\u00eam\"}}]}\r\n\r\n");
+        expected.append(" đêm");
+        // Longer than the decoder's initial buffer.
+        String tail = repeat(" khuya", 400);
+        stream.append(chunk(tail));
+        expected.append(tail);
+        stream.append(": keep-alive\n\n");
+        stream.append("data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"\"},\"finish_reason\":\"stop\"}],")
+            .append("\"usage\":{\"prompt_tokens\":1200,\"completion_tokens\":12,")
+            .append("\"prompt_cache_hit_tokens\":1024,\"prompt_cache_miss_tokens\":176}}\n\n");
+        stream.append("data: [DONE]\n\n");
+        stream.append(chunk("after done"));
+
+        SseEventDecoder events = new SseEventDecoder(new Buffer().write(stream.toString().getBytes(StandardCharsets.UTF_8)));
+        StreamDeltaScanner delta = new StreamDeltaScanner();
+        StringBuilder content = new StringBuilder();
+        int last;
+        while ((last = events.next()) == SseEventDecoder.EVENT) {
+            assertTrue(delta.scan(events.data(), 0, events.length()));
+            if (delta.content != null) content.append(delta.content);
+            if (delta.finishReason == null) assertFalse(delta.hasUsage);
+        }
+
+        assertEquals(SseEventDecoder.DONE, last);
+        assertEquals(expected.toString(), content.toString());
+        assertEquals("stop", delta.finishReason);
+        assertTrue(delta.hasUsage);
+        assertEquals(1200, delta.promptTokens);
+        assertEquals(12, delta.completionTokens);
+        assertEquals(1024, delta.promptCacheHitTokens);
+        assertEquals(176, delta.promptCacheMissTokens);
+    }
+
+    @Test
+    public void streamWithoutDoneEndsAfterItsLastEvent() throws IOException {
+        // No blank line after the last event either, as when the connection drops.
+        String stream = chunk("Tôi") + "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":null,\"reasoning_content\":\"hmm\"}}]}";
+        SseEventDecoder events = new SseEventDecoder(new Buffer().write(stream.getBytes(StandardCharsets.UTF_8)));
+        StreamDeltaScanner delta = new StreamDeltaScanner();
+
+        assertEquals(SseEventDecoder.EVENT, events.next());
+        assertTrue(delta.scan(events.data(), 0, events.length()));
+        assertEquals("Tôi", delta.content);
+
+        assertEquals(SseEventDecoder.EVENT, events.next());
+        assertTrue(delta.scan(events.data(), 0, events.length()));
+        assertNull(delta.content);
+        assertEquals("hmm", delta.reasoningContent);
+
+        assertEquals(SseEventDecoder.END, events.next());
+    }
+
+    @Test
+    public void contentFollowsTheOldPrecedenceWhateverTheKeyOrder() {
+        String output = "\"output\":[{\"content\":[{\"text\":\"output\"}]}]";
+        StreamDeltaScanner delta = new StreamDeltaScanner();
+
+        assertTrue(scan(delta, "{" + output + "}"));
+        assertEquals("output", delta.content);
+        assertTrue(delta.fromOutput);
+
+        assertTrue(scan(delta, "{" + output + ",\"choices\":[{\"text\":\"text\"}]}"));
+        assertEquals("text", delta.content);
+        assertFalse(delta.fromOutput);
+
+        assertTrue(scan(delta, "{" + output + ",\"choices\":[{\"text\":\"text\",\"message\":{\"content\":\"message\"}}]}"));
+        assertEquals("message", delta.content);
+
+        assertTrue(scan(delta, "{\"choices\":[{\"message\":{\"content\":\"message\"},\"delta\":{\"content\":\"delta\"},\"text\":\"text\"}]}"));
+        assertEquals("delta", delta.content);
+        assertFalse(delta.fromOutput);
+    }
+
+    private static boolean scan(StreamDeltaScanner delta, String payload) {
+        byte[] data = payload.getBytes(StandardCharsets.UTF_8);
+        return delta.scan(data, 0, data.length);
+    }
+
+    private static String chunk(String token) {
+        String escaped = token.replace("\\", "\\\\").replace("\n", "\\n").replace("\"", "\\\"");
+        return "data: {\"id\":\"a1b2c3\",\"object\":\"chat.completion.chunk\",\"created\":1718000000,"
+            + "\"model\":\"deepseek-chat\",\"system_fingerprint\":\"fp_1234\",\"choices\":[{\"index\":0,"
+            + "\"delta\":{\"content\":\"" + escaped + "\"},\"logprobs\":null,\"finish_reason\":null}]}\n\n";
+    }
+
+    private static String repeat(String text, int times) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < times; i++) out.append(text);
+        return out.toString();
+    }
+}
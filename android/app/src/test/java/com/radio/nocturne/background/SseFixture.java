@@ -0,0 +1,218 @@
+package com.radio.nocturne.background;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * A recorded generation: the story settings it ran with and, for every
+ * request, the status, content type and each SSE event with the time it
+ * arrived. Stored as JSON so fixtures can be read and trimmed by hand.
+ */
+final class SseFixture {
+    static final class Event {
+        /** Milliseconds from the request being sent to the event's last byte arriving. */
+        final long atMs;
+        /** The raw event including its trailing blank line, e.g. "data: {...}\n\n". */
+        final String data;
+
+        Event(long atMs, String data) {
+            this.atMs = atMs;
+            this.data = data;
+        }
+    }
+
+    static final class Pass {
+        final int status;
+        final String contentType;
+        /** Milliseconds from the request being sent to the response headers. */
+        final long headersAtMs;
+        final List<Event> events = new ArrayList<>();
+
+        Pass(int status, String contentType, long headersAtMs) {
+            this.status = status;
+            this.contentType = contentType;
+            this.headersAtMs = headersAtMs;
+        }
+    }
+
+    final String name;
+    final JSONObject config;
+    final List<Pass> passes = new ArrayList<>();
+
+    SseFixture(String name, JSONObject config) {
+        this.name = name;
+        this.config = config;
+    }
+
+    /** Settings that change which passes the generator asks for; the rest is left to the caller. */
+    static JSONObject describe(BackgroundStoryService.GenerationConfig config) throws JSONException {
+        return new JSONObject()
+            .put("model", config.model)
+            .put("language", config.language)
+            .put("outroSignature", config.outroSignature)
+            .put("maxTokens", config.maxTokens)
+            .put("storyMinWords", config.storyMinWords)
+            .put("storyTargetWords", config.storyTargetWords)
+            .put("storyHardMaxWords", config.storyHardMaxWords)
+            .put("storyMaxPasses", config.storyMaxPasses)
+            .put("storyContextWords", config.storyContextWords);
+    }
+
+    /** A config that makes the generator request the same passes as the recording did. */
+    BackgroundStoryService.GenerationConfig toConfig(String baseUrl) {
+        BackgroundStoryService.GenerationConfig c = StoryFixtures.config(baseUrl);
+        c.apiKey = "replay";
+        c.model = config.optString("model", StoryFixtures.CHAT);
+        c.language = config.optString("language", "vi");
+        c.outroSignature = config.optString("outroSignature", "");
+        c.maxTokens = config.optInt("maxTokens", 8192);
+        c.storyMinWords = config.optInt("storyMinWords", 2000);
+        c.storyTargetWords = config.optInt("storyTargetWords", 7200);
+        c.storyHardMaxWords = config.optInt("storyHardMaxWords", 10000);
+        c.storyMaxPasses = config.optInt("storyMaxPasses", 12);
+        c.storyContextWords = config.optInt("storyContextWords", 320);
+        c.chunkFlushMs = 80;
+        c.chunkFlushChars = 512;
+        return c;
+    }
+
+    static SseFixture read(String name, InputStream in) throws IOException {
+        try {
+            JSONObject json = new JSONObject(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+            SseFixture fixture = new SseFixture(name, json.getJSONObject("config"));
+            JSONArray passes = json.getJSONArray("passes");
+            for (int i = 0; i < passes.length(); i++) {
+                JSONObject p = passes.getJSONObject(i);
+                Pass pass = new Pass(p.getInt("status"), p.optString("contentType", ""), p.getLong("headersAtMs"));
+                JSONArray events = p.getJSONArray("events");
+                for (int j = 0; j < events.length(); j++) {
+                    JSONObject e = events.getJSONObject(j);
+                    pass.events.add(new Event(e.getLong("atMs"), e.getString("data")));
+                }
+                fixture.passes.add(pass);
+            }
+            return fixture;
+        } catch (JSONException e) {
+            throw new IOException("Bad fixture " + name, e);
+        }
+    }
+
+    void write(File file) throws IOException {
+        try {
+            JSONArray passArray = new JSONArray();
+            for (Pass pass : passes) {
+                JSONArray events = new JSONArray();
+                for (Event event : pass.events) {
+                    events.put(new JSONObject().put("atMs", event.atMs).put("data", event.data));
+                }
+                passArray.put(new JSONObject()
+                    .put("status", pass.status)
+                    .put("contentType", pass.contentType)
+                    .put("headersAtMs", pass.headersAtMs)
+                    .put("events", events));
+            }
+            JSONObject json = new JSONObject().put("version", 1).put("config", config).put("passes", passArray);
+            File dir = file.getParentFile();
+            if (dir != null) dir.mkdirs();
+            try (OutputStream out = Files.newOutputStream(file.toPath())) {
+                out.write(json.toString(1).getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (JSONException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * A stand-in for a recording: three passes of DeepSeek-shaped chunks,
+     * a few words each, arriving every few milliseconds with an occasional
+     * longer pause, the last pass ending in the signature.
+     */
+    static SseFixture synthetic(int wordsPerPass, long seed) {
+        String signature = "Tôi là Morgan Hayes, và radio Truyện Đêm Khuya xin phép được tạm dừng tại đây.";
+        String[] words = (
+            "Tôi nghe tiếng gõ cửa lúc ba giờ sáng. Hành lang tối om, chỉ còn ánh đèn vàng nhấp nháy "
+                + "ở cuối dãy. Không ai trả lời khi tôi hỏi. Tờ biên lai vẫn nằm trên bàn, con dấu đỏ "
+                + "đã nhòe đi một nửa. Tôi đếm lại số phòng, và lần này nó không còn khớp nữa."
+        ).split(" ");
+        JSONObject config;
+        try {
+            config = new JSONObject()
+                .put("model", "deepseek-chat")
+                .put("language", "vi")
+                .put("outroSignature", signature)
+                .put("maxTokens", 8192)
+                .put("storyMinWords", wordsPerPass * 3 - wordsPerPass / 2)
+                .put("storyTargetWords", wordsPerPass * 3)
+                .put("storyHardMaxWords", wordsPerPass * 10)
+                .put("storyMaxPasses", 6)
+                .put("storyContextWords", 320);
+        } catch (JSONException e) {
+            throw new AssertionError(e);
+        }
+        SseFixture fixture = new SseFixture("synthetic", config);
+        Random random = new Random(seed);
+        int cursor = 0;
+        for (int p = 0; p < 3; p++) {
+            Pass pass = new Pass(200, "text/event-stream; charset=utf-8", 250 + random.nextInt(250));
+            long at = pass.headersAtMs + 150 + random.nextInt(150);
+            int written = 0;
+            int sentenceWords = 0;
+            while (written < wordsPerPass) {
+                int n = 1 + random.nextInt(3);
+                StringBuilder delta = new StringBuilder();
+                for (int i = 0; i < n; i++) {
+                    String word = words[cursor++ % words.length];
+                    delta.append(written == 0 && i == 0 ? "" : " ").append(word);
+                    if (word.endsWith(".") && ++sentenceWords % 4 == 0) delta.append('\n');
+                }
+                written += n;
+                pass.events.add(new Event(at, chunk(delta.toString(), null)));
+                at += random.nextInt(10) == 0 ? 20 + random.nextInt(60) : 1 + random.nextInt(5);
+            }
+            if (p == 2) {
+                pass.events.add(new Event(at, chunk("\n" + signature, null)));
+                at += 3;
+            }
+            pass.events.add(new Event(at, chunk("", p == 2 ? "stop" : "length")));
+            pass.events.add(new Event(at + 1, usage(1200 + p * 400, written * 2, p == 0 ? 0 : 1024)));
+            pass.events.add(new Event(at + 1, "data: [DONE]\n\n"));
+            fixture.passes.add(pass);
+        }
+        return fixture;
+    }
+
+    private static String chunk(String content, String finishReason) {
+        try {
+            JSONObject delta = new JSONObject().put("content", content);
+            JSONObject choice = new JSONObject()
+                .put("index", 0)
+                .put("delta", delta)
+                .put("finish_reason", finishReason != null ? finishReason : JSONObject.NULL);
+            JSONObject event = new JSONObject()
+                .put("id", "replay")
+                .put("object", "chat.completion.chunk")
+                .put("model", "deepseek-chat")
+                .put("choices", new JSONArray().put(choice));
+            return "data: " + event + "\n\n";
+        } catch (JSONException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private static String usage(int promptTokens, int completionTokens, int cacheHit) {
+        return "data: {\"choices\":[],\"usage\":{\"prompt_tokens\":" + promptTokens
+            + ",\"completion_tokens\":" + completionTokens
+            + ",\"prompt_cache_hit_tokens\":" + cacheHit
+            + ",\"prompt_cache_miss_tokens\":" + (promptTokens - cacheHit) + "}}\n\n";
+    }
+}
@@ -0,0 +1,86 @@
+package com.radio.nocturne.background;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import okhttp3.Interceptor;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.ByteString;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * Network interceptor that copies every response into an {@link SseFixture}
+ * as it streams: each SSE event is stored with the time its last byte
+ * arrived. Add it to the client a live generation runs on, then write the
+ * fixture out for {@link SseReplayServer}.
+ */
+final class SseRecorder implements Interceptor {
+    private final SseFixture fixture;
+
+    SseRecorder(SseFixture fixture) {
+        this.fixture = fixture;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        long sentAt = System.nanoTime();
+        Response response = chain.proceed(chain.request());
+        SseFixture.Pass pass = new SseFixture.Pass(
+            response.code(),
+            response.header("Content-Type", ""),
+            elapsedMs(sentAt)
+        );
+        synchronized (fixture) {
+            fixture.passes.add(pass);
+        }
+        ResponseBody body = response.body();
+        if (body == null) return response;
+        Source recording = new RecordingSource(body.source(), pass, sentAt);
+        ResponseBody copy = ResponseBody.create(Okio.buffer(recording), body.contentType(), body.contentLength());
+        return response.newBuilder().body(copy).build();
+    }
+
+    private static long elapsedMs(long sinceNanos) {
+        return (System.nanoTime() - sinceNanos) / 1_000_000L;
+    }
+
+    /** Splits what passes through on blank lines; a trailing partial event is kept on close. */
+    private static final class RecordingSource extends ForwardingSource {
+        private static final ByteString EVENT_END = ByteString.encodeUtf8("\n\n");
+
+        private final SseFixture.Pass pass;
+        private final long sentAt;
+        private final Buffer pending = new Buffer();
+
+        RecordingSource(Source delegate, SseFixture.Pass pass, long sentAt) {
+            super(delegate);
+            this.pass = pass;
+            this.sentAt = sentAt;
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+            long read = super.read(sink, byteCount);
+            if (read > 0) {
+                sink.copyTo(pending, sink.size() - read, read);
+                long end;
+                while ((end = pending.indexOf(EVENT_END)) >= 0) {
+                    String event = pending.readString(end + 2, StandardCharsets.UTF_8);
+                    pass.events.add(new SseFixture.Event(elapsedMs(sentAt), event));
+                }
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (pending.size() > 0) {
+                pass.events.add(new SseFixture.Event(elapsedMs(sentAt), pending.readUtf8()));
+            }
+            super.close();
+        }
+    }
+}
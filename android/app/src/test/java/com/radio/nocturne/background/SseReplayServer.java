@@ -0,0 +1,330 @@
+package com.radio.nocturne.background;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Minimal HTTP/1.1 server that plays an {@link SseFixture} back, one
+ * recorded pass per request, as a chunked event stream over keep-alive
+ * connections like the real API. Events are spaced as recorded (scaled by
+ * the speed), and the options add latency, jitter, dropped connections,
+ * streams that go silent with the connection left open, and slow
+ * byte-by-byte delivery.
+ *
+ * A cut or silenced connection is resumed: the next request continues the same pass
+ * from the event where it was cut, the way the model continues from the
+ * received text, so a run with drops ends with the same story as one
+ * without.
+ */
+final class SseReplayServer implements Closeable {
+    static final class Options {
+        /** 1 replays at recorded speed, 2 twice as fast; 0 sends everything without waiting. */
+        double speed = 1;
+        /** Added before every response's headers. */
+        long extraLatencyMs;
+        /** Each gap between events is moved by a random amount up to this, either way. */
+        long jitterMs;
+        /** Cut the connection after this many events of a response, or -1. */
+        int dropAfterEvents = -1;
+        /** How many responses are cut in total. */
+        int maxDrops;
+        /** Stop sending, but keep the connection open, after this many events of a response, or -1. */
+        int stallAfterEvents = -1;
+        /** How many responses go silent in total. */
+        int maxStalls;
+        /** When positive, every event is written in pieces of this many bytes... */
+        int dripBytes;
+        /** ...this far apart. */
+        long dripDelayMs;
+        long seed = 1;
+
+        static Options recorded() {
+            return new Options();
+        }
+
+        static Options maxSpeed() {
+            return new Options().speed(0);
+        }
+
+        Options speed(double speed) {
+            this.speed = speed;
+            return this;
+        }
+
+        Options latency(long extraLatencyMs) {
+            this.extraLatencyMs = extraLatencyMs;
+            return this;
+        }
+
+        Options jitter(long jitterMs) {
+            this.jitterMs = jitterMs;
+            return this;
+        }
+
+        Options drop(int afterEvents, int times) {
+            this.dropAfterEvents = afterEvents;
+            this.maxDrops = times;
+            return this;
+        }
+
+        Options stall(int afterEvents, int times) {
+            this.stallAfterEvents = afterEvents;
+            this.maxStalls = times;
+            return this;
+        }
+
+        Options drip(int bytes, long delayMs) {
+            this.dripBytes = bytes;
+            this.dripDelayMs = delayMs;
+            return this;
+        }
+
+        Options seed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+    }
+
+    private final SseFixture fixture;
+    private final Options options;
+    private final ServerSocket serverSocket;
+    private final List<Socket> connections = new CopyOnWriteArrayList<>();
+    private final List<String> requests = new ArrayList<>();
+    private volatile boolean closed;
+    private int nextPass;
+    private int resumeEvent;
+    private int drops;
+    private int stalls;
+
+    SseReplayServer(SseFixture fixture, Options options) throws IOException {
+        this.fixture = fixture;
+        this.options = options;
+        serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(this::acceptLoop, "sse-replay-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /** Base URL for GenerationConfig.baseUrl; requests go to baseUrl + "/chat/completions". */
+    String baseUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort() + "/v1";
+    }
+
+    synchronized List<String> requests() {
+        return new ArrayList<>(requests);
+    }
+
+    synchronized int drops() {
+        return drops;
+    }
+
+    synchronized int stalls() {
+        return stalls;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        for (Socket socket : connections) {
+            socket.close();
+        }
+    }
+
+    private void acceptLoop() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                connections.add(socket);
+                Thread handler = new Thread(() -> serve(socket), "sse-replay-" + socket.getPort());
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                return;
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            InputStream in = new BufferedInputStream(s.getInputStream());
+            OutputStream out = new BufferedOutputStream(s.getOutputStream());
+            while (!closed) {
+                String body = readRequest(in);
+                if (body == null || !respond(in, out, body)) return;
+            }
+        } catch (IOException ignored) {
+            // Client went away, e.g. it stopped reading after the signature.
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    /** Returns false when the connection was cut or silenced on purpose. */
+    private boolean respond(InputStream in, OutputStream out, String requestBody) throws IOException {
+        int passIndex;
+        int first;
+        synchronized (this) {
+            requests.add(requestBody);
+            passIndex = nextPass++;
+            first = resumeEvent;
+            resumeEvent = 0;
+        }
+        if (passIndex >= fixture.passes.size()) {
+            writeFixed(out, 410, "text/plain", "Fixture " + fixture.name + " has no pass " + passIndex);
+            return true;
+        }
+        SseFixture.Pass pass = fixture.passes.get(passIndex);
+        Random random = new Random(options.seed * 31 + passIndex * 7L + first);
+        pause(options.extraLatencyMs + scaled(pass.headersAtMs, random));
+
+        if (pass.status != 200 || !pass.contentType.contains("text/event-stream")) {
+            StringBuilder body = new StringBuilder();
+            for (SseFixture.Event event : pass.events) body.append(event.data);
+            writeFixed(out, pass.status, pass.contentType, body.toString());
+            return true;
+        }
+
+        out.write(("HTTP/1.1 200 OK\r\n"
+            + "Content-Type: " + pass.contentType + "\r\n"
+            + "Cache-Control: no-cache\r\n"
+            + "Transfer-Encoding: chunked\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+
+        List<SseFixture.Event> events = pass.events;
+        long firstGap = events.isEmpty() ? 0 : events.get(0).atMs - pass.headersAtMs;
+        long previous = first == 0 ? pass.headersAtMs : events.get(first).atMs - firstGap;
+        int served = 0;
+        for (int i = first; i < events.size(); i++) {
+            if (served == options.dropAfterEvents && claimDrop(passIndex, i)) {
+                out.flush();
+                return false;
+            }
+            if (served == options.stallAfterEvents && claimStall(passIndex, i)) {
+                out.flush();
+                // Hold the connection open and silent until the client gives up on it.
+                while (!closed && in.read() >= 0) {
+                    // Discard anything the client sends.
+                }
+                return false;
+            }
+            SseFixture.Event event = events.get(i);
+            pause(scaled(event.atMs - previous, random));
+            previous = event.atMs;
+            writeEvent(out, event.data.getBytes(StandardCharsets.UTF_8));
+            served++;
+        }
+        out.write("0\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+        return true;
+    }
+
+    private synchronized boolean claimDrop(int passIndex, int eventIndex) {
+        if (drops >= options.maxDrops) return false;
+        drops++;
+        nextPass = passIndex;
+        resumeEvent = eventIndex;
+        return true;
+    }
+
+    private synchronized boolean claimStall(int passIndex, int eventIndex) {
+        if (stalls >= options.maxStalls) return false;
+        stalls++;
+        nextPass = passIndex;
+        resumeEvent = eventIndex;
+        return true;
+    }
+
+    private void writeEvent(OutputStream out, byte[] data) throws IOException {
+        int step = options.dripBytes > 0 ? options.dripBytes : data.length;
+        for (int offset = 0; offset < data.length; offset += step) {
+            if (offset > 0) pause(options.dripDelayMs);
+            int length = Math.min(step, data.length - offset);
+            out.write((Integer.toHexString(length) + "\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(data, offset, length);
+            out.write('\r');
+            out.write('\n');
+            out.flush();
+        }
+    }
+
+    private static void writeFixed(OutputStream out, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        out.write(String.format(
+            Locale.ROOT,
+            "HTTP/1.1 %d %s\r\nContent-Type: %s\r\nContent-Length: %d\r\n\r\n",
+            status,
+            status == 200 ? "OK" : "Replay",
+            contentType.isEmpty() ? "application/json" : contentType,
+            bytes.length
+        ).getBytes(StandardCharsets.US_ASCII));
+        out.write(bytes);
+        out.flush();
+    }
+
+    /** Reads one request; returns its body, or null at end of stream. */
+    private static String readRequest(InputStream in) throws IOException {
+        int contentLength = 0;
+        String line = readLine(in);
+        if (line == null) return null;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Content-Length")) {
+                contentLength = Integer.parseInt(line.substring(colon + 1).trim());
+            }
+        }
+        if (line == null) return null;
+        byte[] body = new byte[contentLength];
+        int read = 0;
+        while (read < contentLength) {
+            int n = in.read(body, read, contentLength - read);
+            if (n < 0) return null;
+            read += n;
+        }
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int c;
+        while ((c = in.read()) >= 0) {
+            if (c == '\n') return line.toString("US-ASCII").trim();
+            line.write(c);
+        }
+        return line.size() > 0 ? line.toString("US-ASCII") : null;
+    }
+
+    /** Recorded gap scaled by the speed, with jitter; in milliseconds. */
+    private double scaled(long gapMs, Random random) {
+        double gap = options.speed > 0 ? gapMs / options.speed : 0;
+        if (options.jitterMs > 0) {
+            gap += (random.nextDouble() * 2 - 1) * options.jitterMs;
+        }
+        return Math.max(0, gap);
+    }
+
+    private static void pause(double ms) {
+        if (ms <= 0) return;
+        long deadline = System.nanoTime() + (long) (ms * 1_000_000L);
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.radio.nocturne.background;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+/**
+ * Replays streams that go silent with the connection left open and checks
+ * that the watchdog cuts them: an idle stall is retried and resumed, a pass
+ * or generation deadline fails the story.
+ */
+public class StallWatchdogTest {
+    @Test
+    public void silentStreamIsCutAndResumed() throws Exception {
+        SseFixture fixture = SseFixture.synthetic(200, 4);
+        String clean = ReplayHarness.run(fixture, SseReplayServer.Options.maxSpeed()).text;
+
+        long start = System.nanoTime();
+        ReplayHarness.Report report = ReplayHarness.run(
+            fixture,
+            SseReplayServer.Options.maxSpeed().stall(30, 1),
+            config -> config.storyIdleTimeoutMs = 300
+        );
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+
+        assertNull(report.error);
+        assertTrue(report.completed);
+        assertEquals(clean, report.text);
+        assertEquals(Collections.singletonList("idle/retry"), report.stalls);
+        assertEquals(1, report.retries);
+        assertTrue(elapsedMs >= 300);
+    }
+
+    @Test
+    public void steadyStreamIsNotCut() throws Exception {
+        SseFixture fixture = SseFixture.synthetic(100, 6);
+        ReplayHarness.Report report = ReplayHarness.run(
+            fixture,
+            SseReplayServer.Options.recorded().speed(4),
+            config -> config.storyIdleTimeoutMs = 300
+        );
+
+        assertNull(report.error);
+        assertTrue(report.completed);
+        assertTrue(report.stalls.isEmpty());
+        assertEquals(fixture.passes.size(), report.requests);
+    }
+
+    @Test
+    public void passDeadlineFailsInsteadOfRetrying() throws Exception {
+        ReplayHarness.Report report = ReplayHarness.run(
+            SseFixture.synthetic(200, 4),
+            SseReplayServer.Options.maxSpeed().stall(30, 5),
+            config -> {
+                config.storyIdleTimeoutMs = 0;
+                config.storyTimeoutMs = 400;
+            }
+        );
+
+        assertTrue(report.error instanceof StoryGenerator.DeadlineException);
+        assertEquals(StallWatchdog.PASS_DEADLINE, ((StoryGenerator.DeadlineException) report.error).reason);
+        assertEquals(Collections.singletonList("pass_deadline/fail"), report.stalls);
+        assertEquals(0, report.retries);
+    }
+
+    @Test
+    public void generationDeadlineStopsRetryingStalls() throws Exception {
+        ReplayHarness.Report report = ReplayHarness.run(
+            SseFixture.synthetic(200, 4),
+            SseReplayServer.Options.maxSpeed().stall(30, 5),
+            config -> {
+                // Two idle cuts at about 300 and 600 ms, then the deadline lands mid-attempt.
+                config.storyIdleTimeoutMs = 300;
+                config.storyTotalTimeoutMs = 750;
+            }
+        );
+
+        assertTrue(report.error instanceof StoryGenerator.DeadlineException);
+        assertEquals(StallWatchdog.GENERATION_DEADLINE, ((StoryGenerator.DeadlineException) report.error).reason);
+        assertEquals(Arrays.asList("idle/retry", "idle/retry", "generation_deadline/fail"), report.stalls);
+    }
+}
@@ -0,0 +1,243 @@
+package com.radio.nocturne.background;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks that the station fills its queue to capacity and refills below
+ * the low-water mark, that a preempted job is replaced once the host is
+ * idle, and that failures back off without the station giving up, all on
+ * a fake host and an executor the test steps by hand.
+ */
+public class StationSchedulerTest {
+    private static final String STORY = "Tôi nghe tiếng gõ cửa lúc ba giờ sáng. Không ai trả lời khi tôi hỏi.";
+
+    private final ManualExecutor executor = new ManualExecutor();
+    private final FakeHost host = new FakeHost();
+    private final StationScheduler station = new StationScheduler(executor, host);
+
+    @After
+    public void tearDown() {
+        station.stop();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void fillsToCapacityAndStops() {
+        station.start(template(), new String[] {"a", "b"}, 3, 1);
+        for (int i = 0; i < 3; i++) {
+            executor.runReady();
+            assertTrue(station.status().generating);
+            finishJob();
+        }
+        executor.runReady();
+
+        assertEquals(3, host.started.size());
+        assertEquals("a", host.started.get(0).topic);
+        assertEquals("b", host.started.get(1).topic);
+        assertEquals("a", host.started.get(2).topic);
+        StationScheduler.Status status = station.status();
+        assertEquals(3, status.depth);
+        assertFalse(status.generating);
+        assertEquals(0, status.etaMs);
+        assertEquals("station-1", station.take().id);
+    }
+
+    @Test
+    public void refillsOnlyBelowTheLowWaterMark() {
+        station.start(template(), null, 3, 2);
+        fill(3);
+
+        station.take();
+        executor.runReady();
+        // Two left is still at the mark.
+        assertEquals(3, host.started.size());
+
+        station.take();
+        executor.runReady();
+        assertEquals(4, host.started.size());
+        finishJob();
+        executor.runReady();
+        assertEquals(5, host.started.size());
+        finishJob();
+        executor.runReady();
+
+        assertEquals(5, host.started.size());
+        assertEquals(3, station.status().depth);
+    }
+
+    @Test
+    public void preemptedJobIsReplacedOnceTheHostIsIdle() {
+        station.start(template(), null, 2, 1);
+        executor.runReady();
+        BackgroundStoryService.StoryListener preempted = host.sinks.get(0);
+
+        // A user story takes over; the station waits for it.
+        station.onPreempted();
+        host.busy = true;
+        station.onHostIdle();
+        executor.runReady();
+        assertEquals(1, host.started.size());
+        assertFalse(station.status().generating);
+
+        // The cancelled job's late callbacks count for nothing.
+        preempted.onDone(STORY, STORY, null, Collections.emptyList());
+        preempted.onError("cancelled", true);
+        assertEquals(0, station.status().depth);
+
+        host.busy = false;
+        station.onHostIdle();
+        executor.runReady();
+        assertEquals(2, host.started.size());
+        finishJob();
+        assertEquals(1, station.status().depth);
+    }
+
+    @Test
+    public void failuresBackOffWithoutStoppingTheStation() {
+        station.start(template(), null, 2, 1);
+        executor.runReady();
+
+        long[] backOffs = {15_000, 30_000, StationScheduler.FAILURE_PAUSE_MS, StationScheduler.FAILURE_PAUSE_MS};
+        for (int i = 0; i < backOffs.length; i++) {
+            failJob("HTTP 503");
+            // The job's end does not cut the back-off short...
+            executor.runReady();
+            assertEquals(i + 1, host.started.size());
+            assertEquals("HTTP 503", station.status().lastError);
+            // ...its own retry ends it, also past MAX_CONSECUTIVE_FAILURES.
+            executor.runDelayed(backOffs[i]);
+            assertEquals(i + 2, host.started.size());
+        }
+
+        // One success resets the back-off.
+        finishJob();
+        executor.runReady();
+        assertNull(station.status().lastError);
+        assertEquals(6, host.started.size());
+        failJob("HTTP 503");
+        executor.runReady();
+        executor.runDelayed(15_000);
+        assertEquals(7, host.started.size());
+    }
+
+    @Test
+    public void takeCutsABackOffShort() {
+        station.start(template(), null, 2, 1);
+        executor.runReady();
+        failJob("HTTP 503");
+        executor.runReady();
+        assertEquals(1, host.started.size());
+
+        assertNull(station.take());
+        executor.runReady();
+        assertEquals(2, host.started.size());
+
+        // This job fails too; the retry scheduled before take() must not end its back-off.
+        failJob("HTTP 503");
+        executor.runReady();
+        executor.runDelayed(15_000);
+        assertEquals(2, host.started.size());
+        executor.runDelayed(15_000);
+        assertEquals(3, host.started.size());
+    }
+
+    @Test
+    public void abortedJobIsRetriedRightAway() {
+        station.start(template(), null, 2, 1);
+        executor.runReady();
+        host.sinks.get(0).onError("cancelled", true);
+        station.onHostIdle();
+        executor.runReady();
+        assertEquals(2, host.started.size());
+        assertNull(station.status().lastError);
+    }
+
+    private void fill(int stories) {
+        for (int i = 0; i < stories; i++) {
+            executor.runReady();
+            finishJob();
+        }
+        executor.runReady();
+        assertEquals(stories, station.status().depth);
+    }
+
+    /** Ends the newest job the way the service does: the callback, then the host going idle. */
+    private void finishJob() {
+        host.sinks.get(host.sinks.size() - 1).onDone(STORY, STORY, null, Collections.emptyList());
+        station.onHostIdle();
+    }
+
+    private void failJob(String message) {
+        host.sinks.get(host.sinks.size() - 1).onError(message, false);
+        station.onHostIdle();
+    }
+
+    private static BackgroundStoryService.GenerationConfig template() {
+        return StoryFixtures.config("http://localhost/v1");
+    }
+
+    private static final class FakeHost implements StationScheduler.Host {
+        final List<BackgroundStoryService.GenerationConfig> started = new ArrayList<>();
+        final List<BackgroundStoryService.StoryListener> sinks = new ArrayList<>();
+        boolean busy;
+
+        @Override
+        public boolean startStationJob(BackgroundStoryService.GenerationConfig config, BackgroundStoryService.StoryListener sink) {
+            if (busy) return false;
+            started.add(config);
+            sinks.add(sink);
+            return true;
+        }
+
+        @Override
+        public void cancelStationJob() {
+        }
+    }
+
+    /** Holds scheduled tasks until the test runs them; the scheduler ignores the futures. */
+    private static final class ManualExecutor extends ScheduledThreadPoolExecutor {
+        private final List<Runnable> ready = new ArrayList<>();
+        private final List<Long> delays = new ArrayList<>();
+        private final List<Runnable> delayed = new ArrayList<>();
+
+        ManualExecutor() {
+            super(1);
+        }
+
+        @Override
+        public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+            if (delay <= 0) {
+                ready.add(command);
+            } else {
+                delays.add(unit.toMillis(delay));
+                delayed.add(command);
+            }
+            return null;
+        }
+
+        void runReady() {
+            while (!ready.isEmpty()) ready.remove(0).run();
+        }
+
+        /** Runs the first task scheduled with exactly this delay, then whatever it made ready. */
+        void runDelayed(long delayMs) {
+            int index = delays.indexOf(delayMs);
+            assertTrue("nothing scheduled in " + delayMs + " ms, only " + delays, index >= 0);
+            delays.remove(index);
+            delayed.remove(index).run();
+            runReady();
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.radio.nocturne.background;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static com.radio.nocturne.background.StoryFixtures.SIGNATURE;
+import static com.radio.nocturne.background.StoryFixtures.event;
+import static com.radio.nocturne.background.StoryFixtures.sse;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks what each backend changes about a story request: the offline stub
+ * writes a whole story without touching the network, the OpenAI-compatible
+ * backend maps cached_tokens and gives up on an exhausted quota, and
+ * DeepSeek ignores Responses-style bodies.
+ */
+public class StoryBackendTest {
+    private MockWebServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void offlineStubWritesTheSameStoryWithoutNetwork() throws Exception {
+        BackgroundStoryService.GenerationConfig config = config(StoryBackend.OFFLINE);
+        // Nothing listens here; a request that reached the network would fail.
+        config.baseUrl = "http://127.0.0.1:1/v1";
+        config.apiKey = null;
+
+        StoryBuffer first = new StoryBuffer();
+        StoryGenerator generator = generator(config);
+        assertTrue(generator.run(first));
+        String text = first.snapshot();
+        assertTrue(text.endsWith("\n" + SIGNATURE));
+        assertTrue(generator.passMetrics().size() >= 2);
+        assertTrue(generator.usage().completionTokens > 0);
+
+        StoryBuffer second = new StoryBuffer();
+        assertTrue(generator(config).run(second));
+        assertEquals(text, second.snapshot());
+    }
+
+    @Test
+    public void offlineStubPlansOutlinedStories() throws Exception {
+        BackgroundStoryService.GenerationConfig config = config(StoryBackend.OFFLINE);
+        config.storyPipeline = StoryGenerator.PIPELINE_OUTLINE;
+        config.storyChapters = 3;
+        config.storyParallelism = 3;
+
+        StoryBuffer story = new StoryBuffer();
+        StoryGenerator generator = generator(config);
+        assertTrue(generator.run(story));
+        assertTrue(story.snapshot().endsWith(SIGNATURE));
+        // The outline and three chapters.
+        assertEquals(4, generator.passMetrics().size());
+    }
+
+    @Test
+    public void openAiCompatibleMapsCachedTokensAndSkipsEmptyKey() throws Exception {
+        server.enqueue(sse(event("Cánh cửa mở ra.\n" + SIGNATURE)
+            + "data: {\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"stop\"}]}\n\n"
+            + "data: {\"choices\":[],\"usage\":{\"prompt_tokens\":1000,\"completion_tokens\":20,"
+            + "\"prompt_tokens_details\":{\"cached_tokens\":768}}}\n\n"
+            + "data: [DONE]\n\n"));
+
+        BackgroundStoryService.GenerationConfig config = config(StoryBackend.OPENAI);
+        config.apiKey = "";
+        StoryGenerator generator = generator(config);
+        StoryBuffer story = new StoryBuffer();
+        assertTrue(generator.run(story));
+        assertEquals("Cánh cửa mở ra.\n" + SIGNATURE, story.snapshot());
+
+        assertEquals(768, generator.usage().promptCacheHitTokens);
+        assertEquals(232, generator.usage().promptCacheMissTokens);
+        RecordedRequest request = server.takeRequest();
+        assertEquals("/v1/chat/completions", request.getPath());
+        assertNull(request.getHeader("Authorization"));
+    }
+
+    @Test
+    public void openAiCompatibleDoesNotRetryAnExhaustedQuota() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(429)
+            .setBody("{\"error\":{\"code\":\"insufficient_quota\"}}"));
+        try {
+            generator(config(StoryBackend.OPENAI)).run(new StoryBuffer());
+            fail("expected StoryApiException");
+        } catch (StoryApiException e) {
+            assertEquals(429, e.code);
+            assertFalse(e.retryable);
+        }
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void deepSeekIgnoresResponsesStyleOutput() {
+        BackgroundStoryService.GenerationConfig config = config(StoryBackend.DEEPSEEK);
+        byte[] body = "{\"output\":[{\"content\":[{\"text\":\"Không phải truyện.\"}]}]}".getBytes(StandardCharsets.UTF_8);
+
+        StreamDeltaScanner delta = new StreamDeltaScanner();
+        assertTrue(new OpenAiCompatibleBackend(config).decode(body, 0, body.length, delta));
+        assertEquals("Không phải truyện.", delta.content);
+
+        assertTrue(StoryBackend.from(config).decode(body, 0, body.length, delta));
+        assertNull(delta.content);
+    }
+
+    private static StoryGenerator generator(BackgroundStoryService.GenerationConfig config) {
+        return StoryFixtures.generator(config, 3, new StoryFixtures.QuietListener());
+    }
+
+    private BackgroundStoryService.GenerationConfig config(String backend) {
+        BackgroundStoryService.GenerationConfig config = StoryFixtures.config(server.url("/v1").toString());
+        config.storyBackend = backend;
+        config.storyStubTokensPerSecond = 0;
+        config.maxTokens = 8192;
+        config.storyMinWords = 300;
+        config.storyTargetWords = 600;
+        config.storyHardMaxWords = 1200;
+        config.storyMaxPasses = 4;
+        return config;
+    }
+}
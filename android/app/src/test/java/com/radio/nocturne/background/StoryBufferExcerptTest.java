@@ -0,0 +1,74 @@
+package com.radio.nocturne.background;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks where the continuation excerpt starts: the last maxWords words
+ * with whitespace collapsed, moved forward to the next sentence or
+ * paragraph when asked, unless that would drop more than half of it. The
+ * cost against the old split-the-whole-story snippet is measured in the
+ * bench module.
+ */
+public class StoryBufferExcerptTest {
+    private static final String STORY =
+        "Đêm đó tôi nghe thấy tiếng gõ cửa. Không ai trả lời. Tôi hỏi lại lần nữa.\n\n"
+        + "Cánh cửa tự mở ra, và căn phòng phía sau tối om, lạnh lẽo như một cái giếng sâu.";
+    private static final String LAST_PARAGRAPH =
+        "Cánh cửa tự mở ra, và căn phòng phía sau tối om, lạnh lẽo như một cái giếng sâu.";
+
+    @Test
+    public void startsOnTheRequestedBoundary() {
+        StoryBuffer buffer = buffer(STORY);
+        // 29 words start inside the first sentence.
+        assertEquals(
+            "cửa. Không ai trả lời. Tôi hỏi lại lần nữa. " + LAST_PARAGRAPH,
+            buffer.tailExcerpt(29, StoryBuffer.BOUNDARY_NONE)
+        );
+        assertEquals(
+            "Không ai trả lời. Tôi hỏi lại lần nữa. " + LAST_PARAGRAPH,
+            buffer.tailExcerpt(29, StoryBuffer.BOUNDARY_SENTENCE)
+        );
+        assertEquals(LAST_PARAGRAPH, buffer.tailExcerpt(29, StoryBuffer.BOUNDARY_PARAGRAPH));
+    }
+
+    @Test
+    public void keepsThePlainStartWhenTheBoundaryIsPastHalfTheExcerpt() {
+        StoryBuffer buffer = buffer("Tôi bước vào căn phòng tối om và lạnh lẽo rồi ngồi xuống chiếc ghế cũ cạnh cửa sổ. Hết.");
+        // The only break is the full stop before the last word.
+        String plain = "rồi ngồi xuống chiếc ghế cũ cạnh cửa sổ. Hết.";
+        assertEquals(plain, buffer.tailExcerpt(10, StoryBuffer.BOUNDARY_NONE));
+        assertEquals(plain, buffer.tailExcerpt(10, StoryBuffer.BOUNDARY_SENTENCE));
+        assertEquals(plain, buffer.tailExcerpt(10, StoryBuffer.BOUNDARY_PARAGRAPH));
+    }
+
+    @Test
+    public void shortStoryIsReturnedWholeWithWhitespaceCollapsed() {
+        StoryBuffer buffer = buffer("  " + STORY + "\n");
+        String collapsed = STORY.replace("\n\n", " ");
+        assertEquals(collapsed, buffer.tailExcerpt(100, StoryBuffer.BOUNDARY_NONE));
+        assertEquals(collapsed, buffer.tailExcerpt(100, StoryBuffer.BOUNDARY_PARAGRAPH));
+    }
+
+    @Test
+    public void longStoryExcerptSpansSegments() {
+        StringBuilder story = new StringBuilder();
+        for (int i = 1; i <= 5000; i++) story.append("từ").append(i).append(i % 20 == 0 ? ".\n" : " ");
+        StringBuilder expected = new StringBuilder();
+        for (int i = 4681; i <= 5000; i++) {
+            if (expected.length() > 0) expected.append(' ');
+            expected.append("từ").append(i).append(i % 20 == 0 ? "." : "");
+        }
+        StoryBuffer buffer = new StoryBuffer();
+        // Appended in uneven pieces, as deltas arrive.
+        for (int i = 0; i < story.length(); i += 37) buffer.append(story.substring(i, Math.min(story.length(), i + 37)));
+        assertEquals(expected.toString(), buffer.tailExcerpt(320, StoryBuffer.BOUNDARY_NONE));
+    }
+
+    private static StoryBuffer buffer(String text) {
+        StoryBuffer buffer = new StoryBuffer();
+        buffer.append(text);
+        return buffer;
+    }
+}
@@ -0,0 +1,126 @@
+package com.radio.nocturne.background;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import okhttp3.OkHttpClient;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * What the generator tests share: a small story config, a generator wired
+ * to a local server, a listener that ignores everything, and builders for
+ * the SSE events DeepSeek streams. Tests change the config fields they are
+ * about and override the listener methods they record.
+ */
+final class StoryFixtures {
+    static final String SIGNATURE = "Hẹn gặp lại.";
+    static final String CHAT = "deepseek-chat";
+    static final String REASONER = "deepseek-reasoner";
+
+    private StoryFixtures() {
+    }
+
+    /** A short Vietnamese story on deepseek-chat, one pass unless the test allows more. */
+    static BackgroundStoryService.GenerationConfig config(String baseUrl) {
+        BackgroundStoryService.GenerationConfig config = new BackgroundStoryService.GenerationConfig();
+        config.apiKey = "test-key";
+        config.baseUrl = baseUrl;
+        config.model = CHAT;
+        config.temperature = 1.0;
+        config.topP = 0.95;
+        config.maxTokens = 1024;
+        config.storyMinWords = 10;
+        config.storyTargetWords = 300;
+        config.storyHardMaxWords = 1000;
+        config.storyContextWords = 50;
+        config.storyMaxPasses = 1;
+        config.outroSignature = SIGNATURE;
+        config.language = "vi";
+        config.topic = "";
+        return config;
+    }
+
+    static StoryGenerator generator(BackgroundStoryService.GenerationConfig config, int maxRetries, StoryGenerator.Listener listener) {
+        return generator(config, maxRetries, ConnectivityMonitor.ALWAYS_ONLINE, listener);
+    }
+
+    /** Retries back off 10 to 50 ms with a fixed seed, so a test with retries stays fast and repeatable. */
+    static StoryGenerator generator(
+        BackgroundStoryService.GenerationConfig config,
+        int maxRetries,
+        ConnectivityMonitor connectivity,
+        StoryGenerator.Listener listener
+    ) {
+        OkHttpClient client = new OkHttpClient.Builder().readTimeout(5, TimeUnit.SECONDS).build();
+        RetryPolicy policy = new RetryPolicy(maxRetries, 10, 50, 5000, new Random(7));
+        return new StoryGenerator(client, config, policy, connectivity, listener);
+    }
+
+    /** Ignores every callback; tests override the ones they look at. */
+    static class QuietListener implements StoryGenerator.Listener {
+        @Override
+        public void onText(String text, int offset) {
+        }
+
+        @Override
+        public void onPassStart(int passIndex, boolean emergency, int offset) {
+        }
+
+        @Override
+        public void onPassEnd(int passIndex) {
+        }
+
+        @Override
+        public void onReasoning(int passIndex, String text) {
+        }
+
+        @Override
+        public void onRetry(int attempt, long delayMs, String reason, boolean offline) {
+        }
+
+        @Override
+        public void onStall(int passIndex, String reason, long idleMs, boolean willRetry) {
+        }
+    }
+
+    static MockResponse sse(String body) {
+        return new MockResponse().setHeader("Content-Type", "text/event-stream").setBody(body);
+    }
+
+    static String event(String content) {
+        return "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":" + JSONObject.quote(content) + "}}]}\n\n";
+    }
+
+    /** A reasoner's thinking delta, which carries no content. */
+    static String thinking(String reasoning) {
+        return "data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":null,\"reasoning_content\":" +
+            JSONObject.quote(reasoning) + "}}]}\n\n";
+    }
+
+    static String usage(long completionTokens, long reasoningTokens) {
+        return "data: {\"choices\":[],\"usage\":{\"prompt_tokens\":100,\"completion_tokens\":" + completionTokens +
+            ",\"completion_tokens_details\":{\"reasoning_tokens\":" + reasoningTokens + "}}}\n\n";
+    }
+
+    static String finish() {
+        return "data: {\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"stop\"}]}\n\ndata: [DONE]\n\n";
+    }
+
+    /** The request's JSON payload; reading it consumes the recorded body. */
+    static JSONObject payload(RecordedRequest request) throws JSONException {
+        return new JSONObject(request.getBody().readUtf8());
+    }
+
+    /** The last message of a request, i.e. the pass prompt. */
+    static String prompt(RecordedRequest request) throws JSONException {
+        return lastMessage(payload(request));
+    }
+
+    static String lastMessage(JSONObject payload) throws JSONException {
+        JSONArray messages = payload.getJSONArray("messages");
+        return messages.getJSONObject(messages.length() - 1).getString("content");
+    }
+}
@@ -0,0 +1,214 @@
+package com.radio.nocturne.background;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static com.radio.nocturne.background.StoryFixtures.SIGNATURE;
+import static com.radio.nocturne.background.StoryFixtures.event;
+import static com.radio.nocturne.background.StoryFixtures.finish;
+import static com.radio.nocturne.background.StoryFixtures.prompt;
+import static com.radio.nocturne.background.StoryFixtures.sse;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import okhttp3.mockwebserver.SocketPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Drives StoryGenerator against a local SSE server that drops connections,
+ * rate limits and fails, and checks what is retried and how a broken pass
+ * is resumed.
+ */
+public class StoryGeneratorRetryTest {
+    private MockWebServer server;
+    private final List<String> retries = new ArrayList<>();
+    private final List<Long> retryDelays = new ArrayList<>();
+    private final List<Boolean> retryOffline = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new MockWebServer();
+        server.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        server.shutdown();
+    }
+
+    @Test
+    public void streamClosedWithoutFinishIsResumedFromReceivedText() throws Exception {
+        server.enqueue(sse(event("Tôi nghe tiếng gõ cửa.\n") + event("Không ai trả lời.\n")));
+        server.enqueue(sse(event("Tôi mở cửa.\n") + event(SIGNATURE) + finish()));
+
+        StoryBuffer story = new StoryBuffer();
+        assertTrue(generator(ConnectivityMonitor.ALWAYS_ONLINE).run(story));
+
+        assertEquals(
+            "Tôi nghe tiếng gõ cửa.\nKhông ai trả lời.\nTôi mở cửa.\n" + SIGNATURE,
+            story.snapshot()
+        );
+        assertEquals(1, retries.size());
+        assertEquals(2, server.getRequestCount());
+        server.takeRequest();
+        String resumedPrompt = prompt(server.takeRequest());
+        assertTrue(resumedPrompt.contains("CONTINUATION MODE"));
+        assertTrue(resumedPrompt.contains("Tôi nghe tiếng gõ cửa. Không ai trả lời."));
+    }
+
+    @Test
+    public void connectionDroppedMidStreamKeepsPartialPass() throws Exception {
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 200; i++) padding.append(": keep-alive padding\n");
+        server.enqueue(
+            sse(event("Đèn hành lang nhấp nháy.\n") + padding)
+                .setSocketPolicy(SocketPolicy.DISCONNECT_DURING_RESPONSE_BODY)
+        );
+        server.enqueue(sse(event("Rồi tắt hẳn.\n") + event(SIGNATURE) + finish()));
+
+        StoryBuffer story = new StoryBuffer();
+        assertTrue(generator(ConnectivityMonitor.ALWAYS_ONLINE).run(story));
+
+        assertEquals("Đèn hành lang nhấp nháy.\nRồi tắt hẳn.\n" + SIGNATURE, story.snapshot());
+        assertEquals(1, retries.size());
+        server.takeRequest();
+        assertTrue(prompt(server.takeRequest()).contains("Đèn hành lang nhấp nháy."));
+    }
+
+    @Test
+    public void rateLimitWaitsForRetryAfter() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(429).setHeader("Retry-After", "1").setBody("slow down"));
+        server.enqueue(sse(event("Xong. " + SIGNATURE) + finish()));
+
+        StoryBuffer story = new StoryBuffer();
+        long start = System.nanoTime();
+        assertTrue(generator(ConnectivityMonitor.ALWAYS_ONLINE).run(story));
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+
+        assertEquals("Xong. " + SIGNATURE, story.snapshot());
+        assertEquals("HTTP 429", retries.get(0));
+        assertTrue(retryDelays.get(0) >= 1000);
+        assertTrue(elapsedMs >= 1000);
+        // Nothing streamed before the 429, so the original prompt is sent again.
+        server.takeRequest();
+        assertFalse(prompt(server.takeRequest()).contains("CONTINUATION MODE"));
+    }
+
+    @Test
+    public void authErrorIsNotRetried() throws Exception {
+        server.enqueue(new MockResponse().setResponseCode(401).setBody("{\"error\":\"bad key\"}"));
+        try {
+            generator(ConnectivityMonitor.ALWAYS_ONLINE).run(new StoryBuffer());
+            fail("expected StoryApiException");
+        } catch (StoryApiException e) {
+            assertEquals(401, e.code);
+        }
+        assertEquals(1, server.getRequestCount());
+        assertTrue(retries.isEmpty());
+    }
+
+    @Test
+    public void serverErrorsGiveUpAfterMaxAttempts() throws Exception {
+        for (int i = 0; i < 5; i++) {
+            server.enqueue(new MockResponse().setResponseCode(503).setBody("busy"));
+        }
+        try {
+            generator(ConnectivityMonitor.ALWAYS_ONLINE).run(new StoryBuffer());
+            fail("expected StoryApiException");
+        } catch (StoryApiException e) {
+            assertEquals(503, e.code);
+        }
+        assertEquals(4, server.getRequestCount());
+        assertEquals(3, retries.size());
+    }
+
+    @Test
+    public void progressDoesNotBuyEndlessRetries() throws Exception {
+        // Every attempt streams a sentence, then the connection closes.
+        for (int i = 0; i < 10; i++) {
+            server.enqueue(sse(event("Đoạn " + i + ".\n")));
+        }
+        try {
+            generator(ConnectivityMonitor.ALWAYS_ONLINE).run(new StoryBuffer());
+            fail("expected IOException");
+        } catch (IOException e) {
+            assertEquals("Stream ended before the pass completed", e.getMessage());
+        }
+        // Three retries, plus the three failures forgiven for progress.
+        assertEquals(7, server.getRequestCount());
+        assertEquals(6, retries.size());
+    }
+
+    @Test
+    public void retryWaitsWhileOffline() throws Exception {
+        FakeConnectivity connectivity = new FakeConnectivity();
+        server.enqueue(new MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START));
+        server.enqueue(sse(event("Mạng đã trở lại. " + SIGNATURE) + finish()));
+        connectivity.online = false;
+        new Thread(() -> {
+            sleepQuietly(200);
+            connectivity.setOnline(true);
+        }).start();
+
+        StoryBuffer story = new StoryBuffer();
+        assertTrue(generator(connectivity).run(story));
+
+        assertEquals("Mạng đã trở lại. " + SIGNATURE, story.snapshot());
+        assertEquals(Boolean.TRUE, retryOffline.get(0));
+    }
+
+    @Test
+    public void parsesRetryAfterSecondsAndDates() {
+        assertEquals(2000, RetryPolicy.parseRetryAfter("2", 0));
+        assertEquals(-1, RetryPolicy.parseRetryAfter("soon", 0));
+        long now = 784111777000L - 5000; // Sun, 06 Nov 1994 08:49:37 GMT minus 5 s
+        assertEquals(5000, RetryPolicy.parseRetryAfter("Sun, 06 Nov 1994 08:49:37 GMT", now));
+    }
+
+    private StoryGenerator generator(ConnectivityMonitor connectivity) {
+        BackgroundStoryService.GenerationConfig config = StoryFixtures.config(server.url("/v1").toString());
+        config.storyTargetWords = 100;
+        return StoryFixtures.generator(config, 3, connectivity, new StoryFixtures.QuietListener() {
+            @Override
+            public void onRetry(int attempt, long delayMs, String reason, boolean offline) {
+                retries.add(reason);
+                retryDelays.add(delayMs);
+                retryOffline.add(offline);
+            }
+        });
+    }
+
+    private static void sleepQuietly(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class FakeConnectivity implements ConnectivityMonitor {
+        volatile boolean online = true;
+
+        synchronized void setOnline(boolean value) {
+            online = value;
+            notifyAll();
+        }
+
+        @Override
+        public boolean isOnline() {
+            return online;
+        }
+
+        @Override
+        public synchronized boolean awaitOnline(long timeoutMs) throws InterruptedException {
+            if (!online) wait(timeoutMs);
+            return online;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.radio.nocturne.background;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import okhttp3.OkHttpClient;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+/**
+ * End-to-end generation throughput offline: StoryGenerator streams recorded
+ * passes from a local replay server. Each run's wall time, CPU time,
+ * allocations and callback counts are written to build/replay/results.txt.
+ *
+ * Fixtures are the JSON files under src/test/resources/replay, plus a
+ * synthetic one. Recording a new fixture makes paid requests to the live
+ * API, so it only runs when asked for:
+ *   DEEPSEEK_API_KEY=... ./gradlew :app:testDebugUnitTest -PreplayRecord --tests '*StreamReplayBenchmark.recordLiveStory'
+ * Copy the file it writes to app/build/replay into src/test/resources/replay.
+ */
+public class StreamReplayBenchmark {
+    private static final File RESULTS = new File("build/replay/results.txt");
+    private static final List<String> REPORTS = Collections.synchronizedList(new ArrayList<>());
+
+    @AfterClass
+    public static void writeResults() throws IOException {
+        RESULTS.getParentFile().mkdirs();
+        Files.write(RESULTS.toPath(), REPORTS, StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void maxSpeedReplayDeliversTheRecordedStory() throws Exception {
+        for (SseFixture fixture : fixtures()) {
+            ReplayHarness.Report report = ReplayHarness.run(fixture, SseReplayServer.Options.maxSpeed());
+            addResult(fixture, "max speed", report);
+
+            assertTrue(report.completed);
+            assertTrue(report.text.endsWith(fixture.config.getString("outroSignature")));
+            assertEquals(fixture.passes.size(), report.requests);
+            assertEquals(0, report.retries);
+            assertTrue(report.words >= fixture.config.getInt("storyMinWords"));
+            // Deltas reach the plugin batched.
+            assertTrue(report.chunkCallbacks.get() > 0);
+            assertTrue(report.chunkCallbacks.get() < report.textCallbacks);
+        }
+    }
+
+    @Test
+    public void scaledReplayFollowsTheRecordedTimeline() throws Exception {
+        SseFixture fixture = SseFixture.synthetic(400, 3);
+        double speed = 4;
+        long recordedMs = 0;
+        for (SseFixture.Pass pass : fixture.passes) {
+            recordedMs += pass.events.get(pass.events.size() - 1).atMs;
+        }
+
+        ReplayHarness.Report report = ReplayHarness.run(fixture, SseReplayServer.Options.recorded().speed(speed));
+        addResult(fixture, "recorded x" + speed, report);
+
+        assertTrue(report.completed);
+        assertTrue(report.wallMs >= recordedMs / speed * 0.9);
+        assertEquals(ReplayHarness.run(fixture, SseReplayServer.Options.maxSpeed()).text, report.text);
+    }
+
+    @Test
+    public void injectedFaultsChangeTimingButNotTheStory() throws Exception {
+        SseFixture fixture = SseFixture.synthetic(400, 5);
+        String clean = ReplayHarness.run(fixture, SseReplayServer.Options.maxSpeed()).text;
+
+        SseReplayServer.Options faults = SseReplayServer.Options.maxSpeed()
+            .latency(40)
+            .jitter(2)
+            .drop(60, 2)
+            .drip(16, 0)
+            .seed(11);
+        ReplayHarness.Report report = ReplayHarness.run(fixture, faults);
+        addResult(fixture, "latency+jitter+drops+drip", report);
+
+        assertTrue(report.completed);
+        assertEquals(clean, report.text);
+        assertEquals(2, report.retries);
+        assertEquals(fixture.passes.size() + 2, report.requests);
+    }
+
+    @Test
+    public void byteAtATimeDripStillStreams() throws Exception {
+        SseFixture fixture = SseFixture.synthetic(200, 9);
+        ReplayHarness.Report report = ReplayHarness.run(fixture, SseReplayServer.Options.maxSpeed().drip(1, 0));
+        addResult(fixture, "1-byte drip", report);
+
+        assertTrue(report.completed);
+        assertEquals(ReplayHarness.run(fixture, SseReplayServer.Options.maxSpeed()).text, report.text);
+    }
+
+    /** Records a real generation; skipped unless -Dreplay.record=true and DEEPSEEK_API_KEY are set. */
+    @Test
+    public void recordLiveStory() throws Exception {
+        String apiKey = System.getenv("DEEPSEEK_API_KEY");
+        assumeTrue(Boolean.getBoolean("replay.record") && apiKey != null && !apiKey.isEmpty());
+
+        SseFixture template = SseFixture.synthetic(400, 1);
+        BackgroundStoryService.GenerationConfig config = template.toConfig("https://api.deepseek.com");
+        config.apiKey = apiKey;
+        config.model = envOr("DEEPSEEK_MODEL", "deepseek-chat");
+        config.storyMinWords = 800;
+        config.storyTargetWords = 1200;
+        config.storyHardMaxWords = 3000;
+        SseFixture fixture = new SseFixture("live", SseFixture.describe(config));
+        OkHttpClient client = HttpClientHolder.client().newBuilder()
+            .addNetworkInterceptor(new SseRecorder(fixture))
+            .build();
+        RetryPolicy policy = new RetryPolicy(0, 1000, 1000, 0, new Random());
+        StoryGenerator generator = new StoryGenerator(client, config, policy, ConnectivityMonitor.ALWAYS_ONLINE,
+            new StoryFixtures.QuietListener());
+        assertTrue(generator.run(new StoryBuffer()));
+
+        File out = new File("build/replay/story-" + System.currentTimeMillis() + ".json");
+        fixture.write(out);
+        try (InputStream in = new FileInputStream(out)) {
+            assertEquals(fixture.passes.size(), SseFixture.read(out.getName(), in).passes.size());
+        }
+        REPORTS.add("recorded " + fixture.passes.size() + " passes to " + out.getAbsolutePath());
+    }
+
+    private static List<SseFixture> fixtures() throws Exception {
+        List<SseFixture> fixtures = new ArrayList<>();
+        URL dir = StreamReplayBenchmark.class.getClassLoader().getResource("replay");
+        File[] files = dir != null && "file".equals(dir.getProtocol())
+            ? new File(dir.toURI()).listFiles((d, name) -> name.endsWith(".json"))
+            : null;
+        if (files != null) {
+            for (File file : files) {
+                try (InputStream in = new FileInputStream(file)) {
+                    fixtures.add(SseFixture.read(file.getName(), in));
+                }
+            }
+        }
+        fixtures.add(SseFixture.synthetic(400, 3));
+        return fixtures;
+    }
+
+    private static void addResult(SseFixture fixture, String mode, ReplayHarness.Report report) {
+        REPORTS.add(fixture.name + ", " + mode + ": " + report);
+    }
+
+    private static String envOr(String name, String fallback) {
+        String value = System.getenv(name);
+        return value != null && !value.isEmpty() ? value : fallback;
+    }
+}
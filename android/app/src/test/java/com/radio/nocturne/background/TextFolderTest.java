@@ -0,0 +1,51 @@
+package com.radio.nocturne.background;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks that case, diacritics, quote variants and the typographic spaces
+ * fold away, so keywords and the signature match however the model
+ * typesets them.
+ */
+public class TextFolderTest {
+    @Test
+    public void foldsCaseAndDiacritics() {
+        assertEquals("dem ngon giac", TextFolder.fold("Đêm Ngon Giấc"));
+        // Decomposed: e, combining circumflex, combining acute.
+        assertEquals("dem", TextFolder.fold("\u0110e\u0302\u0301m"));
+    }
+
+    @Test
+    public void foldsQuoteVariantsToAscii() {
+        assertEquals("i'm morgan", TextFolder.fold("I’m Morgan"));
+        assertEquals("i'm morgan", TextFolder.fold("I‘m Morgan"));
+        assertEquals("i'm morgan", TextFolder.fold("Iʼm Morgan"));
+        assertEquals("i'm morgan", TextFolder.fold("I＇m Morgan"));
+        assertEquals("\"sleep well\"", TextFolder.fold("“Sleep well”"));
+        assertEquals("\"sleep well\"", TextFolder.fold("„Sleep well‟"));
+        assertEquals("\"sleep well\"", TextFolder.fold("«Sleep well»"));
+    }
+
+    @Test
+    public void foldsEverySpaceToOne() {
+        // No-break, narrow no-break and ideographic spaces, and a line separator.
+        assertEquals("dem ngon giac", TextFolder.fold("\u00A0Đêm\u202FNgon\u3000\u2028Giấc"));
+        for (char c = '\u2000'; c <= '\u200A'; c++) assertEquals(' ', TextFolder.fold(c));
+        assertEquals(' ', TextFolder.fold('\u202F'));
+        assertEquals(' ', TextFolder.fold('\u3000'));
+    }
+
+    @Test
+    public void typesetSignatureStillMatches() {
+        EndingDetector detector = new EndingDetector(
+            EndingKeywords.forLanguage("en"),
+            "I'm Morgan Hayes, and this is Late Night Story Radio signing off."
+        );
+        detector.feed("The door closed behind me.\n\nI’m Morgan Hayes, and this is");
+        detector.feed(" Late Night Story Radio signing off.");
+        assertTrue(detector.hasOutroSignature());
+    }
+}
@@ -0,0 +1,193 @@
+package com.radio.nocturne.background;
+
+import java.io.IOException;
+import java.util.Locale;
+import okio.Buffer;
+import okio.BufferedSource;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * The text helpers as BackgroundStoryService had them before the streaming
+ * rewrites, kept verbatim so every benchmark has a baseline to beat. This
+ * is the only copy; each benchmark's setup fails when the current path
+ * gives a different result.
+ */
+final class LegacyTextPaths {
+    private LegacyTextPaths() {}
+
+    static int countWords(String text) {
+        String trimmed = text == null ? "" : text.trim();
+        if (trimmed.isEmpty()) return 0;
+        String normalized = trimmed.replaceAll("\\s+", " ");
+        return normalized.split(" ").length;
+    }
+
+    static String getContextSnippet(String text, int maxWords) {
+        if (text == null || text.trim().isEmpty()) return "";
+        String[] words = text.trim().replaceAll("\\s+", " ").split(" ");
+        if (words.length <= maxWords) {
+            StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < words.length; i++) {
+                if (i > 0) sb.append(" ");
+                sb.append(words[i]);
+            }
+            return sb.toString();
+        }
+        int start = Math.max(0, words.length - maxWords);
+        StringBuilder builder = new StringBuilder();
+        for (int i = start; i < words.length; i++) {
+            if (i > start) builder.append(" ");
+            builder.append(words[i]);
+        }
+        return builder.toString();
+    }
+
+    static boolean isApproachingEnding(String text) {
+        if (text == null || text.length() < 1000) return false;
+        String tail = text.substring(text.length() - 800).toLowerCase(Locale.ROOT);
+
+        String[] hostKeywords = {
+            "tôi là morgan",
+            "đây là morgan",
+            "morgan hayes",
+            "radio truyện đêm khuya",
+            "lời cảnh tỉnh",
+            "kết thúc bản ghi",
+            "bản ghi âm dừng lại",
+            "tín hiệu biến mất",
+            "chúc các bạn",
+            "đêm ngon giấc"
+        };
+
+        for (String kw : hostKeywords) {
+            if (tail.contains(kw)) return true;
+        }
+        return false;
+    }
+
+    static boolean hasOutroSignature(String text, String signature) {
+        if (text == null || signature == null || signature.isEmpty()) return false;
+        String trimmed = text.trim();
+        if (trimmed.isEmpty()) return false;
+
+        if (trimmed.contains(signature)) return true;
+
+        String tail = trimmed.substring(Math.max(0, trimmed.length() - 1000)).toLowerCase(Locale.ROOT);
+
+        boolean hasHostName = tail.contains("morgan hayes");
+        boolean hasStationName = tail.contains("radio truyện đêm khuya");
+
+        if (hasHostName || hasStationName) {
+            String[] specificClosingSignals = {
+                "xin phép được tạm dừng tại đây",
+                "đêm ngon giấc nếu còn có thể",
+                "chúc các bạn có một đêm ngon giấc"
+            };
+
+            for (String signal : specificClosingSignals) {
+                if (tail.contains(signal)) return true;
+            }
+        }
+
+        return false;
+    }
+
+    static String truncateAfterSignature(String text, String signature) {
+        if (text == null || text.isEmpty() || signature == null || signature.isEmpty()) return text;
+        int idx = text.lastIndexOf(signature);
+        if (idx < 0) return text;
+        int end = idx + signature.length();
+        if (end >= text.length()) return text;
+        return text.substring(0, end);
+    }
+
+    static String extractTextFromJson(String raw) {
+        if (raw == null || raw.isEmpty()) return "";
+        try {
+            JSONObject parsed = new JSONObject(raw);
+            JSONObject choice = parsed.optJSONArray("choices") != null
+                ? parsed.optJSONArray("choices").optJSONObject(0)
+                : null;
+            if (choice != null) {
+                JSONObject delta = choice.optJSONObject("delta");
+                if (delta != null && delta.has("content")) {
+                    return safeJsonString(delta, "content");
+                }
+                JSONObject message = choice.optJSONObject("message");
+                if (message != null && message.has("content")) {
+                    return safeJsonString(message, "content");
+                }
+                if (choice.has("text")) {
+                    return safeJsonString(choice, "text");
+                }
+            }
+            JSONArray output = parsed.optJSONArray("output");
+            if (output != null && output.length() > 0) {
+                JSONObject outputItem = output.optJSONObject(0);
+                if (outputItem != null) {
+                    JSONArray content = outputItem.optJSONArray("content");
+                    if (content != null && content.length() > 0) {
+                        JSONObject contentItem = content.optJSONObject(0);
+                        if (contentItem != null) {
+                            return safeJsonString(contentItem, "text");
+                        }
+                    }
+                }
+            }
+        } catch (JSONException ignored) {
+        }
+        return "";
+    }
+
+    private static String safeJsonString(JSONObject obj, String key) {
+        if (obj == null || key == null || !obj.has(key) || obj.isNull(key)) return "";
+        String value = obj.optString(key, "");
+        return "null".equalsIgnoreCase(value) ? "" : value;
+    }
+
+    /** The old event loop without the signature check: readUtf8Line, a regex for "data:" and org.json per event. */
+    static String decodeStream(byte[] stream) throws IOException {
+        BufferedSource source = new Buffer().write(stream);
+        StringBuilder out = new StringBuilder();
+        while (!source.exhausted()) {
+            String line = source.readUtf8Line();
+            if (line == null) break;
+            line = line.trim();
+            if (!line.startsWith("data:")) continue;
+            String jsonStr = line.replaceFirst("^data:\\s*", "");
+            if ("[DONE]".equals(jsonStr)) break;
+            out.append(extractTextFromJson(jsonStr));
+        }
+        return out.toString();
+    }
+
+    /**
+     * The old pass loop: readUtf8Line, strip "data:" with a regex, parse each
+     * event with org.json and look for the signature in everything generated
+     * so far after every delta.
+     */
+    static String readStream(byte[] stream, String signature) throws IOException {
+        BufferedSource source = new Buffer().write(stream);
+        StringBuilder passGenerated = new StringBuilder();
+        while (!source.exhausted()) {
+            String line = source.readUtf8Line();
+            if (line == null) break;
+            line = line.trim();
+            if (!line.startsWith("data:")) continue;
+            String jsonStr = line.replaceFirst("^data:\\s*", "");
+            if ("[DONE]".equals(jsonStr)) break;
+            String text = extractTextFromJson(jsonStr);
+            if (text != null && !text.isEmpty()) {
+                passGenerated.append(text);
+                int idx = passGenerated.lastIndexOf(signature);
+                if (idx >= 0) {
+                    passGenerated.setLength(idx + signature.length());
+                    break;
+                }
+            }
+        }
+        return passGenerated.toString();
+    }
+}
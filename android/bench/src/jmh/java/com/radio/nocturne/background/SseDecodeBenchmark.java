@@ -0,0 +1,63 @@
+package com.radio.nocturne.background;
+
+import com.radio.nocturne.bench.StoryCorpus;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * SSE framing and delta extraction alone, without the signature check, over
+ * a stream of EVENTS token events. One operation is one event, so the score
+ * reads as events per second and gc.alloc.rate.norm as bytes per event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(SseDecodeBenchmark.EVENTS)
+public class SseDecodeBenchmark {
+    static final int EVENTS = 10_000;
+
+    @Param({"vi", "en"})
+    public String language;
+
+    private byte[] stream;
+
+    @Setup
+    public void setUp() throws IOException {
+        StoryCorpus corpus = StoryCorpus.generate(language, 50_000, 42);
+        List<String> deltas = corpus.deltas(7);
+        if (deltas.size() < EVENTS) throw new IllegalStateException(deltas.size() + " deltas, need " + EVENTS);
+        stream = corpus.sseStream(deltas.subList(0, EVENTS));
+        if (!LegacyTextPaths.decodeStream(stream).equals(decodeCurrent())) {
+            throw new IllegalStateException("decoder and legacy path disagree on the " + language + " stream");
+        }
+    }
+
+    @Benchmark
+    public String decodeLegacy() throws IOException {
+        return LegacyTextPaths.decodeStream(stream);
+    }
+
+    @Benchmark
+    public String decodeCurrent() throws IOException {
+        SseEventDecoder events = new SseEventDecoder(new Buffer().write(stream));
+        StreamDeltaScanner delta = new StreamDeltaScanner();
+        StringBuilder out = new StringBuilder();
+        while (events.next() == SseEventDecoder.EVENT) {
+            if (delta.scan(events.data(), 0, events.length()) && delta.content != null) {
+                out.append(delta.content);
+            }
+        }
+        return out.toString();
+    }
+}
@@ -0,0 +1,116 @@
+package com.radio.nocturne.background;
+
+import com.radio.nocturne.bench.StoryCorpus;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per-call cost of the story text helpers on a finished story, legacy
+ * against current. The legacy ending checks and word count ran on the full
+ * text once per pass; the current detector is fed every delta once, so
+ * endingDetectorFeed is the cost of a whole story, not of one check.
+ * endingDetectorBuild isolates the keyword automaton built once per run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class StoryTextBenchmark {
+    private static final int CONTEXT_WORDS = 320;
+
+    @Param({"vi", "en"})
+    public String language;
+
+    @Param({"2000", "10000", "50000"})
+    public int words;
+
+    private String text;
+    private String signature;
+    private List<String> deltas;
+    private StoryBuffer buffer;
+    private EndingKeywords keywords;
+
+    @Setup
+    public void setUp() {
+        StoryCorpus corpus = StoryCorpus.generate(language, words, 42);
+        text = corpus.text;
+        signature = corpus.signature;
+        deltas = corpus.deltas(7);
+        buffer = new StoryBuffer();
+        buffer.append(text);
+        keywords = EndingKeywords.forLanguage(language);
+
+        // Each pair below must give the same answer, or the numbers compare different work.
+        same(countWordsLegacy() == countWordsStreaming(), "countWords");
+        same(contextSnippetLegacy().equals(contextSnippetTail()), "context snippet");
+        same(endingChecksLegacy() == endingDetectorFeed(), "ending checks");
+        int cut = signatureMatcherFeed();
+        same(cut >= 0 && truncateAfterSignatureLegacy().equals(text.substring(0, cut)), "signature cut");
+    }
+
+    @Benchmark
+    public int countWordsLegacy() {
+        return LegacyTextPaths.countWords(text);
+    }
+
+    @Benchmark
+    public int countWordsStreaming() {
+        return StreamingWordCounter.countWords(text);
+    }
+
+    @Benchmark
+    public String contextSnippetLegacy() {
+        return LegacyTextPaths.getContextSnippet(text, CONTEXT_WORDS);
+    }
+
+    @Benchmark
+    public String contextSnippetTail() {
+        return buffer.tailExcerpt(CONTEXT_WORDS, StoryBuffer.BOUNDARY_NONE);
+    }
+
+    @Benchmark
+    public String contextSnippetTailSentence() {
+        return buffer.tailExcerpt(CONTEXT_WORDS, StoryBuffer.BOUNDARY_SENTENCE);
+    }
+
+    @Benchmark
+    public boolean endingChecksLegacy() {
+        return LegacyTextPaths.isApproachingEnding(text) | LegacyTextPaths.hasOutroSignature(text, signature);
+    }
+
+    @Benchmark
+    public EndingDetector endingDetectorBuild() {
+        return new EndingDetector(keywords, signature);
+    }
+
+    @Benchmark
+    public boolean endingDetectorFeed() {
+        EndingDetector detector = new EndingDetector(keywords, signature);
+        for (int i = 0; i < deltas.size(); i++) {
+            detector.feed(deltas.get(i));
+        }
+        return detector.isApproachingEnding() | detector.hasOutroSignature();
+    }
+
+    @Benchmark
+    public String truncateAfterSignatureLegacy() {
+        return LegacyTextPaths.truncateAfterSignature(text, signature);
+    }
+
+    @Benchmark
+    public int signatureMatcherFeed() {
+        SignatureMatcher matcher = new SignatureMatcher(signature);
+        return matcher.feed(text);
+    }
+
+    private void same(boolean same, String what) {
+        if (!same) throw new IllegalStateException(what + ": legacy and current disagree on " + language + "/" + words);
+    }
+}
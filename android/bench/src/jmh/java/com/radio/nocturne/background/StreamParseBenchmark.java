@@ -0,0 +1,69 @@
+package com.radio.nocturne.background;
+
+import com.radio.nocturne.bench.StoryCorpus;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import okio.Buffer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Decoding a whole streamed story: SSE framing, JSON delta extraction and
+ * the signature check. The legacy path is readUtf8Line + regex + org.json
+ * (extractTextFromJson) with a lastIndexOf over everything generated after
+ * each delta; the current one is SseEventDecoder + StreamDeltaScanner +
+ * SignatureMatcher. The legacy per-delta countWords of the whole text is
+ * left out: on its own it turns a 50k-word run into minutes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class StreamParseBenchmark {
+    @Param({"vi", "en"})
+    public String language;
+
+    @Param({"2000", "10000", "50000"})
+    public int words;
+
+    private byte[] stream;
+    private String signature;
+
+    @Setup
+    public void setUp() throws IOException {
+        StoryCorpus corpus = StoryCorpus.generate(language, words, 42);
+        stream = corpus.sseStream(corpus.deltas(7));
+        signature = corpus.signature;
+        if (!streamLegacy().equals(streamDecoder())) {
+            throw new IllegalStateException("legacy and current disagree on " + language + "/" + words);
+        }
+    }
+
+    @Benchmark
+    public String streamLegacy() throws IOException {
+        return LegacyTextPaths.readStream(stream, signature);
+    }
+
+    @Benchmark
+    public String streamDecoder() throws IOException {
+        SseEventDecoder events = new SseEventDecoder(new Buffer().write(stream));
+        StreamDeltaScanner delta = new StreamDeltaScanner();
+        SignatureMatcher matcher = new SignatureMatcher(signature);
+        StringBuilder out = new StringBuilder();
+        while (events.next() == SseEventDecoder.EVENT) {
+            if (!delta.scan(events.data(), 0, events.length()) || delta.content == null) continue;
+            int cut = matcher.feed(delta.content);
+            if (cut >= 0) {
+                out.append(delta.content, 0, cut);
+                break;
+            }
+            out.append(delta.content);
+        }
+        return out.toString();
+    }
+}
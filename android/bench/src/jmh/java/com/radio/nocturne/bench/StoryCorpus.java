@@ -0,0 +1,177 @@
+package com.radio.nocturne.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic story text shaped like what the model streams: a host
+ * intro, paragraphs of narration and dialogue separated by line breaks,
+ * and the outro signature at the very end. The same seed always yields the
+ * same text, so runs are comparable.
+ */
+public final class StoryCorpus {
+    public static final String SIGNATURE_VI =
+        "Tôi là Morgan Hayes, và radio Truyện Đêm Khuya xin phép được tạm dừng tại đây. "
+            + "Chúc các bạn có một đêm ngon giấc nếu còn có thể.";
+    public static final String SIGNATURE_EN =
+        "I'm Morgan Hayes, and Late Night Story Radio is signing off for tonight. "
+            + "Sleep well if you still can.";
+
+    private static final String[] INTRO_VI = {
+        "Chào các bạn, đây là Morgan Hayes trên sóng radio Truyện Đêm Khuya.",
+        "Câu chuyện đêm nay được gửi đến từ một thính giả ở Đà Lạt, người đã yêu cầu giấu tên.",
+    };
+    private static final String[] INTRO_EN = {
+        "Good evening, this is Morgan Hayes on Late Night Story Radio.",
+        "Tonight's story was sent in by a listener from a small town up north who asked to stay anonymous.",
+    };
+    private static final String[] NARRATION_VI = {
+        "Tôi nghe tiếng gõ cửa lúc ba giờ sáng.",
+        "Hành lang tối om, chỉ còn ánh đèn vàng nhấp nháy ở cuối dãy.",
+        "Không ai trả lời khi tôi hỏi.",
+        "Tờ biên lai vẫn nằm trên bàn, con dấu đỏ đã nhòe đi một nửa.",
+        "Tôi đếm lại số phòng, và lần này nó không còn khớp nữa.",
+        "Mùi ẩm mốc bốc lên từ sàn gỗ, như thể căn nhà vừa thở ra sau một giấc ngủ dài.",
+        "Chiếc đồng hồ treo tường dừng ở mười hai giờ kém năm, dù tôi nhớ rõ đã thay pin hôm qua.",
+        "Ngoài cửa sổ, sương mù phủ kín con dốc dẫn xuống thị trấn.",
+        "Bà chủ nhà trọ chưa bao giờ nhắc đến tầng ba, và tôi cũng chưa từng hỏi.",
+        "Có ai đó đã dời chiếc ghế khỏi chỗ cũ, để lại bốn vệt bụi mờ trên nền gạch.",
+        "Tôi ghi lại mọi thứ vào sổ, vì tôi bắt đầu không tin vào trí nhớ của chính mình.",
+        "Tiếng radio cũ trong bếp tự bật lên, rè rè giữa hai tần số.",
+    };
+    private static final String[] NARRATION_EN = {
+        "I heard the knock at three in the morning.",
+        "The hallway was dark except for a yellow bulb flickering at the far end.",
+        "Nobody answered when I called out.",
+        "The receipt was still on the desk, its red stamp half smeared.",
+        "I counted the rooms again, and this time the number was wrong.",
+        "A damp smell rose from the floorboards, as if the house had just exhaled after a long sleep.",
+        "The wall clock had stopped at five to twelve, although I was sure I had changed the battery yesterday.",
+        "Outside the window, fog swallowed the slope that led down to the town.",
+        "The landlady never mentioned the third floor, and I never asked.",
+        "Someone had moved the chair, leaving four faint streaks in the dust.",
+        "I wrote everything down, because I had started to distrust my own memory.",
+        "The old radio in the kitchen switched itself on, hissing between two stations.",
+    };
+    private static final String[] DIALOGUE_VI = {
+        "\"Ai đó?\" tôi hỏi, giọng khàn đi.",
+        "\"Đừng mở cửa sau nửa đêm,\" bà ấy dặn, không nhìn vào mắt tôi.",
+        "\"Anh có nghe thấy không?\" Lan thì thầm. \"Nó lại bắt đầu rồi.\"",
+        "\"Phòng đó không có ai ở cả,\" người bảo vệ nói. \"Từ năm chín mươi hai.\"",
+    };
+    private static final String[] DIALOGUE_EN = {
+        "\"Who's there?\" I asked, my voice cracking.",
+        "\"Don't open the door after midnight,\" she said, without meeting my eyes.",
+        "\"Can you hear it?\" Lan whispered. \"It's started again.\"",
+        "\"Nobody has lived in that room,\" the guard said. \"Not since ninety-two.\"",
+    };
+
+    public final String language;
+    public final String signature;
+    public final String text;
+
+    private StoryCorpus(String language, String signature, String text) {
+        this.language = language;
+        this.signature = signature;
+        this.text = text;
+    }
+
+    /** A story of roughly the given number of words; language is "vi" or "en". */
+    public static StoryCorpus generate(String language, int words, long seed) {
+        boolean english = "en".equals(language);
+        String[] intro = english ? INTRO_EN : INTRO_VI;
+        String[] narration = english ? NARRATION_EN : NARRATION_VI;
+        String[] dialogue = english ? DIALOGUE_EN : DIALOGUE_VI;
+        String signature = english ? SIGNATURE_EN : SIGNATURE_VI;
+        Random random = new Random(seed);
+
+        StringBuilder sb = new StringBuilder(words * 7);
+        for (String line : intro) sb.append(line).append(' ');
+        sb.setCharAt(sb.length() - 1, '\n');
+        int count = countWords(sb);
+        int target = words - countWords(signature);
+        while (count < target) {
+            int sentences = 2 + random.nextInt(5);
+            for (int i = 0; i < sentences && count < target; i++) {
+                String sentence = random.nextInt(5) == 0
+                    ? dialogue[random.nextInt(dialogue.length)]
+                    : narration[random.nextInt(narration.length)];
+                if (i > 0) sb.append(' ');
+                sb.append(sentence);
+                count += countWords(sentence);
+            }
+            sb.append(random.nextInt(3) == 0 ? "\n\n" : "\n");
+        }
+        sb.append(signature);
+        return new StoryCorpus(language, signature, sb.toString());
+    }
+
+    /**
+     * Splits the text into deltas of one to four words with their leading
+     * whitespace, about the granularity the API streams at.
+     */
+    public List<String> deltas(long seed) {
+        Random random = new Random(seed);
+        List<String> deltas = new ArrayList<>();
+        int start = 0;
+        int length = text.length();
+        while (start < length) {
+            int words = 1 + random.nextInt(4);
+            int end = start;
+            for (int w = 0; w < words && end < length; w++) {
+                while (end < length && Character.isWhitespace(text.charAt(end))) end++;
+                while (end < length && !Character.isWhitespace(text.charAt(end))) end++;
+            }
+            deltas.add(text.substring(start, end));
+            start = end;
+        }
+        return deltas;
+    }
+
+    /** The deltas framed as a DeepSeek chat.completion.chunk event stream. */
+    public byte[] sseStream(List<String> deltas) {
+        StringBuilder sb = new StringBuilder(text.length() * 3);
+        int index = 0;
+        for (String delta : deltas) {
+            if (index++ % 500 == 0) sb.append(": keep-alive\n\n");
+            sb.append("data: {\"id\":\"a1b2c3\",\"object\":\"chat.completion.chunk\",\"created\":1718000000,")
+                .append("\"model\":\"deepseek-chat\",\"system_fingerprint\":\"fp_1234\",\"choices\":[{\"index\":0,")
+                .append("\"delta\":{\"content\":\"");
+            appendJsonEscaped(sb, delta);
+            sb.append("\"},\"logprobs\":null,\"finish_reason\":null}]}\n\n");
+        }
+        sb.append("data: {\"choices\":[{\"index\":0,\"delta\":{\"content\":\"\"},\"finish_reason\":\"stop\"}],")
+            .append("\"usage\":{\"prompt_tokens\":1200,\"completion_tokens\":").append(deltas.size())
+            .append(",\"prompt_cache_hit_tokens\":1024,\"prompt_cache_miss_tokens\":176}}\n\n");
+        sb.append("data: [DONE]\n\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void appendJsonEscaped(StringBuilder sb, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                default: sb.append(c);
+            }
+        }
+    }
+
+    private static int countWords(CharSequence text) {
+        int count = 0;
+        boolean inWord = false;
+        for (int i = 0; i < text.length(); i++) {
+            if (Character.isWhitespace(text.charAt(i))) {
+                inWord = false;
+            } else if (!inWord) {
+                inWord = true;
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,43 @@
+package com.radio.nocturne.tts;
+
+import com.radio.nocturne.bench.StoryCorpus;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/** Splitting a whole story into continuous-playback utterances. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TtsChunkerBenchmark {
+    @Param({"vi", "en"})
+    public String language;
+
+    @Param({"2000", "10000", "50000"})
+    public int words;
+
+    private String text;
+
+    @Setup
+    public void setUp() {
+        text = StoryCorpus.generate(language, words, 42).text;
+    }
+
+    @Benchmark
+    public int chunkStory() {
+        int chunks = 0;
+        int start = 0;
+        while (true) {
+            int end = TtsChunker.computeChunkEnd(text, start);
+            if (end <= start) return chunks;
+            chunks++;
+            start = end;
+        }
+    }
+}
@@ -1,42 +1,239 @@
 import type { PluginListenerHandle } from '@capacitor/core';
 import { registerPlugin } from '@capacitor/core';
 
+export interface InterruptedStory {
+  jobId: string;
+  topic: string;
+  words: number;
+  newWords: number;
+  passes: number;
+  updatedAt: number;
+  stopped: boolean;
+  reason?: string | null;
+  hasApiKey: boolean;
+}
+
+export interface BackgroundStoryStartOptions {
+  apiKey: string;
+  baseUrl: string;
+  model: string;
+  temperature: number;
+  topP?: number;
+  maxTokens: number;
+  storyMinWords: number;
+  storyTargetWords: number;
+  storyHardMaxWords: number;
+  storyTimeoutMs: number;
+  /** Cut and retry a pass whose stream sends nothing for this long. Default 90 s; 0 disables. */
+  storyIdleTimeoutMs?: number;
+  /** Fail the whole generation after this long. Default 60 min; 0 disables. */
+  storyTotalTimeoutMs?: number;
+  storyContextWords: number;
+  storyContextBoundary?: 'none' | 'sentence' | 'paragraph';
+  storyMaxPasses: number;
+  /**
+   * 'outline' plans the story in one request, then writes storyChapters chapters
+   * concurrently (storyParallelism at a time) and streams them back in order.
+   * Default 'sequential'. A resumed story always continues sequentially.
+   */
+  storyPipeline?: 'sequential' | 'outline';
+  storyChapters?: number;
+  storyParallelism?: number;
+  /**
+   * Model cascade: `model` writes the opening (or outline); continuation and
+   * chapter passes move to storyFastModel once the model's measured time to
+   * first token exceeds storyReasonerBudgetMs (0 = always), and emergency
+   * outros always use it. Empty disables the cascade.
+   */
+  storyFastModel?: string;
+  storyReasonerBudgetMs?: number;
+  /** Forward reasoning_content as storyReasoning events at most this often. Default 1000; 0 = off. */
+  reasoningEventMs?: number;
+  /**
+   * Size max_tokens per pass from the remaining word budget and a learned
+   * tokens-per-word ratio, and finalize once the end is one pass away. Default true.
+   */
+  storyAdaptiveBudget?: boolean;
+  /** Words of a short first pass (on storyFastModel when set) so audio starts within seconds. Default 0 = off. */
+  storyFastStartWords?: number;
+  /**
+   * Completions provider: 'deepseek' (default), 'openai' for any
+   * OpenAI-compatible /chat/completions server at baseUrl, or 'offline' for a
+   * deterministic in-process stub that needs no network or API key.
+   */
+  storyBackend?: 'deepseek' | 'openai' | 'offline';
+  /** Streaming speed of the offline stub. Default 40; 0 = as fast as possible. */
+  storyStubTokensPerSecond?: number;
+  /**
+   * Cut a pass that starts looping or drifts out of `language`, and re-issue
+   * it with a corrective prompt. Default true.
+   */
+  storyDegenerationGuard?: boolean;
+  retryMaxAttempts?: number;
+  retryBaseDelayMs?: number;
+  retryMaxDelayMs?: number;
+  offlineWaitMs?: number;
+  chunkFlushMs?: number;
+  chunkFlushChars?: number;
+  horrorLevel: number;
+  narrativeStyle: string;
+  storyEngine?: string;
+  storyRevealMethod?: string;
+  storyEndingMode?: string;
+  storyTone?: string;
+  storyProtagonistName?: string;
+  storyProtagonistRole?: string;
+  storyPrimarySetting?: string;
+  storyEvidenceOrigin?: string;
+  storyKeyMotif?: string;
+  storyIntroMood?: string;
+  outroSignature: string;
+  useStopSequence?: boolean;
+  language: string;
+  endingApproachKeywords?: string[];
+  endingHostNames?: string[];
+  endingStationNames?: string[];
+  endingClosingSignals?: string[];
+  topic: string;
+  existingText: string;
+}
+
+export interface StationStatus {
+  active: boolean;
+  depth: number;
+  capacity?: number;
+  lowWater?: number;
+  generating: boolean;
+  currentWords?: number;
+  etaMs: number;
+  averageGenerationMs?: number;
+  lastError?: string | null;
+}
+
+export interface StationStory {
+  id: string;
+  topic: string;
+  text: string;
+  words: number;
+  generationMs: number;
+}
+
+export interface StoryTokenUsage {
+  promptTokens: number;
+  completionTokens: number;
+  promptCacheHitTokens: number;
+  promptCacheMissTokens: number;
+  reasoningTokens: number;
+  cacheHitRatio: number;
+  passes: number;
+}
+
+export interface StoryPassMetrics {
+  passIndex: number;
+  attempt: number;
+  emergency: boolean;
+  finalizing: boolean;
+  model?: string | null;
+  maxTokens: number;
+  requestSentAt: number;
+  httpStatus: number;
+  connectionReused: boolean;
+  connectionSetupMs: number;
+  timeToFirstByteMs: number;
+  timeToFirstTokenMs: number;
+  durationMs: number;
+  maxGapMs: number;
+  deltas: number;
+  chars: number;
+  charsPerSecond: number;
+  finishReason?: string | null;
+  endReason:
+    | 'signature'
+    | 'hard_max'
+    | 'timeout'
+    | 'stalled'
+    | 'done'
+    | 'stream_closed'
+    | 'dropped'
+    | 'http_error'
+    | 'error'
+    | 'cancelled'
+    | 'degenerate';
+  error?: string | null;
+  /** Which guard cut the pass when endReason is 'degenerate'. */
+  guard?: 'repetition' | 'language_drift' | null;
+  promptTokens: number;
+  completionTokens: number;
+  promptCacheHitTokens: number;
+  promptCacheMissTokens: number;
+  reasoningTokens: number;
+  timeToFirstReasoningMs: number;
+  /** From the first reasoning delta to the first story token. */
+  reasoningMs: number;
+  reasoningDeltas: number;
+  reasoningChars: number;
+}
+
+export interface StoryDoneEvent {
+  text: string;
+  newText: string;
+  usage?: StoryTokenUsage;
+  passes?: StoryPassMetrics[];
+}
+
+export interface StoryStalledEvent {
+  passIndex: number;
+  reason: 'idle' | 'pass_deadline' | 'generation_deadline';
+  idleMs: number;
+  /** True when the pass is retried from the received text; false when a storyError follows. */
+  willRetry: boolean;
+}
+
+export interface StoryReasoningEvent {
+  passIndex: number;
+  /** Reasoning text received since the previous event of the same pass. */
+  text: string;
+  totalChars: number;
+}
+
+export interface ConnectionStats {
+  calls: number;
+  reusedConnections: number;
+  newConnections: number;
+  averageDnsMs: number;
+  averageConnectMs: number;
+  averageTlsMs: number;
+  averageFirstTokenReusedMs: number;
+  averageFirstTokenNewMs: number;
+  preconnects: number;
+}
+
 export interface BackgroundStoryPlugin {
-  start(options: {
-    apiKey: string;
-    baseUrl: string;
-    model: string;
-    temperature: number;
-    topP?: number;
-    maxTokens: number;
-    storyMinWords: number;
-    storyTargetWords: number;
-    storyHardMaxWords: number;
-    storyTimeoutMs: number;
-    storyContextWords: number;
-    storyMaxPasses: number;
-    horrorLevel: number;
-    narrativeStyle: string;
-    storyEngine?: string;
-    storyRevealMethod?: string;
-    storyEndingMode?: string;
-    storyTone?: string;
-    storyProtagonistName?: string;
-    storyProtagonistRole?: string;
-    storyPrimarySetting?: string;
-    storyEvidenceOrigin?: string;
-    storyKeyMotif?: string;
-    storyIntroMood?: string;
-    outroSignature: string;
-    language: string;
-    topic: string;
-    existingText: string;
-  }): Promise<void>;
+  start(options: BackgroundStoryStartOptions): Promise<void>;
   stop(): Promise<void>;
   isSupported(): Promise<{ supported: boolean }>;
-  getState(): Promise<{ running: boolean; text: string }>;
+  preconnect(options: { baseUrl: string }): Promise<void>;
+  getConnectionStats(): Promise<ConnectionStats>;
+  getMetrics(): Promise<{ running: boolean; passes: StoryPassMetrics[] }>;
+  getState(): Promise<{ running: boolean; text: string; jobId?: string | null }>;
+  listInterrupted(): Promise<{ jobs: InterruptedStory[] }>;
+  resumeInterrupted(options: {
+    jobId: string;
+    apiKey?: string;
+  }): Promise<{ jobId: string; text: string; newTextStart: number }>;
+  discardInterrupted(options: { jobId: string }): Promise<{ discarded: boolean }>;
+  startStation(
+    options: Omit<BackgroundStoryStartOptions, 'topic' | 'existingText'> & {
+      topics?: string[];
+      capacity?: number;
+      lowWater?: number;
+    }
+  ): Promise<void>;
+  stopStation(): Promise<void>;
+  getStationStatus(): Promise<StationStatus>;
+  takeStationStory(): Promise<{ story: StationStory | null; status: StationStatus }>;
   addListener(
-    eventName: 'storyChunk' | 'storyDone' | 'storyError',
+    eventName: 'storyChunk' | 'storyDone' | 'storyError' | 'storyRetry' | 'storyStalled' | 'storyReasoning' | 'stationUpdate',
     listenerFunc: (event: any) => void
   ): Promise<PluginListenerHandle>;
 }
@@ -2,6 +2,7 @@ import { Capacitor } from "@capacitor/core";
 import { Language } from "../types";
 import { getResolvedApiKey } from "./apiKeyStore";
 import { BackgroundStory } from "./backgroundStory";
+import type { StoryReasoningEvent, StoryStalledEvent } from "./backgroundStory";
 import {
   DEFAULT_STORY_PERSONALIZATION,
   getAllowBackgroundGeneration,
@@ -33,6 +34,11 @@ const STORY_TOP_P = Number(import.meta.env.VITE_STORY_TOP_P || 0.95);
 const STORY_TIMEOUT_MS = Number(import.meta.env.VITE_STORY_TIMEOUT_MS || 12 * 60 * 1000);
 const STORY_CONTEXT_WORDS = Number(import.meta.env.VITE_STORY_CONTEXT_WORDS || 320);
 const STORY_MAX_PASSES = Number(import.meta.env.VITE_STORY_MAX_PASSES || 12);
+const NATIVE_CHUNK_FLUSH_MS = Number(import.meta.env.VITE_NATIVE_CHUNK_FLUSH_MS || 80);
+const NATIVE_REASONING_EVENT_MS = Number(import.meta.env.VITE_NATIVE_REASONING_EVENT_MS || 1000);
+const NATIVE_IDLE_TIMEOUT_MS = Number(import.meta.env.VITE_NATIVE_IDLE_TIMEOUT_MS || 90 * 1000);
+// Native cuts and retries an idle pass itself; this side only gives up well after it would have.
+const NATIVE_STALL_GRACE_MS = 30 * 1000;
 const MAX_CACHE_ANCHORS = Number(import.meta.env.VITE_STORY_CACHE_ANCHORS || 4);
 export const OUTRO_SIGNATURE =
   "Tôi là Morgan Hayes, và radio Truyện Đêm Khuya xin phép được tạm dừng tại đây. Chúc các bạn có một đêm ngon giấc nếu còn có thể.";
@@ -1609,6 +1615,7 @@ export const streamStoryWithControls = async (
           storyTargetWords: lengthConfig.targetWords,
           storyHardMaxWords: lengthConfig.hardMaxWords,
           storyTimeoutMs: STORY_TIMEOUT_MS,
+          storyIdleTimeoutMs: NATIVE_IDLE_TIMEOUT_MS,
           storyContextWords: STORY_CONTEXT_WORDS,
           storyMaxPasses: STORY_MAX_PASSES,
           horrorLevel: personalization.horrorLevel,
@@ -1629,7 +1636,8 @@ export const streamStoryWithControls = async (
           existingText: baseText,
         },
         onChunk,
-        options?.signal
+        options?.signal,
+        options?.onReasoningChunk
       );
       if (generated && generated.length) {
         return generated;
@@ -1918,6 +1926,7 @@ const streamStoryNative = async (
     storyTargetWords: number;
     storyHardMaxWords: number;
     storyTimeoutMs: number;
+    storyIdleTimeoutMs: number;
     storyContextWords: number;
     storyMaxPasses: number;
     horrorLevel: number;
@@ -1938,7 +1947,8 @@ const streamStoryNative = async (
     existingText: string;
   },
   onChunk: (text: string) => void,
-  signal?: AbortSignal
+  signal?: AbortSignal,
+  onReasoningChunk?: (text: string) => void
 ) => {
   let received = config.existingText || "";
   let fullText = received;
@@ -1950,10 +1960,15 @@ const streamStoryNative = async (
   const chunkHandle = await BackgroundStory.addListener("storyChunk", (event: any) => {
     const text = typeof event?.text === "string" ? event.text : "";
     if (!text) return;
-    received += text;
-    fullText += text;
-    onChunk(text);
     lastActivity = Date.now();
+    // Batches carry their absolute start offset; skip anything already appended.
+    const offset = typeof event?.offset === "number" ? event.offset : received.length;
+    const overlap = received.length - offset;
+    if (overlap >= text.length) return;
+    const fresh = overlap > 0 ? text.slice(overlap) : text;
+    received += fresh;
+    fullText += fresh;
+    onChunk(fresh);
   });
 
   const doneHandle = await BackgroundStory.addListener("storyDone", (event: any) => {
@@ -1965,6 +1980,29 @@ const streamStoryNative = async (
     done = true;
   });
 
+  // Reasoning models think for a while before the first chunk; show it and count it as activity.
+  const reasoningHandle = await BackgroundStory.addListener("storyReasoning", (event: StoryReasoningEvent) => {
+    lastActivity = Date.now();
+    if (event?.text) onReasoningChunk?.(event.text);
+  });
+
+  // A retrying native job is alive even while no text arrives; hold off the idle fallback until its backoff ends.
+  let retryingUntil = 0;
+  const retryHandle = await BackgroundStory.addListener("storyRetry", (event: any) => {
+    const delayMs = typeof event?.delayMs === "number" ? event.delayMs : 0;
+    lastActivity = Date.now();
+    retryingUntil = lastActivity + delayMs;
+  });
+
+  const stalledHandle = await BackgroundStory.addListener("storyStalled", (event: StoryStalledEvent) => {
+    console.warn(`Native story pass ${event.passIndex} stalled (${event.reason}) after ${event.idleMs} ms`);
+    lastActivity = Date.now();
+    if (!event.willRetry && !error) {
+      // A storyError follows; keep its message if it arrives before the next poll.
+      error = new Error(`Native generation stalled (${event.reason}).`);
+    }
+  });
+
   const errorHandle = await BackgroundStory.addListener("storyError", (event: any) => {
     const message = typeof event?.message === "string" ? event.message : "Generation failed";
     const aborted = Boolean(event?.aborted);
@@ -1998,8 +2036,12 @@ const streamStoryNative = async (
       storyTargetWords: config.storyTargetWords,
       storyHardMaxWords: config.storyHardMaxWords,
       storyTimeoutMs: config.storyTimeoutMs,
+      storyIdleTimeoutMs: config.storyIdleTimeoutMs,
       storyContextWords: config.storyContextWords,
+      storyContextBoundary: 'sentence',
       storyMaxPasses: config.storyMaxPasses,
+      chunkFlushMs: NATIVE_CHUNK_FLUSH_MS,
+      reasoningEventMs: NATIVE_REASONING_EVENT_MS,
       horrorLevel: config.horrorLevel,
       narrativeStyle: config.narrativeStyle,
       storyEngine: config.storyEngine,
@@ -2029,9 +2071,11 @@ const streamStoryNative = async (
         break;
       }
 
-      // Fallback if native pipeline is idle for too long
-      const idleMs = Date.now() - lastActivity;
-      if (idleMs > 8000) {
+      // Stalls are the native watchdog's call: it retries an idle pass, and
+      // reports one it gives up on through storyStalled and storyError. This
+      // is only a backstop for a native side that stopped answering getState.
+      const idleMs = Date.now() - Math.max(lastActivity, retryingUntil);
+      if (idleMs > config.storyIdleTimeoutMs + NATIVE_STALL_GRACE_MS) {
         if (!error) {
           error = new Error("Native generation stalled (no activity).");
         }
@@ -2047,6 +2091,9 @@ const streamStoryNative = async (
             fullText = state.text;
           }
           done = true;
+        } else if (state) {
+          // A running job is alive even through a silent reasoning or outline phase.
+          lastActivity = Date.now();
         }
       }
     }
@@ -2063,6 +2110,9 @@ const streamStoryNative = async (
     if (signal) signal.removeEventListener("abort", abortHandler);
     chunkHandle.remove();
     doneHandle.remove();
+    reasoningHandle.remove();
+    retryHandle.remove();
+    stalledHandle.remove();
     errorHandle.remove();
   }
 };
@@ -2188,6 +2238,12 @@ OUTPUT: Only the title, no explanation.
   }
 };
 
+// Open the native story connection early so the first pass skips DNS/TCP/TLS setup.
+export const preconnectStoryApi = async (): Promise<void> => {
+  if (!Capacitor.isNativePlatform() || Capacitor.getPlatform() !== "android") return;
+  await BackgroundStory.preconnect({ baseUrl: BASE_URL }).catch(() => undefined);
+};
+
 // Export the Ultra Bizarre prompt generator for external use
 export const getUltraBizarreStoryPrompt = getUltraBizarrePrompt;
 
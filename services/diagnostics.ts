@@ -0,0 +1,46 @@
+import { registerPlugin } from '@capacitor/core';
+
+export interface FlightEvent {
+  seq: number;
+  time: number;
+  thread: number;
+  type: string;
+  a: number;
+  b: number;
+  c: number;
+}
+
+export interface LatencyHistogram {
+  count: number;
+  meanMs: number;
+  maxMs: number;
+  p50Ms: number;
+  p90Ms: number;
+  p99Ms: number;
+  buckets: { upToMs: number; count: number }[];
+}
+
+export interface FlightRecording {
+  capturedAt: number;
+  recorded: number;
+  dropped: number;
+  reason?: string;
+  events: FlightEvent[];
+  histograms: Record<string, LatencyHistogram>;
+}
+
+export interface FlightSnapshotInfo {
+  name: string;
+  size: number;
+  modifiedAt: number;
+}
+
+export interface DiagnosticsPlugin {
+  dump(): Promise<FlightRecording>;
+  snapshot(options?: { reason?: string }): Promise<void>;
+  listSnapshots(): Promise<{ snapshots: FlightSnapshotInfo[] }>;
+  readSnapshot(options: { name: string }): Promise<FlightRecording>;
+  clear(): Promise<void>;
+}
+
+export const Diagnostics = registerPlugin<DiagnosticsPlugin>('Diagnostics');